@@ -0,0 +1,156 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.rocketmq.common.filter.FilterAPI;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.GetMessageResult;
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * ȡpage cacheеϢ򲻴Tag<br>
+ * ÿֵǰ洢ʵpage cacheCommitLogConsumeQueueҪӴ̶ȡ
+ * ÿζȡͬλãѾع<br>
+ * page cacheҪд/proc/sys/vm/drop_cachesûȨ޻߶Чʱֱʧܣ˻ɶ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, batchSize = ColdGetMessageBenchmark.ReadsPerIteration)
+@Measurement(iterations = 5, batchSize = ColdGetMessageBenchmark.ReadsPerIteration)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColdGetMessageBenchmark {
+    static final int ReadsPerIteration = 256;
+    private static final int MessageCount = 200000;
+    private static final int BatchNums = 32;
+
+    @Param({ "all", "tag" })
+    private String filter;
+
+    private String root;
+    private MessageStoreConfig config;
+    private DefaultMessageStore store;
+    private SubscriptionData subscriptionData;
+    // пɶȡλãqueueIdOffset
+    private final List<long[]> positions = new ArrayList<long[]>();
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (!new File("/proc/sys/vm/drop_caches").canWrite()) {
+            throw new IllegalStateException("cold reads need write access to /proc/sys/vm/drop_caches");
+        }
+
+        this.root = StoreBenchmarkSupport.newRoot("cold_get");
+        this.config = StoreBenchmarkSupport.buildConfig(this.root);
+        DefaultMessageStore writer = StoreBenchmarkSupport.startStore(this.config);
+        try {
+            StoreBenchmarkSupport.fill(writer, MessageCount, 1024);
+            for (int q = 0; q < StoreBenchmarkSupport.QueueNums; q++) {
+                long maxOffset = writer.getMaxOffsetInQuque(StoreBenchmarkSupport.Topic, q);
+                for (long offset = 0; offset + BatchNums <= maxOffset; offset += BatchNums) {
+                    this.positions.add(new long[] { q, offset });
+                }
+            }
+        }
+        finally {
+            // رգȫˢ
+            writer.shutdown();
+        }
+
+        this.checkPageCacheDropped();
+
+        if ("tag".equals(this.filter)) {
+            this.subscriptionData =
+                    FilterAPI.buildSubscriptionData(StoreBenchmarkSupport.Topic, "TAG1 || TAG3");
+        }
+    }
+
+
+    /**
+     * 洢Ŀ¼tmpfsϣдdrop_cachesʱһֱȵģû
+     */
+    private void checkPageCacheDropped() throws Exception {
+        this.config.setHaListenPort(StoreBenchmarkSupport.nextHaListenPort());
+        DefaultMessageStore reader = StoreBenchmarkSupport.startStore(this.config);
+        boolean loaded;
+        try {
+            StoreBenchmarkSupport.dropPageCache();
+            MapedFile mapedFile = reader.getCommitLog().findMapedFileByOffset(0);
+            loaded = mapedFile.isRegionLoaded(0, 1024 * 1024);
+        }
+        finally {
+            reader.shutdown();
+        }
+
+        if (loaded) {
+            StoreBenchmarkSupport.deleteDir(new File(this.root));
+            throw new IllegalStateException("page cache not dropped, set -D"
+                    + StoreBenchmarkSupport.StoreDirProperty + " to a directory on a real disk");
+        }
+    }
+
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws Exception {
+        this.config.setHaListenPort(StoreBenchmarkSupport.nextHaListenPort());
+        this.store = StoreBenchmarkSupport.startStore(this.config);
+        StoreBenchmarkSupport.dropPageCache();
+        Collections.shuffle(this.positions);
+        this.next = 0;
+    }
+
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        this.store.shutdown();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StoreBenchmarkSupport.deleteDir(new File(this.root));
+    }
+
+
+    @Benchmark
+    public int getCold(final HistogramState latency) {
+        long[] position = this.positions.get(this.next++);
+
+        long start = System.nanoTime();
+        GetMessageResult result =
+                this.store.getMessage(StoreBenchmarkSupport.Topic, (int) position[0], position[1], BatchNums,
+                    this.subscriptionData);
+        latency.record(start);
+        try {
+            return result.getMessageCount();
+        }
+        finally {
+            result.release();
+        }
+    }
+}
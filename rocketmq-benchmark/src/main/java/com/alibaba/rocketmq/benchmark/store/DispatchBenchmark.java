@@ -0,0 +1,69 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+
+
+/**
+ * дһϢȴConsumeQueueпɼ<br>
+ * JMHͳдӷַܺʱhgrmļֻ¼д뷵صɼ֮ķַʱ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+    private byte[] body;
+    private long index;
+    private String root;
+    private DefaultMessageStore store;
+
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        this.body = StoreBenchmarkSupport.buildBody(1024);
+        this.root = StoreBenchmarkSupport.newRoot("dispatch");
+        this.store = StoreBenchmarkSupport.startStore(StoreBenchmarkSupport.buildConfig(this.root));
+    }
+
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        this.store.shutdown();
+        StoreBenchmarkSupport.deleteDir(new File(this.root));
+    }
+
+
+    @Benchmark
+    public long putAndDispatch(final HistogramState latency) {
+        MessageExtBrokerInner msg = StoreBenchmarkSupport.buildMessage(this.body, this.index++);
+        long queueOffset = StoreBenchmarkSupport.putMessage(this.store, msg);
+
+        long start = System.nanoTime();
+        while (this.store.getMaxOffsetInQuque(StoreBenchmarkSupport.Topic, msg.getQueueId()) <= queueOffset) {
+            Thread.yield();
+        }
+        latency.record(start);
+        return queueOffset;
+    }
+}
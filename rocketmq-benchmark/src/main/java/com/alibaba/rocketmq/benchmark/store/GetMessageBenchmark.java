@@ -0,0 +1,97 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.rocketmq.common.filter.FilterAPI;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.GetMessageResult;
+
+
+/**
+ * ȡβµ32Ϣݶpage cacheУ򲻴Tag<br>
+ * ݶȡColdGetMessageBenchmark
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetMessageBenchmark {
+    private static final int MessageCount = 100000;
+
+    @Param({ "all", "tag" })
+    private String filter;
+
+    private String root;
+    private DefaultMessageStore store;
+    private SubscriptionData subscriptionData;
+    private final long[] maxOffsets = new long[StoreBenchmarkSupport.QueueNums];
+
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final Random random = new Random();
+    }
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.root = StoreBenchmarkSupport.newRoot("get");
+        this.store = StoreBenchmarkSupport.startStore(StoreBenchmarkSupport.buildConfig(this.root));
+        StoreBenchmarkSupport.fill(this.store, MessageCount, 1024);
+        for (int q = 0; q < StoreBenchmarkSupport.QueueNums; q++) {
+            this.maxOffsets[q] = this.store.getMaxOffsetInQuque(StoreBenchmarkSupport.Topic, q);
+        }
+
+        if ("tag".equals(this.filter)) {
+            this.subscriptionData =
+                    FilterAPI.buildSubscriptionData(StoreBenchmarkSupport.Topic, "TAG1 || TAG3");
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.store.shutdown();
+        StoreBenchmarkSupport.deleteDir(new File(this.root));
+    }
+
+
+    @Benchmark
+    public int getTail(final ThreadState threadState, final HistogramState latency) {
+        int queueId = threadState.random.nextInt(StoreBenchmarkSupport.QueueNums);
+        long offset = Math.max(this.maxOffsets[queueId] - 32, 0);
+
+        long start = System.nanoTime();
+        GetMessageResult result =
+                this.store.getMessage(StoreBenchmarkSupport.Topic, queueId, offset, 32,
+                    this.subscriptionData);
+        latency.record(start);
+        try {
+            return result.getMessageCount();
+        }
+        finally {
+            result.release();
+        }
+    }
+}
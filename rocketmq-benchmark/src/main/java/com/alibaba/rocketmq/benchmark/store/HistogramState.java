@@ -0,0 +1,55 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.io.IOException;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+
+/**
+ * ¼βʱֲֻͳʽ׶Σʱдhgrmļ<br>
+ * JMHͳֻٷλֲڲͬ汾֮Ա
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+@State(Scope.Benchmark)
+public class HistogramState {
+    private final Recorder recorder = new Recorder(3);
+    private final Histogram histogram = new Histogram(3);
+
+
+    /**
+     * @param startNanos
+     *            ʼʱSystem.nanoTime()
+     */
+    public void record(final long startNanos) {
+        this.recorder.recordValue(System.nanoTime() - startNanos);
+    }
+
+
+    public void recordValue(final long nanos) {
+        this.recorder.recordValue(nanos);
+    }
+
+
+    @TearDown(Level.Iteration)
+    public void afterIteration(final IterationParams iterationParams) {
+        Histogram interval = this.recorder.getIntervalHistogram();
+        if (iterationParams.getType() == IterationType.MEASUREMENT) {
+            this.histogram.add(interval);
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void afterTrial(final BenchmarkParams benchmarkParams) throws IOException {
+        StoreBenchmarkSupport.writeHistogram(benchmarkParams, this.histogram);
+    }
+}
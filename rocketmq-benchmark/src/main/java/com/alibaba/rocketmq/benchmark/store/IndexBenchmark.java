@@ -0,0 +1,123 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 밴Keyѯ<br>
+ * build дһKeyϢֱһKeyԲ鵽<br>
+ * query ѾõѯڵKey
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+@Fork(1)
+public class IndexBenchmark {
+    private static final int QueryMessageCount = 100000;
+    private static final int BuildMessageCount = 20000;
+
+
+    private static DefaultMessageStore startIndexStore(final String root) throws Exception {
+        MessageStoreConfig config = StoreBenchmarkSupport.buildConfig(root);
+        config.setMessageIndexEnable(true);
+        return StoreBenchmarkSupport.startStore(config);
+    }
+
+
+    @State(Scope.Benchmark)
+    public static class QueryState {
+        private String root;
+        private DefaultMessageStore store;
+
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            this.root = StoreBenchmarkSupport.newRoot("index_query");
+            this.store = startIndexStore(this.root);
+            StoreBenchmarkSupport.fill(this.store, QueryMessageCount, 256);
+            while (!StoreBenchmarkSupport.queryKey(this.store, "KEY_" + (QueryMessageCount - 1))) {
+                Thread.sleep(1);
+            }
+        }
+
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.store.shutdown();
+            StoreBenchmarkSupport.deleteDir(new File(this.root));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class BuildState {
+        private String root;
+        private DefaultMessageStore store;
+
+
+        @Setup(Level.Iteration)
+        public void setUp() throws Exception {
+            this.root = StoreBenchmarkSupport.newRoot("index_build");
+            this.store = startIndexStore(this.root);
+        }
+
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            this.store.shutdown();
+            StoreBenchmarkSupport.deleteDir(new File(this.root));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final Random random = new Random();
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void build(final BuildState state) throws InterruptedException {
+        StoreBenchmarkSupport.fill(state.store, BuildMessageCount, 256);
+        while (!StoreBenchmarkSupport.queryKey(state.store, "KEY_" + (BuildMessageCount - 1))) {
+            Thread.sleep(1);
+        }
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 5)
+    public boolean query(final QueryState state, final ThreadState threadState,
+            final HistogramState latency) {
+        String key = "KEY_" + threadState.random.nextInt(QueryMessageCount);
+        long start = System.nanoTime();
+        boolean found = StoreBenchmarkSupport.queryKey(state.store, key);
+        latency.record(start);
+        if (!found) {
+            throw new IllegalStateException("key not found in index, " + key);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,99 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.config.FlushDiskType;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * ͬϢС߳ˢ̷ʽputMessageʱ<br>
+ * ÿֵʹµĴ洢Ŀ¼ⳤʱдռ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PutMessageBenchmark {
+    @Param({ "128", "1024", "4096" })
+    private int messageSize;
+
+    @Param({ "ASYNC_FLUSH", "SYNC_FLUSH" })
+    private FlushDiskType flushDiskType;
+
+    private final AtomicLong index = new AtomicLong(0);
+    private byte[] body;
+    private String root;
+    private DefaultMessageStore store;
+
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        this.body = StoreBenchmarkSupport.buildBody(this.messageSize);
+        this.root = StoreBenchmarkSupport.newRoot("put");
+        MessageStoreConfig config = StoreBenchmarkSupport.buildConfig(this.root);
+        config.setFlushDiskType(this.flushDiskType);
+        this.store = StoreBenchmarkSupport.startStore(config);
+    }
+
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        this.store.shutdown();
+        StoreBenchmarkSupport.deleteDir(new File(this.root));
+    }
+
+
+    private long put(final HistogramState latency) {
+        MessageExtBrokerInner msg =
+                StoreBenchmarkSupport.buildMessage(this.body, this.index.getAndIncrement());
+        long start = System.nanoTime();
+        long queueOffset = StoreBenchmarkSupport.putMessage(this.store, msg);
+        latency.record(start);
+        return queueOffset;
+    }
+
+
+    @Benchmark
+    @Threads(1)
+    public long put_1t(final HistogramState latency) {
+        return this.put(latency);
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public long put_4t(final HistogramState latency) {
+        return this.put(latency);
+    }
+
+
+    @Benchmark
+    @Threads(16)
+    public long put_16t(final HistogramState latency) {
+        return this.put(latency);
+    }
+}
@@ -0,0 +1,94 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * ر쳣رգabortļloadĺʱ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoverBenchmark {
+    private static final int MessageCount = 100000;
+
+    @Param({ "false", "true" })
+    private boolean abnormal;
+
+    private String root;
+    private MessageStoreConfig config;
+    private DefaultMessageStore store;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.root = StoreBenchmarkSupport.newRoot("recover");
+        this.config = StoreBenchmarkSupport.buildConfig(this.root);
+        this.config.setMapedFileSizeCommitLog(1024 * 1024 * 16);
+        DefaultMessageStore writer = StoreBenchmarkSupport.startStore(this.config);
+        try {
+            StoreBenchmarkSupport.fill(writer, MessageCount, 1024);
+        }
+        finally {
+            writer.shutdown();
+        }
+    }
+
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        if (this.abnormal) {
+            new File(this.config.getAbortFile()).createNewFile();
+        }
+
+        this.config.setHaListenPort(StoreBenchmarkSupport.nextHaListenPort());
+        this.store = new DefaultMessageStore(this.config);
+    }
+
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws Exception {
+        // δĴ洢ʵshutdowṇֹ̨ͣ߳ٹر
+        this.store.start();
+        this.store.shutdown();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StoreBenchmarkSupport.deleteDir(new File(this.root));
+    }
+
+
+    @Benchmark
+    public boolean load() {
+        if (!this.store.load()) {
+            throw new IllegalStateException("recover failed, " + this.root);
+        }
+        return true;
+    }
+}
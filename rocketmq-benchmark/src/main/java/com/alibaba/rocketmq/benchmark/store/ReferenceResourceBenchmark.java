@@ -0,0 +1,155 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.rocketmq.store.ReferenceResource;
+
+
+/**
+ * ߳ͬʱͬһԴhold/release<br>
+ * ģϢ߳ͬʱȡCommitLogһļԱʵԭsynchronizedʵ֣
+ * ÿεhold/release 32ΣһϢСһ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReferenceResourceBenchmark {
+    private static final int BatchNums = 32;
+
+
+    /**
+     * ǰʵ
+     */
+    static class LockFreeResource extends ReferenceResource {
+        @Override
+        public boolean cleanup(final long currentRef) {
+            return true;
+        }
+    }
+
+    /**
+     * ԭʵ֣holdʱ
+     */
+    static class SynchronizedResource {
+        private final AtomicLong refCount = new AtomicLong(1);
+        private volatile boolean available = true;
+
+
+        public synchronized boolean hold() {
+            if (this.available) {
+                if (this.refCount.getAndIncrement() > 0) {
+                    return true;
+                }
+                else {
+                    this.refCount.getAndDecrement();
+                }
+            }
+
+            return false;
+        }
+
+
+        public void release() {
+            long value = this.refCount.decrementAndGet();
+            if (value > 0)
+                return;
+
+            synchronized (this) {
+                this.available = false;
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockFreeState {
+        private final LockFreeResource resource = new LockFreeResource();
+
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (this.resource.getRefCount() != 1) {
+                throw new IllegalStateException("refCount leaked, " + this.resource.getRefCount());
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SynchronizedState {
+        private final SynchronizedResource resource = new SynchronizedResource();
+    }
+
+
+    private static int holdAndRelease(final LockFreeResource resource) {
+        int held = 0;
+        for (int i = 0; i < BatchNums; i++) {
+            if (resource.hold()) {
+                held++;
+                resource.release();
+            }
+        }
+        return held;
+    }
+
+
+    private static int holdAndRelease(final SynchronizedResource resource) {
+        int held = 0;
+        for (int i = 0; i < BatchNums; i++) {
+            if (resource.hold()) {
+                held++;
+                resource.release();
+            }
+        }
+        return held;
+    }
+
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BatchNums)
+    public int lockFree_1t(final LockFreeState state) {
+        return holdAndRelease(state.resource);
+    }
+
+
+    @Benchmark
+    @Threads(64)
+    @OperationsPerInvocation(BatchNums)
+    public int lockFree_64t(final LockFreeState state) {
+        return holdAndRelease(state.resource);
+    }
+
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BatchNums)
+    public int synchronized_1t(final SynchronizedState state) {
+        return holdAndRelease(state.resource);
+    }
+
+
+    @Benchmark
+    @Threads(64)
+    @OperationsPerInvocation(BatchNums)
+    public int synchronized_64t(final SynchronizedState state) {
+        return holdAndRelease(state.resource);
+    }
+}
@@ -0,0 +1,226 @@
+package com.alibaba.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.HdrHistogram.Histogram;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import com.alibaba.rocketmq.common.TopicFilterType;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.QueryMessageResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 洢ܲԵĹÿ洢ʵڶʱĿ¼<br>
+ * зʽjava -Drocketmq.benchmark.hgrm=hgrm -Drocketmq.benchmark.dir=/data -jar target/benchmarks.jar
+ * []
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class StoreBenchmarkSupport {
+    public static final String Topic = "StoreBenchmark";
+    public static final int QueueNums = 4;
+    public static final int TagNums = 8;
+    // hgrmļĿ¼JMHӽ̻̳
+    public static final String HgrmDirProperty = "rocketmq.benchmark.hgrm";
+    // 洢Ŀ¼ڵĸĿ¼ĬΪjava.io.tmpdirʱܷtmpfs
+    public static final String StoreDirProperty = "rocketmq.benchmark.dir";
+    // ǰһ洢ʵرպ˿ڲһͷţÿʵʹòͬHA˿
+    private static final AtomicInteger HaListenPort = new AtomicInteger(20912);
+    private static final InetSocketAddress Host;
+
+    static {
+        try {
+            Host = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+        }
+        catch (UnknownHostException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+
+    private StoreBenchmarkSupport() {
+    }
+
+
+    public static String newRoot(final String name) {
+        return System.getProperty(StoreDirProperty, System.getProperty("java.io.tmpdir")) + File.separator
+                + "store_benchmark_" + name + "_" + System.nanoTime();
+    }
+
+
+    public static MessageStoreConfig buildConfig(final String root) {
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setStorePathCommitLog(root + File.separator + "commitlog");
+        config.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        config.setStorePathIndex(root + File.separator + "index");
+        config.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        config.setAbortFile(root + File.separator + "storeAbort");
+        config.setTranStateTableStorePath(root + File.separator + "transaction" + File.separator
+                + "statetable");
+        config.setTranRedoLogStorePath(root + File.separator + "transaction" + File.separator + "redolog");
+        config.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        config.setStorePathTimerLog(root + File.separator + "timerlog");
+        config.setTimerWheelPath(root + File.separator + "timerwheel");
+        config.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        config.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        config.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        config.setMapedFileSizeCommitLog(1024 * 1024 * 64);
+        config.setMessageIndexEnable(false);
+        config.setHaListenPort(nextHaListenPort());
+        return config;
+    }
+
+
+    /**
+     * ͬһĿ¼洢ʵʱҲҪһHA˿
+     */
+    public static int nextHaListenPort() {
+        return HaListenPort.getAndIncrement();
+    }
+
+
+    public static DefaultMessageStore startStore(final MessageStoreConfig config) throws Exception {
+        DefaultMessageStore store = new DefaultMessageStore(config);
+        if (!store.load()) {
+            store.shutdown();
+            throw new IllegalStateException("load message store failed, " + config.getStorePathCommitLog());
+        }
+        store.start();
+        return store;
+    }
+
+
+    public static void deleteDir(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteDir(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    public static byte[] buildBody(final int messageSize) {
+        byte[] body = new byte[messageSize];
+        Arrays.fill(body, (byte) 'Y');
+        return body;
+    }
+
+
+    public static MessageExtBrokerInner buildMessage(final byte[] body, final long index) {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(Topic);
+        msg.setTags("TAG" + (index % TagNums));
+        msg.setTagsCode(MessageExtBrokerInner.tagsString2tagsCode(TopicFilterType.SINGLE_TAG, msg.getTags()));
+        msg.setKeys("KEY_" + index);
+        msg.setBody(body);
+        msg.setQueueId((int) (index % QueueNums));
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(Host);
+        msg.setStoreHost(Host);
+        return msg;
+    }
+
+
+    /**
+     * @return Ϣ߼еλ
+     */
+    public static long putMessage(final DefaultMessageStore store, final MessageExtBrokerInner msg) {
+        PutMessageResult result = store.putMessage(msg);
+        if (null == result || !result.isOk()) {
+            throw new IllegalStateException("put message failed, " + result);
+        }
+        return result.getAppendMessageResult().getLogicsOffset();
+    }
+
+
+    /**
+     * дmessageCountϢȴȫ߼
+     */
+    public static void fill(final DefaultMessageStore store, final int messageCount, final int messageSize)
+            throws InterruptedException {
+        byte[] body = buildBody(messageSize);
+        for (int i = 0; i < messageCount; i++) {
+            putMessage(store, buildMessage(body, i));
+        }
+
+        for (;;) {
+            long total = 0;
+            for (int q = 0; q < QueueNums; q++) {
+                total += store.getMaxOffsetInQuque(Topic, q);
+            }
+            if (total >= messageCount) {
+                return;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+
+    public static boolean queryKey(final DefaultMessageStore store, final String key) {
+        QueryMessageResult result = store.queryMessage(Topic, key, 32, 0, Long.MAX_VALUE);
+        try {
+            return !result.getMessageBufferList().isEmpty();
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    /**
+     * page cacheеĸɾҳȫҪrootȨ<br>
+     * ҳᱻҪݱѾˢ
+     */
+    public static void dropPageCache() throws IOException {
+        FileWriter writer = new FileWriter("/proc/sys/vm/drop_caches");
+        try {
+            writer.write("1");
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+
+    /**
+     * HdrHistogramĸʽдʱֲļɲԷ<br>
+     * ¼λΪ룬λΪ΢
+     */
+    public static void writeHistogram(final BenchmarkParams params, final Histogram histogram)
+            throws IOException {
+        StringBuilder name = new StringBuilder();
+        String benchmark = params.getBenchmark();
+        name.append(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+        for (String key : params.getParamsKeys()) {
+            name.append('_').append(params.getParam(key));
+        }
+        name.append("_").append(params.getThreads()).append('t');
+
+        File dir = new File(System.getProperty(HgrmDirProperty, "hgrm"));
+        dir.mkdirs();
+        PrintStream out = new PrintStream(new FileOutputStream(new File(dir, name + ".hgrm")));
+        try {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -608,6 +608,7 @@ public class BrokerController {
         this.digestLogManager.dispose();
 
         this.consumerOffsetManager.persist();
+        this.consumerOffsetManager.shutdown();
     }
 
 
@@ -0,0 +1,469 @@
+/**
+ * $Id: ConsumerOffsetBinaryStore.java 1831 2013-05-16 01:39:51Z shijia.wxr $
+ */
+package com.alibaba.rocketmq.broker.offset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.broker.offset.ConsumerOffsetManager.QueueOffsetArray;
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+
+
+/**
+ * ѽȵĶƳ־û<br>
+ * ļĳһʱ̵ȫȣ־ֻ׷Ӵ˺仯ĶУ־һСϲµĿ<br>
+ * ־ͷ¼ֻдͬ־Żڿ֮طţϲ崻¾־¿<br>
+ * ÿγ־û׷һCRCݿ飬طʱݿ鼴ֹͣ<br>
+ * ļֻڼʱȡһΣڴ󼴹رգڴӳ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ConsumerOffsetBinaryStore {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+    private static final int SnapshotMagicCode = 0xAABBCC01;
+    private static final int JournalMagicCode = 0xAABBCC03;
+    // ݿͷCRC
+    private static final int JournalBlockHeaderSize = 4 + 4;
+    // ־¼ͣ grouptopic Ӧı
+    private static final byte JournalKeyRecord = 1;
+    // ־¼ͣĳһе½
+    private static final byte JournalOffsetRecord = 2;
+    private static final String Charset = "UTF-8";
+
+    private final String snapshotPath;
+    private final String journalPath;
+    private final int compactSize;
+
+    // ǰļ־ļͷһ
+    private long generation = 0;
+    private RandomAccessFile journalFile;
+    private FileChannel journalChannel;
+    // ־ѾŵĽȱ
+    private final IdentityHashMap<QueueOffsetArray, Integer> journalKeyTable =
+            new IdentityHashMap<QueueOffsetArray, Integer>();
+    private final ByteArrayOutputStream journalBuffer = new ByteArrayOutputStream(1024 * 64);
+    // shutdown֮дļⶨʱ־ûرղʱ´־
+    private boolean stoped = false;
+
+
+    /**
+     * @param configFilePath
+     *            JSONļ·־ļͬһĿ¼
+     */
+    public ConsumerOffsetBinaryStore(final String configFilePath, final int compactSize) {
+        String basePath = configFilePath;
+        if (basePath.endsWith(".json")) {
+            basePath = basePath.substring(0, basePath.length() - ".json".length());
+        }
+
+        this.snapshotPath = basePath + ".bin";
+        this.journalPath = basePath + ".journal";
+        this.compactSize = compactSize;
+    }
+
+
+    /**
+     * ؿղط־
+     *
+     * @return ļʱfalse÷ԴJSONļ
+     */
+    public synchronized boolean load(final ConsumerOffsetManager consumerOffsetManager) throws IOException {
+        File snapshot = new File(this.snapshotPath);
+        if (!snapshot.exists()) {
+            return false;
+        }
+
+        ByteBuffer snapshotBuffer = readFile(snapshot);
+        if (snapshotBuffer.getInt() != SnapshotMagicCode) {
+            throw new IOException("consumer offset snapshot magic code error, " + this.snapshotPath);
+        }
+
+        this.generation = snapshotBuffer.getLong();
+        while (snapshotBuffer.hasRemaining()) {
+            String group = readString(snapshotBuffer);
+            String topic = readString(snapshotBuffer);
+            int count = snapshotBuffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int queueId = snapshotBuffer.getInt();
+                long offset = snapshotBuffer.getLong();
+                consumerOffsetManager.commitOffset(group, topic, queueId, offset);
+            }
+        }
+
+        File journal = new File(this.journalPath);
+        if (journal.exists() && journal.length() > 0) {
+            this.replayJournal(journal, consumerOffsetManager);
+        }
+
+        log.info("load consumer offset snapshot OK, generation " + this.generation);
+        return true;
+    }
+
+
+    private void replayJournal(final File journal, final ConsumerOffsetManager consumerOffsetManager)
+            throws IOException {
+        ByteBuffer journalBuffer = readFile(journal);
+        if (journalBuffer.getInt() != JournalMagicCode) {
+            log.warn("consumer offset journal magic code error, ignore it, " + this.journalPath);
+            return;
+        }
+
+        long journalGeneration = journalBuffer.getLong();
+        if (journalGeneration != this.generation) {
+            log.warn("consumer offset journal generation " + journalGeneration + " not match snapshot "
+                    + this.generation + ", ignore it");
+            return;
+        }
+
+        HashMap<Integer, String[]> keyTable = new HashMap<Integer, String[]>();
+        int records = 0;
+        while (journalBuffer.remaining() >= JournalBlockHeaderSize) {
+            int length = journalBuffer.getInt();
+            int crc = journalBuffer.getInt();
+            // 崻дʧʱһݿ֮ܲȫ
+            if (length <= 0 || length > journalBuffer.remaining()
+                    || UtilALl.crc32(journalBuffer.array(), journalBuffer.position(), length) != crc) {
+                log.warn("consumer offset journal truncated, " + records + " records replayed");
+                break;
+            }
+
+            ByteBuffer block = journalBuffer.slice();
+            block.limit(length);
+            journalBuffer.position(journalBuffer.position() + length);
+            records += replayBlock(block, keyTable, consumerOffsetManager);
+        }
+
+        log.info("replay consumer offset journal OK, " + records + " records");
+    }
+
+
+    /**
+     * ݿѾУ¼ʽ˵ļ
+     */
+    private static int replayBlock(final ByteBuffer block, final HashMap<Integer, String[]> keyTable,
+            final ConsumerOffsetManager consumerOffsetManager) throws IOException {
+        int records = 0;
+        while (block.hasRemaining()) {
+            byte type = block.get();
+            if (JournalKeyRecord == type) {
+                int keyId = block.getInt();
+                String group = readString(block);
+                String topic = readString(block);
+                keyTable.put(keyId, new String[] { group, topic });
+            }
+            else if (JournalOffsetRecord == type) {
+                int keyId = block.getInt();
+                int queueId = block.getInt();
+                long offset = block.getLong();
+                String[] key = keyTable.get(keyId);
+                if (key != null) {
+                    consumerOffsetManager.commitOffset(key[0], key[1], queueId, offset);
+                }
+            }
+            else {
+                throw new IOException("consumer offset journal record type error, " + type);
+            }
+
+            records++;
+        }
+
+        return records;
+    }
+
+
+    /**
+     * ׷ӱα仯Ķнȣ־ʱϲµĿ
+     */
+    public synchronized void persist(
+            final ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetArray>> offsetTable)
+            throws IOException {
+        if (this.stoped) {
+            log.warn("consumer offset binary store has shutdown, so persist is ignored");
+            return;
+        }
+
+        if (null == this.journalChannel) {
+            this.compact(offsetTable);
+            return;
+        }
+
+        this.journalBuffer.reset();
+        DataOutputStream out = new DataOutputStream(this.journalBuffer);
+        // Ԥݿͷ
+        out.writeInt(0);
+        out.writeInt(0);
+        // ¶ıдĽȣд̳ɹЧ
+        IdentityHashMap<QueueOffsetArray, Integer> newKeyTable =
+                new IdentityHashMap<QueueOffsetArray, Integer>();
+        List<PendingOffset> pendingOffsets = new ArrayList<PendingOffset>();
+        for (Map.Entry<String, ConcurrentHashMap<String, QueueOffsetArray>> groupEntry : offsetTable.entrySet()) {
+            for (Map.Entry<String, QueueOffsetArray> topicEntry : groupEntry.getValue().entrySet()) {
+                QueueOffsetArray queueOffsetArray = topicEntry.getValue();
+                synchronized (queueOffsetArray) {
+                    long[] offsets = queueOffsetArray.getOffsets();
+                    long[] persisted = queueOffsetArray.getPersistedOffsets();
+                    for (int queueId = 0; queueId < offsets.length; queueId++) {
+                        if (offsets[queueId] == persisted[queueId]) {
+                            continue;
+                        }
+
+                        Integer keyId = this.journalKeyTable.get(queueOffsetArray);
+                        if (null == keyId) {
+                            keyId = newKeyTable.get(queueOffsetArray);
+                        }
+                        if (null == keyId) {
+                            keyId = this.journalKeyTable.size() + newKeyTable.size();
+                            newKeyTable.put(queueOffsetArray, keyId);
+                            out.writeByte(JournalKeyRecord);
+                            out.writeInt(keyId);
+                            writeString(out, groupEntry.getKey());
+                            writeString(out, topicEntry.getKey());
+                        }
+
+                        out.writeByte(JournalOffsetRecord);
+                        out.writeInt(keyId);
+                        out.writeInt(queueId);
+                        out.writeLong(offsets[queueId]);
+                        pendingOffsets.add(new PendingOffset(queueOffsetArray, queueId, offsets[queueId]));
+                    }
+                }
+            }
+        }
+
+        if (!pendingOffsets.isEmpty()) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(this.journalBuffer.toByteArray());
+            int length = byteBuffer.limit() - JournalBlockHeaderSize;
+            byteBuffer.putInt(0, length);
+            byteBuffer.putInt(4, UtilALl.crc32(byteBuffer.array(), JournalBlockHeaderSize, length));
+            try {
+                while (byteBuffer.hasRemaining()) {
+                    this.journalChannel.write(byteBuffer);
+                }
+                this.journalChannel.force(false);
+            }
+            // ־βܲݿ飬´γ־ûֱӺϲµĿ
+            catch (IOException e) {
+                this.closeJournal();
+                throw e;
+            }
+
+            this.journalKeyTable.putAll(newKeyTable);
+            for (PendingOffset pendingOffset : pendingOffsets) {
+                pendingOffset.markPersisted();
+            }
+        }
+
+        if (this.journalChannel.size() > this.compactSize) {
+            this.compact(offsetTable);
+        }
+    }
+
+
+    /**
+     * дȫգʼһ־
+     */
+    public synchronized void compact(
+            final ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetArray>> offsetTable)
+            throws IOException {
+        if (this.stoped) {
+            log.warn("consumer offset binary store has shutdown, so compact is ignored");
+            return;
+        }
+
+        final long newGeneration = this.generation + 1;
+
+        ByteArrayOutputStream snapshotBuffer = new ByteArrayOutputStream(1024 * 1024);
+        DataOutputStream out = new DataOutputStream(snapshotBuffer);
+        out.writeInt(SnapshotMagicCode);
+        out.writeLong(newGeneration);
+        List<PendingOffset> pendingOffsets = new ArrayList<PendingOffset>();
+        for (Map.Entry<String, ConcurrentHashMap<String, QueueOffsetArray>> groupEntry : offsetTable.entrySet()) {
+            for (Map.Entry<String, QueueOffsetArray> topicEntry : groupEntry.getValue().entrySet()) {
+                QueueOffsetArray queueOffsetArray = topicEntry.getValue();
+                synchronized (queueOffsetArray) {
+                    long[] offsets = queueOffsetArray.getOffsets();
+                    int count = 0;
+                    for (int queueId = 0; queueId < offsets.length; queueId++) {
+                        if (offsets[queueId] >= 0) {
+                            count++;
+                        }
+                    }
+
+                    writeString(out, groupEntry.getKey());
+                    writeString(out, topicEntry.getKey());
+                    out.writeInt(count);
+                    for (int queueId = 0; queueId < offsets.length; queueId++) {
+                        if (offsets[queueId] >= 0) {
+                            out.writeInt(queueId);
+                            out.writeLong(offsets[queueId]);
+                        }
+                        pendingOffsets.add(new PendingOffset(queueOffsetArray, queueId, offsets[queueId]));
+                    }
+                }
+            }
+        }
+
+        // дʱļٸ֤ļ
+        File tmpFile = new File(this.snapshotPath + ".tmp");
+        File parent = tmpFile.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        FileOutputStream fileOutputStream = new FileOutputStream(tmpFile);
+        try {
+            snapshotBuffer.writeTo(fileOutputStream);
+            fileOutputStream.getFD().sync();
+        }
+        finally {
+            fileOutputStream.close();
+        }
+
+        File snapshot = new File(this.snapshotPath);
+        if (!tmpFile.renameTo(snapshot)) {
+            snapshot.delete();
+            if (!tmpFile.renameTo(snapshot)) {
+                throw new IOException("rename consumer offset snapshot failed, " + this.snapshotPath);
+            }
+        }
+
+        // ѾЧ־ʹҲͬ
+        this.generation = newGeneration;
+        for (PendingOffset pendingOffset : pendingOffsets) {
+            pendingOffset.markPersisted();
+        }
+        this.openJournal();
+        log.info("compact consumer offset OK, generation " + this.generation + ", snapshot size "
+                + snapshotBuffer.size());
+    }
+
+
+    private void openJournal() throws IOException {
+        this.closeJournal();
+
+        this.journalFile = new RandomAccessFile(this.journalPath, "rw");
+        this.journalChannel = this.journalFile.getChannel();
+        this.journalChannel.truncate(0);
+
+        ByteBuffer header = ByteBuffer.allocate(4 + 8);
+        header.putInt(JournalMagicCode);
+        header.putLong(this.generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            this.journalChannel.write(header);
+        }
+        this.journalChannel.force(false);
+        this.journalKeyTable.clear();
+    }
+
+
+    /**
+     * persist⣬úдκļ
+     */
+    public synchronized void shutdown() {
+        this.stoped = true;
+        this.closeJournal();
+    }
+
+
+    /**
+     * ɾ־ļҪshutdown
+     */
+    public synchronized void destroy() {
+        new File(this.snapshotPath).delete();
+        new File(this.journalPath).delete();
+    }
+
+
+    private void closeJournal() {
+        if (this.journalFile != null) {
+            try {
+                this.journalFile.close();
+            }
+            catch (IOException e) {
+                log.error("close consumer offset journal exception", e);
+            }
+
+            this.journalFile = null;
+            this.journalChannel = null;
+        }
+    }
+
+
+    /**
+     * ѾдļȴΪѳ־ûĶн
+     */
+    private static class PendingOffset {
+        private final QueueOffsetArray queueOffsetArray;
+        private final int queueId;
+        private final long offset;
+
+
+        PendingOffset(final QueueOffsetArray queueOffsetArray, final int queueId, final long offset) {
+            this.queueOffsetArray = queueOffsetArray;
+            this.queueId = queueId;
+            this.offset = offset;
+        }
+
+
+        /**
+         * ѾݣҪ»ȡ
+         */
+        void markPersisted() {
+            synchronized (this.queueOffsetArray) {
+                this.queueOffsetArray.getPersistedOffsets()[this.queueId] = this.offset;
+            }
+        }
+    }
+
+
+    private static ByteBuffer readFile(final File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer byteBuffer = ByteBuffer.allocate((int) randomAccessFile.length());
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            while (byteBuffer.hasRemaining()) {
+                if (fileChannel.read(byteBuffer) < 0) {
+                    break;
+                }
+            }
+            byteBuffer.flip();
+            return byteBuffer;
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        byte[] bytes = value.getBytes(Charset);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(final ByteBuffer byteBuffer) throws IOException {
+        int length = byteBuffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        byteBuffer.get(bytes);
+        return new String(bytes, Charset);
+    }
+}
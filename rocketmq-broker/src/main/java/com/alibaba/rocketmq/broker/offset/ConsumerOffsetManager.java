@@ -3,6 +3,8 @@
  */
 package com.alibaba.rocketmq.broker.offset;
 
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
@@ -10,6 +12,7 @@ import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 import com.alibaba.rocketmq.store.schedule.DelayOffsetSerializeWrapper;
@@ -25,12 +28,86 @@ public class ConsumerOffsetManager extends ConfigManager {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
     private static final String TOPIC_GROUP_SEPARATOR = "@";
 
-    private ConcurrentHashMap<String/* topic@group */, ConcurrentHashMap<Integer, Long>> offsetTable =
-            new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(512);
+    /**
+     * һһTopicϵѽȣqueueId±ţδύĶΪ-1
+     */
+    static class QueueOffsetArray {
+        private long[] offsets;
+        // һγ־ûʱĽȣҳҪд־Ķ
+        private long[] persistedOffsets;
+
+
+        QueueOffsetArray(final int initSize) {
+            this.offsets = new long[initSize];
+            this.persistedOffsets = new long[initSize];
+            Arrays.fill(this.offsets, -1);
+            Arrays.fill(this.persistedOffsets, -1);
+        }
+
+
+        synchronized void put(final int queueId, final long offset) {
+            if (queueId >= this.offsets.length) {
+                int newLength = Math.max(queueId + 1, this.offsets.length * 2);
+                this.offsets = grow(this.offsets, newLength);
+                this.persistedOffsets = grow(this.persistedOffsets, newLength);
+            }
+
+            this.offsets[queueId] = offset;
+        }
+
+
+        private static long[] grow(final long[] array, final int newLength) {
+            long[] newArray = Arrays.copyOf(array, newLength);
+            Arrays.fill(newArray, array.length, newLength, -1);
+            return newArray;
+        }
+
+
+        /**
+         * ÷Ҫб
+         */
+        long[] getOffsets() {
+            return offsets;
+        }
+
+
+        /**
+         * ÷Ҫб
+         */
+        long[] getPersistedOffsets() {
+            return persistedOffsets;
+        }
+
+
+        synchronized long get(final int queueId) {
+            if (queueId < this.offsets.length) {
+                return this.offsets[queueId];
+            }
+
+            return -1;
+        }
+
+
+        synchronized ConcurrentHashMap<Integer, Long> toMap() {
+            ConcurrentHashMap<Integer, Long> map = new ConcurrentHashMap<Integer, Long>(this.offsets.length);
+            for (int queueId = 0; queueId < this.offsets.length; queueId++) {
+                if (this.offsets[queueId] >= 0) {
+                    map.put(queueId, this.offsets[queueId]);
+                }
+            }
+
+            return map;
+        }
+    }
+
+    // ύOffsetǸƵgrouptopicңÿƴtopic@groupַ
+    private final ConcurrentHashMap<String/* group */, ConcurrentHashMap<String/* topic */, QueueOffsetArray>> offsetTable =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetArray>>(512);
 
     private transient volatile ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTableLastLast;
     private transient volatile ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTableLast;
     private transient BrokerController brokerController;
+    private transient ConsumerOffsetBinaryStore binaryStore;
 
 
     public ConsumerOffsetManager() {
@@ -39,31 +116,80 @@ public class ConsumerOffsetManager extends ConfigManager {
 
     public ConsumerOffsetManager(BrokerController brokerController) {
         this.brokerController = brokerController;
+        if (brokerController.getBrokerConfig().isConsumerOffsetBinaryEnable()) {
+            this.binaryStore =
+                    new ConsumerOffsetBinaryStore(this.configFilePath(), brokerController.getBrokerConfig()
+                        .getConsumerOffsetJournalCompactSize());
+        }
     }
 
 
-    private static ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> cloneOffsetTable(
-            final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> input) {
-        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> out =
-                new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(input.size());
+    /**
+     * Ƴ־ûʱȼؿգղڣ״JSONļ<br>
+     * رնƳ־û󣬲ĿձJSONļ£ǨƻJSONļ
+     */
+    @Override
+    public boolean load() {
+        if (null == this.binaryStore) {
+            return this.migrateBinaryToJson() && super.load();
+        }
 
-        for (String topicgroup : input.keySet()) {
-            ConcurrentHashMap<Integer, Long> map = input.get(topicgroup);
-            if (map != null) {
-                ConcurrentHashMap<Integer, Long> mapNew = new ConcurrentHashMap<Integer, Long>(map.size());
-                for (Integer queueId : map.keySet()) {
-                    Long offset = map.get(queueId);
-                    Integer queueIdNew = new Integer(queueId.intValue());
-                    Long offsetNew = new Long(offset.longValue());
-                    map.put(queueIdNew, offsetNew);
-                }
+        try {
+            if (!this.binaryStore.load(this) && !super.load()) {
+                return false;
+            }
+
+            // غϲֻ֮¼
+            this.binaryStore.compact(this.offsetTable);
+            return true;
+        }
+        catch (Exception e) {
+            log.error("load consumer offset binary snapshot failed", e);
+            return false;
+        }
+    }
 
-                String topicgroupNew = new String(topicgroup);
-                out.put(topicgroupNew, mapNew);
+
+    private boolean migrateBinaryToJson() {
+        ConsumerOffsetBinaryStore leftover = new ConsumerOffsetBinaryStore(this.configFilePath(), 0);
+        try {
+            if (leftover.load(this)) {
+                // JSONļдɹɾ
+                MixAll.string2File(this.encode(true), this.configFilePath());
+                leftover.shutdown();
+                leftover.destroy();
+                log.info("migrate consumer offset binary snapshot to json OK");
             }
+
+            return true;
+        }
+        catch (Exception e) {
+            log.error("migrate consumer offset binary snapshot to json failed", e);
+            return false;
+        }
+    }
+
+
+    @Override
+    public synchronized void persist() {
+        if (null == this.binaryStore) {
+            super.persist();
+            return;
         }
 
-        return out;
+        try {
+            this.binaryStore.persist(this.offsetTable);
+        }
+        catch (Exception e) {
+            log.error("persist consumer offset binary journal exception", e);
+        }
+    }
+
+
+    public synchronized void shutdown() {
+        if (this.binaryStore != null) {
+            this.binaryStore.shutdown();
+        }
     }
 
 
@@ -94,8 +220,7 @@ public class ConsumerOffsetManager extends ConfigManager {
 
 
     public void recordPullTPS() {
-        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> snapshotNow =
-                cloneOffsetTable(this.offsetTable);
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> snapshotNow = this.getOffsetTable();
         this.offsetTableLastLast = this.offsetTableLast;
         this.offsetTableLast = snapshotNow;
 
@@ -109,36 +234,43 @@ public class ConsumerOffsetManager extends ConfigManager {
 
 
     public void commitOffset(final String group, final String topic, final int queueId, final long offset) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        this.commitOffset(key, queueId, offset);
-    }
+        if (queueId < 0) {
+            log.warn("commitOffset, invalid queueId " + queueId + " " + topic + TOPIC_GROUP_SEPARATOR + group);
+            return;
+        }
 
+        ConcurrentHashMap<String, QueueOffsetArray> topicTable = this.offsetTable.get(group);
+        if (null == topicTable) {
+            topicTable = new ConcurrentHashMap<String, QueueOffsetArray>(8);
+            ConcurrentHashMap<String, QueueOffsetArray> prev = this.offsetTable.putIfAbsent(group, topicTable);
+            if (prev != null) {
+                topicTable = prev;
+            }
+        }
 
-    public long queryOffset(final String group, final String topic, final int queueId) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        ConcurrentHashMap<Integer, Long> map = this.offsetTable.get(key);
-        if (null != map) {
-            Long offset = map.get(queueId);
-            if (offset != null)
-                return offset;
+        QueueOffsetArray queueOffsetArray = topicTable.get(topic);
+        if (null == queueOffsetArray) {
+            queueOffsetArray = new QueueOffsetArray(Math.max(16, queueId + 1));
+            QueueOffsetArray prev = topicTable.putIfAbsent(topic, queueOffsetArray);
+            if (prev != null) {
+                queueOffsetArray = prev;
+            }
         }
 
-        return -1;
+        queueOffsetArray.put(queueId, offset);
     }
 
 
-    private void commitOffset(final String key, final int queueId, final long offset) {
-        ConcurrentHashMap<Integer, Long> map = this.offsetTable.get(key);
-        if (null == map) {
-            map = new ConcurrentHashMap<Integer, Long>(32);
-            map.put(queueId, offset);
-            this.offsetTable.put(key, map);
-        }
-        else {
-            map.put(queueId, offset);
+    public long queryOffset(final String group, final String topic, final int queueId) {
+        ConcurrentHashMap<String, QueueOffsetArray> topicTable = this.offsetTable.get(group);
+        if (null != topicTable) {
+            QueueOffsetArray queueOffsetArray = topicTable.get(topic);
+            if (queueOffsetArray != null && queueId >= 0) {
+                return queueOffsetArray.get(queueId);
+            }
         }
+
+        return -1;
     }
 
 
@@ -158,7 +290,8 @@ public class ConsumerOffsetManager extends ConfigManager {
             ConsumerOffsetManager obj =
                     RemotingSerializable.fromJson(jsonString, ConsumerOffsetManager.class);
             if (obj != null) {
-                this.offsetTable = obj.offsetTable;
+                this.offsetTable.clear();
+                this.offsetTable.putAll(obj.offsetTable);
             }
         }
     }
@@ -170,12 +303,39 @@ public class ConsumerOffsetManager extends ConfigManager {
     }
 
 
+    /**
+     * topic@groupʽѽȿգ־ûļͳƶʹʽ
+     */
     public ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> getOffsetTable() {
-        return offsetTable;
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> snapshot =
+                new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(this.offsetTable.size() * 2);
+        for (Map.Entry<String, ConcurrentHashMap<String, QueueOffsetArray>> groupEntry : this.offsetTable
+            .entrySet()) {
+            for (Map.Entry<String, QueueOffsetArray> topicEntry : groupEntry.getValue().entrySet()) {
+                // topic@group
+                String key = topicEntry.getKey() + TOPIC_GROUP_SEPARATOR + groupEntry.getKey();
+                snapshot.put(key, topicEntry.getValue().toMap());
+            }
+        }
+
+        return snapshot;
     }
 
 
     public void setOffsetTable(ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) {
-        this.offsetTable = offsetTable;
+        this.offsetTable.clear();
+        for (Map.Entry<String, ConcurrentHashMap<Integer, Long>> entry : offsetTable.entrySet()) {
+            int index = entry.getKey().indexOf(TOPIC_GROUP_SEPARATOR);
+            if (index <= 0) {
+                log.warn("setOffsetTable, invalid key " + entry.getKey());
+                continue;
+            }
+
+            String topic = entry.getKey().substring(0, index);
+            String group = entry.getKey().substring(index + 1);
+            for (Map.Entry<Integer, Long> offsetEntry : entry.getValue().entrySet()) {
+                this.commitOffset(group, topic, offsetEntry.getKey(), offsetEntry.getValue());
+            }
+        }
     }
 }
@@ -6,6 +6,8 @@ package com.alibaba.rocketmq.broker.processor;
 import io.netty.channel.ChannelHandlerContext;
 
 import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -22,6 +24,7 @@ import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
 import com.alibaba.rocketmq.common.protocol.body.LockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.body.LockBatchResponseBody;
 import com.alibaba.rocketmq.common.protocol.body.UnlockBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.CreateTopicRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.DeleteTopicRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.GetAllTopicConfigResponseHeader;
@@ -95,6 +98,8 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
             // Consumer Offset
         case UPDATE_CONSUMER_OFFSET:
             return this.updateConsumerOffset(ctx, request);
+        case UPDATE_CONSUMER_OFFSET_BATCH:
+            return this.updateConsumerOffsetBatch(ctx, request);
         case QUERY_CONSUMER_OFFSET:
             return this.queryConsumerOffset(ctx, request);
 
@@ -448,6 +453,26 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
     }
 
 
+    private RemotingCommand updateConsumerOffsetBatch(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        UpdateConsumerOffsetBatchRequestBody requestBody =
+                UpdateConsumerOffsetBatchRequestBody.decode(request.getBody(),
+                    UpdateConsumerOffsetBatchRequestBody.class);
+
+        for (Map.Entry<String, HashMap<Integer, Long>> topicEntry : requestBody.getOffsetTable().entrySet()) {
+            for (Map.Entry<Integer, Long> queueEntry : topicEntry.getValue().entrySet()) {
+                this.brokerController.getConsumerOffsetManager().commitOffset(requestBody.getConsumerGroup(),
+                    topicEntry.getKey(), queueEntry.getKey(), queueEntry.getValue());
+            }
+        }
+
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        response.setRemark(null);
+        return response;
+    }
+
+
     private RemotingCommand queryConsumerOffset(ChannelHandlerContext ctx, RemotingCommand request)
             throws RemotingCommandException {
         final RemotingCommand response =
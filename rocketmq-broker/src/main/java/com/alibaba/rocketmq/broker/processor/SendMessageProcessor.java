@@ -37,6 +37,7 @@ import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import com.alibaba.rocketmq.remoting.protocol.RemotingProtos.ResponseCode;
 import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageCallback;
 import com.alibaba.rocketmq.store.PutMessageResult;
 
 
@@ -320,7 +321,31 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             }
         }
 
-        PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
+        final int queueId = queueIdInt;
+        // ͬˢ̡ͬ˫д̣߳洢ɺڻصӦ
+        this.brokerController.getMessageStore().putMessage(msgInner, new PutMessageCallback() {
+            @Override
+            public void operationComplete(PutMessageResult putMessageResult) {
+                RemotingCommand result =
+                        SendMessageProcessor.this.handlePutMessageResult(ctx, request, response,
+                            responseHeader, requestHeader.getTopic(), queueId, putMessageResult);
+                if (result != null) {
+                    SendMessageProcessor.this.writeResponse(ctx, request, result);
+                }
+            }
+        });
+
+        return null;
+    }
+
+
+    /**
+     * ݴ洢Ӧ𣬷ͳɹֱӦ𲢷null
+     */
+    private RemotingCommand handlePutMessageResult(final ChannelHandlerContext ctx,
+            final RemotingCommand request, final RemotingCommand response,
+            final SendMessageResponseHeader responseHeader, final String topic, final int queueIdInt,
+            final PutMessageResult putMessageResult) {
         if (putMessageResult != null) {
             boolean sendOK = false;
 
@@ -374,29 +399,9 @@ public class SendMessageProcessor implements NettyRequestProcessor {
                 responseHeader.setQueueOffset(putMessageResult.getAppendMessageResult().getLogicsOffset());
 
                 // ֱӷ
-                if (!request.isOnewayRPC()) {
-                    try {
-                        ctx.writeAndFlush(response).addListener(new ChannelFutureListener() {
-                            @Override
-                            public void operationComplete(ChannelFuture future) throws Exception {
-                                if (!future.isSuccess()) {
-                                    log.error("SendMessageProcessor response to "
-                                            + future.channel().remoteAddress() + " failed", future.cause());
-                                    log.error(request.toString());
-                                    log.error(response.toString());
-                                }
-                            }
-                        });
-                    }
-                    catch (Throwable e) {
-                        log.error("SendMessageProcessor process request over, but response failed", e);
-                        log.error(request.toString());
-                        log.error(response.toString());
-                    }
-                }
+                this.writeResponse(ctx, request, response);
 
-                this.brokerController.getPullRequestHoldService().notifyMessageArriving(
-                    requestHeader.getTopic(), queueIdInt,
+                this.brokerController.getPullRequestHoldService().notifyMessageArriving(topic, queueIdInt,
                     putMessageResult.getAppendMessageResult().getLogicsOffset());
                 return null;
             }
@@ -410,6 +415,31 @@ public class SendMessageProcessor implements NettyRequestProcessor {
     }
 
 
+    private void writeResponse(final ChannelHandlerContext ctx, final RemotingCommand request,
+            final RemotingCommand response) {
+        if (!request.isOnewayRPC()) {
+            try {
+                ctx.writeAndFlush(response).addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (!future.isSuccess()) {
+                            log.error("SendMessageProcessor response to "
+                                    + future.channel().remoteAddress() + " failed", future.cause());
+                            log.error(request.toString());
+                            log.error(response.toString());
+                        }
+                    }
+                });
+            }
+            catch (Throwable e) {
+                log.error("SendMessageProcessor process request over, but response failed", e);
+                log.error(request.toString());
+                log.error(response.toString());
+            }
+        }
+    }
+
+
     public SocketAddress getStoreHost() {
         return storeHost;
     }
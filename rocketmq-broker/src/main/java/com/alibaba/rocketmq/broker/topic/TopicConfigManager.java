@@ -20,6 +20,7 @@ import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.schedule.TimerMessageService;
 
 
 /**
@@ -78,6 +79,7 @@ public class TopicConfigManager extends ConfigManager {
                         || topic.equals(MixAll.SELF_TEST_TOPIC)//
                         || topic.equals(this.brokerController.getBrokerConfig().getBrokerClusterName())//
                         || topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)//
+                        || topic.equals(TimerMessageService.TIMER_TOPIC)//
                         || topic.equals(MixAll.SELF_TEST_TOPIC);
 
         return res;
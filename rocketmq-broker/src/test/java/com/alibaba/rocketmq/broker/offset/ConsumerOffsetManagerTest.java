@@ -3,8 +3,15 @@
  */
 package com.alibaba.rocketmq.broker.offset;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import com.alibaba.rocketmq.broker.BrokerController;
@@ -50,4 +57,215 @@ public class ConsumerOffsetManagerTest {
 
         brokerController.shutdown();
     }
+
+
+    @Test
+    public void test_encode_decode() {
+        ConsumerOffsetManager consumerOffsetManager = new ConsumerOffsetManager();
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 100);
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 40, 200);
+        consumerOffsetManager.commitOffset("GROUP_B", "TOPIC_A", 3, 300);
+
+        ConsumerOffsetManager decoded = new ConsumerOffsetManager();
+        decoded.decode(consumerOffsetManager.encode());
+        Assert.assertEquals(100, decoded.queryOffset("GROUP_A", "TOPIC_A", 0));
+        Assert.assertEquals(200, decoded.queryOffset("GROUP_A", "TOPIC_A", 40));
+        Assert.assertEquals(-1, decoded.queryOffset("GROUP_A", "TOPIC_A", 1));
+        Assert.assertEquals(300, decoded.queryOffset("GROUP_B", "TOPIC_A", 3));
+        Assert.assertEquals(-1, decoded.queryOffset("GROUP_C", "TOPIC_A", 3));
+        Assert.assertTrue(decoded.getOffsetTable().containsKey("TOPIC_A@GROUP_B"));
+    }
+
+
+    @Test
+    public void test_binaryStore_snapshot_and_journal() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "ConsumerOffsetBinaryStoreTest");
+        deleteDir(dir);
+        String path = dir.getPath() + File.separator + "consumerOffset.json";
+
+        ConsumerOffsetManager consumerOffsetManager = new ConsumerOffsetManager();
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 100);
+        ConsumerOffsetBinaryStore binaryStore = new ConsumerOffsetBinaryStore(path, 1024 * 1024);
+        // ״γ־ûд
+        binaryStore.persist(getTable(consumerOffsetManager));
+
+        // ֻ֮׷
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 150);
+        consumerOffsetManager.commitOffset("GROUP_B", "TOPIC_B", 7, 700);
+        binaryStore.persist(getTable(consumerOffsetManager));
+        binaryStore.shutdown();
+
+        ConsumerOffsetManager loaded = new ConsumerOffsetManager();
+        ConsumerOffsetBinaryStore loadStore = new ConsumerOffsetBinaryStore(path, 1024 * 1024);
+        Assert.assertTrue(loadStore.load(loaded));
+        loadStore.shutdown();
+        Assert.assertEquals(150, loaded.queryOffset("GROUP_A", "TOPIC_A", 0));
+        Assert.assertEquals(700, loaded.queryOffset("GROUP_B", "TOPIC_B", 7));
+
+        deleteDir(dir);
+    }
+
+
+    /**
+     * ־βݿ鲻ʱֻط֮ǰݿ
+     */
+    @Test
+    public void test_binaryStore_torn_journal_tail() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "ConsumerOffsetTornJournalTest");
+        deleteDir(dir);
+        String path = dir.getPath() + File.separator + "consumerOffset.json";
+
+        ConsumerOffsetManager consumerOffsetManager = new ConsumerOffsetManager();
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 100);
+        ConsumerOffsetBinaryStore binaryStore = new ConsumerOffsetBinaryStore(path, 1024 * 1024);
+        binaryStore.persist(getTable(consumerOffsetManager));
+
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 150);
+        binaryStore.persist(getTable(consumerOffsetManager));
+        File journal = new File(dir, "consumerOffset.journal");
+        long completeLength = journal.length();
+
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 200);
+        consumerOffsetManager.commitOffset("GROUP_B", "TOPIC_B", 1, 300);
+        binaryStore.persist(getTable(consumerOffsetManager));
+        binaryStore.shutdown();
+
+        // һݿֻдһ
+        RandomAccessFile randomAccessFile = new RandomAccessFile(journal, "rw");
+        randomAccessFile.setLength(journal.length() - 3);
+        randomAccessFile.close();
+
+        ConsumerOffsetManager loaded = new ConsumerOffsetManager();
+        ConsumerOffsetBinaryStore loadStore = new ConsumerOffsetBinaryStore(path, 1024 * 1024);
+        Assert.assertTrue(loadStore.load(loaded));
+        loadStore.shutdown();
+        Assert.assertEquals(150, loaded.queryOffset("GROUP_A", "TOPIC_A", 0));
+        Assert.assertEquals(-1, loaded.queryOffset("GROUP_B", "TOPIC_B", 1));
+
+        // ݿͬ
+        randomAccessFile = new RandomAccessFile(journal, "rw");
+        randomAccessFile.setLength(completeLength);
+        randomAccessFile.seek(completeLength - 1);
+        randomAccessFile.write(0xFF);
+        randomAccessFile.close();
+
+        loaded = new ConsumerOffsetManager();
+        loadStore = new ConsumerOffsetBinaryStore(path, 1024 * 1024);
+        Assert.assertTrue(loadStore.load(loaded));
+        loadStore.shutdown();
+        Assert.assertEquals(100, loaded.queryOffset("GROUP_A", "TOPIC_A", 0));
+
+        deleteDir(dir);
+    }
+
+
+    /**
+     * д־ʧʱΪѳ־û´γ־ûϲµĿգ仯ĽȲᶪʧ
+     */
+    @Test
+    public void test_binaryStore_persist_after_write_failure() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "ConsumerOffsetWriteFailureTest");
+        deleteDir(dir);
+        String path = dir.getPath() + File.separator + "consumerOffset.json";
+
+        ConsumerOffsetManager consumerOffsetManager = new ConsumerOffsetManager();
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 100);
+        ConsumerOffsetBinaryStore binaryStore = new ConsumerOffsetBinaryStore(path, 1024 * 1024);
+        binaryStore.persist(getTable(consumerOffsetManager));
+
+        // ر־ļģдʧ
+        Field field = ConsumerOffsetBinaryStore.class.getDeclaredField("journalChannel");
+        field.setAccessible(true);
+        ((FileChannel) field.get(binaryStore)).close();
+
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 150);
+        consumerOffsetManager.commitOffset("GROUP_B", "TOPIC_B", 7, 700);
+        try {
+            binaryStore.persist(getTable(consumerOffsetManager));
+            Assert.fail("persist should fail");
+        }
+        catch (IOException e) {
+        }
+        Assert.assertEquals(100, getTable(consumerOffsetManager).get("GROUP_A").get("TOPIC_A")
+            .getPersistedOffsets()[0]);
+
+        binaryStore.persist(getTable(consumerOffsetManager));
+        binaryStore.shutdown();
+        Assert.assertEquals(150, getTable(consumerOffsetManager).get("GROUP_A").get("TOPIC_A")
+            .getPersistedOffsets()[0]);
+
+        ConsumerOffsetManager loaded = new ConsumerOffsetManager();
+        ConsumerOffsetBinaryStore loadStore = new ConsumerOffsetBinaryStore(path, 1024 * 1024);
+        Assert.assertTrue(loadStore.load(loaded));
+        loadStore.shutdown();
+        Assert.assertEquals(150, loaded.queryOffset("GROUP_A", "TOPIC_A", 0));
+        Assert.assertEquals(700, loaded.queryOffset("GROUP_B", "TOPIC_B", 7));
+
+        deleteDir(dir);
+    }
+
+
+    /**
+     * رնƳ־û󣬲Ŀ־ǨƻJSONļshutdown֮ĳ־ûдļ
+     */
+    @Test
+    public void test_migrate_binary_to_json() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "ConsumerOffsetMigrateTest");
+        deleteDir(dir);
+        String path = dir.getPath() + File.separator + "consumerOffset.json";
+
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setConsumerOffsetPath(path);
+        brokerConfig.setConsumerOffsetBinaryEnable(true);
+        BrokerController brokerController = new BrokerController(//
+            brokerConfig, //
+            new NettyServerConfig(), //
+            new NettyClientConfig(), //
+            new MessageStoreConfig());
+
+        ConsumerOffsetManager binaryManager = new ConsumerOffsetManager(brokerController);
+        Assert.assertTrue(binaryManager.load());
+        binaryManager.commitOffset("GROUP_A", "TOPIC_A", 0, 100);
+        binaryManager.persist();
+        binaryManager.shutdown();
+        binaryManager.commitOffset("GROUP_A", "TOPIC_A", 0, 200);
+        binaryManager.persist();
+        Assert.assertFalse(new File(path).exists());
+
+        brokerConfig.setConsumerOffsetBinaryEnable(false);
+        ConsumerOffsetManager jsonManager = new ConsumerOffsetManager(brokerController);
+        Assert.assertTrue(jsonManager.load());
+        Assert.assertEquals(100, jsonManager.queryOffset("GROUP_A", "TOPIC_A", 0));
+        Assert.assertTrue(new File(path).exists());
+        Assert.assertFalse(new File(dir, "consumerOffset.bin").exists());
+        Assert.assertFalse(new File(dir, "consumerOffset.journal").exists());
+
+        // ǨƺֻJSONļ
+        ConsumerOffsetManager reloaded = new ConsumerOffsetManager(brokerController);
+        Assert.assertTrue(reloaded.load());
+        Assert.assertEquals(100, reloaded.queryOffset("GROUP_A", "TOPIC_A", 0));
+
+        deleteDir(dir);
+    }
+
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<String, ConcurrentHashMap<String, ConsumerOffsetManager.QueueOffsetArray>> getTable(
+            ConsumerOffsetManager consumerOffsetManager) throws Exception {
+        Field field = ConsumerOffsetManager.class.getDeclaredField("offsetTable");
+        field.setAccessible(true);
+        return (ConcurrentHashMap<String, ConcurrentHashMap<String, ConsumerOffsetManager.QueueOffsetArray>>) field
+            .get(consumerOffsetManager);
+    }
 }
@@ -98,6 +98,10 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
      * Ϣһ
      */
     private int pullBatchSize = 32;
+    /**
+     * ͬһͬʱ;жѻʱOffsetȡRTϴĳ1ʾ
+     */
+    private int pullPipelineDepth = 1;
 
     private final transient DefaultMQPushConsumerImpl defaultMQPushConsumerImpl =
             new DefaultMQPushConsumerImpl(this);
@@ -191,6 +195,11 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
     }
 
 
+    public int getPullPipelineDepth() {
+        return pullPipelineDepth;
+    }
+
+
     public int getPullThresholdForQueue() {
         return pullThresholdForQueue;
     }
@@ -301,6 +310,11 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
     }
 
 
+    public void setPullPipelineDepth(int pullPipelineDepth) {
+        this.pullPipelineDepth = pullPipelineDepth;
+    }
+
+
     public void setPullThresholdForQueue(int pullThresholdForQueue) {
         this.pullThresholdForQueue = pullThresholdForQueue;
     }
@@ -15,6 +15,8 @@
  */
 package com.alibaba.rocketmq.client.consumer.store;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -28,9 +30,11 @@ import com.alibaba.rocketmq.client.impl.factory.MQClientFactory;
 import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.QueryConsumerOffsetRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.UpdateConsumerOffsetRequestHeader;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
+import com.alibaba.rocketmq.remoting.protocol.RemotingProtos.ResponseCode;
 
 
 /**
@@ -44,6 +48,9 @@ public class RemoteBrokerOffsetStore implements OffsetStore {
     private final String groupName;
     private ConcurrentHashMap<MessageQueue, AtomicLong> offsetTable =
             new ConcurrentHashMap<MessageQueue, AtomicLong>();
+    // BrokerǷ֧ѽȣ״ʱͬ̽
+    private final ConcurrentHashMap<String/* brokerAddr */, Boolean> batchSupportedTable =
+            new ConcurrentHashMap<String, Boolean>();
 
 
     public RemoteBrokerOffsetStore(MQClientFactory mQClientFactory, String groupName) {
@@ -160,23 +167,104 @@ public class RemoteBrokerOffsetStore implements OffsetStore {
     }
 
 
+    /**
+     * ͬһBroker϶еѽȣһBrokerֻһ
+     */
+    private void updateConsumeOffsetToBroker(final String brokerName,
+            final UpdateConsumerOffsetBatchRequestBody requestBody) throws RemotingException,
+            MQBrokerException, InterruptedException, MQClientException {
+        FindBrokerResult findBrokerResult = this.mQClientFactory.findBrokerAddressInAdmin(brokerName);
+        if (null == findBrokerResult) {
+            for (String topic : requestBody.getOffsetTable().keySet()) {
+                this.mQClientFactory.updateTopicRouteInfoFromNameServer(topic);
+            }
+            findBrokerResult = this.mQClientFactory.findBrokerAddressInAdmin(brokerName);
+        }
+
+        if (findBrokerResult != null) {
+            final String brokerAddr = findBrokerResult.getBrokerAddr();
+            Boolean batchSupported = this.batchSupportedTable.get(brokerAddr);
+            if (null == batchSupported) {
+                // ͬ̽⣬ϰ汾Brokerʶ룬᷵REQUEST_CODE_NOT_SUPPORTED
+                // SYSTEM_BUSY˵Broker֧֣׸÷´γ־ûʱ̽
+                try {
+                    this.mQClientFactory.getMQClientAPIImpl().updateConsumerOffsetBatch(brokerAddr,
+                        requestBody, 1000 * 5);
+                    this.batchSupportedTable.put(brokerAddr, Boolean.TRUE);
+                    return;
+                }
+                catch (MQBrokerException e) {
+                    if (e.getResponseCode() != ResponseCode.REQUEST_CODE_NOT_SUPPORTED_VALUE) {
+                        throw e;
+                    }
+
+                    log.warn("the broker[{}] not support batch update consumer offset, "
+                            + "fall back to update one by one", brokerAddr);
+                    batchSupported = Boolean.FALSE;
+                    this.batchSupportedTable.put(brokerAddr, batchSupported);
+                }
+            }
+
+            if (batchSupported) {
+                // ʹonewayʽԭǷɾļʱÿܻᳬʱ
+                this.mQClientFactory.getMQClientAPIImpl().updateConsumerOffsetBatchOneway(brokerAddr,
+                    requestBody, 1000 * 5);
+            }
+            else {
+                for (Map.Entry<String, HashMap<Integer, Long>> topicEntry : requestBody.getOffsetTable()
+                    .entrySet()) {
+                    for (Map.Entry<Integer, Long> queueEntry : topicEntry.getValue().entrySet()) {
+                        UpdateConsumerOffsetRequestHeader requestHeader =
+                                new UpdateConsumerOffsetRequestHeader();
+                        requestHeader.setTopic(topicEntry.getKey());
+                        requestHeader.setConsumerGroup(this.groupName);
+                        requestHeader.setQueueId(queueEntry.getKey());
+                        requestHeader.setCommitOffset(queueEntry.getValue());
+
+                        this.mQClientFactory.getMQClientAPIImpl().updateConsumerOffsetOneway(brokerAddr,
+                            requestHeader, 1000 * 5);
+                    }
+                }
+            }
+        }
+        else {
+            throw new MQClientException("The broker[" + brokerName + "] not exist", null);
+        }
+    }
+
+
     @Override
     public void persistAll(Set<MessageQueue> mqs) {
         if (mqs != null && !mqs.isEmpty()) {
+            // BrokerϲÿBrokerһ
+            HashMap<String/* brokerName */, UpdateConsumerOffsetBatchRequestBody> brokerTable =
+                    new HashMap<String, UpdateConsumerOffsetBatchRequestBody>();
             for (MessageQueue mq : this.offsetTable.keySet()) {
                 AtomicLong offset = this.offsetTable.get(mq);
                 if (offset != null) {
                     if (mqs.contains(mq)) {
-                        try {
-                            this.updateConsumeOffsetToBroker(mq, offset.get());
-                            log.debug("updateConsumeOffsetToBroker {} {}", mq, offset.get());
-                        }
-                        catch (Exception e) {
-                            log.error("updateConsumeOffsetToBroker exception, " + mq.toString(), e);
+                        UpdateConsumerOffsetBatchRequestBody requestBody = brokerTable.get(mq.getBrokerName());
+                        if (null == requestBody) {
+                            requestBody = new UpdateConsumerOffsetBatchRequestBody();
+                            requestBody.setConsumerGroup(this.groupName);
+                            brokerTable.put(mq.getBrokerName(), requestBody);
                         }
+
+                        requestBody.putOffset(mq.getTopic(), mq.getQueueId(), offset.get());
                     }
                 }
             }
+
+            for (Map.Entry<String, UpdateConsumerOffsetBatchRequestBody> entry : brokerTable.entrySet()) {
+                try {
+                    this.updateConsumeOffsetToBroker(entry.getKey(), entry.getValue());
+                    log.debug("updateConsumeOffsetToBroker {} {}", entry.getKey(), entry.getValue()
+                        .getOffsetTable());
+                }
+                catch (Exception e) {
+                    log.error("updateConsumeOffsetToBroker exception, " + entry.getKey(), e);
+                }
+            }
         }
     }
 
@@ -44,6 +44,7 @@ import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
 import com.alibaba.rocketmq.common.protocol.body.LockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.body.LockBatchResponseBody;
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.body.UnlockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.ConsumerSendMsgBackRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.CreateTopicRequestHeader;
@@ -731,6 +732,47 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * ConsumerѽȣͬȴӦϰ汾Broker֧ʱش
+     */
+    public void updateConsumerOffsetBatch(//
+            final String addr,//
+            final UpdateConsumerOffsetBatchRequestBody requestBody,//
+            final long timeoutMillis//
+    ) throws RemotingException, MQBrokerException, InterruptedException {
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.UPDATE_CONSUMER_OFFSET_BATCH_VALUE, null);
+        request.setBody(requestBody.encode());
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE: {
+            return;
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
+    /**
+     * ConsumerѽȣһЯͬһBroker϶еOffset
+     */
+    public void updateConsumerOffsetBatchOneway(//
+            final String addr,//
+            final UpdateConsumerOffsetBatchRequestBody requestBody,//
+            final long timeoutMillis//
+    ) throws RemotingConnectException, RemotingTooMuchRequestException, RemotingTimeoutException,
+            RemotingSendRequestException, InterruptedException {
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.UPDATE_CONSUMER_OFFSET_BATCH_VALUE, null);
+        request.setBody(requestBody.encode());
+        this.remotingClient.invokeOneway(addr, request, timeoutMillis);
+    }
+
+
     /**
      * 
      */
@@ -16,6 +16,7 @@
 package com.alibaba.rocketmq.client.impl.consumer;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -26,6 +27,7 @@ import com.alibaba.rocketmq.client.QueryResult;
 import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
 import com.alibaba.rocketmq.client.consumer.PullCallback;
 import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.client.consumer.PullStatus;
 import com.alibaba.rocketmq.client.consumer.listener.MessageListener;
 import com.alibaba.rocketmq.client.consumer.listener.MessageListenerConcurrently;
 import com.alibaba.rocketmq.client.consumer.listener.MessageListenerOrderly;
@@ -222,6 +224,14 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
                     + FAQUrl.suggestTodo(FAQUrl.CLIENT_PARAMETER_CHECK_URL), //
                 null);
         }
+
+        // pullPipelineDepth
+        if (this.defaultMQPushConsumer.getPullPipelineDepth() < 1
+                || this.defaultMQPushConsumer.getPullPipelineDepth() > 32) {
+            throw new MQClientException("pullPipelineDepth Out of range [1, 32]" //
+                    + FAQUrl.suggestTodo(FAQUrl.CLIENT_PARAMETER_CHECK_URL), //
+                null);
+        }
     }
 
 
@@ -446,6 +456,12 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
             return;
         }
 
+        // ˮ߷ʽϢ
+        if (this.defaultMQPushConsumer.getPullPipelineDepth() > 1) {
+            this.pullMessagePipelined(pullRequest, subscriptionData);
+            return;
+        }
+
         final long beginTimestamp = System.currentTimeMillis();
 
         PullCallback pullCallback = new PullCallback() {
@@ -551,6 +567,163 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
     }
 
 
+    /**
+     * ˮ߷ʽϢͬһͬʱֶ;󣬽Offset˳ProcessQueue<br>
+     * δǰȫģ;ﵽʱᷢ
+     */
+    private void pullMessagePipelined(final PullRequest pullRequest, final SubscriptionData subscriptionData) {
+        final ProcessQueue processQueue = pullRequest.getProcessQueue();
+        final PullPipeline pullPipeline = processQueue.getPullPipeline();
+
+        List<PullPipeline.PullSlot> slots = pullPipeline.reserve(//
+            pullRequest.getNextOffset(),//
+            this.defaultMQPushConsumer.getPullPipelineDepth(),//
+            this.defaultMQPushConsumer.getPullBatchSize());
+
+        // Ⱥģʽ£һ˳ύڴеѽ
+        long commitOffsetValue = 0;
+        if (!slots.isEmpty() && MessageModel.CLUSTERING == this.defaultMQPushConsumer.getMessageModel()) {
+            commitOffsetValue = this.offsetStore.readOffset(pullRequest.getMessageQueue(), false);
+        }
+
+        for (int i = 0; i < slots.size(); i++) {
+            final PullPipeline.PullSlot slot = slots.get(i);
+            final long beginTimestamp = System.currentTimeMillis();
+            final boolean commitOffset = 0 == i && commitOffsetValue > 0;
+
+            int sysFlag = PullSysFlag.buildSysFlag(//
+                commitOffset, // commitOffset
+                true, // suspend
+                false// subscription
+                );
+
+            PullCallback pullCallback = new PullCallback() {
+                @Override
+                public void onException(Throwable e) {
+                    // ˮѾãɴ쳣ٴ
+                    if (pullPipeline.discardIfStale(slot)) {
+                        return;
+                    }
+
+                    if (!pullRequest.getMessageQueue().getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+                        log.warn("execute the pipelined pull request exception", e);
+                    }
+
+                    pullPipeline.fail(slot);
+                    DefaultMQPushConsumerImpl.this.executePullRequestLater(pullRequest,
+                        PullTimeDelayMillsWhenException);
+                }
+
+
+                @Override
+                public void onSuccess(PullResult pullResult) {
+                    // ˮѾãɴĽֱӶҲٴ
+                    if (pullPipeline.discardIfStale(slot)) {
+                        return;
+                    }
+
+                    if (pullResult != null) {
+                        pullResult =
+                                DefaultMQPushConsumerImpl.this.pullAPIWrapper.processPullResult(
+                                    pullRequest.getMessageQueue(), pullResult, subscriptionData);
+
+                        long pullRT = System.currentTimeMillis() - beginTimestamp;
+                        DefaultMQPushConsumerImpl.this.processPipelinedPullResult(pullRequest, slot,
+                            pullResult, pullRT);
+                    }
+                    else {
+                        pullPipeline.fail(slot);
+                        DefaultMQPushConsumerImpl.this.executePullRequestImmediately(pullRequest);
+                    }
+                }
+            };
+
+            try {
+                this.pullAPIWrapper.pullKernelImpl(//
+                    pullRequest.getMessageQueue(), // 1
+                    null, // 2
+                    subscriptionData.getSubVersion(), // 3
+                    slot.getBeginOffset(), // 4
+                    this.defaultMQPushConsumer.getPullBatchSize(), // 5
+                    sysFlag, // 6
+                    commitOffset ? commitOffsetValue : 0,// 7
+                    BrokerSuspendMaxTimeMillis, // 8
+                    ConsumerTimeoutMillisWhenSuspend, // 9
+                    CommunicationMode.ASYNC, // 10
+                    pullCallback// 11
+                    );
+            }
+            catch (Exception e) {
+                log.error("pullKernelImpl exception", e);
+                // μδȫ
+                for (int k = i; k < slots.size(); k++) {
+                    pullPipeline.fail(slots.get(k));
+                }
+                this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenException);
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * ˮڰ˳Ͷȡ֤ϢOffset˳ProcessQueue
+     */
+    private void processPipelinedPullResult(final PullRequest pullRequest, final PullPipeline.PullSlot slot,
+            final PullResult pullResult, final long pullRT) {
+        final ProcessQueue processQueue = pullRequest.getProcessQueue();
+        final PullPipeline pullPipeline = processQueue.getPullPipeline();
+
+        synchronized (pullPipeline) {
+            List<PullResult> readyList = pullPipeline.complete(slot, pullResult);
+            for (PullResult pr : readyList) {
+                switch (pr.getPullStatus()) {
+                case FOUND:
+                    this.getConsumerStatManager().getConsumertat().getPullTimesTotal().incrementAndGet();
+                    this.getConsumerStatManager().getConsumertat().getPullRTTotal().addAndGet(pullRT);
+
+                    if (!pr.getMsgFoundList().isEmpty()) {
+                        boolean dispathToConsume = processQueue.putMessage(pr.getMsgFoundList());
+                        this.consumeMessageService.submitConsumeRequest(//
+                            pr.getMsgFoundList(), //
+                            processQueue, //
+                            pullRequest.getMessageQueue(), //
+                            dispathToConsume);
+                    }
+                    break;
+                case OFFSET_ILLEGAL:
+                    log.warn("the pipelined pull request offset illegal, {} {}",//
+                        pullRequest.toString(), pr.toString());
+                    long offset = pullPipeline.getNextDeliverOffset();
+                    if (offset < pr.getMinOffset()) {
+                        offset = pr.getMinOffset();
+                    }
+                    else if (offset > pr.getMaxOffset()) {
+                        offset = pr.getMaxOffset();
+                    }
+
+                    pullPipeline.reset(offset);
+                    this.offsetStore.updateOffset(pullRequest.getMessageQueue(), offset, false);
+                    log.warn("fix the pipelined pull request offset, {} {}", pullRequest, pullPipeline);
+                    break;
+                default:
+                    break;
+                }
+            }
+
+            pullRequest.setNextOffset(pullPipeline.getNextDeliverOffset());
+        }
+
+        // 
+        if (PullStatus.FOUND == pullResult.getPullStatus() && this.defaultMQPushConsumer.getPullInterval() > 0) {
+            this.executePullRequestLater(pullRequest, this.defaultMQPushConsumer.getPullInterval());
+        }
+        else {
+            this.executePullRequestImmediately(pullRequest);
+        }
+    }
+
+
     public QueryResult queryMessage(String topic, String key, int maxNum, long begin, long end)
             throws MQClientException, InterruptedException {
         return this.mQClientFactory.getMQAdminImpl().queryMessage(topic, key, maxNum, begin, end);
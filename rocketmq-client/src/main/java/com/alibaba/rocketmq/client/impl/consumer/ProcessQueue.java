@@ -50,6 +50,8 @@ public class ProcessQueue {
 
     // ǰQǷrebalance
     private volatile boolean droped = false;
+    // ˮȡ״̬pullPipelineDepth1ʱʹ
+    private final PullPipeline pullPipeline = new PullPipeline();
 
     /**
      * ˳Ϣר
@@ -180,6 +182,11 @@ public class ProcessQueue {
     }
 
 
+    public PullPipeline getPullPipeline() {
+        return pullPipeline;
+    }
+
+
     /**
      * ========================================================================
      * ²Ϊ˳Ϣרв
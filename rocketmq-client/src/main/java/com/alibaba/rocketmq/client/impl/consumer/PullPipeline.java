@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+
+/**
+ * еˮȡ״̬<br>
+ * ͬһͬʱڶ;󣬷ֱOffsetʼȡؽOffset˳ٷProcessQueue
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class PullPipeline {
+    /**
+     * һ;
+     */
+    public static class PullSlot {
+        private final long generation;
+        private final long beginOffset;
+        private PullResult pullResult;
+
+
+        public PullSlot(long generation, long beginOffset) {
+            this.generation = generation;
+            this.beginOffset = beginOffset;
+        }
+
+
+        public long getGeneration() {
+            return generation;
+        }
+
+
+        public long getBeginOffset() {
+            return beginOffset;
+        }
+    }
+
+    // ˮߴÿú1ɴȡȫ
+    private long generation = 0;
+    // һʼOffset
+    private long nextPullOffset = -1;
+    // һͶݵProcessQueueϢOffset
+    private long nextDeliverOffset = -1;
+    // һδBroker֪ĶOffset
+    private long maxOffset = -1;
+    // ;Ѿõľ
+    private int inflight = 0;
+    // ǰѷ󣬰ʼOffset
+    private final TreeMap<Long, PullSlot> slotTable = new TreeMap<Long, PullSlot>();
+
+
+    /**
+     * Է<br>
+     * û;ʱǷһ󣨿ܱBroker<br>
+     * ֪жѻʱౣdepth;
+     */
+    public synchronized List<PullSlot> reserve(final long startOffset, final int depth, final int batchSize) {
+        List<PullSlot> result = new ArrayList<PullSlot>(depth);
+        if (this.nextPullOffset < 0) {
+            this.nextPullOffset = startOffset;
+            this.nextDeliverOffset = startOffset;
+        }
+
+        if (this.slotTable.isEmpty()) {
+            result.add(this.newSlot(batchSize));
+        }
+
+        while (this.inflight < depth && this.nextPullOffset < this.maxOffset) {
+            result.add(this.newSlot(batchSize));
+        }
+
+        return result;
+    }
+
+
+    private PullSlot newSlot(final int batchSize) {
+        PullSlot slot = new PullSlot(this.generation, this.nextPullOffset);
+        this.slotTable.put(slot.getBeginOffset(), slot);
+        this.nextPullOffset += batchSize;
+        this.inflight++;
+        return slot;
+    }
+
+
+    /**
+     * 󷵻أOffset˳ȡͶݵĽ<br>
+     * ÷ҪڳбͶݷصĽԱ֤Ͷ˳
+     *
+     * @return OffsetźĽFOUND״̬ϢѾȥظ
+     */
+    public synchronized List<PullResult> complete(final PullSlot slot, final PullResult pullResult) {
+        List<PullResult> result = new ArrayList<PullResult>();
+        this.inflight--;
+        if (slot.getGeneration() != this.generation) {
+            return result;
+        }
+
+        slot.pullResult = pullResult;
+        while (!this.slotTable.isEmpty()) {
+            PullSlot first = this.slotTable.firstEntry().getValue();
+            if (null == first.pullResult) {
+                break;
+            }
+
+            this.slotTable.pollFirstEntry();
+            PullResult pr = first.pullResult;
+            this.maxOffset = pr.getMaxOffset();
+
+            switch (pr.getPullStatus()) {
+            case FOUND:
+            case NO_MATCHED_MSG:
+                // ȡΧصBroker˹˻ɨ裩ȥѾͶݹϢ
+                if (pr.getMsgFoundList() != null) {
+                    List<MessageExt> msgs = new ArrayList<MessageExt>(pr.getMsgFoundList().size());
+                    for (MessageExt msg : pr.getMsgFoundList()) {
+                        if (msg.getQueueOffset() >= this.nextDeliverOffset) {
+                            msgs.add(msg);
+                        }
+                    }
+                    pr.setMsgFoundList(msgs);
+                }
+
+                result.add(pr);
+                if (pr.getNextBeginOffset() > this.nextDeliverOffset) {
+                    this.nextDeliverOffset = pr.getNextBeginOffset();
+                }
+                if (this.nextPullOffset < this.nextDeliverOffset) {
+                    this.nextPullOffset = this.nextDeliverOffset;
+                }
+
+                // ηصϢûиǵһʼλãﵽСޣмֿնȡ
+                if (!this.slotTable.isEmpty() && this.slotTable.firstKey() > this.nextDeliverOffset) {
+                    this.reset(this.nextDeliverOffset);
+                }
+                else if (this.slotTable.isEmpty() && this.nextPullOffset > this.nextDeliverOffset) {
+                    this.reset(this.nextDeliverOffset);
+                }
+                break;
+            default:
+                // NO_NEW_MSGOFFSET_ILLEGALʧЧ
+                result.add(pr);
+                this.reset(this.nextDeliverOffset);
+                break;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * 쳣ǰ󣬴δͶݵλ¿ʼ
+     */
+    public synchronized void fail(final PullSlot slot) {
+        this.inflight--;
+        if (slot.getGeneration() == this.generation) {
+            this.reset(this.nextDeliverOffset);
+        }
+    }
+
+
+    /**
+     * Ѿõľɴʱֱͷ;<br>
+     * صȵô˷ɴٽҲٴµȡ
+     *
+     * @return ǷΪɴ
+     */
+    public synchronized boolean discardIfStale(final PullSlot slot) {
+        if (slot.getGeneration() != this.generation) {
+            this.inflight--;
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * ;󣬴ָλ¿ʼȡ
+     */
+    public synchronized void reset(final long offset) {
+        this.generation++;
+        this.slotTable.clear();
+        this.nextPullOffset = offset;
+        this.nextDeliverOffset = offset;
+    }
+
+
+    public synchronized long getNextDeliverOffset() {
+        return nextDeliverOffset;
+    }
+
+
+    public synchronized int getInflight() {
+        return inflight;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, PullSlot> entry : this.slotTable.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(entry.getKey());
+        }
+
+        return "PullPipeline [generation=" + generation + ", nextPullOffset=" + nextPullOffset
+                + ", nextDeliverOffset=" + nextDeliverOffset + ", maxOffset=" + maxOffset + ", inflight="
+                + inflight + ", slots=[" + sb + "]]";
+    }
+}
@@ -47,7 +47,8 @@ import com.alibaba.rocketmq.client.producer.TransactionCheckListener;
 import com.alibaba.rocketmq.client.producer.TransactionMQProducer;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.ServiceState;
-import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.compress.CompressionCodec;
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
 import com.alibaba.rocketmq.common.help.FAQUrl;
 import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
@@ -78,6 +79,10 @@ public class DefaultMQProducerImpl implements MQProducerInner {
     private final ConcurrentHashMap<String/* topic */, TopicPublishInfo> topicPublishInfoTable =
             new ConcurrentHashMap<String, TopicPublishInfo>();
 
+    // ѹԤֵ
+    private final ConcurrentHashMap<String/* topic */, byte[]> compressDictionaryTable =
+            new ConcurrentHashMap<String, byte[]>();
+
     private MQClientFactory mQClientFactory;
 
     /**
@@ -119,6 +124,17 @@ public class DefaultMQProducerImpl implements MQProducerInner {
             throw new MQClientException("producerGroup can not equal " + MixAll.DEFAULT_PRODUCER_GROUP
                     + ", please specify another one.", null);
         }
+
+        if (null == CompressionCodecs.getCodec(this.defaultMQProducer.getCompressType())) {
+            throw new MQClientException("compressType " + this.defaultMQProducer.getCompressType()
+                    + " not registered, call CompressionCodecs.registerCodec first", null);
+        }
+    }
+
+
+    public void registerCompressDictionary(final String topic, final byte[] dictionary) {
+        CompressionCodecs.registerDictionary(dictionary);
+        this.compressDictionaryTable.put(topic, dictionary);
     }
 
 
@@ -303,7 +319,11 @@ public class DefaultMQProducerImpl implements MQProducerInner {
         if (body != null) {
             if (body.length >= this.defaultMQProducer.getCompressMsgBodyOverHowmuch()) {
                 try {
-                    byte[] data = UtilALl.compress(body, 9);
+                    CompressionCodec codec =
+                            CompressionCodecs.getCodec(this.defaultMQProducer.getCompressType());
+                    byte[] data =
+                            codec.compress(body, this.defaultMQProducer.getCompressLevel(),
+                                this.compressDictionaryTable.get(msg.getTopic()));
                     if (data != null) {
                         msg.setBody(data);
                         return true;
@@ -444,6 +464,9 @@ public class DefaultMQProducerImpl implements MQProducerInner {
                 int sysFlag = 0;
                 if (this.tryToCompressMessage(msg)) {
                     sysFlag |= MessageSysFlag.CompressedFlag;
+                    sysFlag =
+                            MessageSysFlag.resetCompressionType(sysFlag,
+                                this.defaultMQProducer.getCompressType());
                 }
 
                 final String tranMsg = msg.getProperty(Message.PROPERTY_TRANSACTION_PREPARED);
@@ -25,6 +25,7 @@ import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.client.impl.producer.DefaultMQProducerImpl;
 import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
 import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
@@ -57,6 +58,14 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
      * Message BodyСֵѹ
      */
     private int compressMsgBodyOverHowmuch = 1024 * 4;
+    /**
+     * Message Bodyѹ㷨CompressionCodecszlib㷨ҪѶͬʱע
+     */
+    private int compressType = CompressionCodecs.ZLIB;
+    /**
+     * Message Bodyѹzlibȡֵ1-9ԽѹԽߣCPUҲԽ
+     */
+    private int compressLevel = 5;
     /**
      * ϢѾɹдMasterˢ̳ʱͬSlaveʧܣһBroker޸Ĭֵ<br>
      * ˳ϢЧ
@@ -243,6 +252,35 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
     }
 
 
+    public int getCompressType() {
+        return compressType;
+    }
+
+
+    public void setCompressType(int compressType) {
+        this.compressType = compressType;
+    }
+
+
+    public int getCompressLevel() {
+        return compressLevel;
+    }
+
+
+    public void setCompressLevel(int compressLevel) {
+        this.compressLevel = compressLevel;
+    }
+
+
+    /**
+     * ΪTopicָѹԤֵ䣬ֵȡԸTopic͵ϢݣСϢЧ<br>
+     * ѶҪCompressionCodecs.registerDictionaryעֵͬ
+     */
+    public void registerCompressDictionary(final String topic, final byte[] dictionary) {
+        this.defaultMQProducerImpl.registerCompressDictionary(topic, dictionary);
+    }
+
+
     public DefaultMQProducerImpl getDefaultMQProducerImpl() {
         return defaultMQProducerImpl;
     }
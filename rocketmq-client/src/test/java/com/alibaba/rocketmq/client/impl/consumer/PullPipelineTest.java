@@ -0,0 +1,127 @@
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.client.consumer.PullStatus;
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class PullPipelineTest {
+    private static PullResult buildFound(long begin, long end, long maxOffset) {
+        List<MessageExt> msgs = new ArrayList<MessageExt>();
+        for (long i = begin; i < end; i++) {
+            MessageExt msg = new MessageExt();
+            msg.setQueueOffset(i);
+            msgs.add(msg);
+        }
+
+        return new PullResult(PullStatus.FOUND, end, 0, maxOffset, msgs);
+    }
+
+
+    @Test
+    public void test_reserve_only_head_when_backlog_unknown() {
+        PullPipeline pipeline = new PullPipeline();
+        List<PullPipeline.PullSlot> slots = pipeline.reserve(100, 4, 32);
+        Assert.assertEquals(1, slots.size());
+        Assert.assertEquals(100, slots.get(0).getBeginOffset());
+
+        // ;δ֪ѻٷ
+        Assert.assertTrue(pipeline.reserve(100, 4, 32).isEmpty());
+    }
+
+
+    @Test
+    public void test_complete_out_of_order() {
+        PullPipeline pipeline = new PullPipeline();
+        PullPipeline.PullSlot head = pipeline.reserve(0, 4, 32).get(0);
+        List<PullResult> ready = pipeline.complete(head, buildFound(0, 32, 1000));
+        Assert.assertEquals(1, ready.size());
+
+        List<PullPipeline.PullSlot> slots = pipeline.reserve(32, 4, 32);
+        Assert.assertEquals(4, slots.size());
+        Assert.assertEquals(4, pipeline.getInflight());
+
+        // 󷢵ȷأҪȴǰ
+        Assert.assertTrue(pipeline.complete(slots.get(2), buildFound(96, 128, 1000)).isEmpty());
+        Assert.assertTrue(pipeline.complete(slots.get(1), buildFound(64, 96, 1000)).isEmpty());
+
+        ready = pipeline.complete(slots.get(0), buildFound(32, 64, 1000));
+        Assert.assertEquals(3, ready.size());
+        Assert.assertEquals(32, ready.get(0).getMsgFoundList().get(0).getQueueOffset());
+        Assert.assertEquals(64, ready.get(1).getMsgFoundList().get(0).getQueueOffset());
+        Assert.assertEquals(96, ready.get(2).getMsgFoundList().get(0).getQueueOffset());
+        Assert.assertEquals(128, pipeline.getNextDeliverOffset());
+    }
+
+
+    @Test
+    public void test_complete_with_hole() {
+        PullPipeline pipeline = new PullPipeline();
+        PullPipeline.PullSlot head = pipeline.reserve(0, 4, 32).get(0);
+        pipeline.complete(head, buildFound(0, 32, 1000));
+
+        List<PullPipeline.PullSlot> slots = pipeline.reserve(32, 3, 32);
+        Assert.assertEquals(3, slots.size());
+
+        // ֻһϢϣӿնȡ
+        List<PullResult> ready = pipeline.complete(slots.get(0), buildFound(32, 40, 1000));
+        Assert.assertEquals(1, ready.size());
+        Assert.assertEquals(40, pipeline.getNextDeliverOffset());
+        Assert.assertTrue(pipeline.complete(slots.get(1), buildFound(64, 96, 1000)).isEmpty());
+
+        List<PullPipeline.PullSlot> retry = pipeline.reserve(40, 3, 32);
+        Assert.assertEquals(40, retry.get(0).getBeginOffset());
+    }
+
+
+    @Test
+    public void test_complete_with_overlap() {
+        PullPipeline pipeline = new PullPipeline();
+        PullPipeline.PullSlot head = pipeline.reserve(0, 4, 32).get(0);
+        pipeline.complete(head, buildFound(0, 32, 1000));
+
+        List<PullPipeline.PullSlot> slots = pipeline.reserve(32, 2, 32);
+        // Brokerɨһ֣һص
+        pipeline.complete(slots.get(0), buildFound(32, 80, 1000));
+        List<PullResult> ready = pipeline.complete(slots.get(1), buildFound(64, 96, 1000));
+        Assert.assertEquals(1, ready.size());
+        Assert.assertEquals(16, ready.get(0).getMsgFoundList().size());
+        Assert.assertEquals(80, ready.get(0).getMsgFoundList().get(0).getQueueOffset());
+        Assert.assertEquals(96, pipeline.getNextDeliverOffset());
+    }
+
+
+    @Test
+    public void test_discard_stale_callback() {
+        PullPipeline pipeline = new PullPipeline();
+        PullPipeline.PullSlot head = pipeline.reserve(0, 4, 32).get(0);
+        pipeline.complete(head, buildFound(0, 32, 1000));
+
+        List<PullPipeline.PullSlot> slots = pipeline.reserve(32, 3, 32);
+        Assert.assertFalse(pipeline.discardIfStale(slots.get(1)));
+
+        // һ쳣ˮãĻصھɴ
+        pipeline.fail(slots.get(0));
+        Assert.assertEquals(2, pipeline.getInflight());
+        Assert.assertTrue(pipeline.discardIfStale(slots.get(1)));
+        Assert.assertTrue(pipeline.discardIfStale(slots.get(2)));
+        Assert.assertEquals(0, pipeline.getInflight());
+        Assert.assertEquals(32, pipeline.getNextDeliverOffset());
+
+        // ´Ӱ
+        PullPipeline.PullSlot retry = pipeline.reserve(32, 3, 32).get(0);
+        Assert.assertEquals(32, retry.getBeginOffset());
+        Assert.assertFalse(pipeline.discardIfStale(retry));
+        Assert.assertEquals(1, pipeline.complete(retry, buildFound(32, 64, 1000)).size());
+        Assert.assertEquals(64, pipeline.getNextDeliverOffset());
+    }
+}
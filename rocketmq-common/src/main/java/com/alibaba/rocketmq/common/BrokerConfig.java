@@ -61,6 +61,12 @@ public class BrokerConfig {
 
     private int flushConsumerOffsetHistoryInterval = 1000 * 60;
 
+    // ѽǷԶƿռ־ʽ־ûرպÿȫдJSONļ
+    private boolean consumerOffsetBinaryEnable = false;
+
+    // ѽ־˴С󣬺ϲµĿ
+    private int consumerOffsetJournalCompactSize = 1024 * 1024 * 4;
+
     // ѯϢʱȣλСʱ
     private long queryMessageMaxTimeSpan = 3;
 
@@ -309,4 +315,24 @@ public class BrokerConfig {
     public void setRejectTransactionMessage(boolean rejectTransactionMessage) {
         this.rejectTransactionMessage = rejectTransactionMessage;
     }
+
+
+    public boolean isConsumerOffsetBinaryEnable() {
+        return consumerOffsetBinaryEnable;
+    }
+
+
+    public void setConsumerOffsetBinaryEnable(boolean consumerOffsetBinaryEnable) {
+        this.consumerOffsetBinaryEnable = consumerOffsetBinaryEnable;
+    }
+
+
+    public int getConsumerOffsetJournalCompactSize() {
+        return consumerOffsetJournalCompactSize;
+    }
+
+
+    public void setConsumerOffsetJournalCompactSize(int consumerOffsetJournalCompactSize) {
+        this.consumerOffsetJournalCompactSize = consumerOffsetJournalCompactSize;
+    }
 }
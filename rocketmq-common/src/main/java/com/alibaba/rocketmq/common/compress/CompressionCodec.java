@@ -0,0 +1,25 @@
+/**
+ * $Id: CompressionCodec.java 1831 2013-05-16 01:39:51Z shijia.wxr $
+ */
+package com.alibaba.rocketmq.common.compress;
+
+import java.io.IOException;
+
+
+/**
+ * Ϣѹ㷨
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public interface CompressionCodec {
+    /**
+     * @param level
+     *            ѹ𣬺ɾ㷨
+     * @param dictionary
+     *            Ԥֵ䣬Ϊnull㷨ֵ֧ʱ
+     */
+    public byte[] compress(final byte[] src, final int level, final byte[] dictionary) throws IOException;
+
+
+    public byte[] uncompress(final byte[] src) throws IOException;
+}
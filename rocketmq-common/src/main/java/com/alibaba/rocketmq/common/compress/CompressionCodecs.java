@@ -0,0 +1,92 @@
+/**
+ * $Id: CompressionCodecs.java 1831 2013-05-16 01:39:51Z shijia.wxr $
+ */
+package com.alibaba.rocketmq.common.compress;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+
+
+/**
+ * ѹ㷨Ԥֵע<br>
+ * 㷨ż¼ϢSysFlagУ0Ϊzlibɰ汾ѹϢzlibѹ<br>
+ * 㷨ҪӦѶͬʱעᣬδע㷨ѹʱ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class CompressionCodecs {
+    // ֻzlibӦѹregisterCodecע
+    public static final int ZLIB = 0;
+
+    private static final CompressionCodec[] codecTable = new CompressionCodec[MessageSysFlag
+        .getCompressionType(MessageSysFlag.CompressionTypeMask) + 1];
+    private static final ConcurrentHashMap<Long/* Adler32 */, byte[]> dictionaryTable =
+            new ConcurrentHashMap<Long, byte[]>();
+
+    static {
+        codecTable[ZLIB] = new ZlibCodec();
+    }
+
+
+    public static synchronized void registerCodec(final int type, final CompressionCodec codec) {
+        if (type < 0 || type >= codecTable.length) {
+            throw new IllegalArgumentException("compression type out of range, " + type);
+        }
+
+        codecTable[type] = codec;
+    }
+
+
+    public static CompressionCodec getCodec(final int type) {
+        if (type < 0 || type >= codecTable.length) {
+            return null;
+        }
+
+        return codecTable[type];
+    }
+
+
+    /**
+     * עԤֵ䣬ѶҪעֵͬ
+     * 
+     * @return ֵţֵAdler32Уֵ
+     */
+    public static long registerDictionary(final byte[] dictionary) {
+        long id = dictionaryId(dictionary);
+        dictionaryTable.put(id, dictionary);
+        return id;
+    }
+
+
+    public static byte[] findDictionary(final long id) {
+        return dictionaryTable.get(id);
+    }
+
+
+    public static long dictionaryId(final byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary);
+        return adler32.getValue();
+    }
+
+
+    /**
+     * ϢSysFlagм¼㷨ѹδѹϢԭ
+     */
+    public static byte[] uncompress(final int sysFlag, final byte[] body) throws IOException {
+        if ((sysFlag & MessageSysFlag.CompressedFlag) != MessageSysFlag.CompressedFlag) {
+            return body;
+        }
+
+        int type = MessageSysFlag.getCompressionType(sysFlag);
+        CompressionCodec codec = getCodec(type);
+        if (null == codec) {
+            throw new IOException("compression type " + type + " not registered");
+        }
+
+        return codec.uncompress(body);
+    }
+}
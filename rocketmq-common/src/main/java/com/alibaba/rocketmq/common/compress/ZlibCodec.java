@@ -0,0 +1,81 @@
+/**
+ * $Id: ZlibCodec.java 1831 2013-05-16 01:39:51Z shijia.wxr $
+ */
+package com.alibaba.rocketmq.common.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * zlibѹݾɰ汾ֻCompressedFlagϢ<br>
+ * ʹԤֵʱzlibͷ¼ֵAdler32Уֵѹʱݴ˴CompressionCodecsֵ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ZlibCodec implements CompressionCodec {
+    @Override
+    public byte[] compress(final byte[] src, final int level, final byte[] dictionary) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(src);
+            deflater.finish();
+
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(src.length);
+            byte[] buffer = new byte[Math.min(src.length + 64, 1024 * 64)];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                byteArrayOutputStream.write(buffer, 0, len);
+            }
+
+            return byteArrayOutputStream.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+
+    @Override
+    public byte[] uncompress(final byte[] src) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src);
+
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(src.length * 4);
+            byte[] buffer = new byte[Math.min(src.length * 4 + 64, 1024 * 64)];
+            while (!inflater.finished()) {
+                int len = inflater.inflate(buffer);
+                if (len > 0) {
+                    byteArrayOutputStream.write(buffer, 0, len);
+                }
+                else if (inflater.needsDictionary()) {
+                    // getAdlerзintֵ޷ŵAdler32ֵ
+                    long dictionaryId = inflater.getAdler() & 0xFFFFFFFFL;
+                    byte[] dictionary = CompressionCodecs.findDictionary(dictionaryId);
+                    if (null == dictionary) {
+                        throw new IOException("compression dictionary not found, id " + dictionaryId);
+                    }
+                    inflater.setDictionary(dictionary);
+                }
+                else if (inflater.needsInput()) {
+                    throw new IOException("compressed data truncated");
+                }
+            }
+
+            return byteArrayOutputStream.toByteArray();
+        }
+        catch (DataFormatException e) {
+            throw new IOException("compressed data format error, " + e.getMessage());
+        }
+        finally {
+            inflater.end();
+        }
+    }
+}
@@ -50,6 +50,10 @@ public class Message implements Serializable {
      * ϢʱͶʱ伶0ʾʱ0ʾضʱ𣨾弶ڷ˶壩
      */
     public static final String PROPERTY_DELAY_TIME_LEVEL = "DELAY";
+    /**
+     * ϢʱͶݵľʱ䣨룩ʱƣʱͬʱʱʱΪ׼
+     */
+    public static final String PROPERTY_DELIVER_TIME = "DELIVER_TIME";
 
     /**
      * ڲʹ
@@ -169,6 +173,21 @@ public class Message implements Serializable {
     }
 
 
+    public long getDeliverTimestamp() {
+        String t = this.getProperty(PROPERTY_DELIVER_TIME);
+        if (t != null) {
+            return Long.parseLong(t);
+        }
+
+        return 0;
+    }
+
+
+    public void setDeliverTimestamp(long deliverTimestamp) {
+        this.putProperty(PROPERTY_DELIVER_TIME, String.valueOf(deliverTimestamp));
+    }
+
+
     public boolean isWaitStoreMsgOK() {
         String result = this.getProperty(PROPERTY_WAIT_STORE_MSG_OK);
         if (null == result)
@@ -15,7 +15,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.alibaba.rocketmq.common.UtilALl;
-import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
 
 
 /**
@@ -80,6 +80,16 @@ public class MessageDecoder {
      * ͻʹãSLAVEҲʹ
      */
     public static MessageExt decode(java.nio.ByteBuffer byteBuffer, final boolean readBody) {
+        return decode(byteBuffer, readBody, true);
+    }
+
+
+    /**
+     * BrokerʹʱѹϢ壬ԭѹֽSYSFLAGдʱͻܽѹ<br>
+     * ֵѹֻڿͻעѹ㷨Broker޷ѹ
+     */
+    public static MessageExt decode(java.nio.ByteBuffer byteBuffer, final boolean readBody,
+            final boolean deCompressBody) {
         try {
             MessageExt msgExt = new MessageExt();
 
@@ -150,8 +160,8 @@ public class MessageDecoder {
                     byteBuffer.get(body);
 
                     // uncompress body
-                    if ((sysFlag & MessageSysFlag.CompressedFlag) == MessageSysFlag.CompressedFlag) {
-                        body = UtilALl.uncompress(body);
+                    if (deCompressBody) {
+                        body = CompressionCodecs.uncompress(sysFlag, body);
                     }
 
                     msgExt.setBody(body);
@@ -89,7 +89,10 @@ public final class MQProtos {
 
         // Broker »һ
         UPDATE_AND_CREATE_SUBSCRIPTIONGROUP(40, 200),
-        GET_ALL_SUBSCRIPTIONGROUP_CONFIG(41, 201), ;
+        GET_ALL_SUBSCRIPTIONGROUP_CONFIG(41, 201),
+
+        // Broker һθ¶еConsumer Offset
+        UPDATE_CONSUMER_OFFSET_BATCH(42, 47), ;
 
         // Broker Ϣ
         public static final int SEND_MESSAGE_VALUE = 10;
@@ -173,6 +176,9 @@ public final class MQProtos {
         public static final int UPDATE_AND_CREATE_SUBSCRIPTIONGROUP_VALUE = 200;
         public static final int GET_ALL_SUBSCRIPTIONGROUP_CONFIG_VALUE = 201;
 
+        // Broker һθ¶еConsumer Offset
+        public static final int UPDATE_CONSUMER_OFFSET_BATCH_VALUE = 47;
+
 
         public static MQRequestCode valueOf(int value) {
             switch (value) {
@@ -259,6 +265,9 @@ public final class MQProtos {
                 return UPDATE_AND_CREATE_SUBSCRIPTIONGROUP;
             case 201:
                 return GET_ALL_SUBSCRIPTIONGROUP_CONFIG;
+
+            case 47:
+                return UPDATE_CONSUMER_OFFSET_BATCH;
             default:
                 return null;
             }
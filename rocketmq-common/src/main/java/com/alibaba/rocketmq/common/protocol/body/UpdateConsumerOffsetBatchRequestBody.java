@@ -0,0 +1,48 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * һͬһBroker϶еѽ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class UpdateConsumerOffsetBatchRequestBody extends RemotingSerializable {
+    private String consumerGroup;
+    private HashMap<String/* topic */, HashMap<Integer/* queueId */, Long>> offsetTable =
+            new HashMap<String, HashMap<Integer, Long>>();
+
+
+    public void putOffset(final String topic, final int queueId, final long offset) {
+        HashMap<Integer, Long> queueTable = this.offsetTable.get(topic);
+        if (null == queueTable) {
+            queueTable = new HashMap<Integer, Long>();
+            this.offsetTable.put(topic, queueTable);
+        }
+
+        queueTable.put(queueId, offset);
+    }
+
+
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+
+    public void setConsumerGroup(String consumerGroup) {
+        this.consumerGroup = consumerGroup;
+    }
+
+
+    public HashMap<String, HashMap<Integer, Long>> getOffsetTable() {
+        return offsetTable;
+    }
+
+
+    public void setOffsetTable(HashMap<String, HashMap<Integer, Long>> offsetTable) {
+        this.offsetTable = offsetTable;
+    }
+}
@@ -24,6 +24,24 @@ public class MessageSysFlag {
     public final static int TransactionRollbackType = (0x3 << 2);
 
 
+    /**
+     * SysFlag ѹ㷨ռ456λֻCompressedFlagλʱЧ<br>
+     * 0Ϊzlibɰ汾ѹϢ
+     */
+    public final static int CompressionTypeShift = 4;
+    public final static int CompressionTypeMask = (0x7 << CompressionTypeShift);
+
+
+    public static int getCompressionType(final int flag) {
+        return (flag & CompressionTypeMask) >>> CompressionTypeShift;
+    }
+
+
+    public static int resetCompressionType(final int flag, final int type) {
+        return (flag & (~CompressionTypeMask)) | ((type << CompressionTypeShift) & CompressionTypeMask);
+    }
+
+
     public static int getTransactionValue(final int flag) {
         return flag & TransactionRollbackType;
     }
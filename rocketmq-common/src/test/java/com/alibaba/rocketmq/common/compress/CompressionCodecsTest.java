@@ -0,0 +1,59 @@
+package com.alibaba.rocketmq.common.compress;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+
+
+public class CompressionCodecsTest {
+    private static byte[] buildBody(int seq) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"orderId\":").append(seq).append(",\"buyer\":\"buyer_").append(seq)
+            .append("\",\"status\":\"WAIT_SELLER_SEND_GOODS\",\"items\":[");
+        for (int i = 0; i < 8; i++) {
+            sb.append("{\"itemId\":").append(seq * 10 + i).append(",\"title\":\"item title ").append(i)
+                .append("\",\"price\":").append(i * 100).append("},");
+        }
+        sb.append("{}]}");
+        return sb.toString().getBytes();
+    }
+
+
+    @Test
+    public void test_uncompress_legacy_zlib() throws Exception {
+        byte[] body = buildBody(1);
+        // ɰ汾ֻCompressedFlag
+        byte[] data = UtilALl.compress(body, 9);
+        Assert.assertArrayEquals(body, CompressionCodecs.uncompress(MessageSysFlag.CompressedFlag, data));
+    }
+
+
+    @Test
+    public void test_zlib_with_dictionary() throws Exception {
+        CompressionCodec codec = CompressionCodecs.getCodec(CompressionCodecs.ZLIB);
+        int sysFlag =
+                MessageSysFlag.resetCompressionType(MessageSysFlag.CompressedFlag, CompressionCodecs.ZLIB);
+
+        // ֵAdler32ֵλΪ01Ҫ
+        for (int seq = 0; seq < 16; seq++) {
+            byte[] dictionary = buildBody(seq * 1000);
+            CompressionCodecs.registerDictionary(dictionary);
+
+            byte[] body = buildBody(seq * 1000 + 1);
+            byte[] plain = codec.compress(body, 1, null);
+            byte[] withDictionary = codec.compress(body, 1, dictionary);
+            Assert.assertTrue(withDictionary.length < plain.length);
+            Assert.assertArrayEquals(body, CompressionCodecs.uncompress(sysFlag, withDictionary));
+        }
+    }
+
+
+    @Test(expected = java.io.IOException.class)
+    public void test_unregistered_type() throws Exception {
+        int sysFlag = MessageSysFlag.resetCompressionType(MessageSysFlag.CompressedFlag, 2);
+        Assert.assertEquals(2, MessageSysFlag.getCompressionType(sysFlag));
+        CompressionCodecs.uncompress(sysFlag, new byte[] { 1, 2, 3 });
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * $Id: Compression.java 1831 2013-05-16 01:39:51Z shijia.wxr $
+ */
+package com.alibaba.rocketmq.example.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.alibaba.rocketmq.common.compress.CompressionCodec;
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+
+
+/**
+ * ܲԣȽϲͬѹ㷨ԤֵµѹCPU
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class Compression {
+    private static byte[] buildPayload(final Random random, final int messageSize) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"tradeId\":").append(random.nextInt(Integer.MAX_VALUE))//
+            .append(",\"buyerNick\":\"buyer_").append(random.nextInt(100000))//
+            .append("\",\"status\":\"WAIT_SELLER_SEND_GOODS\",\"orders\":[");
+        while (sb.length() < messageSize) {
+            sb.append("{\"itemId\":").append(random.nextInt(Integer.MAX_VALUE))//
+                .append(",\"title\":\"item title ").append(random.nextInt(1000))//
+                .append("\",\"price\":").append(random.nextInt(100000))//
+                .append(",\"num\":").append(random.nextInt(10))//
+                .append(",\"refundStatus\":\"NO_REFUND\"},");
+        }
+        sb.append("{}]}");
+
+        return sb.toString().getBytes();
+    }
+
+
+    private static void run(final String name, final CompressionCodec codec, final int level,
+            final byte[] dictionary, final List<byte[]> payloads, final int rounds) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long rawBytes = 0;
+        long compressedBytes = 0;
+        long compressCpu = 0;
+        long uncompressCpu = 0;
+
+        for (int r = 0; r < rounds; r++) {
+            for (byte[] payload : payloads) {
+                long begin = threadMXBean.getCurrentThreadCpuTime();
+                byte[] data = codec.compress(payload, level, dictionary);
+                long middle = threadMXBean.getCurrentThreadCpuTime();
+                codec.uncompress(data);
+                long end = threadMXBean.getCurrentThreadCpuTime();
+
+                rawBytes += payload.length;
+                compressedBytes += data.length;
+                compressCpu += middle - begin;
+                uncompressCpu += end - middle;
+            }
+        }
+
+        System.out.printf("%-24s ratio %6.3f compress %8.2f MB/s-cpu uncompress %8.2f MB/s-cpu\n", //
+            name, //
+            (double) compressedBytes / rawBytes, //
+            rawBytes / 1024.0 / 1024.0 / (compressCpu / 1000000000.0), //
+            rawBytes / 1024.0 / 1024.0 / (uncompressCpu / 1000000000.0));
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        final int messageSize = args.length >= 1 ? Integer.parseInt(args[0]) : 1024 * 4;
+        final int messageCount = args.length >= 2 ? Integer.parseInt(args[1]) : 1000;
+        final int rounds = args.length >= 3 ? Integer.parseInt(args[2]) : 10;
+
+        System.out.printf("messageSize %d messageCount %d rounds %d\n", messageSize, messageCount, rounds);
+
+        Random random = new Random(0);
+        List<byte[]> payloads = new ArrayList<byte[]>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            payloads.add(buildPayload(random, messageSize));
+        }
+
+        // ֵȡͬ͵һϢ
+        byte[] dictionary = buildPayload(random, Math.min(messageSize, 1024 * 32));
+        CompressionCodecs.registerDictionary(dictionary);
+
+        CompressionCodec zlib = CompressionCodecs.getCodec(CompressionCodecs.ZLIB);
+        // Ԥ
+        run("warmup", zlib, 1, null, payloads, 1);
+
+        for (int level : new int[] { 1, 3, 5, 6, 9 }) {
+            run("zlib-" + level, zlib, level, null, payloads, rounds);
+        }
+        for (int level : new int[] { 1, 5 }) {
+            run("zlib-" + level + "-dictionary", zlib, level, dictionary, payloads, rounds);
+        }
+
+        // ѹⲢעһ
+        int maxType = MessageSysFlag.getCompressionType(MessageSysFlag.CompressionTypeMask);
+        for (int type = CompressionCodecs.ZLIB + 1; type <= maxType; type++) {
+            CompressionCodec codec = CompressionCodecs.getCodec(type);
+            if (codec != null) {
+                run("type-" + type, codec, 1, null, payloads, rounds);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.alibaba.rocketmq.research.store;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.archive.ArchiveStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * ܲԣCommitLog鵵εѹOffsetȡʱ<br>
+ * дģ⽻Ϣȴһļȫ鵵Ȼֱڿ黺䡢ȡ鵵Ϣ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ArchiveBenchmark {
+    private static byte[] buildPayload(final Random random, final int messageSize) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"tradeId\":").append(random.nextInt(Integer.MAX_VALUE))//
+            .append(",\"buyerNick\":\"buyer_").append(random.nextInt(100000))//
+            .append("\",\"status\":\"WAIT_SELLER_SEND_GOODS\",\"orders\":[");
+        while (sb.length() < messageSize) {
+            sb.append("{\"itemId\":").append(random.nextInt(Integer.MAX_VALUE))//
+                .append(",\"title\":\"item title ").append(random.nextInt(1000))//
+                .append("\",\"price\":").append(random.nextInt(100000))//
+                .append(",\"num\":").append(random.nextInt(10))//
+                .append(",\"refundStatus\":\"NO_REFUND\"},");
+        }
+        sb.append("{}]}");
+
+        return sb.toString().getBytes();
+    }
+
+
+    private static MessageStoreConfig buildConfig(final String root, final int mapedFileSize,
+            final int blockSize, final long blockCacheSize) {
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setStorePathCommitLog(root + File.separator + "commitlog");
+        config.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        config.setStorePathIndex(root + File.separator + "index");
+        config.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        config.setAbortFile(root + File.separator + "storeAbort");
+        config.setTranStateTableStorePath(root + File.separator + "transaction" + File.separator
+                + "statetable");
+        config.setTranRedoLogStorePath(root + File.separator + "transaction" + File.separator + "redolog");
+        config.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        config.setStorePathTimerLog(root + File.separator + "timerlog");
+        config.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        config.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        config.setMapedFileSizeCommitLog(mapedFileSize);
+        config.setMessageIndexEnable(false);
+        config.setCommitLogArchiveEnable(true);
+        config.setCommitLogArchiveKeepFileNums(1);
+        config.setCommitLogArchiveInterval(1000);
+        config.setCommitLogArchiveBlockSize(blockSize);
+        config.setCommitLogArchiveBlockCacheSize(blockCacheSize);
+        return config;
+    }
+
+
+    private static void lookup(final String name, final DefaultMessageStore store, final long[] offsets,
+            final int[] sizes, final int archivedCount, final int lookups, final Random random) {
+        long[] latencies = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            int index = random.nextInt(archivedCount);
+            long begin = System.nanoTime();
+            SelectMapedBufferResult result = store.selectOneMessageByOffset(offsets[index], sizes[index]);
+            latencies[i] = System.nanoTime() - begin;
+            if (null == result) {
+                throw new IllegalStateException("archived message not found, offset " + offsets[index]);
+            }
+            result.release();
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%-6s lookups %d p50 %6.1fus p90 %6.1fus p99 %6.1fus p999 %6.1fus max %8.1fus\n", //
+            name, lookups, //
+            latencies[lookups / 2] / 1000.0, //
+            latencies[(int) (lookups * 0.9)] / 1000.0, //
+            latencies[(int) (lookups * 0.99)] / 1000.0, //
+            latencies[(int) (lookups * 0.999)] / 1000.0, //
+            latencies[lookups - 1] / 1000.0);
+    }
+
+
+    private static void deleteDir(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteDir(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        final int messageSize = args.length >= 1 ? Integer.parseInt(args[0]) : 1024;
+        final int messageCount = args.length >= 2 ? Integer.parseInt(args[1]) : 400000;
+        final int mapedFileSize = args.length >= 3 ? Integer.parseInt(args[2]) : 1024 * 1024 * 64;
+        final int blockSize = args.length >= 4 ? Integer.parseInt(args[3]) : 1024 * 64;
+        final int lookups = args.length >= 5 ? Integer.parseInt(args[4]) : 100000;
+
+        System.out.printf("messageSize %d messageCount %d mapedFileSize %d blockSize %d lookups %d\n",
+            messageSize, messageCount, mapedFileSize, blockSize, lookups);
+
+        String root = System.getProperty("java.io.tmpdir") + File.separator + "archive_benchmark_"
+                + System.currentTimeMillis();
+        // 黺ֻ飬ȡҪѹ
+        DefaultMessageStore store =
+                new DefaultMessageStore(buildConfig(root, mapedFileSize, blockSize, blockSize * 16L));
+        try {
+            if (!store.load()) {
+                System.out.println("load message store failed");
+                return;
+            }
+            store.start();
+
+            InetSocketAddress host = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+            Random random = new Random(0);
+            long[] offsets = new long[messageCount];
+            int[] sizes = new int[messageCount];
+            for (int i = 0; i < messageCount; i++) {
+                MessageExtBrokerInner msg = new MessageExtBrokerInner();
+                msg.setTopic("ArchiveBenchmark");
+                msg.setTags("TAG" + (i % 8));
+                msg.setKeys("ORDER_" + i);
+                msg.setBody(buildPayload(random, messageSize));
+                msg.setQueueId(i % 4);
+                msg.setBornTimestamp(System.currentTimeMillis());
+                msg.setBornHost(host);
+                msg.setStoreHost(host);
+                PutMessageResult result = store.putMessage(msg);
+                if (null == result || !result.isOk()) {
+                    throw new IllegalStateException("put message failed, " + result);
+                }
+                offsets[i] = result.getAppendMessageResult().getWroteOffset();
+                sizes[i] = result.getAppendMessageResult().getWroteBytes();
+            }
+
+            // ȴһļȫ鵵
+            ArchiveStore archiveStore = store.getCommitLog().getArchiveStore();
+            long archiveEnd = store.getCommitLog().getMaxOffset() / mapedFileSize * mapedFileSize;
+            while (archiveEnd > 0 && !archiveStore.contains(archiveEnd - 1)) {
+                Thread.sleep(100);
+            }
+
+            int archivedCount = 0;
+            while (archivedCount < messageCount
+                    && offsets[archivedCount] + sizes[archivedCount] <= archiveEnd) {
+                archivedCount++;
+            }
+            if (archivedCount == 0) {
+                System.out.println("no message archived, increase messageCount or decrease mapedFileSize");
+                return;
+            }
+
+            HashMap<String, String> info = store.getRuntimeInfo();
+            long rawBytes = Long.parseLong(info.get("archiveRawBytes"));
+            long storedBytes = Long.parseLong(info.get("archiveStoredBytes"));
+            System.out.printf("archived %d messages, segments %s raw %d stored %d ratio %.3f\n",
+                archivedCount, info.get("archiveSegmentNums"), rawBytes, storedBytes, (double) storedBytes
+                        / rawBytes);
+
+            // Ԥ
+            lookup("warmup", store, offsets, sizes, archivedCount, lookups, random);
+            lookup("cold", store, offsets, sizes, archivedCount, lookups, random);
+            // ֻϢڻ
+            lookup("cached", store, offsets, sizes, Math.min(archivedCount, 64), lookups, random);
+
+            info = store.getRuntimeInfo();
+            System.out.printf("block cache hit %s miss %s, read block avg %sus\n",
+                info.get("archiveBlockCacheHit"), info.get("archiveBlockCacheMiss"),
+                info.get("archiveReadBlockAvgTimeMicros"));
+        }
+        finally {
+            store.shutdown();
+            deleteDir(new File(root));
+        }
+    }
+}
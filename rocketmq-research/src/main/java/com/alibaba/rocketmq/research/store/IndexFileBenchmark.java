@@ -0,0 +1,51 @@
+package com.alibaba.rocketmq.research.store;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.rocketmq.store.index.IndexFile;
+
+
+/**
+ * ܲԣļдѯKey<br>
+ * ļдʱĿ¼Խɾ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class IndexFileBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int keyNum = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final File storeDir = new File(System.getProperty("java.io.tmpdir") + File.separator
+                + "IndexFileBenchmark_" + System.nanoTime());
+
+        IndexFile indexFile =
+                new IndexFile(new File(storeDir, "0").getPath(), keyNum / 4, keyNum + 1, 0, 0);
+        try {
+            long beginTime = System.currentTimeMillis();
+            for (int i = 0; i < keyNum; i++) {
+                if (!indexFile.putKey("TopicTest#key_" + i, i, beginTime)) {
+                    System.out.println("put key failed, " + i);
+                    return;
+                }
+            }
+            long eclipseTime = Math.max(1, System.currentTimeMillis() - beginTime);
+            System.out.println("put " + keyNum + " keys, eclipse time(ms) " + eclipseTime + ", " + keyNum
+                    * 1000L / eclipseTime + " keys/s");
+
+            beginTime = System.currentTimeMillis();
+            List<Long> phyOffsets = new ArrayList<Long>();
+            for (int i = 0; i < keyNum; i++) {
+                phyOffsets.clear();
+                indexFile.selectPhyOffset(phyOffsets, "TopicTest#key_" + i, 32, 0, Long.MAX_VALUE);
+            }
+            eclipseTime = Math.max(1, System.currentTimeMillis() - beginTime);
+            System.out.println("select " + keyNum + " keys, eclipse time(ms) " + eclipseTime + ", " + keyNum
+                    * 1000L / eclipseTime + " keys/s");
+        }
+        finally {
+            indexFile.destroy(0);
+            storeDir.delete();
+        }
+    }
+}
@@ -16,10 +16,13 @@
 package com.alibaba.rocketmq.store;
 
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +30,8 @@ import org.slf4j.LoggerFactory;
 import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.UtilALl;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.FlushDiskType;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 
 
 /**
@@ -45,6 +50,8 @@ public class AllocateMapedFileService extends ServiceThread {
         private CountDownLatch countDownLatch = new CountDownLatch(1);
         // MapedFile
         private volatile MapedFile mapedFile = null;
+        // Ƿ߳ڵȴļǰԤ
+        private volatile boolean waiting = false;
 
 
         public AllocateRequest(String filePath, int fileSize) {
@@ -93,6 +100,16 @@ public class AllocateMapedFileService extends ServiceThread {
         }
 
 
+        public boolean isWaiting() {
+            return waiting;
+        }
+
+
+        public void setWaiting(boolean waiting) {
+            this.waiting = waiting;
+        }
+
+
         public int compareTo(AllocateRequest other) {
             return this.fileSize < other.fileSize ? 1 : this.fileSize > other.fileSize ? -1 : 0;
         }
@@ -106,6 +123,25 @@ public class AllocateMapedFileService extends ServiceThread {
     private PriorityBlockingQueue<AllocateRequest> requestQueue =
             new PriorityBlockingQueue<AllocateRequest>();
     private volatile boolean hasException = false;
+    // ΪnullʾԤ
+    private final MessageStoreConfig messageStoreConfig;
+    // Ԥͳ
+    private final AtomicLong warmMapedFileCount = new AtomicLong(0);
+    private final AtomicLong warmMapedFileTimeTotal = new AtomicLong(0);
+    private volatile long warmMapedFileLastTime = 0;
+    private volatile String warmMapedFileName = "";
+    private volatile int warmMapedFilePosition = 0;
+    private volatile int warmMapedFileSize = 0;
+
+
+    public AllocateMapedFileService() {
+        this(null);
+    }
+
+
+    public AllocateMapedFileService(final MessageStoreConfig messageStoreConfig) {
+        this.messageStoreConfig = messageStoreConfig;
+    }
 
 
     public MapedFile putRequestAndReturnMapedFile(String nextFilePath, String nextNextFilePath, int fileSize) {
@@ -136,6 +172,7 @@ public class AllocateMapedFileService extends ServiceThread {
         AllocateRequest result = this.requestTable.get(nextFilePath);
         try {
             if (result != null) {
+                result.setWaiting(true);
                 boolean waitOK = result.getCountDownLatch().await(WaitTimeOut, TimeUnit.MILLISECONDS);
                 if (!waitOK) {
                     log.warn("create mmap timeout " + result.getFilePath() + " " + result.getFileSize());
@@ -199,6 +236,12 @@ public class AllocateMapedFileService extends ServiceThread {
                             + " " + req.getFilePath() + " " + req.getFileSize());
                 }
 
+                // ԤɺٽMapedFileQueue
+                if (this.messageStoreConfig != null && this.messageStoreConfig.isWarmMapedFileEnable()
+                        && !req.isWaiting()) {
+                    this.warmMapedFile(req, mapedFile);
+                }
+
                 req.setMapedFile(mapedFile);
                 this.hasException = false;
             }
@@ -220,6 +263,74 @@ public class AllocateMapedFileService extends ServiceThread {
     }
 
 
+    /**
+     * pageдԭֵǰȱҳжpage cache䣬дϢʱCommitLogȱҳ<br>
+     * дԭֵıļݣ߳ڵȴļʱǰ
+     */
+    void warmMapedFile(final AllocateRequest req, final MapedFile mapedFile) {
+        final long beginTime = System.currentTimeMillis();
+        final MappedByteBuffer byteBuffer = mapedFile.getMappedByteBuffer();
+        final boolean syncFlush = FlushDiskType.SYNC_FLUSH == this.messageStoreConfig.getFlushDiskType();
+        final int flushLeastPages = Math.max(this.messageStoreConfig.getWarmMapedFileFlushLeastPages(), 1);
+
+        this.warmMapedFileName = mapedFile.getFileName();
+        this.warmMapedFileSize = req.getFileSize();
+        this.warmMapedFilePosition = 0;
+
+        int position = 0;
+        for (int pages = 1; position < req.getFileSize(); position += MapedFile.OS_PAGE_SIZE, pages++) {
+            byteBuffer.put(position, byteBuffer.get(position));
+
+            if (pages % flushLeastPages == 0) {
+                // ͬˢʱˢ̣֮һˢ̵
+                if (syncFlush) {
+                    byteBuffer.force();
+                }
+
+                this.warmMapedFilePosition = position + MapedFile.OS_PAGE_SIZE;
+                if (req.isWaiting()) {
+                    position += MapedFile.OS_PAGE_SIZE;
+                    break;
+                }
+
+                // ⳤʱѭGC
+                try {
+                    Thread.sleep(0);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    position += MapedFile.OS_PAGE_SIZE;
+                    break;
+                }
+            }
+        }
+
+        if (syncFlush) {
+            byteBuffer.force();
+        }
+
+        position = Math.min(position, req.getFileSize());
+        this.warmMapedFilePosition = position;
+        long eclipseTime = UtilALl.computeEclipseTimeMilliseconds(beginTime);
+        this.warmMapedFileCount.incrementAndGet();
+        this.warmMapedFileTimeTotal.addAndGet(eclipseTime);
+        this.warmMapedFileLastTime = eclipseTime;
+        log.info("warm mapedFile " + mapedFile.getFileName() + " " + position + "/" + req.getFileSize()
+                + " bytes, spent time(ms) " + eclipseTime);
+    }
+
+
+    public HashMap<String, String> getRuntimeInfo() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        result.put("warmMapedFileCount", String.valueOf(this.warmMapedFileCount.get()));
+        result.put("warmMapedFileTimeTotal", String.valueOf(this.warmMapedFileTimeTotal.get()));
+        result.put("warmMapedFileLastTime", String.valueOf(this.warmMapedFileLastTime));
+        result.put("warmMapedFileProgress", this.warmMapedFileName + " " + this.warmMapedFilePosition + "/"
+                + this.warmMapedFileSize);
+        return result;
+    }
+
+
     public void run() {
         log.info(this.getServiceName() + " service started");
 
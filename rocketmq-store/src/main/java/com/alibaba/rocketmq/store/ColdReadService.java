@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * ݶȡ<br>
+ * дλý϶ͨFileChannelλϢػĶڴ棬<br>
+ * Ϣ̲߳ΪmmapȱҳͬʱƲ̵߳mmapֻڶȡ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class ColdReadService {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    /**
+     * ػĶϢͷź黹
+     */
+    class ColdReadBuffer extends ReferenceResource {
+        private final ByteBuffer byteBuffer;
+
+
+        public ColdReadBuffer(final ByteBuffer byteBuffer) {
+            this.byteBuffer = byteBuffer;
+        }
+
+
+        @Override
+        public boolean cleanup(final long currentRef) {
+            if (currentRef > 0) {
+                return false;
+            }
+
+            this.byteBuffer.clear();
+            ColdReadService.this.bufferPool.offer(this.byteBuffer);
+            return true;
+        }
+    }
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final LinkedBlockingQueue<ByteBuffer> bufferPool;
+    // ͬʱ̵߳
+    private final Semaphore readSemaphore;
+
+    private final AtomicLong coldReadTimes = new AtomicLong(0);
+    private final AtomicLong coldReadBytes = new AtomicLong(0);
+    private final AtomicLong coldReadFallbackTimes = new AtomicLong(0);
+
+
+    public ColdReadService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+
+        MessageStoreConfig messageStoreConfig = defaultMessageStore.getMessageStoreConfig();
+        // ÿһϢܴС
+        int bufferSize =
+                messageStoreConfig.getMaxMessageSize()
+                        + messageStoreConfig.getMaxTransferBytesOnMessageInDisk();
+        this.bufferPool = new LinkedBlockingQueue<ByteBuffer>();
+        for (int i = 0; i < messageStoreConfig.getColdReadBufferNums(); i++) {
+            this.bufferPool.offer(ByteBuffer.allocateDirect(bufferSize));
+        }
+
+        this.readSemaphore = new Semaphore(Math.max(messageStoreConfig.getColdReadThreadNums(), 1), true);
+    }
+
+
+    /**
+     * ˳ȡһϢÿԪΪ{offsetPy, sizePy}<br>
+     * صĽϢʣϢɵ÷ͨmmapȡþʱnull
+     */
+    public List<SelectMapedBufferResult> readMessages(final List<long[]> messages) {
+        ByteBuffer byteBuffer = this.bufferPool.poll();
+        if (null == byteBuffer) {
+            this.coldReadFallbackTimes.incrementAndGet();
+            return null;
+        }
+
+        ColdReadBuffer coldReadBuffer = new ColdReadBuffer(byteBuffer);
+        List<SelectMapedBufferResult> results = new ArrayList<SelectMapedBufferResult>(messages.size());
+        try {
+            this.readSemaphore.acquire();
+            try {
+                for (long[] message : messages) {
+                    final long offsetPy = message[0];
+                    final int sizePy = (int) message[1];
+                    if (byteBuffer.remaining() < sizePy) {
+                        break;
+                    }
+
+                    byteBuffer.limit(byteBuffer.position() + sizePy);
+                    ByteBuffer messageBuffer = byteBuffer.slice();
+                    if (!this.readMessage(offsetPy, messageBuffer)) {
+                        break;
+                    }
+
+                    messageBuffer.flip();
+                    byteBuffer.position(byteBuffer.limit());
+                    byteBuffer.limit(byteBuffer.capacity());
+
+                    coldReadBuffer.hold();
+                    results.add(new SelectMapedBufferResult(offsetPy, messageBuffer, sizePy, coldReadBuffer));
+                    this.coldReadBytes.addAndGet(sizePy);
+                }
+            }
+            finally {
+                this.readSemaphore.release();
+            }
+        }
+        catch (InterruptedException e) {
+            log.warn("wait cold read interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            // ͷųʼãнͷź󻺳黹
+            coldReadBuffer.shutdown(0);
+        }
+
+        this.coldReadTimes.incrementAndGet();
+        return results;
+    }
+
+
+    private boolean readMessage(final long offsetPy, final ByteBuffer messageBuffer) {
+        MapedFile mapedFile = this.defaultMessageStore.getCommitLog().findMapedFileByOffset(offsetPy);
+        if (null == mapedFile || !mapedFile.hold()) {
+            return false;
+        }
+
+        try {
+            long position = offsetPy - mapedFile.getFileFromOffset();
+            while (messageBuffer.hasRemaining()) {
+                int readSize =
+                        mapedFile.getFileChannel().read(messageBuffer, position + messageBuffer.position());
+                if (readSize < 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+        catch (IOException e) {
+            log.warn("cold read message exception, offset " + offsetPy, e);
+            return false;
+        }
+        finally {
+            mapedFile.release();
+        }
+    }
+
+
+    public HashMap<String, String> getRuntimeInfo() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        result.put("coldReadTimes", String.valueOf(this.coldReadTimes.get()));
+        result.put("coldReadBytes", String.valueOf(this.coldReadBytes.get()));
+        result.put("coldReadFallbackTimes", String.valueOf(this.coldReadFallbackTimes.get()));
+        result.put("coldReadBufferIdle", String.valueOf(this.bufferPool.size()));
+        return result;
+    }
+}
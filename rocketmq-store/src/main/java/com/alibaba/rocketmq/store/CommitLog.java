@@ -19,9 +19,13 @@ import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -34,10 +38,13 @@ import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.archive.ArchiveStore;
 import com.alibaba.rocketmq.store.config.BrokerRole;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.schedule.TimerMessageService;
 
 
 /**
@@ -63,6 +70,8 @@ public class CommitLog {
     private final static int BlankMagicCode = 0xBBCCDDEE ^ 1880681586 + 8;
     // 洢ϢʱĻصӿ
     private final AppendMessageCallback appendMessageCallback;
+    // 鵵洢Ϊnullʾ鵵
+    private final ArchiveStore archiveStore;
 
     abstract class FlushCommitLogService extends ServiceThread {
     }
@@ -157,10 +166,8 @@ public class CommitLog {
     public class GroupCommitRequest {
         // ǰϢӦһOffset
         private final long nextOffset;
-        // 첽֪ͨ
-        private final CountDownLatch countDownLatch = new CountDownLatch(1);
-        // ˢǷɹ
-        private volatile boolean flushOK = false;
+        // 󴴽ʱ䣬жϳʱ
+        private final long createTimestamp = System.currentTimeMillis();
 
 
         public GroupCommitRequest(long nextOffset) {
@@ -173,22 +180,26 @@ public class CommitLog {
         }
 
 
-        public void wakeupCustomer(final boolean flushOK) {
-            this.flushOK = flushOK;
-            this.countDownLatch.countDown();
+        public long getCreateTimestamp() {
+            return createTimestamp;
         }
 
 
-        public boolean waitForFlush(long timeout) {
+        public void wakeupCustomer(final boolean flushOK) {
             try {
-                boolean result = this.countDownLatch.await(timeout, TimeUnit.MILLISECONDS);
-                return result || this.flushOK;
+                this.onComplete(flushOK);
             }
-            catch (InterruptedException e) {
-                e.printStackTrace();
-                return false;
+            catch (Throwable e) {
+                log.error("group commit request complete callback exception", e);
             }
         }
+
+
+        /**
+         * ˢ̻߸߳лص
+         */
+        protected void onComplete(final boolean flushOK) {
+        }
     }
 
     /**
@@ -498,10 +509,16 @@ public class CommitLog {
      * 캯
      */
     public CommitLog(final DefaultMessageStore defaultMessageStore) {
+        MessageStoreConfig messageStoreConfig = defaultMessageStore.getMessageStoreConfig();
+        String storePathTiered =
+                messageStoreConfig.isTieredStoreEnable() ? messageStoreConfig.getStorePathCommitLogTiered()
+                        : null;
         this.mapedFileQueue =
-                new MapedFileQueue(defaultMessageStore.getMessageStoreConfig().getStorePathCommitLog(),
-                    defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog(),
+                new MapedFileQueue(messageStoreConfig.getStorePathCommitLogs(), storePathTiered,
+                    messageStoreConfig.getMapedFileSizeCommitLog(),
                     defaultMessageStore.getAllocateMapedFileService());
+        // Ŀ¼ʱ̿ռ䲻Ŀ¼ٴļ
+        this.mapedFileQueue.setStorePathFullRatio(messageStoreConfig.getDiskMaxUsedSpaceRatio() / 100.0);
         this.defaultMessageStore = defaultMessageStore;
 
         if (FlushDiskType.SYNC_FLUSH == defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
@@ -514,11 +531,16 @@ public class CommitLog {
         this.appendMessageCallback =
                 new DefaultAppendMessageCallback(defaultMessageStore.getMessageStoreConfig()
                     .getMaxMessageSize());
+        this.archiveStore =
+                messageStoreConfig.isCommitLogArchiveEnable() ? new ArchiveStore(defaultMessageStore) : null;
     }
 
 
     public boolean load() {
         boolean result = this.mapedFileQueue.load();
+        if (result && this.archiveStore != null) {
+            result = this.archiveStore.load();
+        }
         log.info("load commit log " + (result ? "OK" : "Failed"));
         return result;
     }
@@ -526,15 +548,26 @@ public class CommitLog {
 
     public void start() {
         this.flushCommitLogService.start();
+        if (this.archiveStore != null) {
+            this.archiveStore.start();
+        }
     }
 
 
     public void shutdown() {
+        if (this.archiveStore != null) {
+            this.archiveStore.shutdown();
+        }
         this.flushCommitLogService.shutdown();
     }
 
 
     public long getMinOffset() {
+        // 鵵ݱȶе
+        if (this.archiveStore != null && this.archiveStore.getMinOffset() >= 0) {
+            return this.archiveStore.getMinOffset();
+        }
+
         MapedFile mapedFile = this.mapedFileQueue.getFirstMapedFileOnLock();
         if (mapedFile != null) {
             if (mapedFile.isAvailable()) {
@@ -560,8 +593,27 @@ public class CommitLog {
             final long intervalForcibly,//
             final boolean cleanImmediately//
     ) {
+        return this.deleteExpiredFile(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately,
+            MapedFileQueue.DeleteFilesBatchMax, null);
+    }
+
+
+    public int deleteExpiredFile(//
+            final long expiredTime, //
+            final int deleteFilesInterval, //
+            final long intervalForcibly,//
+            final boolean cleanImmediately,//
+            final int deleteFilesBatchMax,//
+            final FileDeleteThrottle throttle//
+    ) {
+        // 鵵αȶеļϣ鵵ȫɾɾеļ֤
+        if (this.archiveStore != null && this.archiveStore.getSegmentNums() > 0) {
+            return this.archiveStore.deleteExpiredSegments(expiredTime, intervalForcibly, cleanImmediately,
+                deleteFilesBatchMax, throttle);
+        }
+
         return this.mapedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval,
-            intervalForcibly, cleanImmediately);
+            intervalForcibly, cleanImmediately, deleteFilesBatchMax, throttle);
     }
 
 
@@ -569,6 +621,10 @@ public class CommitLog {
      * ȡϢ
      */
     public SelectMapedBufferResult getMessage(final long offset, final int size) {
+        if (this.archiveStore != null && this.archiveStore.contains(offset)) {
+            return this.archiveStore.getMessage(offset, size);
+        }
+
         int mapedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
         MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(offset, (0 == offset ? true : false));
         if (mapedFile != null) {
@@ -581,6 +637,28 @@ public class CommitLog {
     }
 
 
+    /**
+     * Ѿ鵵ݲMapedFileУnull
+     */
+    public MapedFile findMapedFileByOffset(final long offset) {
+        if (this.archiveStore != null && this.archiveStore.contains(offset)) {
+            return null;
+        }
+
+        return this.mapedFileQueue.findMapedFileByOffset(offset);
+    }
+
+
+    public MapedFileQueue getMapedFileQueue() {
+        return mapedFileQueue;
+    }
+
+
+    public ArchiveStore getArchiveStore() {
+        return archiveStore;
+    }
+
+
     public long rollNextFile(final long offset) {
         int mapedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
         return (offset + mapedFileSize - offset % mapedFileSize);
@@ -595,7 +673,14 @@ public class CommitLog {
     }
 
 
+    /**
+     * Ѿ鵵ÿηһѹĿ飬SlaveԴӹ鵵ݼ
+     */
     public SelectMapedBufferResult getData(final long offset, final boolean returnFirstOnNotFound) {
+        if (this.archiveStore != null && this.archiveStore.contains(offset)) {
+            return this.archiveStore.getData(offset);
+        }
+
         int mapedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
         MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(offset, returnFirstOnNotFound);
         if (mapedFile != null) {
@@ -620,11 +705,21 @@ public class CommitLog {
      */
     public DispatchRequest checkMessageAndReturnSize(java.nio.ByteBuffer byteBuffer, final boolean checkCRC,
             final boolean readBody) {
-        try {
-            java.nio.ByteBuffer byteBufferMessage =
-                    ((DefaultAppendMessageCallback) this.appendMessageCallback).getMsgStoreItemMemory();
-            byte[] bytesContent = byteBufferMessage.array();
+        java.nio.ByteBuffer byteBufferMessage =
+                ((DefaultAppendMessageCallback) this.appendMessageCallback).getMsgStoreItemMemory();
+        return this.checkMessageAndReturnSize(byteBuffer, checkCRC, readBody, byteBufferMessage.array());
+    }
+
 
+    /**
+     * ϢϢСɵ÷ṩõʱռ䣬߳̿Բнͬݶ<br>
+     * ȡBodyʱbytesContentСShort.MAX_VALUE
+     * 
+     * @return 0 ʾߵļĩβ >0 Ϣ -1 ϢУʧ
+     */
+    public DispatchRequest checkMessageAndReturnSize(java.nio.ByteBuffer byteBuffer, final boolean checkCRC,
+            final boolean readBody, final byte[] bytesContent) {
+        try {
             // 1 TOTALSIZE
             int totalSize = byteBuffer.getInt();
 
@@ -720,6 +815,20 @@ public class CommitLog {
                             MessageExtBrokerInner.tagsString2tagsCode(
                                 MessageExt.parseTopicFilterType(sysFlag), tags);
                 }
+
+                // ʱϢ洢tagsCodeͶʱ
+                if (TimerMessageService.TIMER_TOPIC.equals(topic)) {
+                    String deliverTime = propertiesMap.get(Message.PROPERTY_DELIVER_TIME);
+                    if (deliverTime != null) {
+                        try {
+                            tagsCode = Long.parseLong(deliverTime);
+                        }
+                        catch (NumberFormatException e) {
+                            // дǰѾУ飬ֻоɰ汾дݲŻߵͶݴ
+                            log.warn("timer message deliver time illegal " + deliverTime);
+                        }
+                    }
+                }
             }
 
             return new DispatchRequest(//
@@ -749,71 +858,220 @@ public class CommitLog {
 
 
     /**
-     * ˳ʱݻָڴݶѾˢ
+     * ֻȡTOTALSIZEMAGICCODEϢݣзϢ߽
+     * 
+     * @return 0 ʾߵļĩβ >0 ϢС -1 ݲ߷Ƿ
      */
-    public void recoverNormally() {
-        boolean checkCRCOnRecover = this.defaultMessageStore.getMessageStoreConfig().isCheckCRCOnRecover();
-        final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
-        if (!mapedFiles.isEmpty()) {
-            // ӵļʼָ
-            int index = mapedFiles.size() - 3;
-            if (index < 0)
-                index = 0;
+    public static int peekMessageSize(final java.nio.ByteBuffer byteBuffer, final int position) {
+        if (position + 8 > byteBuffer.limit()) {
+            return -1;
+        }
+
+        int totalSize = byteBuffer.getInt(position);
+        int magicCode = byteBuffer.getInt(position + 4);
+        if (BlankMagicCode == magicCode) {
+            return 0;
+        }
+
+        if (MessageMagicCode != magicCode || totalSize <= 0 || position + totalSize > byteBuffer.limit()) {
+            return -1;
+        }
+
+        return totalSize;
+    }
 
-            MapedFile mapedFile = mapedFiles.get(index);
-            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
-            long processOffset = mapedFile.getFileFromOffset();
-            long mapedFileOffset = 0;
-            while (true) {
-                DispatchRequest dispatchRequest =
-                        this.checkMessageAndReturnSize(byteBuffer, checkCRCOnRecover);
-                int size = dispatchRequest.getMsgSize();
-                // 
-                if (size > 0) {
-                    mapedFileOffset += size;
+
+    /**
+     * ָʱļϢ߽зֽ
+     */
+    private static class RecoverFileBoundary {
+        private final List<int[]> chunks = new ArrayList<int[]>();
+        // ߽ɨֹͣλ
+        private int scanEnd = 0;
+        // ǷߵļĩβĿն
+        private boolean reachFileEnd = false;
+    }
+
+
+    private RecoverFileBoundary splitRecoverFile(final MapedFile mapedFile, final int chunkSize) {
+        ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+        RecoverFileBoundary boundary = new RecoverFileBoundary();
+        int chunkStart = 0;
+        int position = 0;
+        int size = 0;
+        while ((size = peekMessageSize(byteBuffer, position)) > 0) {
+            position += size;
+            if (position - chunkStart >= chunkSize) {
+                boundary.chunks.add(new int[] { chunkStart, position });
+                chunkStart = position;
+            }
+        }
+
+        if (position > chunkStart) {
+            boundary.chunks.add(new int[] { chunkStart, position });
+        }
+
+        boundary.scanEnd = position;
+        boundary.reachFileEnd = (0 == size);
+        return boundary;
+    }
+
+
+    /**
+     * УһݣֹͣѽĲȻЧ
+     */
+    private List<DispatchRequest> parseRecoverChunk(final MapedFile mapedFile, final int start, final int end,
+            final boolean checkCRC) {
+        ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+        byteBuffer.position(start);
+        byteBuffer.limit(end);
+
+        byte[] bytesContent =
+                new byte[checkCRC ? this.defaultMessageStore.getMessageStoreConfig().getMaxMessageSize()
+                        : Short.MAX_VALUE];
+        List<DispatchRequest> requests = new ArrayList<DispatchRequest>();
+        while (byteBuffer.hasRemaining()) {
+            DispatchRequest dispatchRequest =
+                    this.checkMessageAndReturnSize(byteBuffer, checkCRC, checkCRC, bytesContent);
+            if (dispatchRequest.getMsgSize() <= 0) {
+                break;
+            }
+
+            requests.add(dispatchRequest);
+        }
+
+        return requests;
+    }
+
+
+    /**
+     * ָļʼɨݣЧݵĽλ<br>
+     * ļȲзϢ߽磬ɶ̲߳нУCRC˳ƴӣ<br>
+     * ǰһļżһļ
+     */
+    private long recoverParallel(final List<MapedFile> mapedFiles, final int fromIndex,
+            final boolean dispatch, final ExecutorService executor) throws Exception {
+        final MessageStoreConfig messageStoreConfig = this.defaultMessageStore.getMessageStoreConfig();
+        final boolean checkCRCOnRecover = messageStoreConfig.isCheckCRCOnRecover();
+        final int chunkSize = messageStoreConfig.getRecoverParseChunkSize();
+        final int maxInflight = messageStoreConfig.getRecoverThreadNums() * 2;
+        final long beginTime = System.currentTimeMillis();
+
+        // 1зָļϢ߽
+        List<Future<RecoverFileBoundary>> boundaries = new ArrayList<Future<RecoverFileBoundary>>();
+        for (int i = fromIndex; i < mapedFiles.size(); i++) {
+            final MapedFile mapedFile = mapedFiles.get(i);
+            boundaries.add(executor.submit(new Callable<RecoverFileBoundary>() {
+                @Override
+                public RecoverFileBoundary call() throws Exception {
+                    return CommitLog.this.splitRecoverFile(mapedFile, chunkSize);
+                }
+            }));
+        }
+
+        long processOffset = mapedFiles.get(fromIndex).getFileFromOffset();
+        long totalBytes = 0;
+        long totalMsgs = 0;
+        try {
+            for (int i = fromIndex; i < mapedFiles.size(); i++) {
+                final MapedFile mapedFile = mapedFiles.get(i);
+                RecoverFileBoundary boundary = boundaries.get(i - fromIndex).get();
+
+                // 2нݶβ˳ƴӣͬʱݶռùڴ
+                LinkedList<Future<List<DispatchRequest>>> inflight =
+                        new LinkedList<Future<List<DispatchRequest>>>();
+                int validEnd = 0;
+                int next = 0;
+                try {
+                    for (int[] chunk : boundary.chunks) {
+                        while (next < boundary.chunks.size() && inflight.size() < maxInflight) {
+                            final int[] nextChunk = boundary.chunks.get(next++);
+                            inflight.add(executor.submit(new Callable<List<DispatchRequest>>() {
+                                @Override
+                                public List<DispatchRequest> call() throws Exception {
+                                    return CommitLog.this.parseRecoverChunk(mapedFile, nextChunk[0],
+                                        nextChunk[1], checkCRCOnRecover);
+                                }
+                            }));
+                        }
+
+                        List<DispatchRequest> requests = inflight.poll().get();
+                        for (DispatchRequest dispatchRequest : requests) {
+                            validEnd += dispatchRequest.getMsgSize();
+                            if (dispatch) {
+                                this.defaultMessageStore.putDispatchRequest(dispatchRequest);
+                            }
+                        }
+
+                        totalMsgs += requests.size();
+                        if (validEnd != chunk[1]) {
+                            break;
+                        }
+                    }
+                }
+                finally {
+                    for (Future<List<DispatchRequest>> future : inflight) {
+                        future.cancel(false);
+                    }
                 }
+
+                processOffset = mapedFile.getFileFromOffset() + validEnd;
+                totalBytes += validEnd;
+
+                long eclipseTime = Math.max(System.currentTimeMillis() - beginTime, 1);
+                log.info("recover physics file " + mapedFile.getFileName() + ", progress "
+                        + (i - fromIndex + 1) + "/" + (mapedFiles.size() - fromIndex) + ", " + totalMsgs
+                        + " messages " + totalBytes + " bytes, " + (totalBytes * 1000 / eclipseTime / 1024)
+                        + " KB/s");
+
                 // ļм
-                else if (size == -1) {
+                if (validEnd != boundary.scanEnd || !boundary.reachFileEnd) {
                     log.info("recover physics file end, " + mapedFile.getFileName());
                     break;
                 }
-                // ߵļĩβлһļ
-                // ڷ0ĿնԲtruncate offset
-                else if (size == 0) {
-                    index++;
-                    if (index >= mapedFiles.size()) {
-                        // ǰ֧ܷ
-                        log.info("recover last 3 physics file over, last maped file "
-                                + mapedFile.getFileName());
-                        break;
-                    }
-                    else {
-                        mapedFile = mapedFiles.get(index);
-                        byteBuffer = mapedFile.sliceByteBuffer();
-                        processOffset = mapedFile.getFileFromOffset();
-                        mapedFileOffset = 0;
-                        log.info("recover next physics file, " + mapedFile.getFileName());
-                    }
+
+                // ļĩβǿնԲtruncate offset
+                if (i + 1 >= mapedFiles.size()) {
+                    log.info("recover physics file over, last maped file " + mapedFile.getFileName());
                 }
             }
+        }
+        finally {
+            for (Future<RecoverFileBoundary> future : boundaries) {
+                future.cancel(false);
+            }
+        }
+
+        return processOffset;
+    }
+
+
+    /**
+     * ˳ʱݻָڴݶѾˢ
+     */
+    public void recoverNormally(final ExecutorService executor) throws Exception {
+        final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        if (!mapedFiles.isEmpty()) {
+            // ӵļʼָ
+            int index = mapedFiles.size() - 3;
+            if (index < 0)
+                index = 0;
 
-            processOffset += mapedFileOffset;
+            long processOffset = this.recoverParallel(mapedFiles, index, false, executor);
             this.mapedFileQueue.setCommittedWhere(processOffset);
             this.mapedFileQueue.truncateDirtyFiles(processOffset);
         }
     }
 
 
-    public void recoverAbnormally() {
+    public void recoverAbnormally(final ExecutorService executor) throws Exception {
         // Сʱָ
-        boolean checkCRCOnRecover = this.defaultMessageStore.getMessageStoreConfig().isCheckCRCOnRecover();
         final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
         if (!mapedFiles.isEmpty()) {
             // ѰҴĸļʼָ
             int index = mapedFiles.size() - 1;
-            MapedFile mapedFile = null;
             for (; index >= 0; index--) {
-                mapedFile = mapedFiles.get(index);
+                MapedFile mapedFile = mapedFiles.get(index);
                 if (this.isMapedFileMatchedRecover(mapedFile)) {
                     log.info("recover from this maped file " + mapedFile.getFileName());
                     break;
@@ -822,50 +1080,14 @@ public class CommitLog {
 
             if (index < 0) {
                 index = 0;
-                mapedFile = mapedFiles.get(index);
-            }
-
-            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
-            long processOffset = mapedFile.getFileFromOffset();
-            long mapedFileOffset = 0;
-            while (true) {
-                DispatchRequest dispatchRequest =
-                        this.checkMessageAndReturnSize(byteBuffer, checkCRCOnRecover);
-                int size = dispatchRequest.getMsgSize();
-                // 
-                if (size > 0) {
-                    mapedFileOffset += size;
-                    this.defaultMessageStore.putDispatchRequest(dispatchRequest);
-                }
-                // ļм
-                else if (size == -1) {
-                    log.info("recover physics file end, " + mapedFile.getFileName());
-                    break;
-                }
-                // ߵļĩβлһļ
-                // ڷ0ĿնԲtruncate offset
-                else if (size == 0) {
-                    index++;
-                    if (index >= mapedFiles.size()) {
-                        // ǰ֧²Ӧ÷
-                        log.info("recover physics file over, last maped file " + mapedFile.getFileName());
-                        break;
-                    }
-                    else {
-                        mapedFile = mapedFiles.get(index);
-                        byteBuffer = mapedFile.sliceByteBuffer();
-                        processOffset = mapedFile.getFileFromOffset();
-                        mapedFileOffset = 0;
-                        log.info("recover next physics file, " + mapedFile.getFileName());
-                    }
-                }
             }
 
-            processOffset += mapedFileOffset;
+            long processOffset = this.recoverParallel(mapedFiles, index, true, executor);
             this.mapedFileQueue.setCommittedWhere(processOffset);
             this.mapedFileQueue.truncateDirtyFiles(processOffset);
 
-            // ConsumeQueueĶ
+            // ConsumeQueueĶݣнʱַлѹ϶࣬ȷַٽضϣضд뽻
+            this.defaultMessageStore.waitDispatchOver();
             this.defaultMessageStore.truncateDirtyLogicFiles(processOffset);
         }
         // ļɾ
@@ -904,14 +1126,141 @@ public class CommitLog {
     }
 
 
+    /**
+     * ʽдϢȴдĻص<br>
+     * ˢ븴ƸȴsyncFlushTimeoutصٳٲʱˢ̳ʱ
+     */
     public PutMessageResult putMessage(final MessageExtBrokerInner msg) {
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        final PutMessageResult putMessageResult = this.doPutMessage(msg, new PutMessageCallback() {
+            @Override
+            public void operationComplete(final PutMessageResult putMessageResult) {
+                countDownLatch.countDown();
+            }
+        });
+
+        final long timeout = this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout() * 2L;
+        boolean completed = false;
+        try {
+            completed = countDownLatch.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            log.warn("wait for put message result interrupted", e);
+        }
+
+        if (!completed) {
+            log.error("do groupcommit, wait for flush failed, topic: " + msg.getTopic() + " tags: "
+                    + msg.getTags() + " client address: " + msg.getBornHostString());
+            // صԺԻ޸ԭﷵ¶
+            return new PutMessageResult(PutMessageStatus.FLUSH_DISK_TIMEOUT,
+                putMessageResult.getAppendMessageResult());
+        }
+
+        // ͷؽ
+        return putMessageResult;
+    }
+
+
+    /**
+     * дϢͬˢͬ˫д̣߳ɺˢ̻߸߳лص
+     */
+    public void putMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback) {
+        this.doPutMessage(msg, callback);
+    }
+
+
+    /**
+     * @return صʱʹõĽ󣬻ص֮ǰ״̬ܻı
+     */
+    private PutMessageResult doPutMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback) {
+        final PutMessageResult putMessageResult = this.doAppendMessage(msg);
+        if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+            callback.operationComplete(putMessageResult);
+            return putMessageResult;
+        }
+
+        final AppendMessageResult result = putMessageResult.getAppendMessageResult();
+
+        // ͬˢ
+        if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
+            GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
+            if (msg.isWaitStoreMsgOK()) {
+                service.putRequest(new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes()) {
+                    @Override
+                    protected void onComplete(final boolean flushOK) {
+                        if (!flushOK) {
+                            log.error("do groupcommit, wait for flush failed, topic: " + msg.getTopic()
+                                    + " tags: " + msg.getTags() + " client address: "
+                                    + msg.getBornHostString());
+                            putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_DISK_TIMEOUT);
+                        }
+
+                        CommitLog.this.transferToSlave(msg, putMessageResult, callback);
+                    }
+                });
+                return putMessageResult;
+            }
+            else {
+                service.wakeup();
+            }
+        }
+        // 첽ˢ
+        else {
+            this.flushCommitLogService.wakeup();
+        }
+
+        this.transferToSlave(msg, putMessageResult, callback);
+        return putMessageResult;
+    }
+
+
+    /**
+     * ͬ˫дSlaveȷϻ߳ʱص
+     */
+    private void transferToSlave(final MessageExtBrokerInner msg, final PutMessageResult putMessageResult,
+            final PutMessageCallback callback) {
+        if (BrokerRole.SYNC_MASTER == this.defaultMessageStore.getMessageStoreConfig().getBrokerRole()
+                && msg.isWaitStoreMsgOK()) {
+            HAService service = this.defaultMessageStore.getHaService();
+            AppendMessageResult result = putMessageResult.getAppendMessageResult();
+            // жǷҪȴ
+            if (service.isSlaveOK(result.getWroteOffset() + result.getWroteBytes())) {
+                service.putRequest(new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes()) {
+                    @Override
+                    protected void onComplete(final boolean transferOK) {
+                        if (!transferOK) {
+                            log.error("do sync transfer other node, wait return, but failed, topic: "
+                                    + msg.getTopic() + " tags: " + msg.getTags() + " client address: "
+                                    + msg.getBornHostString());
+                            putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
+                        }
+
+                        callback.operationComplete(putMessageResult);
+                    }
+                });
+
+                service.getWaitNotifyObject().wakeupAll();
+                return;
+            }
+            // Slave쳣
+            else {
+                // ߷ͷSlave쳣
+                putMessageResult.setPutMessageStatus(PutMessageStatus.SLAVE_NOT_AVAILABLE);
+            }
+        }
+
+        callback.operationComplete(putMessageResult);
+    }
+
+
+    /**
+     * ʱϢ·ɺд룬ͳϢС
+     */
+    private PutMessageResult doAppendMessage(final MessageExtBrokerInner msg) {
         // ô洢ʱ
         msg.setStoreTimestamp(System.currentTimeMillis());
         // ϢBODY CRCڿͻʣ
         msg.setBodyCRC(UtilALl.crc32(msg.getBody()));
-        // ؽ
-        AppendMessageResult result = null;
-
         StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
 
         String topic = msg.getTopic();
@@ -934,7 +1283,16 @@ public class CommitLog {
                 tagsCode =
                         this.defaultMessageStore.getScheduleMessageService().computeDeliverTimestamp(
                             msg.getDelayTimeLevel(), msg.getStoreTimestamp());
+            }
+            // ʱ䶨ʱͶ
+            else if (this.defaultMessageStore.getTimerMessageService() != null
+                    && msg.getDeliverTimestamp() > msg.getStoreTimestamp()) {
+                topic = TimerMessageService.TIMER_TOPIC;
+                queueId = TimerMessageService.TIMER_QUEUE_ID;
+                tagsCode = msg.getDeliverTimestamp();
+            }
 
+            if (!topic.equals(msg.getTopic())) {
                 /**
                  * ʵtopicqueueId
                  */
@@ -947,6 +1305,7 @@ public class CommitLog {
             }
         }
 
+        PutMessageResult putMessageResult = null;
         // дļҪ
         synchronized (this) {
             long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
@@ -954,131 +1313,123 @@ public class CommitLog {
             // ô洢ʱܱ֤ȫ
             msg.setStoreTimestamp(beginLockTimestamp);
 
-            // д
-            MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
-            if (null == mapedFile) {
-                log.error("create maped file1 error, topic: " + msg.getTopic() + " clientAddr: "
-                        + msg.getBornHostString());
-                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
-            }
-            result = mapedFile.appendMessage(msg, this.appendMessageCallback);
-            switch (result.getStatus()) {
-            // ɹ׷Ϣ
-            case PUT_OK:
-                break;
-            // ߵļĩβ
-            case END_OF_FILE:
-                // ļдϢ
-                mapedFile = this.mapedFileQueue.getLastMapedFile();
-                if (null == mapedFile) {
-                    log.error("create maped file2 error, topic: " + msg.getTopic() + " clientAddr: "
-                            + msg.getBornHostString());
-                    return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
-                }
-                result = mapedFile.appendMessage(msg, this.appendMessageCallback);
-                break;
-            // ϢС
-            case MESSAGE_SIZE_EXCEEDED:
-                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
-                // δ֪
-            case UNKNOWN_ERROR:
-                return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
-            default:
-                return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+            putMessageResult = this.appendMessageInLock(msg, tagsCode);
+            if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                return putMessageResult;
             }
 
-            DispatchRequest dispatchRequest = new DispatchRequest(//
-                topic,// 1
-                queueId,// 2
-                result.getWroteOffset(),// 3
-                result.getWroteBytes(),// 4
-                tagsCode,// 5
-                msg.getStoreTimestamp(),// 6
-                result.getLogicsOffset(),// 7
-                msg.getKeys(),// 8
-                /**
-                 * 񲿷
-                 */
-                msg.getSysFlag(),// 9
-                msg.getQueueOffset(), // 10
-                msg.getPreparedTransactionOffset(),// 11
-                msg.getProperty(Message.PROPERTY_PRODUCER_GROUP)// 12
-                    );
-
-            this.defaultMessageStore.putDispatchRequest(dispatchRequest);
-
             long eclipseTime = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
             if (eclipseTime > 1000) {
                 log.warn("putMessage in lock eclipse time(ms) " + eclipseTime);
             }
         }
 
-        // ؽ
-        PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
-
         // ͳϢSIZE
-        storeStatsService.getSinglePutMessageTopicSizeTotal(topic).addAndGet(result.getWroteBytes());
+        storeStatsService.getSinglePutMessageTopicSizeTotal(topic).addAndGet(
+            putMessageResult.getAppendMessageResult().getWroteBytes());
 
-        GroupCommitRequest request = null;
+        return putMessageResult;
+    }
 
-        // ͬˢ
-        if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
-            GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
-            if (msg.isWaitStoreMsgOK()) {
-                request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
-                service.putRequest(request);
-                boolean flushOK =
-                        request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig()
-                            .getSyncFlushTimeout());
-                if (!flushOK) {
-                    log.error("do groupcommit, wait for flush failed, topic: " + msg.getTopic() + " tags: "
-                            + msg.getTags() + " client address: " + msg.getBornHostString());
-                    putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_DISK_TIMEOUT);
+
+    /**
+     * д뵽ڵĶʱϢֻһֻһˢ߳<br>
+     * ϢѾָʵTopicʱ·ɣҲȴˢͬ˫д
+     *
+     * @return ˳ɹдϢĳʧܺϢд
+     */
+    public int putMessages(final List<MessageExtBrokerInner> msgs) {
+        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+        int appended = 0;
+
+        synchronized (this) {
+            long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+            for (MessageExtBrokerInner msg : msgs) {
+                msg.setStoreTimestamp(beginLockTimestamp);
+                PutMessageResult putMessageResult = this.appendMessageInLock(msg, msg.getTagsCode());
+                if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                    log.error("putMessages failed, " + putMessageResult.getPutMessageStatus() + " topic: "
+                            + msg.getTopic() + " appended: " + appended + " total: " + msgs.size());
+                    break;
                 }
+
+                storeStatsService.getSinglePutMessageTopicSizeTotal(msg.getTopic()).addAndGet(
+                    putMessageResult.getAppendMessageResult().getWroteBytes());
+                appended++;
             }
-            else {
-                service.wakeup();
+
+            long eclipseTime = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+            if (eclipseTime > 1000) {
+                log.warn("putMessages in lock eclipse time(ms) " + eclipseTime + " size " + msgs.size());
             }
         }
-        // 첽ˢ
-        else {
+
+        if (appended > 0) {
             this.flushCommitLogService.wakeup();
         }
 
-        // ͬ˫д
-        if (BrokerRole.SYNC_MASTER == this.defaultMessageStore.getMessageStoreConfig().getBrokerRole()) {
-            HAService service = this.defaultMessageStore.getHaService();
-            if (msg.isWaitStoreMsgOK()) {
-                // жǷҪȴ
-                if (service.isSlaveOK(result.getWroteOffset() + result.getWroteBytes())) {
-                    if (null == request) {
-                        request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
-                    }
-                    service.putRequest(request);
-
-                    service.getWaitNotifyObject().wakeupAll();
-
-                    boolean flushOK =
-                    // TODO ˴ˢ̹Ƿ
-                            request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig()
-                                .getSyncFlushTimeout());
-                    if (!flushOK) {
-                        log.error("do sync transfer other node, wait return, but failed, topic: "
-                                + msg.getTopic() + " tags: " + msg.getTags() + " client address: "
-                                + msg.getBornHostString());
-                        putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
-                    }
-                }
-                // Slave쳣
-                else {
-                    // ߷ͷSlave쳣
-                    putMessageResult.setPutMessageStatus(PutMessageStatus.SLAVE_NOT_AVAILABLE);
-                }
+        return appended;
+    }
+
+
+    /**
+     * ׷һϢַļдʱлļд
+     */
+    private PutMessageResult appendMessageInLock(final MessageExtBrokerInner msg, final long tagsCode) {
+        // д
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
+        if (null == mapedFile) {
+            log.error("create maped file1 error, topic: " + msg.getTopic() + " clientAddr: "
+                    + msg.getBornHostString());
+            return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
+        }
+        AppendMessageResult result = mapedFile.appendMessage(msg, this.appendMessageCallback);
+        switch (result.getStatus()) {
+        // ɹ׷Ϣ
+        case PUT_OK:
+            break;
+        // ߵļĩβ
+        case END_OF_FILE:
+            // ļдϢ
+            mapedFile = this.mapedFileQueue.getLastMapedFile();
+            if (null == mapedFile) {
+                log.error("create maped file2 error, topic: " + msg.getTopic() + " clientAddr: "
+                        + msg.getBornHostString());
+                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
             }
+            result = mapedFile.appendMessage(msg, this.appendMessageCallback);
+            break;
+        // ϢС
+        case MESSAGE_SIZE_EXCEEDED:
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+            // δ֪
+        case UNKNOWN_ERROR:
+            return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+        default:
+            return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
         }
 
-        // ͷؽ
-        return putMessageResult;
+        DispatchRequest dispatchRequest = new DispatchRequest(//
+            msg.getTopic(),// 1
+            msg.getQueueId(),// 2
+            result.getWroteOffset(),// 3
+            result.getWroteBytes(),// 4
+            tagsCode,// 5
+            msg.getStoreTimestamp(),// 6
+            result.getLogicsOffset(),// 7
+            msg.getKeys(),// 8
+            /**
+             * 񲿷
+             */
+            msg.getSysFlag(),// 9
+            msg.getQueueOffset(), // 10
+            msg.getPreparedTransactionOffset(),// 11
+            msg.getProperty(Message.PROPERTY_PRODUCER_GROUP)// 12
+                );
+
+        this.defaultMessageStore.putDispatchRequest(dispatchRequest);
+
+        return new PutMessageResult(PutMessageStatus.PUT_OK, result);
     }
 
 
@@ -1115,6 +1466,43 @@ public class CommitLog {
     }
 
 
+    /**
+     * SlaveֱӶCommitLogļشдݶcommitAppendData
+     */
+    public ByteBuffer prepareAppendData(final long startOffset, final int size) {
+        synchronized (this) {
+            MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile(startOffset);
+            if (null == mapedFile) {
+                log.error("prepareAppendData getLastMapedFile error  " + startOffset);
+                return null;
+            }
+
+            if (mapedFile.getFileFromOffset() + mapedFile.getWrotePostion() != startOffset) {
+                log.error("prepareAppendData offset not match, " + startOffset + " " + mapedFile.getFileName()
+                        + " " + mapedFile.getWrotePostion());
+                return null;
+            }
+
+            return mapedFile.sliceForAppend(size);
+        }
+    }
+
+
+    public boolean commitAppendData(final long startOffset, final int size) {
+        synchronized (this) {
+            MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile(startOffset);
+            if (null == mapedFile
+                    || mapedFile.getFileFromOffset() + mapedFile.getWrotePostion() != startOffset) {
+                log.error("commitAppendData offset not match, " + startOffset);
+                return false;
+            }
+
+            mapedFile.appendWrotePosition(size);
+            return true;
+        }
+    }
+
+
     public boolean appendData(long startOffset, byte[] data) {
         // дļҪ
         synchronized (this) {
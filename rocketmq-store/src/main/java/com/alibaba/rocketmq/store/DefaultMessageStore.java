@@ -17,10 +17,18 @@ package com.alibaba.rocketmq.store;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -31,6 +39,7 @@ import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.SystemClock;
 import com.alibaba.rocketmq.common.UtilALl;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
@@ -41,6 +50,7 @@ import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.index.IndexService;
 import com.alibaba.rocketmq.store.index.QueryOffsetResult;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.schedule.TimerMessageService;
 import com.alibaba.rocketmq.store.transaction.TransactionCheckExecuter;
 import com.alibaba.rocketmq.store.transaction.TransactionStateService;
 
@@ -81,10 +91,18 @@ public class DefaultMessageStore implements MessageStore {
     private final HAService haService;
     // ʱ
     private final ScheduleMessageService scheduleMessageService;
+    // ʱ䶨ʱϢ
+    private final TimerMessageService timerMessageService;
     // ֲʽ
     private final TransactionStateService transactionStateService;
     // ʱͳ
     private final StoreStatsService storeStatsService;
+    // page cacheפ̽ԤΪnullʾڴ
+    private final PageCacheResidencyService pageCacheResidencyService;
+    // ݶȡΪnullʾҲͨmmapȡ
+    private final ColdReadService coldReadService;
+    // CommitLogּ洢Ϊnullʾּ洢
+    private final TieredStoreService tieredStoreService;
     // й̱־λ
     private final RunningFlags runningFlags = new RunningFlags();
     // 洢
@@ -106,7 +124,7 @@ public class DefaultMessageStore implements MessageStore {
             final TransactionCheckExecuter transactionCheckExecuter) throws IOException {
         this.messageStoreConfig = messageStoreConfig;
         this.transactionCheckExecuter = transactionCheckExecuter;
-        this.allocateMapedFileService = new AllocateMapedFileService();
+        this.allocateMapedFileService = new AllocateMapedFileService(this.messageStoreConfig);
         this.commitLog = new CommitLog(this);
         this.consumeQueueTable =
                 new ConcurrentHashMap<String/* topic */, ConcurrentHashMap<Integer/* queueId */, ConsumeQueue>>(
@@ -118,6 +136,11 @@ public class DefaultMessageStore implements MessageStore {
         this.dispatchMessageService =
                 new DispatchMessageService(this.messageStoreConfig.getPutMsgIndexHightWater());
         this.storeStatsService = new StoreStatsService();
+        this.pageCacheResidencyService =
+                messageStoreConfig.isPageCacheAdvisorEnable() ? new PageCacheResidencyService(this) : null;
+        this.coldReadService = messageStoreConfig.isColdReadEnable() ? new ColdReadService(this) : null;
+        this.tieredStoreService =
+                messageStoreConfig.isTieredStoreEnable() ? new TieredStoreService(this) : null;
         this.indexService = new IndexService(this);
         this.haService = new HAService(this);
         this.transactionStateService = new TransactionStateService(this);
@@ -126,15 +149,19 @@ public class DefaultMessageStore implements MessageStore {
         case SLAVE:
             this.reputMessageService = new ReputMessageService();
             this.scheduleMessageService = null;
+            this.timerMessageService = null;
             break;
         case ASYNC_MASTER:
         case SYNC_MASTER:
             this.reputMessageService = null;
             this.scheduleMessageService = new ScheduleMessageService(this);
+            this.timerMessageService =
+                    messageStoreConfig.isTimerWheelEnable() ? new TimerMessageService(this) : null;
             break;
         default:
             this.reputMessageService = null;
             this.scheduleMessageService = null;
+            this.timerMessageService = null;
         }
 
         // load˷ǰ
@@ -165,6 +192,18 @@ public class DefaultMessageStore implements MessageStore {
         // ̿ʼǿɾļ
         private volatile boolean cleanImmediately = false;
 
+        // ɾļδɾʱΪnull
+        private final FileDeleteThrottle fileDeleteThrottle;
+
+
+        public CleanCommitLogService() {
+            MessageStoreConfig config = DefaultMessageStore.this.getMessageStoreConfig();
+            this.fileDeleteThrottle =
+                    config.isDeleteFileThrottleEnable() ? new FileDeleteThrottle(
+                        config.getDeleteFileTruncateChunkSize(), config.getDeleteFileBytesPerSecond())
+                            : null;
+        }
+
 
         public void excuteDeleteFilesManualy() {
             this.manualDeleteFileSeveralTimes = MaxManualDeleteFileTimes;
@@ -197,15 +236,22 @@ public class DefaultMessageStore implements MessageStore {
 
             // ļ̿ռ
             {
-                String storePathPhysic =
-                        DefaultMessageStore.this.getMessageStoreConfig().getStorePathCommitLog();
-                double physicRatio = UtilALl.getDiskPartitionSpaceUsedPercent(storePathPhysic);
+                // ˶Ŀ¼ʱĴΪ׼
+                double physicRatio = -1;
+                for (String storePathPhysic : DefaultMessageStore.this.getMessageStoreConfig()
+                    .getStorePathCommitLogs()) {
+                    double pathRatio = UtilALl.getDiskPartitionSpaceUsedPercent(storePathPhysic);
+                    if (pathRatio < 0) {
+                        physicRatio = pathRatio;
+                        break;
+                    }
+                    physicRatio = Math.max(physicRatio, pathRatio);
+                }
                 if (physicRatio > DiskSpaceWarningLevelRatio) {
                     boolean diskok = DefaultMessageStore.this.runningFlags.getAndMakeDiskFull();
                     if (diskok) {
                         DefaultMessageStore.log.error("physic disk maybe full soon " + physicRatio
                                 + ", so mark disk full");
-                        System.gc();
                     }
 
                     cleanImmediately = true;
@@ -228,6 +274,22 @@ public class DefaultMessageStore implements MessageStore {
                 }
             }
 
+            // 洢̿ռ䣬ϵļڶ洢
+            if (DefaultMessageStore.this.getMessageStoreConfig().isTieredStoreEnable()) {
+                String storePathTiered =
+                        DefaultMessageStore.this.getMessageStoreConfig().getStorePathCommitLogTiered();
+                double tieredRatio = UtilALl.getDiskPartitionSpaceUsedPercent(storePathTiered);
+                if (tieredRatio > DiskSpaceCleanForciblyRatio) {
+                    cleanImmediately = true;
+                }
+
+                if (tieredRatio < 0 || tieredRatio > ratio) {
+                    DefaultMessageStore.log.info("tiered disk maybe full soon, so reclaim space, "
+                            + tieredRatio);
+                    return true;
+                }
+            }
+
             // ߼ļ̿ռ
             {
                 String storePathLogics =
@@ -238,7 +300,6 @@ public class DefaultMessageStore implements MessageStore {
                     if (diskok) {
                         DefaultMessageStore.log.error("logics disk maybe full soon " + logicsRatio
                                 + ", so mark disk full");
-                        System.gc();
                     }
 
                     cleanImmediately = true;
@@ -294,9 +355,19 @@ public class DefaultMessageStore implements MessageStore {
                         DefaultMessageStore.this.getMessageStoreConfig().isCleanFileForciblyEnable()
                                 && this.cleanImmediately;
 
-                deleteCount =
-                        DefaultMessageStore.this.commitLog.deleteExpiredFile(fileReservedTime,
-                            deletePhysicFilesInterval, destroyMapedFileIntervalForcibly, cleanAtOnce);
+                if (this.fileDeleteThrottle != null) {
+                    // ɾÿֻɾļʣķ̯漸
+                    deleteCount =
+                            DefaultMessageStore.this.commitLog.deleteExpiredFile(fileReservedTime,
+                                deletePhysicFilesInterval, destroyMapedFileIntervalForcibly, cleanAtOnce,
+                                DefaultMessageStore.this.getMessageStoreConfig()
+                                    .getDeleteFileBatchMaxThrottled(), this.fileDeleteThrottle);
+                }
+                else {
+                    deleteCount =
+                            DefaultMessageStore.this.commitLog.deleteExpiredFile(fileReservedTime,
+                                deletePhysicFilesInterval, destroyMapedFileIntervalForcibly, cleanAtOnce);
+                }
                 if (deleteCount > 0) {
                     DefaultMessageStore.this.cleanConsumeQueueService.wakeup();
                 }
@@ -358,6 +429,11 @@ public class DefaultMessageStore implements MessageStore {
         }
 
 
+        public FileDeleteThrottle getFileDeleteThrottle() {
+            return fileDeleteThrottle;
+        }
+
+
         public void setManualDeleteFileSeveralTimes(int manualDeleteFileSeveralTimes) {
             this.manualDeleteFileSeveralTimes = manualDeleteFileSeveralTimes;
         }
@@ -526,12 +602,37 @@ public class DefaultMessageStore implements MessageStore {
         private volatile List<DispatchRequest> requestsRead;
         // ѻδ
         private volatile int indexRequestCnt = 0;
+        // зƬдConsumeQueueΪnullʾ̷ַ߳
+        private final int consumeQueueShardNums;
+        private final ExecutorService consumeQueueExecutor;
 
 
         public DispatchMessageService(int putMsgIndexHightWater) {
             putMsgIndexHightWater *= 1.5;
             this.requestsWrite = new ArrayList<DispatchRequest>(putMsgIndexHightWater);
             this.requestsRead = new ArrayList<DispatchRequest>(putMsgIndexHightWater);
+
+            this.consumeQueueShardNums =
+                    DefaultMessageStore.this.messageStoreConfig.getDispatchConsumeQueueThreadNums();
+            if (this.consumeQueueShardNums > 1) {
+                this.consumeQueueExecutor =
+                        Executors.newFixedThreadPool(this.consumeQueueShardNums, new ThreadFactory() {
+                            private AtomicInteger threadIndex = new AtomicInteger(0);
+
+
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread =
+                                        new Thread(r, "DispatchConsumeQueueThread_"
+                                                + this.threadIndex.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            }
+            else {
+                this.consumeQueueExecutor = null;
+            }
         }
 
 
@@ -588,24 +689,81 @@ public class DefaultMessageStore implements MessageStore {
         }
 
 
+        private void dispatchConsumeQueue(final DispatchRequest req) {
+            final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
+            switch (tranType) {
+            case MessageSysFlag.TransactionNotType:
+            case MessageSysFlag.TransactionCommitType:
+                // 󷢵Consume Queue
+                DefaultMessageStore.this.putMessagePostionInfo(req.getTopic(), req.getQueueId(),
+                    req.getCommitLogOffset(), req.getMsgSize(), req.getTagsCode(), req.getStoreTimestamp(),
+                    req.getConsumeQueueOffset());
+                break;
+            case MessageSysFlag.TransactionPreparedType:
+            case MessageSysFlag.TransactionRollbackType:
+                break;
+            }
+        }
+
+
+        /**
+         * ͬһеͬһƬڣ֤˳򣬲ͬƬдConsumeQueue
+         */
+        private void dispatchConsumeQueueSharded(final List<DispatchRequest> requests) {
+            final List<List<DispatchRequest>> shards =
+                    new ArrayList<List<DispatchRequest>>(this.consumeQueueShardNums);
+            for (int i = 0; i < this.consumeQueueShardNums; i++) {
+                shards.add(new ArrayList<DispatchRequest>(requests.size() / this.consumeQueueShardNums + 1));
+            }
+
+            for (DispatchRequest req : requests) {
+                int hash = req.getTopic().hashCode() * 31 + req.getQueueId();
+                shards.get((hash & Integer.MAX_VALUE) % this.consumeQueueShardNums).add(req);
+            }
+
+            final CountDownLatch countDownLatch = new CountDownLatch(shards.size());
+            for (final List<DispatchRequest> shard : shards) {
+                this.consumeQueueExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (DispatchRequest req : shard) {
+                                DispatchMessageService.this.dispatchConsumeQueue(req);
+                            }
+                        }
+                        catch (Throwable e) {
+                            DefaultMessageStore.log.warn("dispatch consume queue exception", e);
+                        }
+                        finally {
+                            countDownLatch.countDown();
+                        }
+                    }
+                });
+            }
+
+            try {
+                countDownLatch.await();
+            }
+            catch (InterruptedException e) {
+                DefaultMessageStore.log.warn("wait dispatch consume queue interrupted", e);
+            }
+        }
+
+
         private void doDispatch() {
             if (!this.requestsRead.isEmpty()) {
-                for (DispatchRequest req : this.requestsRead) {
+                // 1ַϢλϢConsumeQueue
+                if (this.consumeQueueExecutor != null && this.requestsRead.size() > 1) {
+                    this.dispatchConsumeQueueSharded(this.requestsRead);
+                }
+                else {
+                    for (DispatchRequest req : this.requestsRead) {
+                        this.dispatchConsumeQueue(req);
+                    }
+                }
 
+                for (DispatchRequest req : this.requestsRead) {
                     final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
-                    // 1ַϢλϢConsumeQueue
-                    switch (tranType) {
-                    case MessageSysFlag.TransactionNotType:
-                    case MessageSysFlag.TransactionCommitType:
-                        // 󷢵Consume Queue
-                        DefaultMessageStore.this.putMessagePostionInfo(req.getTopic(), req.getQueueId(),
-                            req.getCommitLogOffset(), req.getMsgSize(), req.getTagsCode(),
-                            req.getStoreTimestamp(), req.getConsumeQueueOffset());
-                        break;
-                    case MessageSysFlag.TransactionPreparedType:
-                    case MessageSysFlag.TransactionRollbackType:
-                        break;
-                    }
 
                     // 2Transaction State Table
                     if (req.getProducerGroup() != null) {
@@ -712,61 +870,183 @@ public class DefaultMessageStore implements MessageStore {
         public String getServiceName() {
             return DispatchMessageService.class.getSimpleName();
         }
+
+
+        @Override
+        public void shutdown(final boolean interrupt) {
+            super.shutdown(interrupt);
+
+            // ߳˳ǰѾַʣ
+            if (this.consumeQueueExecutor != null) {
+                this.consumeQueueExecutor.shutdown();
+            }
+        }
     }
 
     /**
-     * SLAVE: LoadϢַ߼
+     * SLAVE: LoadϢַ߼<br>
+     * HAClientÿдCommitLogѣȰϢ߽гɶΣнٰ˳ַ
      */
     class ReputMessageService extends ServiceThread {
         // ￪ʼݣַ߼
         private volatile long reputFromOffset = 0;
+        // н̳߳أΪnullʾڵǰ߳̽
+        private final ExecutorService parseExecutor;
+
+
+        public ReputMessageService() {
+            int threadNums = DefaultMessageStore.this.messageStoreConfig.getSlaveReputParseThreadNums();
+            if (threadNums > 1) {
+                this.parseExecutor = Executors.newFixedThreadPool(threadNums, new ThreadFactory() {
+                    private AtomicInteger threadIndex = new AtomicInteger(0);
 
 
-        private void doReput() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread =
+                                new Thread(r, "ReputParseThread_" + this.threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            else {
+                this.parseExecutor = null;
+            }
+        }
+
+
+        /**
+         * һϢݣǷֹͣѽĲȻЧ
+         */
+        private List<DispatchRequest> parseChunk(final ByteBuffer byteBuffer, final int start,
+                final int end) {
+            ByteBuffer chunk = byteBuffer.duplicate();
+            chunk.position(start);
+            chunk.limit(end);
+
+            byte[] bytesContent = new byte[Short.MAX_VALUE];
+            List<DispatchRequest> requests = new ArrayList<DispatchRequest>();
+            while (chunk.hasRemaining()) {
+                DispatchRequest dispatchRequest =
+                        DefaultMessageStore.this.commitLog.checkMessageAndReturnSize(chunk, false, false,
+                            bytesContent);
+                if (dispatchRequest.getMsgSize() <= 0) {
+                    break;
+                }
+
+                requests.add(dispatchRequest);
+            }
+
+            return requests;
+        }
+
+
+        private List<List<DispatchRequest>> parseChunks(final ByteBuffer byteBuffer, final List<int[]> chunks)
+                throws Exception {
+            List<List<DispatchRequest>> parsed = new ArrayList<List<DispatchRequest>>(chunks.size());
+            if (null == this.parseExecutor || chunks.size() == 1) {
+                for (int[] chunk : chunks) {
+                    parsed.add(this.parseChunk(byteBuffer, chunk[0], chunk[1]));
+                }
+
+                return parsed;
+            }
+
+            List<Future<List<DispatchRequest>>> futures =
+                    new ArrayList<Future<List<DispatchRequest>>>(chunks.size());
+            for (final int[] chunk : chunks) {
+                futures.add(this.parseExecutor.submit(new Callable<List<DispatchRequest>>() {
+                    @Override
+                    public List<DispatchRequest> call() throws Exception {
+                        return ReputMessageService.this.parseChunk(byteBuffer, chunk[0], chunk[1]);
+                    }
+                }));
+            }
+
+            for (Future<List<DispatchRequest>> future : futures) {
+                parsed.add(future.get());
+            }
+
+            return parsed;
+        }
+
+
+        private void doReput() throws Exception {
+            final int chunkSize = DefaultMessageStore.this.messageStoreConfig.getSlaveReputParseChunkSize();
             for (boolean doNext = true; doNext;) {
                 SelectMapedBufferResult result = DefaultMessageStore.this.commitLog.getData(reputFromOffset);
-                if (result != null) {
-                    try {
-                        for (int readSize = 0; readSize < result.getSize() && doNext;) {
-                            DispatchRequest dispatchRequest =
-                                    DefaultMessageStore.this.commitLog.checkMessageAndReturnSize(
-                                        result.getByteBuffer(), false, false);
-                            int size = dispatchRequest.getMsgSize();
-                            // 
-                            if (size > 0) {
-                                DefaultMessageStore.this.putDispatchRequest(dispatchRequest);
-
-                                this.reputFromOffset += size;
-                                readSize += size;
-                                DefaultMessageStore.this.storeStatsService
-                                    .getSinglePutMessageTopicTimesTotal(dispatchRequest.getTopic())
-                                    .incrementAndGet();
-                                DefaultMessageStore.this.storeStatsService.getSinglePutMessageTopicSizeTotal(
-                                    dispatchRequest.getTopic()).addAndGet(dispatchRequest.getMsgSize());
-                            }
-                            // ļм
-                            else if (size == -1) {
-                                doNext = false;
-                            }
-                            // ߵļĩβлһļ
-                            else if (size == 0) {
-                                this.reputFromOffset =
-                                        DefaultMessageStore.this.commitLog.rollNextFile(this.reputFromOffset);
-                                readSize = result.getSize();
-                            }
+                if (null == result) {
+                    break;
+                }
+
+                try {
+                    ByteBuffer byteBuffer = result.getByteBuffer();
+
+                    // ֻȡϢͷзֱ߽磬Ϣ´δ
+                    List<int[]> chunks = new ArrayList<int[]>();
+                    int chunkStart = 0;
+                    int position = 0;
+                    int size = 0;
+                    while ((size = CommitLog.peekMessageSize(byteBuffer, position)) > 0) {
+                        position += size;
+                        if (position - chunkStart >= chunkSize) {
+                            chunks.add(new int[] { chunkStart, position });
+                            chunkStart = position;
                         }
                     }
-                    finally {
-                        result.release();
+
+                    if (position > chunkStart) {
+                        chunks.add(new int[] { chunkStart, position });
+                    }
+
+                    // ԭʼ˳ַʧܵݶֹͣ
+                    int expectPosition = 0;
+                    List<List<DispatchRequest>> parsed = this.parseChunks(byteBuffer, chunks);
+                    for (int i = 0; i < parsed.size() && expectPosition == chunks.get(i)[0]; i++) {
+                        for (DispatchRequest dispatchRequest : parsed.get(i)) {
+                            DefaultMessageStore.this.putDispatchRequest(dispatchRequest);
+
+                            this.reputFromOffset += dispatchRequest.getMsgSize();
+                            expectPosition += dispatchRequest.getMsgSize();
+                            DefaultMessageStore.this.storeStatsService
+                                .getSinglePutMessageTopicTimesTotal(dispatchRequest.getTopic())
+                                .incrementAndGet();
+                            DefaultMessageStore.this.storeStatsService.getSinglePutMessageTopicSizeTotal(
+                                dispatchRequest.getTopic()).addAndGet(dispatchRequest.getMsgSize());
+                        }
+                    }
+
+                    // ļм
+                    if (expectPosition != position) {
+                        log.warn("reput parse message error, offset " + this.reputFromOffset);
+                        doNext = false;
+                    }
+                    // ߵļĩβлһļ
+                    else if (0 == size) {
+                        this.reputFromOffset =
+                                DefaultMessageStore.this.commitLog.rollNextFile(this.reputFromOffset);
+                    }
+                    // ʣݲȴHAClientд
+                    else if (position < result.getSize() || 0 == position) {
+                        doNext = false;
                     }
                 }
-                else {
-                    doNext = false;
+                finally {
+                    result.release();
                 }
             }
         }
 
 
+        /**
+         * дCommitLogδַ߼еֽ
+         */
+        public long behind() {
+            return DefaultMessageStore.this.commitLog.getMaxOffset() - this.reputFromOffset;
+        }
+
+
         @Override
         public void run() {
             DefaultMessageStore.log.info(this.getServiceName() + " service started");
@@ -785,6 +1065,16 @@ public class DefaultMessageStore implements MessageStore {
         }
 
 
+        @Override
+        public void shutdown(final boolean interrupt) {
+            super.shutdown(interrupt);
+
+            if (this.parseExecutor != null) {
+                this.parseExecutor.shutdown();
+            }
+        }
+
+
         @Override
         public String getServiceName() {
             return ReputMessageService.class.getSimpleName();
@@ -802,6 +1092,22 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    /**
+     * ȴDispatchServiceеϢȫ߼
+     */
+    public void waitDispatchOver() {
+        while (this.dispatchMessageService.hasRemainMessage()) {
+            try {
+                Thread.sleep(100);
+                log.info("waiting dispatching message over");
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
     public void truncateDirtyLogicFiles(long phyOffet) {
         ConcurrentHashMap<String, ConcurrentHashMap<Integer, ConsumeQueue>> tables =
                 DefaultMessageStore.this.consumeQueueTable;
@@ -814,31 +1120,47 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
-    private void recover(final boolean lastExitOK) {
-        // Ȱָ̻Consume Queue
-        this.recoverConsumeQueue();
+    private void recover(final boolean lastExitOK) throws Exception {
+        final long beginTime = System.currentTimeMillis();
+        ExecutorService recoverExecutor =
+                Executors.newFixedThreadPool(Math.max(this.messageStoreConfig.getRecoverThreadNums(), 1),
+                    new ThreadFactory() {
+                        private AtomicInteger threadIndex = new AtomicInteger(0);
+
 
-        // Ȱָ̻Tran Redo Log
-        this.transactionStateService.getTranRedoLog().recover();
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread =
+                                    new Thread(r, "RecoverThread_" + this.threadIndex.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
 
-        // ݻָ
-        if (lastExitOK) {
-            this.commitLog.recoverNormally();
+        try {
+            // Ȱָ̻Consume QueueTran Redo Log
+            this.recoverConsumeQueue(recoverExecutor);
+            log.info("recover consume queue over, eclipse time(ms) "
+                    + (System.currentTimeMillis() - beginTime));
+
+            // ݻָ
+            if (lastExitOK) {
+                this.commitLog.recoverNormally(recoverExecutor);
+            }
+            // 쳣ݻָOS CRASHJVM CRASH߻
+            else {
+                this.commitLog.recoverAbnormally(recoverExecutor);
+            }
+        }
+        finally {
+            recoverExecutor.shutdown();
         }
-        // 쳣ݻָOS CRASHJVM CRASH߻
-        else {
-            this.commitLog.recoverAbnormally();
 
+        log.info("recover commit log over, eclipse time(ms) " + (System.currentTimeMillis() - beginTime));
+
+        if (!lastExitOK) {
             // ֤ϢܴDispatchServiceн뵽Ķ
-            while (this.dispatchMessageService.hasRemainMessage()) {
-                try {
-                    Thread.sleep(500);
-                    log.info("waiting dispatching message over");
-                }
-                catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+            this.waitDispatchOver();
         }
 
         // ָģ
@@ -874,6 +1196,10 @@ public class DefaultMessageStore implements MessageStore {
                 result = result && this.scheduleMessageService.load();
             }
 
+            if (null != timerMessageService) {
+                result = result && this.timerMessageService.load(lastExitOK);
+            }
+
             if (result) {
                 this.storeCheckpoint = new StoreCheckpoint(this.messageStoreConfig.getStoreCheckpoint());
 
@@ -986,11 +1312,21 @@ public class DefaultMessageStore implements MessageStore {
         this.flushConsumeQueueService.start();
         this.commitLog.start();
         this.storeStatsService.start();
+        if (this.pageCacheResidencyService != null) {
+            this.pageCacheResidencyService.start();
+        }
+        if (this.tieredStoreService != null) {
+            this.tieredStoreService.start();
+        }
 
         if (this.scheduleMessageService != null) {
             this.scheduleMessageService.start();
         }
 
+        if (this.timerMessageService != null) {
+            this.timerMessageService.start();
+        }
+
         if (this.reputMessageService != null) {
             this.reputMessageService.setReputFromOffset(this.commitLog.getMaxOffset());
             this.reputMessageService.start();
@@ -1025,9 +1361,19 @@ public class DefaultMessageStore implements MessageStore {
                 this.scheduleMessageService.shutdown();
             }
 
+            if (this.timerMessageService != null) {
+                this.timerMessageService.shutdown();
+            }
+
             this.haService.shutdown();
 
             this.storeStatsService.shutdown();
+            if (this.pageCacheResidencyService != null) {
+                this.pageCacheResidencyService.shutdown();
+            }
+            if (this.tieredStoreService != null) {
+                this.tieredStoreService.shutdown();
+            }
             this.cleanCommitLogService.shutdown();
             this.cleanConsumeQueueService.shutdown();
             this.dispatchMessageService.shutdown();
@@ -1046,6 +1392,42 @@ public class DefaultMessageStore implements MessageStore {
 
 
     public PutMessageResult putMessage(MessageExtBrokerInner msg) {
+        PutMessageResult checkResult = this.checkBeforePutMessage(msg);
+        if (checkResult != null) {
+            return checkResult;
+        }
+
+        long beginTime = this.getSystemClock().now();
+        PutMessageResult result = this.commitLog.putMessage(msg);
+        this.statsAfterPutMessage(msg, beginTime, result);
+        return result;
+    }
+
+
+    public void putMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback) {
+        PutMessageResult checkResult = this.checkBeforePutMessage(msg);
+        if (checkResult != null) {
+            callback.operationComplete(checkResult);
+            return;
+        }
+
+        final long beginTime = this.getSystemClock().now();
+        this.commitLog.putMessage(msg, new PutMessageCallback() {
+            @Override
+            public void operationComplete(PutMessageResult putMessageResult) {
+                DefaultMessageStore.this.statsAfterPutMessage(msg, beginTime, putMessageResult);
+                callback.operationComplete(putMessageResult);
+            }
+        });
+    }
+
+
+    /**
+     * дǰ洢״̬Ϣʽ
+     *
+     * @return д뷵null
+     */
+    private PutMessageResult checkBeforePutMessage(final MessageExtBrokerInner msg) {
         if (this.shutdown) {
             log.warn("message store has shutdown, so putMessage is forbidden");
             return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
@@ -1085,8 +1467,24 @@ public class DefaultMessageStore implements MessageStore {
             return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
         }
 
-        long beginTime = this.getSystemClock().now();
-        PutMessageResult result = this.commitLog.putMessage(msg);
+        // ʱͶʱУ飬ʽʱ߷ͷд߹ʱŷ
+        String deliverTime = msg.getProperty(Message.PROPERTY_DELIVER_TIME);
+        if (deliverTime != null) {
+            try {
+                Long.parseLong(deliverTime);
+            }
+            catch (NumberFormatException e) {
+                log.warn("putMessage message deliver time illegal " + deliverTime);
+                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            }
+        }
+
+        return null;
+    }
+
+
+    private void statsAfterPutMessage(final MessageExtBrokerInner msg, final long beginTime,
+            final PutMessageResult result) {
         // ͳ
         long eclipseTime = this.getSystemClock().now() - beginTime;
         if (eclipseTime > 1000) {
@@ -1098,18 +1496,63 @@ public class DefaultMessageStore implements MessageStore {
         if (null == result || !result.isOk()) {
             this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
         }
+    }
 
-        return result;
+
+    /**
+     * д뵽ڵĶʱϢBrokerڲʹ
+     *
+     * @return ˳ɹдϢ
+     */
+    public int putMessages(final List<MessageExtBrokerInner> msgs) {
+        if (this.shutdown || BrokerRole.SLAVE == this.messageStoreConfig.getBrokerRole()
+                || !this.runningFlags.isWriteable()) {
+            log.warn("message store is not available, so putMessages is forbidden");
+            return 0;
+        }
+
+        if (msgs.isEmpty()) {
+            return 0;
+        }
+
+        long beginTime = this.getSystemClock().now();
+        int appended = this.commitLog.putMessages(msgs);
+        long eclipseTime = this.getSystemClock().now() - beginTime;
+        if (eclipseTime > 1000) {
+            log.warn("putMessages not in lock eclipse time(ms) " + eclipseTime);
+        }
+        this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
+        for (int i = 0; i < appended; i++) {
+            this.storeStatsService.getSinglePutMessageTopicTimesTotal(msgs.get(i).getTopic())
+                .incrementAndGet();
+        }
+
+        if (appended < msgs.size()) {
+            this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
+        }
+
+        return appended;
     }
 
 
-    private boolean isTheBatchFull(long offsetPy, int sizePy, int maxMsgNums, int bufferTotal,
-            int messageTotal) {
+    /**
+     * жϢǷڴ̣page cache̽ʱʵפжϣڴ
+     */
+    private boolean checkInDiskByCommitLogOffset(final long offsetPy) {
+        if (this.pageCacheResidencyService != null) {
+            return !this.pageCacheResidencyService.isResident(offsetPy);
+        }
+
         long maxOffsetPy = this.commitLog.getMaxOffset();
         long memory =
                 (long) (MixAll.TotalPhysicalMemorySize * (this.messageStoreConfig
                     .getAccessMessageInMemoryMaxRatio() / 100.0));
+        return (maxOffsetPy - offsetPy) > memory;
+    }
+
 
+    private boolean isTheBatchFull(int sizePy, int maxMsgNums, int bufferTotal, int messageTotal,
+            boolean isInDisk) {
         // һϢԲ
         if (0 == bufferTotal || 0 == messageTotal) {
             return false;
@@ -1120,7 +1563,7 @@ public class DefaultMessageStore implements MessageStore {
         }
 
         // Ϣڴ
-        if ((maxOffsetPy - offsetPy) > memory) {
+        if (isInDisk) {
             if ((bufferTotal + sizePy) > this.messageStoreConfig.getMaxTransferBytesOnMessageInDisk()) {
                 return true;
             }
@@ -1144,6 +1587,31 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    /**
+     * ͨFileChannelȡûжĲ˻mmapȡ
+     */
+    private void readColdMessages(final List<long[]> coldReads, final GetMessageResult getResult) {
+        List<SelectMapedBufferResult> results = this.coldReadService.readMessages(coldReads);
+        int readCnt = 0;
+        if (results != null) {
+            for (SelectMapedBufferResult selectResult : results) {
+                getResult.addMessage(selectResult);
+            }
+            readCnt = results.size();
+        }
+
+        for (int i = readCnt; i < coldReads.size(); i++) {
+            SelectMapedBufferResult selectResult =
+                    this.commitLog.getMessage(coldReads.get(i)[0], (int) coldReads.get(i)[1]);
+            if (selectResult != null) {
+                getResult.addMessage(selectResult);
+            }
+        }
+
+        this.storeStatsService.getGetMessageTransferedMsgCount().addAndGet(getResult.getMessageCount());
+    }
+
+
     public GetMessageResult getMessage(final String topic, final int queueId, final long offset,
             final int maxMsgNums, final SubscriptionData subscriptionData) {
         if (this.shutdown) {
@@ -1199,6 +1667,11 @@ public class DefaultMessageStore implements MessageStore {
 
                         long nextPhyFileStartOffset = Long.MIN_VALUE;
                         long maxPhyOffsetPulling = 0;
+                        // ԱһϢжϢڴ滹Ǵ
+                        Boolean isInDisk = null;
+                        // ȼ¼λãͨFileChannelȡ
+                        List<long[]> coldReads = null;
+                        int coldReadSize = 0;
 
                         int i = 0;
                         final int MaxFilterMessageCount = 16000;
@@ -1216,14 +1689,29 @@ public class DefaultMessageStore implements MessageStore {
                                     continue;
                             }
 
+                            if (null == isInDisk) {
+                                isInDisk = this.checkInDiskByCommitLogOffset(offsetPy);
+                                if (isInDisk && this.coldReadService != null) {
+                                    coldReads = new ArrayList<long[]>();
+                                }
+                            }
+
                             // Ϣﵽ
-                            if (this.isTheBatchFull(offsetPy, sizePy, maxMsgNums,
-                                getResult.getBufferTotalSize(), getResult.getMessageCount())) {
+                            if (this.isTheBatchFull(sizePy, maxMsgNums, getResult.getBufferTotalSize()
+                                    + coldReadSize, getResult.getMessageCount()
+                                    + (null == coldReads ? 0 : coldReads.size()), isInDisk)) {
                                 break;
                             }
 
                             // Ϣ
                             if (this.messageFilter.isMessageMatched(subscriptionData, tagsCode)) {
+                                if (coldReads != null) {
+                                    coldReads.add(new long[] { offsetPy, sizePy });
+                                    coldReadSize += sizePy;
+                                    status = GetMessageStatus.FOUND;
+                                    continue;
+                                }
+
                                 SelectMapedBufferResult selectResult =
                                         this.commitLog.getMessage(offsetPy, sizePy);
                                 if (selectResult != null) {
@@ -1243,7 +1731,7 @@ public class DefaultMessageStore implements MessageStore {
                                 }
                             }
                             else {
-                                if (getResult.getBufferTotalSize() == 0) {
+                                if (getResult.getBufferTotalSize() + coldReadSize == 0) {
                                     status = GetMessageStatus.NO_MATCHED_MESSAGE;
                                 }
 
@@ -1254,13 +1742,18 @@ public class DefaultMessageStore implements MessageStore {
                             }
                         }
 
+                        if (coldReads != null && !coldReads.isEmpty()) {
+                            this.readColdMessages(coldReads, getResult);
+                            status =
+                                    getResult.getBufferTotalSize() > 0 ? GetMessageStatus.FOUND
+                                            : GetMessageStatus.MESSAGE_WAS_REMOVING;
+                        }
+
                         nextBeginOffset = offset + (i / ConsumeQueue.CQStoreUnitSize);
 
-                        long diff = maxOffset - maxPhyOffsetPulling;
-                        long memory =
-                                (long) (MixAll.TotalPhysicalMemorySize * (this.messageStoreConfig
-                                    .getAccessMessageInMemoryMaxRatio() / 100.0));
-                        getResult.setSuggestPullingFromSlave(diff > memory);
+                        // һϢڴ̣Slaveȡ
+                        getResult.setSuggestPullingFromSlave(this
+                            .checkInDiskByCommitLogOffset(maxPhyOffsetPulling));
                     }
                     finally {
                         // ͷԴ
@@ -1438,7 +1931,8 @@ public class DefaultMessageStore implements MessageStore {
         SelectMapedBufferResult sbr = this.commitLog.getMessage(commitLogOffset, size);
         if (null != sbr) {
             try {
-                return MessageDecoder.decode(sbr.getByteBuffer());
+                // Ϣ屣ѹ״̬BrokerͶʱԭд
+                return MessageDecoder.decode(sbr.getByteBuffer(), true, false);
             }
             finally {
                 sbr.release();
@@ -1459,11 +1953,38 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
-    private void recoverConsumeQueue() {
+    public IndexService getIndexService() {
+        return indexService;
+    }
+
+
+    /**
+     * еļлָ
+     */
+    private void recoverConsumeQueue(final ExecutorService executor) throws Exception {
+        final List<ConsumeQueue> logics = new ArrayList<ConsumeQueue>();
         for (ConcurrentHashMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
-            for (ConsumeQueue logic : maps.values()) {
-                logic.recover();
-            }
+            logics.addAll(maps.values());
+        }
+        logics.add(this.transactionStateService.getTranRedoLog());
+
+        final AtomicInteger recoverCnt = new AtomicInteger(0);
+        List<Future<?>> futures = new ArrayList<Future<?>>(logics.size());
+        for (final ConsumeQueue logic : logics) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    logic.recover();
+                    int cnt = recoverCnt.incrementAndGet();
+                    if (cnt % 1000 == 0) {
+                        log.info("recover consume queue progress " + cnt + "/" + logics.size());
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
         }
     }
 
@@ -1498,6 +2019,9 @@ public class DefaultMessageStore implements MessageStore {
         this.destroyLogics();
         this.commitLog.destroy();
         this.indexService.destroy();
+        if (this.timerMessageService != null) {
+            this.timerMessageService.destroy();
+        }
         this.deleteFile(this.messageStoreConfig.getAbortFile());
         this.deleteFile(this.messageStoreConfig.getStoreCheckpoint());
     }
@@ -1577,6 +2101,37 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    /**
+     * SlaveֱӰݶCommitLogļcommitAppendToCommitLog
+     */
+    public ByteBuffer prepareAppendToCommitLog(final long startOffset, final int size) {
+        if (this.shutdown) {
+            log.warn("message store has shutdown, so prepareAppendToCommitLog is forbidden");
+            return null;
+        }
+
+        return this.commitLog.prepareAppendData(startOffset, size);
+    }
+
+
+    public boolean commitAppendToCommitLog(final long startOffset, final int size) {
+        if (this.shutdown) {
+            log.warn("message store has shutdown, so commitAppendToCommitLog is forbidden");
+            return false;
+        }
+
+        boolean result = this.commitLog.commitAppendData(startOffset, size);
+        if (result) {
+            this.reputMessageService.wakeup();
+        }
+        else {
+            log.error("commitAppendToCommitLog failed " + startOffset + " " + size);
+        }
+
+        return result;
+    }
+
+
     public SystemClock getSystemClock() {
         return systemClock;
     }
@@ -1629,8 +2184,28 @@ public class DefaultMessageStore implements MessageStore {
 
     @Override
     public HashMap<String, String> getRuntimeInfo() {
-        // TODO Auto-generated method stub
-        return null;
+        HashMap<String, String> result = this.storeStatsService.getRuntimeInfo();
+        result.putAll(this.haService.getRuntimeInfo());
+        result.putAll(this.allocateMapedFileService.getRuntimeInfo());
+        if (this.pageCacheResidencyService != null) {
+            result.putAll(this.pageCacheResidencyService.getRuntimeInfo());
+        }
+        if (this.coldReadService != null) {
+            result.putAll(this.coldReadService.getRuntimeInfo());
+        }
+        if (this.tieredStoreService != null) {
+            result.putAll(this.tieredStoreService.getRuntimeInfo());
+        }
+        if (this.commitLog.getArchiveStore() != null) {
+            result.putAll(this.commitLog.getArchiveStore().getRuntimeInfo());
+        }
+        if (this.cleanCommitLogService.getFileDeleteThrottle() != null) {
+            result.putAll(this.cleanCommitLogService.getFileDeleteThrottle().getRuntimeInfo());
+        }
+        if (this.reputMessageService != null) {
+            result.put("reputBehindBytes", String.valueOf(this.reputMessageService.behind()));
+        }
+        return result;
     }
 
 
@@ -1663,6 +2238,11 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    public TimerMessageService getTimerMessageService() {
+        return timerMessageService;
+    }
+
+
     public TransactionStateService getTransactionStateService() {
         return transactionStateService;
     }
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+
+
+/**
+ * ļɾ<br>
+ * ѾunmapļȰ̶СβֶνضϣֽͷŴ̿飬unlinkһļ<br>
+ * һɾļʱļϵͳʱBroker١ֻļ߳ʹ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class FileDeleteThrottle {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // ÿνضϵֽ
+    private final long truncateChunkSize;
+    // ÿͷŵֽСڵ0ʾ
+    private final long bytesPerSecond;
+    // ǰٴڵĿʼʱͷֽ
+    private long windowBeginTimestamp = 0;
+    private long windowBytes = 0;
+
+    private final AtomicLong deleteFileTimes = new AtomicLong(0);
+    private final AtomicLong deleteFileBytes = new AtomicLong(0);
+    private final AtomicLong deleteFileTimeTotal = new AtomicLong(0);
+    private final AtomicLong deleteFileThrottleTimeTotal = new AtomicLong(0);
+    // ļunmapunlinkʱٵȴ
+    private volatile long deleteFileMaxTime = 0;
+    // ضһλunlinkʱɾļϵͳĳ
+    private volatile long deleteFileMaxStepTime = 0;
+
+
+    public FileDeleteThrottle(final long truncateChunkSize, final long bytesPerSecond) {
+        this.truncateChunkSize = Math.max(truncateChunkSize, 1024 * 1024);
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+
+    /**
+     * ֶνضļʱļѾunmap
+     * 
+     * @return ٵȴʱ
+     */
+    public long truncate(final FileChannel fileChannel) throws IOException {
+        long waitTimeTotal = 0;
+        long size = fileChannel.size();
+        while (size > 0) {
+            long chunk = Math.min(this.truncateChunkSize, size);
+            waitTimeTotal += this.acquire(chunk);
+
+            long beginTime = System.currentTimeMillis();
+            size -= chunk;
+            fileChannel.truncate(size);
+            this.recordStep(System.currentTimeMillis() - beginTime);
+        }
+
+        return waitTimeTotal;
+    }
+
+
+    /**
+     * ֽ٣ʱڵǰ߳еȴ
+     */
+    private long acquire(final long bytes) {
+        if (this.bytesPerSecond <= 0) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        // г1룬¿ʼ㴰ڣ֮ǰĿʱ
+        long expected = this.windowBytes * 1000 / this.bytesPerSecond;
+        if (now - this.windowBeginTimestamp > expected + 1000) {
+            this.windowBeginTimestamp = now;
+            this.windowBytes = 0;
+        }
+
+        this.windowBytes += bytes;
+        long waitTime = this.windowBeginTimestamp + this.windowBytes * 1000 / this.bytesPerSecond - now;
+        if (waitTime > 0) {
+            try {
+                Thread.sleep(waitTime);
+            }
+            catch (InterruptedException e) {
+                log.warn("delete file throttle interrupted", e);
+            }
+            this.deleteFileThrottleTimeTotal.addAndGet(waitTime);
+            return waitTime;
+        }
+
+        return 0;
+    }
+
+
+    public void recordStep(final long eclipseTime) {
+        if (eclipseTime > this.deleteFileMaxStepTime) {
+            this.deleteFileMaxStepTime = eclipseTime;
+        }
+    }
+
+
+    public void recordDelete(final long fileSize, final long eclipseTime) {
+        this.deleteFileTimes.incrementAndGet();
+        this.deleteFileBytes.addAndGet(fileSize);
+        this.deleteFileTimeTotal.addAndGet(eclipseTime);
+        if (eclipseTime > this.deleteFileMaxTime) {
+            this.deleteFileMaxTime = eclipseTime;
+        }
+    }
+
+
+    public HashMap<String, String> getRuntimeInfo() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        long times = this.deleteFileTimes.get();
+        result.put("deleteFileTimes", String.valueOf(times));
+        result.put("deleteFileBytes", String.valueOf(this.deleteFileBytes.get()));
+        result.put("deleteFileAvgTime",
+            String.valueOf(times > 0 ? this.deleteFileTimeTotal.get() / times : 0));
+        result.put("deleteFileMaxTime", String.valueOf(this.deleteFileMaxTime));
+        result.put("deleteFileMaxStepTime", String.valueOf(this.deleteFileMaxStepTime));
+        result.put("deleteFileThrottleTimeTotal", String.valueOf(this.deleteFileThrottleTimeTotal.get()));
+        return result;
+    }
+}
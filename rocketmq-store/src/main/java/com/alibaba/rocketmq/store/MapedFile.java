@@ -205,6 +205,29 @@ public class MapedFile extends ReferenceResource {
     }
 
 
+    /**
+     * ļδдһ򣬵÷ֱдappendWrotePositionЧһSLAVE洢ṹʹ
+     * 
+     * @return ʣռ䲻㷵null
+     */
+    public ByteBuffer sliceForAppend(final int size) {
+        int currentPos = this.wrotePostion.get();
+        if ((currentPos + size) <= this.fileSize) {
+            ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
+            byteBuffer.position(currentPos);
+            byteBuffer.limit(currentPos + size);
+            return byteBuffer;
+        }
+
+        return null;
+    }
+
+
+    public void appendWrotePosition(final int size) {
+        this.wrotePostion.addAndGet(size);
+    }
+
+
     private boolean isAbleToFlush(final int flushLeastPages) {
         int flush = this.committedPosition.get();
         int write = this.wrotePostion.get();
@@ -295,6 +318,65 @@ public class MapedFile extends ReferenceResource {
     }
 
 
+    /**
+     * ʱӳһ򲢵isLoadedmincoreжǷpage cache
+     */
+    public boolean isRegionLoaded(final int pos, final int size) {
+        if (this.hold()) {
+            MappedByteBuffer region = null;
+            try {
+                region = this.fileChannel.map(MapMode.READ_ONLY, pos, size);
+                return region.isLoaded();
+            }
+            catch (IOException e) {
+                log.warn("check region loaded exception, " + this.fileName + " " + pos + " " + size, e);
+            }
+            finally {
+                unmapRegion(region);
+                this.release();
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Ԥһݵpage cacheloadڲmadvise(WILLNEED)ҳ
+     */
+    public boolean loadRegion(final int pos, final int size) {
+        if (this.hold()) {
+            MappedByteBuffer region = null;
+            try {
+                region = this.fileChannel.map(MapMode.READ_ONLY, pos, size);
+                region.load();
+                return true;
+            }
+            catch (IOException e) {
+                log.warn("load region exception, " + this.fileName + " " + pos + " " + size, e);
+            }
+            finally {
+                unmapRegion(region);
+                this.release();
+            }
+        }
+
+        return false;
+    }
+
+
+    private static void unmapRegion(final MappedByteBuffer region) {
+        if (region != null) {
+            try {
+                clean(region);
+            }
+            catch (Exception e) {
+                // ͷʧʱȴGCӳ
+            }
+        }
+    }
+
+
     public static void clean(final ByteBuffer buffer) {
         if (buffer == null || !buffer.isDirect() || buffer.capacity() == 0)
             return;
@@ -369,10 +451,28 @@ public class MapedFile extends ReferenceResource {
      * @return ǷdestoryɹϲҪʧʧܺ
      */
     public boolean destroy(final long intervalForcibly) {
+        return this.destroy(intervalForcibly, null);
+    }
+
+
+    /**
+     * Դunmapֶ֮ͨνضļɾļ
+     * 
+     * @param throttle
+     *            Ϊnullʱֱɾļ
+     */
+    public boolean destroy(final long intervalForcibly, final FileDeleteThrottle throttle) {
+        long destroyBeginTime = System.currentTimeMillis();
         this.shutdown(intervalForcibly);
 
         if (this.isCleanupOver()) {
             try {
+                long waitTime = 0;
+                if (throttle != null) {
+                    throttle.recordStep(UtilALl.computeEclipseTimeMilliseconds(destroyBeginTime));
+                    waitTime = throttle.truncate(this.fileChannel);
+                }
+
                 this.fileChannel.close();
                 log.info("close file channel " + this.fileName + " OK");
 
@@ -382,6 +482,12 @@ public class MapedFile extends ReferenceResource {
                         + (result ? " OK, " : " Failed, ") + "W:" + this.getWrotePostion() + " M:"
                         + this.getCommittedPosition() + ", "
                         + UtilALl.computeEclipseTimeMilliseconds(beginTime));
+
+                if (throttle != null) {
+                    throttle.recordStep(UtilALl.computeEclipseTimeMilliseconds(beginTime));
+                    throttle.recordDelete(this.fileSize,
+                        UtilALl.computeEclipseTimeMilliseconds(destroyBeginTime) - waitTime);
+                }
             }
             catch (Exception e) {
                 log.warn("close file channel " + this.fileName + " Failed. ", e);
@@ -18,7 +18,9 @@ package com.alibaba.rocketmq.store;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -40,17 +42,27 @@ import com.alibaba.rocketmq.common.constant.LoggerName;
 public class MapedFileQueue {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
     // ÿδɾļɾٸļ
-    private static final int DeleteFilesBatchMax = 30;
-    // ļ洢λ
-    private final String storePath;
+    static final int DeleteFilesBatchMax = 30;
+    // ǨƵ洢еʱļ׺
+    public static final String TieredTmpFileSuffix = ".tiering";
+    // ļ洢λãĿ¼ʱļڸĿ¼
+    private final String[] storePaths;
+    // ʹʳֵĿ¼ٴļĿ¼
+    private volatile double storePathFullRatio = 1.0;
+    // Ԥһļ·һļʱԤʱѡĿ¼
+    private String preallocateFilePath;
+    // 洢λãΪnullʾּ洢
+    private final String storePathTiered;
     // ÿļĴС
     private final int mapedFileSize;
     // ˢˢ
     private long committedWhere = 0;
     // ļ
     private final List<MapedFile> mapedFiles = new ArrayList<MapedFile>();
-    // дmapedFiles
+    // дmapedFilesֻ޸ĶʱҪд
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    // mapedFilesֻգÿ޸Ķк·Ϣʱ
+    private volatile MapedFile[] mapedFileSnapshot = new MapedFile[0];
     // ԤMapedFile
     private final AllocateMapedFileService allocateMapedFileService;
     // һϢ洢ʱ
@@ -59,7 +71,20 @@ public class MapedFileQueue {
 
     public MapedFileQueue(final String storePath, int mapedFileSize,
             AllocateMapedFileService allocateMapedFileService) {
-        this.storePath = storePath;
+        this(storePath, null, mapedFileSize, allocateMapedFileService);
+    }
+
+
+    public MapedFileQueue(final String storePath, final String storePathTiered, int mapedFileSize,
+            AllocateMapedFileService allocateMapedFileService) {
+        this(new String[] { storePath }, storePathTiered, mapedFileSize, allocateMapedFileService);
+    }
+
+
+    public MapedFileQueue(final String[] storePaths, final String storePathTiered, int mapedFileSize,
+            AllocateMapedFileService allocateMapedFileService) {
+        this.storePaths = storePaths;
+        this.storePathTiered = storePathTiered;
         this.mapedFileSize = mapedFileSize;
         this.allocateMapedFileService = allocateMapedFileService;
     }
@@ -108,93 +133,234 @@ public class MapedFileQueue {
 
 
     public boolean load() {
-        File dir = new File(this.storePath);
-        File[] files = dir.listFiles();
-        if (files != null) {
-            // ascending order
-            Arrays.sort(files);
-            for (File file : files) {
-                // УļСǷƥ
-                if (file.length() != this.mapedFileSize) {
-                    log.warn(file + "\t" + file.length()
-                            + " length not matched message store config value, ignore it");
-                    return true;
-                }
+        List<File> files = this.listStoreFiles();
+        if (null == files) {
+            return false;
+        }
+
+        for (File file : files) {
+            // УļСǷƥ
+            if (file.length() != this.mapedFileSize) {
+                log.warn(file + "\t" + file.length()
+                        + " length not matched message store config value, ignore it");
+                this.publishSnapshot();
+                return true;
+            }
 
-                // ָ
-                try {
-                    MapedFile mapedFile = new MapedFile(file.getPath(), mapedFileSize);
+            // ָ
+            try {
+                MapedFile mapedFile = new MapedFile(file.getPath(), mapedFileSize);
 
-                    mapedFile.setWrotePostion(this.mapedFileSize);
-                    mapedFile.setCommittedPosition(this.mapedFileSize);
-                    this.mapedFiles.add(mapedFile);
-                    log.info("load " + file.getPath() + " OK");
+                mapedFile.setWrotePostion(this.mapedFileSize);
+                mapedFile.setCommittedPosition(this.mapedFileSize);
+                this.mapedFiles.add(mapedFile);
+                log.info("load " + file.getPath() + " OK");
+            }
+            catch (IOException e) {
+                log.error("load file " + file + " error", e);
+                this.publishSnapshot();
+                return false;
+            }
+        }
+
+        this.publishSnapshot();
+        return true;
+    }
+
+
+    /**
+     * г洢洢Ŀ¼еļļʼOffset
+     * 
+     * @return 洢Ŀ¼ͬļʱnull
+     */
+    private List<File> listStoreFiles() {
+        List<File> result = new ArrayList<File>();
+        HashSet<String> names = new HashSet<String>();
+        for (String storePath : this.storePaths) {
+            File[] files = new File(storePath).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    // Ŀ¼гͬļ˵Ŀ¼޷жĸΪ׼ʧ
+                    if (!names.add(file.getName())) {
+                        log.error("duplicate file " + file + " in store paths, load failed");
+                        return null;
+                    }
+
+                    result.add(file);
                 }
-                catch (IOException e) {
-                    log.error("load file " + file + " error", e);
-                    return false;
+            }
+        }
+
+        if (this.storePathTiered != null) {
+            File[] tieredFiles = new File(this.storePathTiered).listFiles();
+            if (tieredFiles != null) {
+                for (File file : tieredFiles) {
+                    // Ǩƹ崻ʱļͬļ洢Ŀ¼еΪ׼
+                    if (file.getName().endsWith(TieredTmpFileSuffix) || names.contains(file.getName())) {
+                        boolean deleted = file.delete();
+                        log.warn("delete unfinished tiered file " + file + (deleted ? " OK" : " Failed"));
+                        continue;
+                    }
+
+                    result.add(file);
                 }
             }
         }
 
-        return true;
+        // ascending order
+        Collections.sort(result, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        return result;
     }
 
 
     /**
-     * ˢ̽˶
+     * ҿǨƵ洢ļֻǨѾˢ洢Ŀ¼еļ
+     * 
+     * @param hotFileNums
+     *            洢Ŀ¼ٱļ
      */
-    public long howMuchFallBehind() {
-        if (this.mapedFiles.isEmpty())
-            return 0;
+    public MapedFile findTieringCandidate(final int hotFileNums) {
+        if (null == this.storePathTiered) {
+            return null;
+        }
 
-        long committed = this.committedWhere;
-        if (committed != 0) {
-            MapedFile mapedFile = this.getLastMapedFile();
-            if (mapedFile != null) {
-                return (mapedFile.getFileFromOffset() + mapedFile.getWrotePostion()) - committed;
+        Object[] mfs = this.copyMapedFiles(0);
+        if (null == mfs) {
+            return null;
+        }
+
+        // һļд״̬ٱһ
+        int end = mfs.length - Math.max(hotFileNums, 1);
+        for (int i = 0; i < end; i++) {
+            MapedFile mapedFile = (MapedFile) mfs[i];
+            if (mapedFile.getFileFromOffset() + this.mapedFileSize > this.committedWhere) {
+                break;
+            }
+
+            if (mapedFile.isAvailable() && !this.isTieredFile(mapedFile)) {
+                return mapedFile;
             }
         }
 
-        return 0;
+        return null;
     }
 
 
     /**
-     * ȡеСOffsetΪգ򷵻-1
+     * ҿԹ鵵ļֻ鵵еĵһļ֤
+     * 
+     * @param keepFileNums
+     *            ٱļ
      */
-    public long getMinOffset() {
+    public MapedFile findArchiveCandidate(final int keepFileNums) {
         try {
             this.readWriteLock.readLock().lock();
-            if (!this.mapedFiles.isEmpty()) {
-                return this.mapedFiles.get(0).getFileFromOffset();
+            // һļд״̬ٱһ
+            if (this.mapedFiles.size() <= Math.max(keepFileNums, 1)) {
+                return null;
+            }
+
+            MapedFile mapedFile = this.mapedFiles.get(0);
+            if (mapedFile.isAvailable()
+                    && mapedFile.getFileFromOffset() + this.mapedFileSize <= this.committedWhere) {
+                return mapedFile;
             }
-        }
-        catch (Exception e) {
-            log.error("getMinOffset has exception.", e);
         }
         finally {
             this.readWriteLock.readLock().unlock();
         }
 
-        return -1;
+        return null;
     }
 
 
-    public long getMaxOffset() {
+    /**
+     * ӶͷƳѾ鵵ļļѾǵһڱɾʱfalse
+     */
+    public boolean removeFirstMapedFile(final MapedFile mapedFile) {
         try {
-            this.readWriteLock.readLock().lock();
-            if (!this.mapedFiles.isEmpty()) {
-                int lastIndex = this.mapedFiles.size() - 1;
-                MapedFile mapedFile = this.mapedFiles.get(lastIndex);
-                return mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
+            this.readWriteLock.writeLock().lock();
+            if (this.mapedFiles.isEmpty() || this.mapedFiles.get(0) != mapedFile
+                    || !mapedFile.isAvailable()) {
+                return false;
             }
+
+            this.mapedFiles.remove(0);
+            this.publishSnapshot();
+            return true;
         }
-        catch (Exception e) {
-            log.error("getMinOffset has exception.", e);
+        finally {
+            this.readWriteLock.writeLock().unlock();
+        }
+    }
+
+
+    public boolean isTieredFile(final MapedFile mapedFile) {
+        return this.storePathTiered != null
+                && new File(this.storePathTiered).equals(new File(mapedFile.getFileName()).getParentFile());
+    }
+
+
+    /**
+     * ö洢еļ滻еԭļԭļѾڶлڱɾʱfalse
+     */
+    public boolean replaceMapedFile(final MapedFile oldMapedFile, final MapedFile newMapedFile) {
+        try {
+            this.readWriteLock.writeLock().lock();
+            int index = this.mapedFiles.indexOf(oldMapedFile);
+            if (index < 0 || !oldMapedFile.isAvailable()) {
+                return false;
+            }
+
+            this.mapedFiles.set(index, newMapedFile);
+            this.publishSnapshot();
+            return true;
         }
         finally {
-            this.readWriteLock.readLock().unlock();
+            this.readWriteLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * ˢ̽˶
+     */
+    public long howMuchFallBehind() {
+        long committed = this.committedWhere;
+        if (committed != 0) {
+            MapedFile mapedFile = this.getLastMapedFile2();
+            if (mapedFile != null) {
+                return (mapedFile.getFileFromOffset() + mapedFile.getWrotePostion()) - committed;
+            }
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * ȡеСOffsetΪգ򷵻-1
+     */
+    public long getMinOffset() {
+        MapedFile[] mfs = this.mapedFileSnapshot;
+        if (mfs.length > 0) {
+            return mfs[0].getFileFromOffset();
+        }
+
+        return -1;
+    }
+
+
+    public long getMaxOffset() {
+        MapedFile[] mfs = this.mapedFileSnapshot;
+        if (mfs.length > 0) {
+            MapedFile mapedFile = mfs[mfs.length - 1];
+            return mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
         }
 
         return 0;
@@ -210,6 +376,7 @@ public class MapedFileQueue {
             MapedFile mapedFile = this.mapedFiles.get(lastIndex);
             mapedFile.destroy(1000);
             this.mapedFiles.remove(mapedFile);
+            this.publishSnapshot();
             log.info("on recover, destroy a logic maped file " + mapedFile.getFileName());
         }
     }
@@ -233,6 +400,7 @@ public class MapedFileQueue {
                 log.error("deleteExpiredFile has exception.", e);
             }
             finally {
+                this.publishSnapshot();
                 this.readWriteLock.writeLock().unlock();
             }
         }
@@ -247,6 +415,25 @@ public class MapedFileQueue {
             final int deleteFilesInterval, //
             final long intervalForcibly,//
             final boolean cleanImmediately//
+    ) {
+        return this.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly,
+            cleanImmediately, DeleteFilesBatchMax, null);
+    }
+
+
+    /**
+     * ļʱɾļΪnullʱļضɾɾһƳһ
+     * 
+     * @param deleteFilesBatchMax
+     *            ɾļ
+     */
+    public int deleteExpiredFileByTime(//
+            final long expiredTime, //
+            final int deleteFilesInterval, //
+            final long intervalForcibly,//
+            final boolean cleanImmediately,//
+            final int deleteFilesBatchMax,//
+            final FileDeleteThrottle throttle//
     ) {
         Object[] mfs = this.copyMapedFiles(0);
 
@@ -263,14 +450,20 @@ public class MapedFileQueue {
                 long liveMaxTimestamp = mapedFile.getLastModifiedTimestamp() + expiredTime;
                 if (System.currentTimeMillis() >= liveMaxTimestamp//
                         || cleanImmediately) {
-                    if (mapedFile.destroy(intervalForcibly)) {
+                    if (mapedFile.destroy(intervalForcibly, throttle)) {
                         files.add(mapedFile);
                         deleteCount++;
 
-                        if (files.size() >= DeleteFilesBatchMax) {
+                        if (deleteCount >= deleteFilesBatchMax) {
                             break;
                         }
 
+                        // ɾʱϳɾ̴ӶƳ
+                        if (throttle != null) {
+                            deleteExpiredFile(files);
+                            files.clear();
+                        }
+
                         if (deleteFilesInterval > 0 && (i + 1) < mfsLength) {
                             try {
                                 Thread.sleep(deleteFilesInterval);
@@ -367,11 +560,15 @@ public class MapedFileQueue {
     }
 
 
+    /**
+     * ȡһMapedFile󣬲ᴴļΪʱnull
+     */
     public MapedFile getLastMapedFile2() {
-        if (this.mapedFiles.isEmpty()) {
+        MapedFile[] mfs = this.mapedFileSnapshot;
+        if (mfs.length == 0) {
             return null;
         }
-        return this.mapedFiles.get(this.mapedFiles.size() - 1);
+        return mfs[mfs.length - 1];
     }
 
 
@@ -391,14 +588,13 @@ public class MapedFileQueue {
         long createOffset = -1;
         MapedFile mapedFileLast = null;
         {
-            this.readWriteLock.readLock().lock();
-            if (this.mapedFiles.isEmpty()) {
+            MapedFile[] mfs = this.mapedFileSnapshot;
+            if (mfs.length == 0) {
                 createOffset = startOffset - (startOffset % this.mapedFileSize);
             }
             else {
-                mapedFileLast = this.mapedFiles.get(this.mapedFiles.size() - 1);
+                mapedFileLast = mfs[mfs.length - 1];
             }
-            this.readWriteLock.readLock().unlock();
         }
 
         if (mapedFileLast != null && mapedFileLast.isFull()) {
@@ -406,10 +602,16 @@ public class MapedFileQueue {
         }
 
         if (createOffset != -1) {
-            String nextFilePath = this.storePath + File.separator + UtilALl.offset2FileName(createOffset);
+            String nextFilePath = this.preallocateFilePath;
+            if (null == nextFilePath
+                    || !nextFilePath.endsWith(File.separator + UtilALl.offset2FileName(createOffset))) {
+                nextFilePath = this.selectStorePath(createOffset) + File.separator
+                        + UtilALl.offset2FileName(createOffset);
+            }
             String nextNextFilePath =
-                    this.storePath + File.separator
+                    this.selectStorePath(createOffset + this.mapedFileSize) + File.separator
                             + UtilALl.offset2FileName(createOffset + this.mapedFileSize);
+            this.preallocateFilePath = nextNextFilePath;
             MapedFile mapedFile = null;
 
             if (this.allocateMapedFileService != null) {
@@ -432,6 +634,7 @@ public class MapedFileQueue {
                     mapedFile.setFirstCreateInQueue(true);
                 }
                 this.mapedFiles.add(mapedFile);
+                this.publishSnapshot();
                 this.readWriteLock.writeLock().unlock();
             }
 
@@ -442,23 +645,35 @@ public class MapedFileQueue {
     }
 
 
-    private MapedFile getFirstMapedFile() {
-        if (this.mapedFiles.isEmpty()) {
-            return null;
+    /**
+     * ļѡ洢Ŀ¼̿ռ䲻Ŀ¼
+     */
+    private String selectStorePath(final long fileFromOffset) {
+        if (this.storePaths.length == 1) {
+            return this.storePaths[0];
         }
 
-        return this.mapedFiles.get(0);
+        int start = (int) ((fileFromOffset / this.mapedFileSize) % this.storePaths.length);
+        for (int i = 0; i < this.storePaths.length; i++) {
+            String storePath = this.storePaths[(start + i) % this.storePaths.length];
+            double ratio = UtilALl.getDiskPartitionSpaceUsedPercent(storePath);
+            if (ratio >= 0 && ratio < this.storePathFullRatio) {
+                return storePath;
+            }
+        }
+
+        log.warn("all store paths maybe full soon, still create file in " + this.storePaths[start]);
+        return this.storePaths[start];
     }
 
 
     public MapedFile getFirstMapedFileOnLock() {
-        try {
-            this.readWriteLock.readLock().lock();
-            return this.getFirstMapedFile();
-        }
-        finally {
-            this.readWriteLock.readLock().unlock();
+        MapedFile[] mfs = this.mapedFileSnapshot;
+        if (mfs.length == 0) {
+            return null;
         }
+
+        return mfs[0];
     }
 
 
@@ -467,36 +682,25 @@ public class MapedFileQueue {
     }
 
 
+    /**
+     * ңеļڱɾ÷ͨMapedFileü֤ȫ
+     */
     public MapedFile findMapedFileByOffset(final long offset, final boolean returnFirstOnNotFound) {
-        try {
-            this.readWriteLock.readLock().lock();
-            MapedFile mapedFile = this.getFirstMapedFile();
+        MapedFile[] mfs = this.mapedFileSnapshot;
+        if (mfs.length > 0) {
+            MapedFile mapedFile = mfs[0];
+            long index = (offset / this.mapedFileSize) - (mapedFile.getFileFromOffset() / this.mapedFileSize);
+            if (index >= 0 && index < mfs.length) {
+                return mfs[(int) index];
+            }
 
-            if (mapedFile != null) {
-                int index =
-                        (int) ((offset / this.mapedFileSize) - (mapedFile.getFileFromOffset() / this.mapedFileSize));
-                if (index < 0 || index >= this.mapedFiles.size()) {
-                    log.warn("findMapedFileByOffset offset not matched, request Offset: " + offset
-                            + ", index: " + index + ", mapedFileSize: " + this.mapedFileSize
-                            + ", mapedFiles count: " + this.mapedFiles.size());
-                }
+            log.warn("findMapedFileByOffset offset not matched, request Offset: " + offset + ", index: "
+                    + index + ", mapedFileSize: " + this.mapedFileSize + ", mapedFiles count: " + mfs.length);
 
-                try {
-                    return this.mapedFiles.get(index);
-                }
-                catch (Exception e) {
-                    if (returnFirstOnNotFound) {
-                        return mapedFile;
-                    }
-                }
+            if (returnFirstOnNotFound) {
+                return mapedFile;
             }
         }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-        finally {
-            this.readWriteLock.readLock().unlock();
-        }
 
         return null;
     }
@@ -519,26 +723,23 @@ public class MapedFileQueue {
 
 
     private Object[] copyMapedFiles(final int reservedMapedFiles) {
-        Object[] mfs = null;
-
-        try {
-            this.readWriteLock.readLock().lock();
-            if (this.mapedFiles.size() <= reservedMapedFiles) {
-                return null;
-            }
-
-            mfs = this.mapedFiles.toArray();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-        finally {
-            this.readWriteLock.readLock().unlock();
+        MapedFile[] mfs = this.mapedFileSnapshot;
+        if (mfs.length <= reservedMapedFiles) {
+            return null;
         }
+
         return mfs;
     }
 
 
+    /**
+     * ޸mapedFilesãҪдߴڻָ׶
+     */
+    private void publishSnapshot() {
+        this.mapedFileSnapshot = this.mapedFiles.toArray(new MapedFile[this.mapedFiles.size()]);
+    }
+
+
     public boolean retryDeleteFirstFile(final long intervalForcibly) {
         MapedFile mapedFile = this.getFirstMapedFileOnLock();
         if (mapedFile != null) {
@@ -584,6 +785,7 @@ public class MapedFileQueue {
             mf.destroy(1000 * 3);
         }
         this.mapedFiles.clear();
+        this.publishSnapshot();
         this.committedWhere = 0;
         this.readWriteLock.writeLock().unlock();
     }
@@ -612,4 +814,19 @@ public class MapedFileQueue {
     public int getMapedFileSize() {
         return mapedFileSize;
     }
+
+
+    public String getStorePathTiered() {
+        return storePathTiered;
+    }
+
+
+    public String[] getStorePaths() {
+        return storePaths;
+    }
+
+
+    public void setStorePathFullRatio(double storePathFullRatio) {
+        this.storePathFullRatio = storePathFullRatio;
+    }
 }
@@ -59,6 +59,12 @@ public interface MessageStore {
     public PutMessageResult putMessage(final MessageExtBrokerInner msg);
 
 
+    /**
+     * 洢Ϣ̵߳ȴˢͬ˫дɺص
+     */
+    public void putMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback);
+
+
     /**
      * ȡϢtypesΪnull
      */
@@ -86,7 +92,7 @@ public interface MessageStore {
 
 
     /**
-     * ͨOffsetѯϢ 򷵻null
+     * ͨOffsetѯϢϢ岻ѹ 򷵻null
      */
     public MessageExt lookMessageByOffset(final long commitLogOffset);
 
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+
+
+/**
+ * CommitLogpage cacheפ̽Ԥ<br>
+ * һȡڴ洫Ϊ̽Ƿpage cacheУһʱ䣻<br>
+ * ߶ڴʱ̨˳Ԥһ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class PageCacheResidencyService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+    //  -> ̽ʱ䣬ʾڴ棬ʾڴ
+    private final ConcurrentHashMap<Long, Long> residencyTable = new ConcurrentHashMap<Long, Long>(1024);
+    // ȴԤ
+    private final LinkedBlockingQueue<Long> readAheadQueue = new LinkedBlockingQueue<Long>();
+    private final ConcurrentHashMap<Long, Boolean> readAheadPending = new ConcurrentHashMap<Long, Boolean>();
+
+    private final AtomicLong probeTimes = new AtomicLong(0);
+    private final AtomicLong coldReadTimes = new AtomicLong(0);
+    private final AtomicLong readAheadBytes = new AtomicLong(0);
+    private long lastCleanTimestamp = System.currentTimeMillis();
+
+
+    public PageCacheResidencyService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    private int getRegionSize() {
+        return this.defaultMessageStore.getMessageStoreConfig().getMaxTransferBytesOnMessageInMemory();
+    }
+
+
+    /**
+     * жϴoffsetPyʼһǷpage cacheУ򴥷Ԥ
+     */
+    public boolean isResident(final long offsetPy) {
+        final int regionSize = this.getRegionSize();
+        final long region = offsetPy / regionSize;
+        final long now = System.currentTimeMillis();
+        final long ttl = this.defaultMessageStore.getMessageStoreConfig().getPageCacheResidencyTtl();
+
+        Long state = this.residencyTable.get(region);
+        if (state != null && (now - Math.abs(state)) < ttl) {
+            return state > 0;
+        }
+
+        boolean resident = this.probe(region * regionSize, regionSize);
+        this.residencyTable.put(region, resident ? now : -now);
+        if (!resident) {
+            this.coldReadTimes.incrementAndGet();
+            this.readAhead(region);
+        }
+
+        return resident;
+    }
+
+
+    /**
+     * ̽Ƿpage cacheУ򳬳дʱڴ洦
+     */
+    boolean probe(final long regionOffset, final int regionSize) {
+        MapedFile mapedFile = this.defaultMessageStore.getCommitLog().findMapedFileByOffset(regionOffset);
+        if (null == mapedFile) {
+            return false;
+        }
+
+        int pos = (int) (regionOffset - mapedFile.getFileFromOffset());
+        int size = Math.min(regionSize, mapedFile.getWrotePostion() - pos);
+        if (size <= 0) {
+            return true;
+        }
+
+        this.probeTimes.incrementAndGet();
+        return mapedFile.isRegionLoaded(pos, size);
+    }
+
+
+    /**
+     * ʼ˳Ԥ
+     */
+    private void readAhead(final long fromRegion) {
+        final long readAheadRegions =
+                this.defaultMessageStore.getMessageStoreConfig().getPageCacheReadAheadBytes()
+                        / this.getRegionSize();
+        final long maxRegion = this.defaultMessageStore.getCommitLog().getMaxOffset() / this.getRegionSize();
+        for (long region = fromRegion; region < fromRegion + Math.max(readAheadRegions, 1)
+                && region <= maxRegion; region++) {
+            if (null == this.readAheadPending.putIfAbsent(region, Boolean.TRUE)) {
+                this.readAheadQueue.offer(region);
+            }
+        }
+    }
+
+
+    private void doReadAhead(final long region) {
+        final int regionSize = this.getRegionSize();
+        final long regionOffset = region * regionSize;
+        MapedFile mapedFile = this.defaultMessageStore.getCommitLog().findMapedFileByOffset(regionOffset);
+        if (mapedFile != null) {
+            int pos = (int) (regionOffset - mapedFile.getFileFromOffset());
+            int size = Math.min(regionSize, mapedFile.getWrotePostion() - pos);
+            if (size > 0 && mapedFile.loadRegion(pos, size)) {
+                this.readAheadBytes.addAndGet(size);
+                this.residencyTable.put(region, System.currentTimeMillis());
+            }
+        }
+
+        this.readAheadPending.remove(region);
+    }
+
+
+    /**
+     * ڵ̽
+     */
+    private void cleanExpiredResidency() {
+        final long now = System.currentTimeMillis();
+        final long ttl = this.defaultMessageStore.getMessageStoreConfig().getPageCacheResidencyTtl();
+        if ((now - this.lastCleanTimestamp) < ttl * 10) {
+            return;
+        }
+
+        this.lastCleanTimestamp = now;
+        Iterator<Entry<Long, Long>> it = this.residencyTable.entrySet().iterator();
+        while (it.hasNext()) {
+            if ((now - Math.abs(it.next().getValue())) >= ttl) {
+                it.remove();
+            }
+        }
+    }
+
+
+    public HashMap<String, String> getRuntimeInfo() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        result.put("pageCacheProbeTimes", String.valueOf(this.probeTimes.get()));
+        result.put("pageCacheColdReadTimes", String.valueOf(this.coldReadTimes.get()));
+        result.put("pageCacheReadAheadBytes", String.valueOf(this.readAheadBytes.get()));
+        return result;
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                Long region = this.readAheadQueue.poll(1000, TimeUnit.MILLISECONDS);
+                if (region != null) {
+                    this.doReadAhead(region);
+                }
+
+                this.cleanExpiredResidency();
+            }
+            catch (InterruptedException e) {
+                log.warn(this.getServiceName() + " service interrupted, maybe by shutdown");
+                break;
+            }
+            catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return PageCacheResidencyService.class.getSimpleName();
+    }
+}
@@ -19,32 +19,41 @@ import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
- * ü࣬C++ָʵ
+ * ü࣬C++ָʵ<br>
+ * üǷñ־ͬһlongУholdreleaseȵļĶ֮߳䲻Ὰ
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-21
  */
 public abstract class ReferenceResource {
-    protected final AtomicLong refCount = new AtomicLong(1);
-    protected volatile boolean available = true;
+    // λΪñ־λΪü
+    private static final long UnavailableBit = 1L;
+    private static final long RefCountUnit = 2L;
+
+    protected final AtomicLong state = new AtomicLong(RefCountUnit);
     protected volatile boolean cleanupOver = false;
     private volatile long firstShutdownTimestamp = 0;
 
 
+    private static long refCountOf(final long state) {
+        return state >> 1;
+    }
+
+
     /**
      * ԴǷHOLDס
      */
-    public synchronized boolean hold() {
-        if (this.isAvailable()) {
-            if (this.refCount.getAndIncrement() > 0) {
-                return true;
+    public boolean hold() {
+        for (;;) {
+            long current = this.state.get();
+            if ((current & UnavailableBit) != 0 || refCountOf(current) <= 0) {
+                return false;
             }
-            else {
-                this.refCount.getAndDecrement();
+
+            if (this.state.compareAndSet(current, current + RefCountUnit)) {
+                return true;
             }
         }
-
-        return false;
     }
 
 
@@ -52,7 +61,7 @@ public abstract class ReferenceResource {
      * ͷԴ
      */
     public void release() {
-        long value = this.refCount.decrementAndGet();
+        long value = refCountOf(this.state.addAndGet(-RefCountUnit));
         if (value > 0)
             return;
 
@@ -67,26 +76,48 @@ public abstract class ReferenceResource {
      * ֹԴ shutdownöΣɹ̵߳
      */
     public void shutdown(final long intervalForcibly) {
-        if (this.available) {
-            this.available = false;
+        if (this.markUnavailable()) {
             this.firstShutdownTimestamp = System.currentTimeMillis();
             this.release();
         }
         // ǿshutdown
         else if (this.getRefCount() > 0) {
             if ((System.currentTimeMillis() - this.firstShutdownTimestamp) >= intervalForcibly) {
-                this.refCount.set(-1000 - this.getRefCount());
+                for (;;) {
+                    long current = this.state.get();
+                    long forced = ((-1000 - refCountOf(current)) << 1) | UnavailableBit;
+                    if (this.state.compareAndSet(current, forced)) {
+                        break;
+                    }
+                }
                 this.release();
             }
         }
     }
 
 
+    /**
+     * òñ־ֻеһóɹʱtrue
+     */
+    private boolean markUnavailable() {
+        for (;;) {
+            long current = this.state.get();
+            if ((current & UnavailableBit) != 0) {
+                return false;
+            }
+
+            if (this.state.compareAndSet(current, current | UnavailableBit)) {
+                return true;
+            }
+        }
+    }
+
+
     /**
      * ԴǷãǷɱHOLD
      */
     public boolean isAvailable() {
-        return this.available;
+        return (this.state.get() & UnavailableBit) == 0;
     }
 
 
@@ -94,12 +125,12 @@ public abstract class ReferenceResource {
      * ԴǷ
      */
     public boolean isCleanupOver() {
-        return this.refCount.get() <= 0 && this.cleanupOver;
+        return this.getRefCount() <= 0 && this.cleanupOver;
     }
 
 
     public long getRefCount() {
-        return this.refCount.get();
+        return refCountOf(this.state.get());
     }
 
 
@@ -31,8 +31,10 @@ public class SelectMapedBufferResult {
     private final ByteBuffer byteBuffer;
     // ЧݴС
     private int size;
+    // ڵļmmapʽȡʱΪnull
+    private final MapedFile mapedFile;
     // ͷڴ
-    private MapedFile mapedFile;
+    private ReferenceResource resource;
 
 
     public SelectMapedBufferResult(long startOffset, ByteBuffer byteBuffer, int size, MapedFile mapedFile) {
@@ -40,6 +42,20 @@ public class SelectMapedBufferResult {
         this.byteBuffer = byteBuffer;
         this.size = size;
         this.mapedFile = mapedFile;
+        this.resource = mapedFile;
+    }
+
+
+    /**
+     * ݲMapedFileУ뻺صݣͷʱ黹resource
+     */
+    public SelectMapedBufferResult(long startOffset, ByteBuffer byteBuffer, int size,
+            ReferenceResource resource) {
+        this.startOffset = startOffset;
+        this.byteBuffer = byteBuffer;
+        this.size = size;
+        this.mapedFile = null;
+        this.resource = resource;
     }
 
 
@@ -68,16 +84,16 @@ public class SelectMapedBufferResult {
      * ˷ֻܱһΣظЧ
      */
     public synchronized void release() {
-        if (this.mapedFile != null) {
-            this.mapedFile.release();
-            this.mapedFile = null;
+        if (this.resource != null) {
+            this.resource.release();
+            this.resource = null;
         }
     }
 
 
     @Override
     protected void finalize() {
-        if (this.mapedFile != null) {
+        if (this.resource != null) {
             this.release();
         }
     }
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * CommitLogּ洢<br>
+ * 洢Ŀ¼ֻµļļϵˢļƵ洢Ŀ¼<br>
+ * MapedFileQueue滻Ϊ洢еļȡݶϲ͸ԭļٱúɾ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class TieredStoreService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // ÿθƵֽ
+    private static final long CopyChunkSize = 1024 * 1024 * 64;
+
+    private final DefaultMessageStore defaultMessageStore;
+    // Ѿ滻жöδɾ洢ļ
+    private final List<MapedFile> pendingDestroyFiles = new ArrayList<MapedFile>();
+
+    private final AtomicLong tieredMoveFiles = new AtomicLong(0);
+    private final AtomicLong tieredMoveBytes = new AtomicLong(0);
+    private final AtomicLong tieredMoveTimeTotal = new AtomicLong(0);
+    private volatile long tieredMoveLastTime = 0;
+
+
+    public TieredStoreService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    /**
+     * 洢̿ռ䲻ʱͣǨƣɾϵļ
+     */
+    private boolean isTieredDiskFull() {
+        MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+        double ratio = config.getDiskMaxUsedSpaceRatio() / 100.0;
+        double tieredRatio = UtilALl.getDiskPartitionSpaceUsedPercent(config.getStorePathCommitLogTiered());
+        return tieredRatio < 0 || tieredRatio > ratio;
+    }
+
+
+    boolean moveOneFile() {
+        MapedFileQueue mapedFileQueue = this.defaultMessageStore.getCommitLog().getMapedFileQueue();
+        MapedFile mapedFile =
+                mapedFileQueue.findTieringCandidate(this.defaultMessageStore.getMessageStoreConfig()
+                    .getTieredStoreHotFileNums());
+        if (null == mapedFile) {
+            return false;
+        }
+
+        if (this.isTieredDiskFull()) {
+            log.warn("tiered store disk maybe full soon, stop moving " + mapedFile.getFileName());
+            return false;
+        }
+
+        return this.moveFile(mapedFileQueue, mapedFile);
+    }
+
+
+    /**
+     * ļ洢Ŀ¼дʱļˢ̺崻²ļ
+     */
+    boolean moveFile(final MapedFileQueue mapedFileQueue, final MapedFile mapedFile) {
+        long beginTime = System.currentTimeMillis();
+        File srcFile = new File(mapedFile.getFileName());
+        File destFile = new File(mapedFileQueue.getStorePathTiered(), srcFile.getName());
+        File tmpFile =
+                new File(mapedFileQueue.getStorePathTiered(), srcFile.getName()
+                        + MapedFileQueue.TieredTmpFileSuffix);
+
+        try {
+            MapedFile.ensureDirOK(mapedFileQueue.getStorePathTiered());
+            copyFile(srcFile, tmpFile);
+            if (!tmpFile.renameTo(destFile)) {
+                log.error("rename tiered file " + tmpFile + " to " + destFile + " Failed");
+                tmpFile.delete();
+                return false;
+            }
+
+            // ԭļ޸ʱ䣬ʱɾ߼ǨӰ
+            destFile.setLastModified(srcFile.lastModified());
+        }
+        catch (IOException e) {
+            log.error("copy " + srcFile + " to tiered store Failed", e);
+            tmpFile.delete();
+            return false;
+        }
+
+        MapedFile tieredMapedFile;
+        try {
+            tieredMapedFile = new MapedFile(destFile.getPath(), mapedFile.getFileSize());
+        }
+        catch (IOException e) {
+            log.error("map tiered file " + destFile + " Failed", e);
+            destFile.delete();
+            return false;
+        }
+
+        tieredMapedFile.setWrotePostion(mapedFile.getWrotePostion());
+        tieredMapedFile.setCommittedPosition(mapedFile.getCommittedPosition());
+
+        // ԭļڸڼ䱻ɾ
+        if (!mapedFileQueue.replaceMapedFile(mapedFile, tieredMapedFile)) {
+            log.warn("replace " + mapedFile.getFileName() + " Failed, maybe it was deleted, drop the copy");
+            tieredMapedFile.destroy(1000);
+            return false;
+        }
+
+        this.pendingDestroyFiles.add(mapedFile);
+        this.destroyPendingFiles();
+
+        long eclipseTime = UtilALl.computeEclipseTimeMilliseconds(beginTime);
+        this.tieredMoveFiles.incrementAndGet();
+        this.tieredMoveBytes.addAndGet(mapedFile.getFileSize());
+        this.tieredMoveTimeTotal.addAndGet(eclipseTime);
+        this.tieredMoveLastTime = eclipseTime;
+        log.info("move " + srcFile + " to tiered store " + destFile + " OK, " + eclipseTime + "ms");
+        return true;
+    }
+
+
+    private static void copyFile(final File srcFile, final File destFile) throws IOException {
+        FileChannel srcChannel = null;
+        FileChannel destChannel = null;
+        try {
+            srcChannel = new FileInputStream(srcFile).getChannel();
+            destChannel = new RandomAccessFile(destFile, "rw").getChannel();
+            long size = srcChannel.size();
+            long position = 0;
+            while (position < size) {
+                long count = Math.min(CopyChunkSize, size - position);
+                position += srcChannel.transferTo(position, count, destChannel);
+            }
+            destChannel.force(false);
+        }
+        finally {
+            if (srcChannel != null) {
+                srcChannel.close();
+            }
+            if (destChannel != null) {
+                destChannel.close();
+            }
+        }
+    }
+
+
+    /**
+     * ɾѾ滻洢ļԱõļ´Σǿɾʱǿɾ
+     */
+    private void destroyPendingFiles() {
+        int intervalForcibly =
+                this.defaultMessageStore.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly();
+        for (Iterator<MapedFile> it = this.pendingDestroyFiles.iterator(); it.hasNext();) {
+            MapedFile mapedFile = it.next();
+            if (mapedFile.destroy(intervalForcibly)) {
+                it.remove();
+            }
+        }
+    }
+
+
+    public HashMap<String, String> getRuntimeInfo() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        long files = this.tieredMoveFiles.get();
+        result.put("tieredMoveFiles", String.valueOf(files));
+        result.put("tieredMoveBytes", String.valueOf(this.tieredMoveBytes.get()));
+        result.put("tieredMoveAvgTime",
+            String.valueOf(files > 0 ? this.tieredMoveTimeTotal.get() / files : 0));
+        result.put("tieredMoveLastTime", String.valueOf(this.tieredMoveLastTime));
+        result.put("tieredPendingDestroyFiles", String.valueOf(this.pendingDestroyFiles.size()));
+        return result;
+    }
+
+
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+        int interval = this.defaultMessageStore.getMessageStoreConfig().getTieredStoreMoveInterval();
+        while (!this.isStoped()) {
+            try {
+                this.waitForRunning(interval);
+                this.destroyPendingFiles();
+
+                // лѹʱǨƣÿǨһļһǷֹͣ
+                while (!this.isStoped() && this.moveOneFile())
+                    ;
+            }
+            catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        this.destroyPendingFiles();
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return TieredStoreService.class.getSimpleName();
+    }
+}
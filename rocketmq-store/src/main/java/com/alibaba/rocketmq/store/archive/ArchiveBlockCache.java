@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.archive;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * 鵵νѹݿLRU棬ֽ̭
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class ArchiveBlockCache {
+    private final long capacity;
+    private long cachedBytes = 0;
+    // CommitLogеʼOffset -> ѹݣ˳Уδʵǰ
+    private final LinkedHashMap<Long, byte[]> blockTable = new LinkedHashMap<Long, byte[]>(1024, 0.75f, true);
+
+    private final AtomicLong hitTimes = new AtomicLong(0);
+    private final AtomicLong missTimes = new AtomicLong(0);
+
+
+    public ArchiveBlockCache(final long capacity) {
+        this.capacity = capacity;
+    }
+
+
+    public byte[] get(final long blockOffset) {
+        byte[] block;
+        synchronized (this) {
+            block = this.blockTable.get(blockOffset);
+        }
+
+        if (block != null) {
+            this.hitTimes.incrementAndGet();
+        }
+        else {
+            this.missTimes.incrementAndGet();
+        }
+        return block;
+    }
+
+
+    /**
+     * ̭δʵĿ飬ֱŵ¿ٷ룬ֽʼղ<br>
+     * 滹Ŀ鲻
+     */
+    public synchronized void put(final long blockOffset, final byte[] block) {
+        byte[] old = this.blockTable.remove(blockOffset);
+        if (old != null) {
+            this.cachedBytes -= old.length;
+        }
+
+        if (block.length > this.capacity) {
+            return;
+        }
+
+        Iterator<byte[]> it = this.blockTable.values().iterator();
+        while (this.cachedBytes + block.length > this.capacity && it.hasNext()) {
+            this.cachedBytes -= it.next().length;
+            it.remove();
+        }
+
+        this.blockTable.put(blockOffset, block);
+        this.cachedBytes += block.length;
+    }
+
+
+    public synchronized int getBlockNums() {
+        return this.blockTable.size();
+    }
+
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+
+    public long getHitTimes() {
+        return hitTimes.get();
+    }
+
+
+    public long getMissTimes() {
+        return missTimes.get();
+    }
+}
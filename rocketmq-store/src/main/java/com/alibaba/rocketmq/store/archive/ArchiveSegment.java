@@ -0,0 +1,312 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.compress.CompressionCodec;
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.FileDeleteThrottle;
+import com.alibaba.rocketmq.store.ReferenceResource;
+
+
+/**
+ * CommitLog鵵ΣһCommitLogļѹӦһ鵵<br>
+ * ļʽļͷ + ̶Сзֺѹݿ + ݿ<br>
+ * ļͷMAGIC(4) ѹ㷨(4) ʼOffset(8) ԭʼݴС(4) С(4) (4) λ(8) (4)<br>
+ * +1longΪÿļеλãһΪݽλ
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class ArchiveSegment extends ReferenceResource {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    public static final int ArchiveSegmentMagicCode = 0xAAC0DE01;
+    public static final int HeaderSize = 40;
+    public static final String SegmentFileSuffix = ".seg";
+    public static final String TmpFileSuffix = ".tmp";
+
+    private final File file;
+    private final FileChannel fileChannel;
+    private final int compressionType;
+    private final long fileFromOffset;
+    private final int rawSize;
+    private final int blockSize;
+    // ÿļеλãפڴ
+    private final long[] blockPositions;
+
+
+    /**
+     * ѾڵĹ鵵
+     */
+    public ArchiveSegment(final File file) throws IOException {
+        this.file = file;
+        this.fileChannel = new RandomAccessFile(file, "r").getChannel();
+        boolean ok = false;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HeaderSize);
+            readFully(this.fileChannel, header, 0);
+            header.flip();
+            if (header.getInt() != ArchiveSegmentMagicCode) {
+                throw new IOException("archive segment magic code not matched, " + file);
+            }
+
+            this.compressionType = header.getInt();
+            this.fileFromOffset = header.getLong();
+            this.rawSize = header.getInt();
+            this.blockSize = header.getInt();
+            int blockCount = header.getInt();
+            long indexPosition = header.getLong();
+
+            ByteBuffer index = ByteBuffer.allocate((blockCount + 1) * 8);
+            readFully(this.fileChannel, index, indexPosition);
+            index.flip();
+            this.blockPositions = new long[blockCount + 1];
+            for (int i = 0; i <= blockCount; i++) {
+                this.blockPositions[i] = index.getLong();
+            }
+            ok = true;
+        }
+        finally {
+            if (!ok) {
+                this.fileChannel.close();
+            }
+        }
+    }
+
+
+    /**
+     * CommitLogдɹ鵵Σдʱļɺ
+     * 
+     * @param data
+     *            CommitLogļеЧ
+     */
+    public static File write(final String storePath, final long fileFromOffset, final ByteBuffer data,
+            final int blockSize, final int compressionType, final int compressLevel) throws IOException {
+        CompressionCodec codec = CompressionCodecs.getCodec(compressionType);
+        if (null == codec) {
+            throw new IOException("compression type " + compressionType + " not registered");
+        }
+
+        String fileName = String.format("%020d", fileFromOffset);
+        File file = new File(storePath, fileName + SegmentFileSuffix);
+        File tmpFile = new File(storePath, fileName + SegmentFileSuffix + TmpFileSuffix);
+        int rawSize = data.remaining();
+        int blockCount = (rawSize + blockSize - 1) / blockSize;
+        long[] blockPositions = new long[blockCount + 1];
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+            long position = HeaderSize;
+            byte[] block = new byte[blockSize];
+            for (int i = 0; i < blockCount; i++) {
+                int size = Math.min(blockSize, data.remaining());
+                byte[] raw = size == blockSize ? block : new byte[size];
+                data.get(raw, 0, size);
+                byte[] compressed = codec.compress(raw, compressLevel, null);
+
+                blockPositions[i] = position;
+                position += writeFully(channel, ByteBuffer.wrap(compressed), position);
+            }
+            blockPositions[blockCount] = position;
+
+            ByteBuffer index = ByteBuffer.allocate((blockCount + 1) * 8);
+            for (long blockPosition : blockPositions) {
+                index.putLong(blockPosition);
+            }
+            index.flip();
+            long indexPosition = position;
+            writeFully(channel, index, indexPosition);
+
+            ByteBuffer header = ByteBuffer.allocate(HeaderSize);
+            header.putInt(ArchiveSegmentMagicCode);
+            header.putInt(compressionType);
+            header.putLong(fileFromOffset);
+            header.putInt(rawSize);
+            header.putInt(blockSize);
+            header.putInt(blockCount);
+            header.putLong(indexPosition);
+            header.putInt(0);
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+        catch (IOException e) {
+            randomAccessFile.close();
+            tmpFile.delete();
+            throw e;
+        }
+        randomAccessFile.close();
+
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("rename " + tmpFile + " to " + file + " failed");
+        }
+
+        return file;
+    }
+
+
+    private static int writeFully(final FileChannel channel, final ByteBuffer src, final long position)
+            throws IOException {
+        int size = src.remaining();
+        while (src.hasRemaining()) {
+            channel.write(src, position + size - src.remaining());
+        }
+        return size;
+    }
+
+
+    private static void readFully(final FileChannel channel, final ByteBuffer dst, final long position)
+            throws IOException {
+        int size = dst.remaining();
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + size - dst.remaining()) < 0) {
+                throw new IOException("unexpected end of archive segment");
+            }
+        }
+    }
+
+
+    /**
+     * ȡѹһ飬÷Ҫhold
+     */
+    public byte[] readBlock(final int blockIndex) throws IOException {
+        long position = this.blockPositions[blockIndex];
+        ByteBuffer compressed = ByteBuffer.allocate((int) (this.blockPositions[blockIndex + 1] - position));
+        readFully(this.fileChannel, compressed, position);
+        return CompressionCodecs.getCodec(this.compressionType).uncompress(compressed.array());
+    }
+
+
+    public boolean contains(final long offset) {
+        return offset >= this.fileFromOffset && offset < this.fileFromOffset + this.rawSize;
+    }
+
+
+    /**
+     * ɾ鵵ΣԱȡʱfalseϲ
+     */
+    public boolean destroy(final long intervalForcibly) {
+        return this.destroy(intervalForcibly, null);
+    }
+
+
+    /**
+     * ɾ鵵ΣCommitLogļһֶͨνضϣɾļ
+     * 
+     * @param throttle
+     *            Ϊnullʱֱɾļ
+     */
+    public boolean destroy(final long intervalForcibly, final FileDeleteThrottle throttle) {
+        long destroyBeginTime = System.currentTimeMillis();
+        this.shutdown(intervalForcibly);
+        if (this.isCleanupOver()) {
+            long fileSize = this.file.length();
+            long waitTime = 0;
+            if (throttle != null) {
+                // ȡõļͨѾرգضʱԶдʽ
+                try {
+                    RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
+                    try {
+                        waitTime = throttle.truncate(randomAccessFile.getChannel());
+                    }
+                    finally {
+                        randomAccessFile.close();
+                    }
+                }
+                catch (IOException e) {
+                    log.warn("truncate archive segment " + this.file + " exception", e);
+                }
+            }
+
+            long beginTime = System.currentTimeMillis();
+            boolean result = this.file.delete();
+            log.info("delete archive segment " + this.file + (result ? " OK" : " Failed"));
+
+            if (throttle != null) {
+                throttle.recordStep(UtilALl.computeEclipseTimeMilliseconds(beginTime));
+                throttle.recordDelete(fileSize, UtilALl.computeEclipseTimeMilliseconds(destroyBeginTime)
+                        - waitTime);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public boolean cleanup(final long currentRef) {
+        if (this.isAvailable()) {
+            return false;
+        }
+
+        try {
+            this.fileChannel.close();
+        }
+        catch (IOException e) {
+            log.warn("close archive segment " + this.file + " exception", e);
+        }
+        return true;
+    }
+
+
+    public long getFileFromOffset() {
+        return fileFromOffset;
+    }
+
+
+    public int getRawSize() {
+        return rawSize;
+    }
+
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    public int getBlockCount() {
+        return this.blockPositions.length - 1;
+    }
+
+
+    public long getStoredSize() {
+        return this.blockPositions[this.blockPositions.length - 1] - HeaderSize;
+    }
+
+
+    public long getLastModifiedTimestamp() {
+        return this.file.lastModified();
+    }
+
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,421 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.FileDeleteThrottle;
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.MapedFileQueue;
+import com.alibaba.rocketmq.store.ReferenceResource;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * CommitLog鵵洢<br>
+ * ϵˢļдѹĹ鵵κӶƳȡ鵵ʱֻѹҪĿ飬<br>
+ * ѹĿLRU棻鵵αȶеļϣɾʱɾ鵵
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class ArchiveStore extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final ArchiveBlockCache blockCache;
+    // ʼOffsetУ޸ʱ滻ȡ
+    private volatile ArchiveSegment[] segments = new ArchiveSegment[0];
+    // Ѿ鵵жöδɾCommitLogļֻڹ鵵߳з
+    private final List<MapedFile> pendingDestroyFiles = new ArrayList<MapedFile>();
+
+    private final AtomicLong archiveFiles = new AtomicLong(0);
+    private final AtomicLong archiveTimeTotal = new AtomicLong(0);
+    private final AtomicLong readBlockTimes = new AtomicLong(0);
+    private final AtomicLong readBlockTimeTotal = new AtomicLong(0);
+
+
+    public ArchiveStore(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.blockCache =
+                new ArchiveBlockCache(defaultMessageStore.getMessageStoreConfig()
+                    .getCommitLogArchiveBlockCacheSize());
+    }
+
+
+    private String getStorePath() {
+        return this.defaultMessageStore.getMessageStoreConfig().getStorePathCommitLogArchive();
+    }
+
+
+    public boolean load() {
+        File[] files = new File(this.getStorePath()).listFiles();
+        if (null == files) {
+            return true;
+        }
+
+        // ascending order
+        Arrays.sort(files);
+        List<ArchiveSegment> list = new ArrayList<ArchiveSegment>(files.length);
+        for (File file : files) {
+            // 鵵崻µʱļ
+            if (file.getName().endsWith(ArchiveSegment.TmpFileSuffix)) {
+                boolean deleted = file.delete();
+                log.warn("delete unfinished archive segment " + file + (deleted ? " OK" : " Failed"));
+                continue;
+            }
+
+            try {
+                list.add(new ArchiveSegment(file));
+                log.info("load archive segment " + file + " OK");
+            }
+            catch (IOException e) {
+                log.error("load archive segment " + file + " error", e);
+                return false;
+            }
+        }
+
+        this.segments = list.toArray(new ArchiveSegment[list.size()]);
+        return true;
+    }
+
+
+    /**
+     * ֲҰoffsetĹ鵵
+     */
+    private static ArchiveSegment findSegment(final ArchiveSegment[] segments, final long offset) {
+        int low = 0;
+        int high = segments.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            ArchiveSegment segment = segments[middle];
+            if (offset < segment.getFileFromOffset()) {
+                high = middle - 1;
+            }
+            else if (offset >= segment.getFileFromOffset() + segment.getRawSize()) {
+                low = middle + 1;
+            }
+            else {
+                return segment;
+            }
+        }
+
+        return null;
+    }
+
+
+    public boolean contains(final long offset) {
+        return findSegment(this.segments, offset) != null;
+    }
+
+
+    /**
+     * ȡ鵵ݵСOffsetûй鵵ʱ-1
+     */
+    public long getMinOffset() {
+        ArchiveSegment[] segments = this.segments;
+        return segments.length > 0 ? segments[0].getFileFromOffset() : -1;
+    }
+
+
+    public int getSegmentNums() {
+        return this.segments.length;
+    }
+
+
+    /**
+     * ȡ鵵Ϣoffsetڹ鵵ʱnull
+     */
+    public SelectMapedBufferResult getMessage(final long offset, final int size) {
+        ArchiveSegment segment = findSegment(this.segments, offset);
+        if (null == segment) {
+            return null;
+        }
+
+        int pos = (int) (offset - segment.getFileFromOffset());
+        if (size <= 0 || pos + size > segment.getRawSize() || !segment.hold()) {
+            return null;
+        }
+
+        try {
+            int blockSize = segment.getBlockSize();
+            int blockIndex = pos / blockSize;
+            int blockPos = pos % blockSize;
+            byte[] block = this.getBlock(segment, blockIndex);
+            ByteBuffer byteBuffer;
+            // 󲿷ϢһڣҪ
+            if (blockPos + size <= block.length) {
+                byteBuffer = ByteBuffer.wrap(block, blockPos, size).slice();
+            }
+            else {
+                byte[] data = new byte[size];
+                int copied = 0;
+                while (true) {
+                    int length = Math.min(block.length - blockPos, size - copied);
+                    System.arraycopy(block, blockPos, data, copied, length);
+                    copied += length;
+                    if (copied >= size) {
+                        break;
+                    }
+                    block = this.getBlock(segment, ++blockIndex);
+                    blockPos = 0;
+                }
+                byteBuffer = ByteBuffer.wrap(data);
+            }
+
+            return new SelectMapedBufferResult(offset, byteBuffer, size, (ReferenceResource) null);
+        }
+        catch (IOException e) {
+            log.warn("read archive segment " + segment.getFile() + " exception, offset " + offset, e);
+            return null;
+        }
+        finally {
+            segment.release();
+        }
+    }
+
+
+    /**
+     * ȡoffsetʼڿĩβĹ鵵ݣݸʱʹãoffsetڹ鵵ʱnull<br>
+     * ÿֻѹһ飬÷صĴСƽoffsetȡ
+     */
+    public SelectMapedBufferResult getData(final long offset) {
+        ArchiveSegment segment = findSegment(this.segments, offset);
+        if (null == segment || !segment.hold()) {
+            return null;
+        }
+
+        try {
+            int pos = (int) (offset - segment.getFileFromOffset());
+            int blockPos = pos % segment.getBlockSize();
+            byte[] block = this.getBlock(segment, pos / segment.getBlockSize());
+            int size = block.length - blockPos;
+            if (size <= 0) {
+                return null;
+            }
+
+            ByteBuffer byteBuffer = ByteBuffer.wrap(block, blockPos, size).slice();
+            return new SelectMapedBufferResult(offset, byteBuffer, size, (ReferenceResource) null);
+        }
+        catch (IOException e) {
+            log.warn("read archive segment " + segment.getFile() + " exception, offset " + offset, e);
+            return null;
+        }
+        finally {
+            segment.release();
+        }
+    }
+
+
+    private byte[] getBlock(final ArchiveSegment segment, final int blockIndex) throws IOException {
+        long blockOffset = segment.getFileFromOffset() + (long) blockIndex * segment.getBlockSize();
+        byte[] block = this.blockCache.get(blockOffset);
+        if (null == block) {
+            long beginTime = System.nanoTime();
+            block = segment.readBlock(blockIndex);
+            this.readBlockTimes.incrementAndGet();
+            this.readBlockTimeTotal.addAndGet(System.nanoTime() - beginTime);
+            this.blockCache.put(blockOffset, block);
+        }
+
+        return block;
+    }
+
+
+    public int deleteExpiredSegments(final long expiredTime, final long intervalForcibly,
+            final boolean cleanImmediately, final int deleteFilesBatchMax) {
+        return this.deleteExpiredSegments(expiredTime, intervalForcibly, cleanImmediately,
+            deleteFilesBatchMax, null);
+    }
+
+
+    /**
+     * ʱɾڵĹ鵵Σֻܴͷʼɾ
+     * 
+     * @param throttle
+     *            ɾCommitLogļãΪnullʱֱɾ
+     */
+    public int deleteExpiredSegments(final long expiredTime, final long intervalForcibly,
+            final boolean cleanImmediately, final int deleteFilesBatchMax,
+            final FileDeleteThrottle throttle) {
+        int deleteCount = 0;
+        synchronized (this) {
+            ArchiveSegment[] segments = this.segments;
+            for (ArchiveSegment segment : segments) {
+                if (deleteCount >= deleteFilesBatchMax
+                        || (System.currentTimeMillis() < segment.getLastModifiedTimestamp() + expiredTime
+                                && !cleanImmediately)) {
+                    break;
+                }
+
+                if (!segment.destroy(intervalForcibly, throttle)) {
+                    break;
+                }
+                deleteCount++;
+            }
+
+            if (deleteCount > 0) {
+                this.segments = Arrays.copyOfRange(segments, deleteCount, segments.length);
+            }
+        }
+
+        return deleteCount;
+    }
+
+
+    private synchronized void addSegment(final ArchiveSegment segment) {
+        ArchiveSegment[] segments = Arrays.copyOf(this.segments, this.segments.length + 1);
+        segments[segments.length - 1] = segment;
+        this.segments = segments;
+    }
+
+
+    /**
+     * 鵵еĵһļд鵵ٴӶƳκʱһɶ
+     */
+    private boolean archiveOneFile() {
+        MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+        MapedFileQueue mapedFileQueue = this.defaultMessageStore.getCommitLog().getMapedFileQueue();
+        MapedFile mapedFile = mapedFileQueue.findArchiveCandidate(config.getCommitLogArchiveKeepFileNums());
+        if (null == mapedFile) {
+            return false;
+        }
+
+        long beginTime = System.currentTimeMillis();
+        // 鵵δƳձǨƵ洢ֻҪƳ
+        if (findSegment(this.segments, mapedFile.getFileFromOffset()) == null) {
+            SelectMapedBufferResult data = mapedFile.selectMapedBuffer(0);
+            if (null == data) {
+                return false;
+            }
+
+            ArchiveSegment segment;
+            try {
+                MapedFile.ensureDirOK(this.getStorePath());
+                File file =
+                        ArchiveSegment.write(this.getStorePath(), mapedFile.getFileFromOffset(),
+                            data.getByteBuffer(), config.getCommitLogArchiveBlockSize(),
+                            config.getCommitLogArchiveCompressionType(),
+                            config.getCommitLogArchiveCompressLevel());
+                // ԭļ޸ʱ䣬ʱɾ߼ܹ鵵Ӱ
+                file.setLastModified(mapedFile.getLastModifiedTimestamp());
+                segment = new ArchiveSegment(file);
+            }
+            catch (IOException e) {
+                log.error("archive " + mapedFile.getFileName() + " exception", e);
+                return false;
+            }
+            finally {
+                data.release();
+            }
+
+            this.addSegment(segment);
+            long eclipseTime = UtilALl.computeEclipseTimeMilliseconds(beginTime);
+            this.archiveFiles.incrementAndGet();
+            this.archiveTimeTotal.addAndGet(eclipseTime);
+            log.info("archive " + mapedFile.getFileName() + " OK, raw " + segment.getRawSize() + " stored "
+                    + segment.getStoredSize() + ", " + eclipseTime + "ms");
+        }
+
+        if (!mapedFileQueue.removeFirstMapedFile(mapedFile)) {
+            return false;
+        }
+
+        this.pendingDestroyFiles.add(mapedFile);
+        this.destroyPendingFiles();
+        return true;
+    }
+
+
+    private void destroyPendingFiles() {
+        int intervalForcibly =
+                this.defaultMessageStore.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly();
+        for (Iterator<MapedFile> it = this.pendingDestroyFiles.iterator(); it.hasNext();) {
+            MapedFile mapedFile = it.next();
+            if (mapedFile.destroy(intervalForcibly)) {
+                it.remove();
+            }
+        }
+    }
+
+
+    public HashMap<String, String> getRuntimeInfo() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        ArchiveSegment[] segments = this.segments;
+        long rawBytes = 0;
+        long storedBytes = 0;
+        for (ArchiveSegment segment : segments) {
+            rawBytes += segment.getRawSize();
+            storedBytes += segment.getStoredSize();
+        }
+
+        long files = this.archiveFiles.get();
+        long reads = this.readBlockTimes.get();
+        result.put("archiveSegmentNums", String.valueOf(segments.length));
+        result.put("archiveRawBytes", String.valueOf(rawBytes));
+        result.put("archiveStoredBytes", String.valueOf(storedBytes));
+        result.put("archiveFileAvgTime", String.valueOf(files > 0 ? this.archiveTimeTotal.get() / files : 0));
+        result.put("archiveBlockCacheHit", String.valueOf(this.blockCache.getHitTimes()));
+        result.put("archiveBlockCacheMiss", String.valueOf(this.blockCache.getMissTimes()));
+        result.put("archiveBlockCacheBytes", String.valueOf(this.blockCache.getCachedBytes()));
+        result.put("archiveReadBlockAvgTimeMicros",
+            String.valueOf(reads > 0 ? this.readBlockTimeTotal.get() / reads / 1000 : 0));
+        return result;
+    }
+
+
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+        int interval = this.defaultMessageStore.getMessageStoreConfig().getCommitLogArchiveInterval();
+        while (!this.isStoped()) {
+            try {
+                this.waitForRunning(interval);
+                this.destroyPendingFiles();
+
+                while (!this.isStoped() && this.archiveOneFile())
+                    ;
+            }
+            catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        this.destroyPendingFiles();
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return ArchiveStore.class.getSimpleName();
+    }
+}
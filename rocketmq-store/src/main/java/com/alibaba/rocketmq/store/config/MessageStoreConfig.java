@@ -16,9 +16,12 @@
 package com.alibaba.rocketmq.store.config;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.alibaba.rocketmq.common.annotation.ImportantField;
 import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.schedule.TimerLog;
 import com.alibaba.rocketmq.store.transaction.TransactionStateService;
 
 
@@ -29,7 +32,9 @@ import com.alibaba.rocketmq.store.transaction.TransactionStateService;
  * @since 2013-7-21
  */
 public class MessageStoreConfig {
-    // CommitLog洢Ŀ¼
+    // 洢Ŀ¼֮ķָ
+    public static final String MultiPathSplitter = ";";
+    // CommitLog洢Ŀ¼öλڲ̵ͬĿ¼÷ֺŷָļڸĿ¼
     @ImportantField
     private String storePathCommitLog = System.getProperty("user.home") + File.separator + "store"
             + File.separator + "commitlog";
@@ -49,6 +54,32 @@ public class MessageStoreConfig {
     @ImportantField
     private String abortFile = System.getProperty("user.home") + File.separator + "store" + File.separator
             + "storeAbort";
+    // CommitLog洢Ŀ¼ּ洢ʱϵļǨƵ
+    private String storePathCommitLogTiered = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "commitlog_tiered";
+    // ǷѽϵCommitLogļǨƵ洢Ŀ¼
+    private boolean tieredStoreEnable = false;
+    // 洢Ŀ¼бCommitLogļ
+    private int tieredStoreHotFileNums = 8;
+    // ǷļҪǨƵļʱ䣨λ룩
+    private int tieredStoreMoveInterval = 1000 * 10;
+    // CommitLog鵵Ŀ¼鵵ѹCommitLogļ
+    private String storePathCommitLogArchive = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "commitlog_archive";
+    // ǷѽϵCommitLogļдѹĹ鵵
+    private boolean commitLogArchiveEnable = false;
+    // 鵵CommitLogļ
+    private int commitLogArchiveKeepFileNums = 16;
+    // 鵵жѹĿС
+    private int commitLogArchiveBlockSize = 1024 * 64;
+    // 鵵ʹõѹ㷨CompressionCodecs
+    private int commitLogArchiveCompressionType = 0;
+    // 鵵ʹõѹ
+    private int commitLogArchiveCompressLevel = 5;
+    // ѹ黺ֽ
+    private long commitLogArchiveBlockCacheSize = 1024L * 1024 * 64;
+    // ǷļҪ鵵ļʱ䣨λ룩
+    private int commitLogArchiveInterval = 1000 * 10;
     // CommitLogÿļС 1G
     private int mapedFileSizeCommitLog = 1024 * 1024 * 1024;
     // ConsumeQueueÿļС Ĭϴ洢50WϢ
@@ -67,6 +98,14 @@ public class MessageStoreConfig {
     private int destroyMapedFileIntervalForcibly = 1000 * 120;
     // ڼHangedļʱ䣨λ룩
     private int redeleteHangedFileInterval = 1000 * 120;
+    // ǷɾCommitLogļȷֶνضɾһunlinkļBroker
+    private boolean deleteFileThrottleEnable = false;
+    // ɾʱÿνضϵֽ
+    private int deleteFileTruncateChunkSize = 1024 * 1024 * 64;
+    // ɾʱÿͷŵֽ
+    private long deleteFileBytesPerSecond = 1024L * 1024 * 256;
+    // ɾʱÿɾCommitLogļʣһ
+    private int deleteFileBatchMaxThrottled = 4;
     // ʱɾļ, Ĭ賿4ɾļ
     @ImportantField
     private String deleteWhen = "04";
@@ -78,10 +117,16 @@ public class MessageStoreConfig {
 
     // дϢConsumeQueueˮλʼ
     private int putMsgIndexHightWater = 600000;
+    // дConsumeQueue߳ͬһеϢͬһ߳д룬1ʾ̷ַ߳
+    private int dispatchConsumeQueueThreadNums = 1;
     // ϢСĬ512K
     private int maxMessageSize = 1024 * 512;
     // ʱǷУCRC
     private boolean checkCRCOnRecover = true;
+    // ָݵĲ߳
+    private int recoverThreadNums = Runtime.getRuntime().availableProcessors();
+    // ָCommitLogʱÿ߳̽УݶδС
+    private int recoverParseChunkSize = 1024 * 1024;
     // ˢCommitLogˢPAGE
     private int flushCommitLogLeastPages = 4;
     // ˢConsumeQueueˢPAGE
@@ -105,6 +150,18 @@ public class MessageStoreConfig {
     // Ϣڴ
     @ImportantField
     private int accessMessageInMemoryMaxRatio = 30;
+    // Ƿ̽page cacheפжϢڴ滹Ǵ̣Ԥ
+    private boolean pageCacheAdvisorEnable = false;
+    // page cacheפ̽Чʱ
+    private int pageCacheResidencyTtl = 1000;
+    // ʱԤֽ
+    private int pageCacheReadAheadBytes = 1024 * 1024 * 4;
+    // ڴ̵ϢǷͨFileChannel뻺أmmap
+    private boolean coldReadEnable = false;
+    // ݶͬʱڴ
+    private int coldReadBufferNums = 32;
+    // ͬʱ̵߳
+    private int coldReadThreadNums = 4;
 
     // ǷϢ
     @ImportantField
@@ -112,18 +169,33 @@ public class MessageStoreConfig {
     private int maxHashSlotNum = 5000000;
     private int maxIndexNum = 5000000 * 4;
     private int maxMsgsNumBatch = 32;
+    // ƬÿƬһд̣߳޸ĺʷҪȴ
+    private int indexShardNums = 1;
+    // ļдɲ¡ÿKeyռõλ0ʾ
+    private int indexBloomBitsPerKey = 8;
 
     // HA
     private int haListenPort = 10912;
     private int haSendHeartbeatInterval = 1000 * 5;
     private int haHousekeepingInterval = 1000 * 20;
+    // Ӵ䴰ڣSlave֮Ӧ
     private int haTransferBatchSize = 1024 * 32;
+    private int haTransferBatchSizeMax = 1024 * 1024 * 4;
+    // Ӵѹ㷨ȡֵοCompressionCodecsС0ʾѹ
+    // õֻzlibռMasterд·ϵCPUĬϲѹֻӴʱ
+    private int haTransferCompressionType = -1;
     // ãNameServerȡMaster HAַ
     @ImportantField
     private String haMasterAddress = null;
 
     // SlaveMasterֵΪ쳣
     private int haSlaveFallbehindMax = 1024 * 1024 * 256;
+    // ͬ˫дҪٸSlaveȷϣ3Slave2ȷϼ
+    private int haSyncAckQuorum = 1;
+    // SlaveнCommitLog߳
+    private int slaveReputParseThreadNums = 4;
+    // Slaveнʱÿ̴߳ݶδС
+    private int slaveReputParseChunkSize = 1024 * 256;
 
     @ImportantField
     private BrokerRole brokerRole = BrokerRole.ASYNC_MASTER;
@@ -132,6 +204,10 @@ public class MessageStoreConfig {
 
     // ͬˢ̳ʱʱ
     private int syncFlushTimeout = 1000 * 5;
+    // ½CommitLogļʱǷԤȣǰȱҳж
+    private boolean warmMapedFileEnable = false;
+    // ԤʱÿٸpageһǷ߳ڵȴͬˢʱͬʱˢ
+    private int warmMapedFileFlushLeastPages = 1024 / 4 * 16;
 
     // ʱϢ
     private String messageDelayLevel =
@@ -141,6 +217,27 @@ public class MessageStoreConfig {
     private String delayOffsetStorePath = System.getProperty("user.home") + File.separator + "store"
             + File.separator + "config" + File.separator + "delayOffset.json";
 
+    // ʱ䶨ʱϢ
+    private boolean timerWheelEnable = false;
+    private String storePathTimerLog = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "timerlog";
+    private String timerWheelPath = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "timerwheel";
+    private String timerCheckpointPath = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "config" + File.separator + "timerCheckpoint.json";
+    // TimerLogÿļС Ĭϴ洢100W¼
+    private int mapedFileSizeTimerLog = 1000000 * TimerLog.UnitSize;
+    // ʱ־ȣλ룩
+    private int timerPrecisionMs = 1000;
+    // ʱֲ뾫ΪʱֿȣȵϢǰ·ʱ
+    private int timerWheelSlotNum = 3600 * 24 * 2;
+    // ϢͶ߳
+    private int timerDeliverThreadPoolNums = 4;
+    // ÿͶϢ
+    private int timerDeliverBatchSize = 32;
+    // ʱϢںÿдϢ
+    private int scheduleDeliverBatchSize = 32;
+
     // ֲʽ
     private String tranStateTableStorePath = System.getProperty("user.home") + File.separator + "store"
             + File.separator + "transaction" + File.separator + "statetable";
@@ -258,6 +355,21 @@ public class MessageStoreConfig {
     }
 
 
+    /**
+     * ֺCommitLog洢Ŀ¼
+     */
+    public String[] getStorePathCommitLogs() {
+        List<String> paths = new ArrayList<String>();
+        for (String path : this.storePathCommitLog.split(MultiPathSplitter)) {
+            if (path.trim().length() > 0) {
+                paths.add(path.trim());
+            }
+        }
+
+        return paths.toArray(new String[paths.size()]);
+    }
+
+
     public String getStorePathConsumeQueue() {
         return storePathConsumeQueue;
     }
@@ -559,6 +671,26 @@ public class MessageStoreConfig {
     }
 
 
+    public int getHaTransferBatchSizeMax() {
+        return haTransferBatchSizeMax;
+    }
+
+
+    public void setHaTransferBatchSizeMax(int haTransferBatchSizeMax) {
+        this.haTransferBatchSizeMax = haTransferBatchSizeMax;
+    }
+
+
+    public int getHaTransferCompressionType() {
+        return haTransferCompressionType;
+    }
+
+
+    public void setHaTransferCompressionType(int haTransferCompressionType) {
+        this.haTransferCompressionType = haTransferCompressionType;
+    }
+
+
     public int getHaSlaveFallbehindMax() {
         return haSlaveFallbehindMax;
     }
@@ -569,6 +701,16 @@ public class MessageStoreConfig {
     }
 
 
+    public int getHaSyncAckQuorum() {
+        return haSyncAckQuorum;
+    }
+
+
+    public void setHaSyncAckQuorum(int haSyncAckQuorum) {
+        this.haSyncAckQuorum = haSyncAckQuorum;
+    }
+
+
     public FlushDiskType getFlushDiskType() {
         return flushDiskType;
     }
@@ -712,4 +854,415 @@ public class MessageStoreConfig {
     public void setCheckTransactionMessageEnable(boolean checkTransactionMessageEnable) {
         this.checkTransactionMessageEnable = checkTransactionMessageEnable;
     }
+
+
+    public int getIndexShardNums() {
+        return indexShardNums;
+    }
+
+
+    public void setIndexShardNums(int indexShardNums) {
+        this.indexShardNums = indexShardNums;
+    }
+
+
+    public int getIndexBloomBitsPerKey() {
+        return indexBloomBitsPerKey;
+    }
+
+
+    public void setIndexBloomBitsPerKey(int indexBloomBitsPerKey) {
+        this.indexBloomBitsPerKey = indexBloomBitsPerKey;
+    }
+
+
+    public boolean isTimerWheelEnable() {
+        return timerWheelEnable;
+    }
+
+
+    public void setTimerWheelEnable(boolean timerWheelEnable) {
+        this.timerWheelEnable = timerWheelEnable;
+    }
+
+
+    public String getStorePathTimerLog() {
+        return storePathTimerLog;
+    }
+
+
+    public void setStorePathTimerLog(String storePathTimerLog) {
+        this.storePathTimerLog = storePathTimerLog;
+    }
+
+
+    public String getTimerWheelPath() {
+        return timerWheelPath;
+    }
+
+
+    public void setTimerWheelPath(String timerWheelPath) {
+        this.timerWheelPath = timerWheelPath;
+    }
+
+
+    public String getTimerCheckpointPath() {
+        return timerCheckpointPath;
+    }
+
+
+    public void setTimerCheckpointPath(String timerCheckpointPath) {
+        this.timerCheckpointPath = timerCheckpointPath;
+    }
+
+
+    public int getMapedFileSizeTimerLog() {
+        // ˴Ҫȡ
+        int factor = (int) Math.ceil(this.mapedFileSizeTimerLog / (TimerLog.UnitSize * 1.0));
+        return (int) (factor * TimerLog.UnitSize);
+    }
+
+
+    public void setMapedFileSizeTimerLog(int mapedFileSizeTimerLog) {
+        this.mapedFileSizeTimerLog = mapedFileSizeTimerLog;
+    }
+
+
+    public int getTimerPrecisionMs() {
+        return timerPrecisionMs;
+    }
+
+
+    public void setTimerPrecisionMs(int timerPrecisionMs) {
+        this.timerPrecisionMs = timerPrecisionMs;
+    }
+
+
+    public int getTimerWheelSlotNum() {
+        return timerWheelSlotNum;
+    }
+
+
+    public void setTimerWheelSlotNum(int timerWheelSlotNum) {
+        this.timerWheelSlotNum = timerWheelSlotNum;
+    }
+
+
+    public int getTimerDeliverThreadPoolNums() {
+        return timerDeliverThreadPoolNums;
+    }
+
+
+    public void setTimerDeliverThreadPoolNums(int timerDeliverThreadPoolNums) {
+        this.timerDeliverThreadPoolNums = timerDeliverThreadPoolNums;
+    }
+
+
+    public int getTimerDeliverBatchSize() {
+        return timerDeliverBatchSize;
+    }
+
+
+    public void setTimerDeliverBatchSize(int timerDeliverBatchSize) {
+        this.timerDeliverBatchSize = timerDeliverBatchSize;
+    }
+
+
+    public int getScheduleDeliverBatchSize() {
+        return scheduleDeliverBatchSize;
+    }
+
+
+    public void setScheduleDeliverBatchSize(int scheduleDeliverBatchSize) {
+        this.scheduleDeliverBatchSize = scheduleDeliverBatchSize;
+    }
+
+
+    public int getDispatchConsumeQueueThreadNums() {
+        return dispatchConsumeQueueThreadNums;
+    }
+
+
+    public void setDispatchConsumeQueueThreadNums(int dispatchConsumeQueueThreadNums) {
+        this.dispatchConsumeQueueThreadNums = dispatchConsumeQueueThreadNums;
+    }
+
+
+    public int getSlaveReputParseThreadNums() {
+        return slaveReputParseThreadNums;
+    }
+
+
+    public void setSlaveReputParseThreadNums(int slaveReputParseThreadNums) {
+        this.slaveReputParseThreadNums = slaveReputParseThreadNums;
+    }
+
+
+    public int getSlaveReputParseChunkSize() {
+        return slaveReputParseChunkSize;
+    }
+
+
+    public void setSlaveReputParseChunkSize(int slaveReputParseChunkSize) {
+        this.slaveReputParseChunkSize = slaveReputParseChunkSize;
+    }
+
+
+    public int getRecoverThreadNums() {
+        return recoverThreadNums;
+    }
+
+
+    public void setRecoverThreadNums(int recoverThreadNums) {
+        this.recoverThreadNums = recoverThreadNums;
+    }
+
+
+    public int getRecoverParseChunkSize() {
+        return recoverParseChunkSize;
+    }
+
+
+    public void setRecoverParseChunkSize(int recoverParseChunkSize) {
+        this.recoverParseChunkSize = recoverParseChunkSize;
+    }
+
+
+    public boolean isWarmMapedFileEnable() {
+        return warmMapedFileEnable;
+    }
+
+
+    public void setWarmMapedFileEnable(boolean warmMapedFileEnable) {
+        this.warmMapedFileEnable = warmMapedFileEnable;
+    }
+
+
+    public int getWarmMapedFileFlushLeastPages() {
+        return warmMapedFileFlushLeastPages;
+    }
+
+
+    public void setWarmMapedFileFlushLeastPages(int warmMapedFileFlushLeastPages) {
+        this.warmMapedFileFlushLeastPages = warmMapedFileFlushLeastPages;
+    }
+
+
+    public boolean isPageCacheAdvisorEnable() {
+        return pageCacheAdvisorEnable;
+    }
+
+
+    public void setPageCacheAdvisorEnable(boolean pageCacheAdvisorEnable) {
+        this.pageCacheAdvisorEnable = pageCacheAdvisorEnable;
+    }
+
+
+    public int getPageCacheResidencyTtl() {
+        return pageCacheResidencyTtl;
+    }
+
+
+    public void setPageCacheResidencyTtl(int pageCacheResidencyTtl) {
+        this.pageCacheResidencyTtl = pageCacheResidencyTtl;
+    }
+
+
+    public int getPageCacheReadAheadBytes() {
+        return pageCacheReadAheadBytes;
+    }
+
+
+    public void setPageCacheReadAheadBytes(int pageCacheReadAheadBytes) {
+        this.pageCacheReadAheadBytes = pageCacheReadAheadBytes;
+    }
+
+
+    public boolean isColdReadEnable() {
+        return coldReadEnable;
+    }
+
+
+    public void setColdReadEnable(boolean coldReadEnable) {
+        this.coldReadEnable = coldReadEnable;
+    }
+
+
+    public int getColdReadBufferNums() {
+        return coldReadBufferNums;
+    }
+
+
+    public void setColdReadBufferNums(int coldReadBufferNums) {
+        this.coldReadBufferNums = coldReadBufferNums;
+    }
+
+
+    public int getColdReadThreadNums() {
+        return coldReadThreadNums;
+    }
+
+
+    public void setColdReadThreadNums(int coldReadThreadNums) {
+        this.coldReadThreadNums = coldReadThreadNums;
+    }
+
+
+    public boolean isDeleteFileThrottleEnable() {
+        return deleteFileThrottleEnable;
+    }
+
+
+    public void setDeleteFileThrottleEnable(boolean deleteFileThrottleEnable) {
+        this.deleteFileThrottleEnable = deleteFileThrottleEnable;
+    }
+
+
+    public int getDeleteFileTruncateChunkSize() {
+        return deleteFileTruncateChunkSize;
+    }
+
+
+    public void setDeleteFileTruncateChunkSize(int deleteFileTruncateChunkSize) {
+        this.deleteFileTruncateChunkSize = deleteFileTruncateChunkSize;
+    }
+
+
+    public long getDeleteFileBytesPerSecond() {
+        return deleteFileBytesPerSecond;
+    }
+
+
+    public void setDeleteFileBytesPerSecond(long deleteFileBytesPerSecond) {
+        this.deleteFileBytesPerSecond = deleteFileBytesPerSecond;
+    }
+
+
+    public int getDeleteFileBatchMaxThrottled() {
+        return deleteFileBatchMaxThrottled;
+    }
+
+
+    public void setDeleteFileBatchMaxThrottled(int deleteFileBatchMaxThrottled) {
+        this.deleteFileBatchMaxThrottled = deleteFileBatchMaxThrottled;
+    }
+
+
+    public String getStorePathCommitLogTiered() {
+        return storePathCommitLogTiered;
+    }
+
+
+    public void setStorePathCommitLogTiered(String storePathCommitLogTiered) {
+        this.storePathCommitLogTiered = storePathCommitLogTiered;
+    }
+
+
+    public boolean isTieredStoreEnable() {
+        return tieredStoreEnable;
+    }
+
+
+    public void setTieredStoreEnable(boolean tieredStoreEnable) {
+        this.tieredStoreEnable = tieredStoreEnable;
+    }
+
+
+    public int getTieredStoreHotFileNums() {
+        return tieredStoreHotFileNums;
+    }
+
+
+    public void setTieredStoreHotFileNums(int tieredStoreHotFileNums) {
+        this.tieredStoreHotFileNums = tieredStoreHotFileNums;
+    }
+
+
+    public int getTieredStoreMoveInterval() {
+        return tieredStoreMoveInterval;
+    }
+
+
+    public void setTieredStoreMoveInterval(int tieredStoreMoveInterval) {
+        this.tieredStoreMoveInterval = tieredStoreMoveInterval;
+    }
+
+    public String getStorePathCommitLogArchive() {
+        return storePathCommitLogArchive;
+    }
+
+
+    public void setStorePathCommitLogArchive(String storePathCommitLogArchive) {
+        this.storePathCommitLogArchive = storePathCommitLogArchive;
+    }
+
+
+    public boolean isCommitLogArchiveEnable() {
+        return commitLogArchiveEnable;
+    }
+
+
+    public void setCommitLogArchiveEnable(boolean commitLogArchiveEnable) {
+        this.commitLogArchiveEnable = commitLogArchiveEnable;
+    }
+
+
+    public int getCommitLogArchiveKeepFileNums() {
+        return commitLogArchiveKeepFileNums;
+    }
+
+
+    public void setCommitLogArchiveKeepFileNums(int commitLogArchiveKeepFileNums) {
+        this.commitLogArchiveKeepFileNums = commitLogArchiveKeepFileNums;
+    }
+
+
+    public int getCommitLogArchiveBlockSize() {
+        return commitLogArchiveBlockSize;
+    }
+
+
+    public void setCommitLogArchiveBlockSize(int commitLogArchiveBlockSize) {
+        this.commitLogArchiveBlockSize = commitLogArchiveBlockSize;
+    }
+
+
+    public int getCommitLogArchiveCompressionType() {
+        return commitLogArchiveCompressionType;
+    }
+
+
+    public void setCommitLogArchiveCompressionType(int commitLogArchiveCompressionType) {
+        this.commitLogArchiveCompressionType = commitLogArchiveCompressionType;
+    }
+
+
+    public int getCommitLogArchiveCompressLevel() {
+        return commitLogArchiveCompressLevel;
+    }
+
+
+    public void setCommitLogArchiveCompressLevel(int commitLogArchiveCompressLevel) {
+        this.commitLogArchiveCompressLevel = commitLogArchiveCompressLevel;
+    }
+
+
+    public long getCommitLogArchiveBlockCacheSize() {
+        return commitLogArchiveBlockCacheSize;
+    }
+
+
+    public void setCommitLogArchiveBlockCacheSize(long commitLogArchiveBlockCacheSize) {
+        this.commitLogArchiveBlockCacheSize = commitLogArchiveBlockCacheSize;
+    }
+
+
+    public int getCommitLogArchiveInterval() {
+        return commitLogArchiveInterval;
+    }
+
+
+    public void setCommitLogArchiveInterval(int commitLogArchiveInterval) {
+        this.commitLogArchiveInterval = commitLogArchiveInterval;
+    }
 }
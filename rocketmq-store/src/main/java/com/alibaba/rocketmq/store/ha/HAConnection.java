@@ -25,9 +25,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.compress.CompressionCodec;
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.remoting.common.RemotingUtil;
+import com.alibaba.rocketmq.store.MapedFile;
 import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 
 
 /**
@@ -38,6 +42,12 @@ import com.alibaba.rocketmq.store.SelectMapedBufferResult;
  */
 public class HAConnection {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // ݿСֶΣλʾݿ龭ѹ3λΪѹ㷨28λΪݿ鳤
+    public static final int CompressedFlag = 0x80000000;
+    public static final int CompressionTypeShift = 28;
+    public static final int BodySizeMask = (1 << CompressionTypeShift) - 1;
+    // ѹ㷨ֶֻ3λ
+    public static final int MaxCompressionType = (CompressedFlag >>> CompressionTypeShift) - 1;
 
     private final HAService haService;
     private final SocketChannel socketChannel;
@@ -50,6 +60,8 @@ public class HAConnection {
     private volatile long slaveRequestOffset = -1;
     // SlaveյݺӦOffset
     private volatile long slaveAckOffset = -1;
+    // Slaveȷٶȣÿֽ
+    private volatile long ackBytesPerSecond = 0;
 
     /**
      * ȡSlaveһΪpush ack
@@ -63,6 +75,9 @@ public class HAConnection {
         private final ByteBuffer byteBufferRead = ByteBuffer.allocate(ReadMaxBufferSize);
         private int processPostion = 0;
         private volatile long lastReadTimestamp = System.currentTimeMillis();
+        // ͳȷٶȵʼλʱ
+        private long statsBeginOffset = -1;
+        private long statsBeginTimestamp = 0;
 
 
         public ReadSocketService(final SocketChannel socketChannel) throws IOException {
@@ -103,8 +118,10 @@ public class HAConnection {
                                         + readOffset);
                             }
 
+                            this.updateAckStats(readOffset, this.lastReadTimestamp);
+
                             // ֪ͨǰ߳
-                            HAConnection.this.haService.notifyTransferSome(HAConnection.this.slaveAckOffset);
+                            HAConnection.this.haService.notifyTransferSome();
                         }
                     }
                     else if (readSize == 0) {
@@ -127,6 +144,22 @@ public class HAConnection {
         }
 
 
+        private void updateAckStats(final long ackOffset, final long now) {
+            if (this.statsBeginOffset < 0) {
+                this.statsBeginOffset = ackOffset;
+                this.statsBeginTimestamp = now;
+                return;
+            }
+
+            long interval = now - this.statsBeginTimestamp;
+            if (interval >= 1000) {
+                HAConnection.this.ackBytesPerSecond = (ackOffset - this.statsBeginOffset) * 1000 / interval;
+                this.statsBeginOffset = ackOffset;
+                this.statsBeginTimestamp = now;
+            }
+        }
+
+
         @Override
         public void run() {
             HAConnection.log.info(this.getServiceName() + " service started");
@@ -160,6 +193,7 @@ public class HAConnection {
             this.makeStop();
 
             // ֻж߳Ҫִ
+            HAConnection.this.haService.removeConnection(HAConnection.this);
             HAConnection.this.haService.getConnectionCount().decrementAndGet();
 
             SelectionKey sk = this.socketChannel.keyFor(this.selector);
@@ -187,6 +221,7 @@ public class HAConnection {
 
     /**
      * SlaveЭ <Phy Offset> <Body Size> <Body Data><br>
+     * Body SizeλΪѹ־3λΪѹ㷨28λΪBody Data<br>
      * SlaveЭ <Phy Offset>
      */
     /**
@@ -203,16 +238,39 @@ public class HAConnection {
         private final int HEADER_SIZE = 8 + 4;
         private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(HEADER_SIZE);
         private SelectMapedBufferResult selectMapedBufferResult;
+        // ѹݿ飬ΪnullʱselectMapedBufferResult
+        private ByteBuffer byteBufferBody;
 
         private boolean lastWriteOver = true;
         private long lastWriteTimestamp = System.currentTimeMillis();
 
+        // Ӧ䴰ڣhaTransferBatchSizehaTransferBatchSizeMax֮
+        private int transferWindow;
+        private final int compressionType;
+        private final CompressionCodec compressionCodec;
+
 
-        public WriteSocketService(final SocketChannel socketChannel) throws IOException {
+        public WriteSocketService(final SocketChannel socketChannel, final int compressionType)
+                throws IOException {
             this.selector = RemotingUtil.openSelector();
             this.socketChannel = socketChannel;
             this.socketChannel.register(this.selector, SelectionKey.OP_WRITE);
             this.thread.setDaemon(true);
+
+            MessageStoreConfig config =
+                    HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig();
+            this.transferWindow = config.getHaTransferBatchSize();
+            this.compressionType = compressionType;
+            if (this.compressionType >= 0) {
+                this.compressionCodec = CompressionCodecs.getCodec(this.compressionType);
+                if (null == this.compressionCodec) {
+                    log.warn("ha transfer compression type " + this.compressionType
+                            + " not registered, transfer without compression");
+                }
+            }
+            else {
+                this.compressionCodec = null;
+            }
         }
 
 
@@ -292,11 +350,9 @@ public class HAConnection {
                                 this.nextTransferFromWhere);
                     if (selectResult != null) {
                         int size = selectResult.getSize();
-                        if (size > HAConnection.this.haService.getDefaultMessageStore()
-                            .getMessageStoreConfig().getHaTransferBatchSize()) {
-                            size =
-                                    HAConnection.this.haService.getDefaultMessageStore()
-                                        .getMessageStoreConfig().getHaTransferBatchSize();
+                        final boolean backlog = size > this.transferWindow;
+                        if (backlog) {
+                            size = this.transferWindow;
                         }
 
                         long thisOffset = this.nextTransferFromWhere;
@@ -305,14 +361,20 @@ public class HAConnection {
                         selectResult.getByteBuffer().limit(size);
                         this.selectMapedBufferResult = selectResult;
 
+                        int bodySizeField = size;
+                        if (this.compressionCodec != null) {
+                            bodySizeField = this.compressBody(size);
+                        }
+
                         // Build Header
                         this.byteBufferHeader.position(0);
                         this.byteBufferHeader.limit(HEADER_SIZE);
                         this.byteBufferHeader.putLong(thisOffset);
-                        this.byteBufferHeader.putInt(size);
+                        this.byteBufferHeader.putInt(bodySizeField);
                         this.byteBufferHeader.flip();
 
                         this.lastWriteOver = this.transferData();
+                        this.adjustTransferWindow(this.lastWriteOver, backlog);
                     }
                     else {
                         // ûݣȴ֪ͨ
@@ -373,7 +435,7 @@ public class HAConnection {
                 }
             }
 
-            if (null == this.selectMapedBufferResult) {
+            if (null == this.selectMapedBufferResult && null == this.byteBufferBody) {
                 return !this.byteBufferHeader.hasRemaining();
             }
 
@@ -381,8 +443,8 @@ public class HAConnection {
 
             // Write Body
             if (!this.byteBufferHeader.hasRemaining()) {
-                while (this.selectMapedBufferResult.getByteBuffer().hasRemaining()) {
-                    int writeSize = this.socketChannel.write(this.selectMapedBufferResult.getByteBuffer());
+                while (this.hasBodyRemaining()) {
+                    long writeSize = this.writeBody();
                     if (writeSize > 0) {
                         writeSizeZeroTimes = 0;
                         this.lastWriteTimestamp =
@@ -399,19 +461,92 @@ public class HAConnection {
                 }
             }
 
-            boolean result =
-                    !this.byteBufferHeader.hasRemaining()
-                            && !this.selectMapedBufferResult.getByteBuffer().hasRemaining();
+            boolean result = !this.byteBufferHeader.hasRemaining() && !this.hasBodyRemaining();
 
-            if (!this.selectMapedBufferResult.getByteBuffer().hasRemaining()) {
-                this.selectMapedBufferResult.release();
-                this.selectMapedBufferResult = null;
+            if (!this.hasBodyRemaining()) {
+                if (this.selectMapedBufferResult != null) {
+                    this.selectMapedBufferResult.release();
+                    this.selectMapedBufferResult = null;
+                }
+                this.byteBufferBody = null;
             }
 
             return result;
         }
 
 
+        private boolean hasBodyRemaining() {
+            if (this.byteBufferBody != null) {
+                return this.byteBufferBody.hasRemaining();
+            }
+
+            return this.selectMapedBufferResult != null
+                    && this.selectMapedBufferResult.getByteBuffer().hasRemaining();
+        }
+
+
+        /**
+         * δѹͨtransferToֱӴCommitLogļ͵Socketû̬<br>
+         * 鵵ѾѹڴУֱд
+         */
+        private long writeBody() throws IOException {
+            if (this.byteBufferBody != null) {
+                return this.socketChannel.write(this.byteBufferBody);
+            }
+
+            ByteBuffer byteBuffer = this.selectMapedBufferResult.getByteBuffer();
+            MapedFile mapedFile = this.selectMapedBufferResult.getMapedFile();
+            if (null == mapedFile) {
+                return this.socketChannel.write(byteBuffer);
+            }
+
+            long filePosition =
+                    this.selectMapedBufferResult.getStartOffset() - mapedFile.getFileFromOffset()
+                            + byteBuffer.position();
+            long writeSize =
+                    mapedFile.getFileChannel().transferTo(filePosition, byteBuffer.remaining(),
+                        this.socketChannel);
+            if (writeSize > 0) {
+                byteBuffer.position(byteBuffer.position() + (int) writeSize);
+            }
+
+            return writeSize;
+        }
+
+
+        /**
+         * ѹݿ飬ѹûбСԭʼݴ<br>
+         * ʹѹ𣬼ٶMasterCPUռ
+         *
+         * @return ݿСֶ
+         */
+        private int compressBody(final int size) throws IOException {
+            ByteBuffer byteBuffer = this.selectMapedBufferResult.getByteBuffer();
+            byte[] data = new byte[size];
+            byteBuffer.get(data);
+            byteBuffer.position(0);
+
+            byte[] compressed = this.compressionCodec.compress(data, 1, null);
+            if (compressed.length >= size) {
+                return size;
+            }
+
+            this.selectMapedBufferResult.release();
+            this.selectMapedBufferResult = null;
+            this.byteBufferBody = ByteBuffer.wrap(compressed);
+            return buildBodySizeField(this.compressionType, compressed.length);
+        }
+
+
+        private void adjustTransferWindow(final boolean writeOver, final boolean backlog) {
+            MessageStoreConfig config =
+                    HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig();
+            this.transferWindow =
+                    nextTransferWindow(this.transferWindow, writeOver, backlog,
+                        config.getHaTransferBatchSize(), config.getHaTransferBatchSizeMax());
+        }
+
+
         @Override
         public String getServiceName() {
             return WriteSocketService.class.getSimpleName();
@@ -434,12 +569,61 @@ public class HAConnection {
         this.socketChannel.socket().setTcpNoDelay(true);
         this.socketChannel.socket().setReceiveBufferSize(1024 * 64);
         this.socketChannel.socket().setSendBufferSize(1024 * 64);
-        this.writeSocketService = new WriteSocketService(this.socketChannel);
+
+        // ѹ㷨3λḲѹ־λѹ
+        int compressionType = haService.getDefaultMessageStore().getMessageStoreConfig()
+            .getHaTransferCompressionType();
+        if (compressionType > MaxCompressionType) {
+            log.warn("ha transfer compression type " + compressionType + " out of range, max "
+                    + MaxCompressionType + ", transfer without compression");
+            compressionType = -1;
+        }
+
+        this.writeSocketService = new WriteSocketService(this.socketChannel, compressionType);
         this.readSocketService = new ReadSocketService(this.socketChannel);
         this.haService.getConnectionCount().incrementAndGet();
     }
 
 
+    /**
+     * ѹݿĴСֶ
+     */
+    public static int buildBodySizeField(final int compressionType, final int bodySize) {
+        return CompressedFlag | (compressionType << CompressionTypeShift) | bodySize;
+    }
+
+
+    public static boolean isCompressed(final int bodySizeField) {
+        return (bodySizeField & CompressedFlag) != 0;
+    }
+
+
+    public static int getCompressionType(final int bodySizeField) {
+        return (bodySizeField & ~CompressedFlag) >>> CompressionTypeShift;
+    }
+
+
+    public static int getBodySize(final int bodySizeField) {
+        return bodySizeField & BodySizeMask;
+    }
+
+
+    /**
+     * һд겢һлѹʱڼӱSocketдʱڼ룬ʼ[min, max]֮
+     */
+    public static int nextTransferWindow(final int window, final boolean writeOver, final boolean backlog,
+            final int min, final int max) {
+        if (writeOver && backlog) {
+            return Math.min(window * 2, max);
+        }
+        else if (!writeOver) {
+            return Math.max(window / 2, min);
+        }
+
+        return window;
+    }
+
+
     public void start() {
         this.readSocketService.start();
         this.writeSocketService.start();
@@ -458,6 +642,21 @@ public class HAConnection {
     }
 
 
+    public String getClientAddr() {
+        return clientAddr;
+    }
+
+
+    public long getSlaveAckOffset() {
+        return slaveAckOffset;
+    }
+
+
+    public long getAckBytesPerSecond() {
+        return ackBytesPerSecond;
+    }
+
+
     public void close() {
         if (this.socketChannel != null) {
             try {
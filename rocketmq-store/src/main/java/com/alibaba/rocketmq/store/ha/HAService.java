@@ -25,9 +25,14 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -36,6 +41,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.compress.CompressionCodec;
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.remoting.common.RemotingUtil;
 import com.alibaba.rocketmq.store.CommitLog.GroupCommitRequest;
@@ -52,16 +59,16 @@ public class HAService {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
     // ͻӼ
     private final AtomicInteger connectionCount = new AtomicInteger(0);
-    // 洢ͻ
-    private final List<HAConnection> connectionList = new LinkedList<HAConnection>();
+    // 洢ͻӣд
+    private final List<HAConnection> connectionList = new CopyOnWriteArrayList<HAConnection>();
     // µSocket
     private final AcceptSocketService acceptSocketService;
     // 洢
     private final DefaultMessageStore defaultMessageStore;
     // 첽֪ͨ
     private final WaitNotifyObject waitNotifyObject = new WaitNotifyObject();
-    // д뵽SlaveOffset
-    private final AtomicLong push2SlaveMaxOffset = new AtomicLong(0);
+    // ȷҪĸOffset
+    private final AtomicLong push2SlaveQuorumOffset = new AtomicLong(0);
     // Ӹ֪ͨ
     private final GroupTransferService groupTransferService;
 
@@ -138,6 +145,26 @@ public class HAService {
         }
 
 
+        /**
+         * رռ˿ڣͬһ´Ĵ洢޷󶨶˿ڣSlaveֹͣķ
+         */
+        @Override
+        public void shutdown(final boolean interrupt) {
+            super.shutdown(interrupt);
+            try {
+                if (this.serverSocketChannel != null) {
+                    this.serverSocketChannel.close();
+                }
+                if (this.selector != null) {
+                    this.selector.close();
+                }
+            }
+            catch (IOException e) {
+                log.error("AcceptSocketService shutdown exception", e);
+            }
+        }
+
+
         @Override
         public String getServiceName() {
             return AcceptSocketService.class.getSimpleName();
@@ -145,59 +172,82 @@ public class HAService {
     }
 
     /**
-     * GroupTransferService Service
+     * ͬ˫дȴУOffset<br>
+     * SlaveȷOffsetȷ߳һԻѾɵ󣬱ֻ߳ʱ
      */
     class GroupTransferService extends ServiceThread {
-        private volatile List<GroupCommitRequest> requestsWrite = new ArrayList<GroupCommitRequest>();
-        private volatile List<GroupCommitRequest> requestsRead = new ArrayList<GroupCommitRequest>();
-        // 첽֪ͨ
-        private final WaitNotifyObject notifyTransferObject = new WaitNotifyObject();
+        // ʱ
+        private static final long TimeoutCheckInterval = 100;
+        private final PriorityQueue<GroupCommitRequest> requests = new PriorityQueue<GroupCommitRequest>(64,
+            new Comparator<GroupCommitRequest>() {
+                @Override
+                public int compare(GroupCommitRequest o1, GroupCommitRequest o2) {
+                    if (o1.getNextOffset() < o2.getNextOffset()) {
+                        return -1;
+                    }
+                    else if (o1.getNextOffset() > o2.getNextOffset()) {
+                        return 1;
+                    }
+                    return 0;
+                }
+            });
+
 
+        public void putRequest(final GroupCommitRequest request) {
+            synchronized (this.requests) {
+                this.requests.add(request);
+            }
 
-        private void swapRequests() {
-            List<GroupCommitRequest> tmp = this.requestsWrite;
-            this.requestsWrite = this.requestsRead;
-            this.requestsRead = tmp;
+            // ֮ǰSlaveѾȷϹ
+            this.notifyTransferSome(HAService.this.push2SlaveQuorumOffset.get());
         }
 
 
-        public void putRequest(final GroupCommitRequest request) {
-            synchronized (this) {
-                this.requestsWrite.add(request);
-                if (!this.hasNotified) {
-                    this.hasNotified = true;
-                    this.notify();
-
-                    // TODO ҪNotify߳ 1GroupTransferService
-                    // 2WriteSocketService
-                    // ڵputRequestѾNotifyWriteSocketService
+        /**
+         * СڵȷOffset󣬻صִ
+         */
+        public void notifyTransferSome(final long ackOffset) {
+            List<GroupCommitRequest> transferred = null;
+            synchronized (this.requests) {
+                while (!this.requests.isEmpty() && this.requests.peek().getNextOffset() <= ackOffset) {
+                    if (null == transferred) {
+                        transferred = new ArrayList<GroupCommitRequest>();
+                    }
+                    transferred.add(this.requests.poll());
                 }
             }
-        }
-
 
-        public void notifyTransferSome() {
-            this.notifyTransferObject.wakeup();
+            if (transferred != null) {
+                for (GroupCommitRequest req : transferred) {
+                    req.wakeupCustomer(true);
+                }
+            }
         }
 
 
-        private void doWaitTransfer() {
-            if (!this.requestsRead.isEmpty()) {
-                for (GroupCommitRequest req : this.requestsRead) {
-                    boolean transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
-                    for (int i = 0; !transferOK && i < 5;) {
-                        this.notifyTransferObject.waitForRunning(1000);
-                        transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
-                    }
-
-                    if (!transferOK) {
-                        log.warn("transfer messsage to slave timeout, " + req.getNextOffset());
+        private void doTimeout(final boolean all) {
+            final long timeout =
+                    HAService.this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout();
+            final long now = System.currentTimeMillis();
+            List<GroupCommitRequest> expired = null;
+            synchronized (this.requests) {
+                for (Iterator<GroupCommitRequest> it = this.requests.iterator(); it.hasNext();) {
+                    GroupCommitRequest req = it.next();
+                    if (all || now - req.getCreateTimestamp() >= timeout) {
+                        if (null == expired) {
+                            expired = new ArrayList<GroupCommitRequest>();
+                        }
+                        expired.add(req);
+                        it.remove();
                     }
-
-                    req.wakeupCustomer(transferOK);
                 }
+            }
 
-                this.requestsRead.clear();
+            if (expired != null) {
+                for (GroupCommitRequest req : expired) {
+                    log.warn("transfer messsage to slave timeout, " + req.getNextOffset());
+                    req.wakeupCustomer(false);
+                }
             }
         }
 
@@ -207,21 +257,18 @@ public class HAService {
 
             while (!this.isStoped()) {
                 try {
-                    this.waitForRunning(0);
-                    this.doWaitTransfer();
+                    this.waitForRunning(TimeoutCheckInterval);
+                    this.doTimeout(false);
                 }
                 catch (Exception e) {
                     log.warn(this.getServiceName() + " service has exception. ", e);
                 }
             }
 
-            log.info(this.getServiceName() + " service end");
-        }
-
+            // ֹͣ󲻻ȷϣʣȫʧܴ
+            this.doTimeout(true);
 
-        @Override
-        protected void onWaitEnd() {
-            this.swapRequests();
+            log.info(this.getServiceName() + " service end");
         }
 
 
@@ -245,11 +292,13 @@ public class HAService {
         // Master㱨SlaveOffset
         private final ByteBuffer reportOffset = ByteBuffer.allocate(8);
 
-        private static final int ReadMaxBufferSize = 1024 * 1024 * 4;
-        private int dispatchPostion = 0;
-        // MasterBuffer
-        private ByteBuffer byteBufferRead = ByteBuffer.allocate(ReadMaxBufferSize);
-        private ByteBuffer byteBufferBackup = ByteBuffer.allocate(ReadMaxBufferSize);
+        private static final int MSG_HEADER_SIZE = 8 + 4; // phyoffset + size
+        // Masterݿͷ
+        private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(MSG_HEADER_SIZE);
+        // ڽյݿ飬δѹݿֱָCommitLogļ
+        private ByteBuffer byteBufferBody;
+        private long bodyPhyOffset = 0;
+        private int bodySizeField = 0;
 
 
         public HAClient() throws IOException {
@@ -299,46 +348,13 @@ public class HAService {
         }
 
 
-        // private void reallocateByteBuffer() {
-        // ByteBuffer bb = ByteBuffer.allocate(ReadMaxBufferSize);
-        // int remain = this.byteBufferRead.limit() - this.dispatchPostion;
-        // bb.put(this.byteBufferRead.array(), this.dispatchPostion, remain);
-        // this.dispatchPostion = 0;
-        // this.byteBufferRead = bb;
-        // }
-        /**
-         * BufferԺһ
-         */
-        private void reallocateByteBuffer() {
-            int remain = ReadMaxBufferSize - this.dispatchPostion;
-            if (remain > 0) {
-                this.byteBufferRead.position(this.dispatchPostion);
-
-                this.byteBufferBackup.position(0);
-                this.byteBufferBackup.limit(ReadMaxBufferSize);
-                this.byteBufferBackup.put(this.byteBufferRead);
-            }
-
-            this.swapByteBuffer();
-
-            this.byteBufferRead.position(remain);
-            this.byteBufferRead.limit(ReadMaxBufferSize);
-            this.dispatchPostion = 0;
-        }
-
-
-        private void swapByteBuffer() {
-            ByteBuffer tmp = this.byteBufferRead;
-            this.byteBufferRead = this.byteBufferBackup;
-            this.byteBufferBackup = tmp;
-        }
-
-
         private boolean processReadEvent() {
             int readSizeZeroTimes = 0;
-            while (this.byteBufferRead.hasRemaining()) {
+            while (true) {
                 try {
-                    int readSize = this.socketChannel.read(this.byteBufferRead);
+                    ByteBuffer byteBuffer =
+                            (null == this.byteBufferBody) ? this.byteBufferHeader : this.byteBufferBody;
+                    int readSize = this.socketChannel.read(byteBuffer);
                     if (readSize > 0) {
                         lastWriteTimestamp = HAService.this.defaultMessageStore.getSystemClock().now();
                         readSizeZeroTimes = 0;
@@ -369,55 +385,84 @@ public class HAService {
         }
 
 
-        private boolean dispatchReadRequest() {
-            final int MSG_HEADER_SIZE = 8 + 4; // phyoffset + size
-            int readSocketPos = this.byteBufferRead.position();
-
-            while (true) {
-                int diff = this.byteBufferRead.position() - this.dispatchPostion;
-                if (diff >= MSG_HEADER_SIZE) {
-                    long masterPhyOffset = this.byteBufferRead.getLong(this.dispatchPostion);
-                    int bodySize = this.byteBufferRead.getInt(this.dispatchPostion + 8);
-
-                    long slavePhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
-
-                    // ش
-                    if (slavePhyOffset != 0) {
-                        if (slavePhyOffset != masterPhyOffset) {
-                            log.error("master pushed offset not equal the max phy offset in slave, SLAVE: "
-                                    + slavePhyOffset + " MASTER: " + masterPhyOffset);
-                            return false;
-                        }
-                    }
+        /**
+         * ͷ׼ݿĽλãݿύCommitLog
+         */
+        private boolean dispatchReadRequest() throws IOException {
+            if (null == this.byteBufferBody) {
+                if (this.byteBufferHeader.hasRemaining()) {
+                    return true;
+                }
 
-                    // Դչһ
-                    if (diff >= (MSG_HEADER_SIZE + bodySize)) {
-                        byte[] bodyData = new byte[bodySize];
-                        this.byteBufferRead.position(this.dispatchPostion + MSG_HEADER_SIZE);
-                        this.byteBufferRead.get(bodyData);
+                long masterPhyOffset = this.byteBufferHeader.getLong(0);
+                int bodySizeField = this.byteBufferHeader.getInt(8);
+                int bodySize = HAConnection.getBodySize(bodySizeField);
 
-                        // TODO ǷҪʱ
-                        HAService.this.defaultMessageStore.appendToCommitLog(masterPhyOffset, bodyData);
+                long slavePhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
 
-                        this.byteBufferRead.position(readSocketPos);
-                        this.dispatchPostion += MSG_HEADER_SIZE + bodySize;
+                // ش
+                if (slavePhyOffset != 0) {
+                    if (slavePhyOffset != masterPhyOffset) {
+                        log.error("master pushed offset not equal the max phy offset in slave, SLAVE: "
+                                + slavePhyOffset + " MASTER: " + masterPhyOffset);
+                        return false;
+                    }
+                }
 
-                        if (!reportSlaveMaxOffsetPlus()) {
-                            return false;
-                        }
+                // 
+                if (0 == bodySize) {
+                    this.byteBufferHeader.clear();
+                    return this.reportSlaveMaxOffsetPlus();
+                }
 
-                        continue;
+                this.bodyPhyOffset = masterPhyOffset;
+                this.bodySizeField = bodySizeField;
+                if (HAConnection.isCompressed(bodySizeField)) {
+                    this.byteBufferBody = ByteBuffer.allocate(bodySize);
+                }
+                else {
+                    this.byteBufferBody =
+                            HAService.this.defaultMessageStore.prepareAppendToCommitLog(masterPhyOffset,
+                                bodySize);
+                    if (null == this.byteBufferBody) {
+                        return false;
                     }
                 }
 
-                if (!this.byteBufferRead.hasRemaining()) {
-                    this.reallocateByteBuffer();
+                return true;
+            }
+
+            if (this.byteBufferBody.hasRemaining()) {
+                return true;
+            }
+
+            // ݿ
+            boolean result = false;
+            if (HAConnection.isCompressed(this.bodySizeField)) {
+                int type = HAConnection.getCompressionType(this.bodySizeField);
+                CompressionCodec codec = CompressionCodecs.getCodec(type);
+                if (null == codec) {
+                    log.error("HAClient, compression type " + type + " not registered");
+                    return false;
                 }
 
-                break;
+                byte[] bodyData = codec.uncompress(this.byteBufferBody.array());
+                result = HAService.this.defaultMessageStore.appendToCommitLog(this.bodyPhyOffset, bodyData);
+            }
+            else {
+                result =
+                        HAService.this.defaultMessageStore.commitAppendToCommitLog(this.bodyPhyOffset,
+                            this.bodySizeField);
             }
 
-            return true;
+            this.byteBufferBody = null;
+            this.byteBufferHeader.clear();
+
+            if (!result) {
+                return false;
+            }
+
+            return this.reportSlaveMaxOffsetPlus();
         }
 
 
@@ -489,6 +534,8 @@ public class HAService {
                 }
             }
 
+            // ϿMasterƳӣصȵʱŴȷȥ
+            this.closeMaster();
             log.info(this.getServiceName() + " service end");
         }
 
@@ -535,13 +582,9 @@ public class HAService {
                 }
 
                 this.lastWriteTimestamp = 0;
-                this.dispatchPostion = 0;
-
-                this.byteBufferBackup.position(0);
-                this.byteBufferBackup.limit(ReadMaxBufferSize);
 
-                this.byteBufferRead.position(0);
-                this.byteBufferRead.limit(ReadMaxBufferSize);
+                this.byteBufferHeader.clear();
+                this.byteBufferBody = null;
             }
         }
 
@@ -598,42 +641,108 @@ public class HAService {
     }
 
 
-    // public void notifyTransferSome() {
-    // this.groupTransferService.notifyTransferSome();
-    // }
-
     /**
-     * ж֮ݴǷ
+     * ж֮ݴǷ<br>
+     * 󳬹haSlaveFallbehindMaxSlave룬ȷͬ˫дֱӷSlaveãд
      * 
      * @return
      */
     public boolean isSlaveOK(final long masterPutWhere) {
-        boolean result = this.connectionCount.get() > 0;
-        result =
-                result
-                        && ((masterPutWhere - this.push2SlaveMaxOffset.get()) < this.defaultMessageStore
-                            .getMessageStoreConfig().getHaSlaveFallbehindMax());
-        return result;
+        final int fallbehindMax = this.defaultMessageStore.getMessageStoreConfig().getHaSlaveFallbehindMax();
+        final int inSyncNums = countInSyncSlaves(this.getSlaveAckOffsets(), masterPutWhere, fallbehindMax);
+        return inSyncNums >= this.getAckQuorum();
     }
 
 
     /**
-     * ֪ͨ˲
+     * ѾȷϹ󲻳fallbehindMaxSlave
      */
-    public void notifyTransferSome(final long offset) {
-        for (long value = this.push2SlaveMaxOffset.get(); offset > value;) {
-            boolean ok = this.push2SlaveMaxOffset.compareAndSet(value, offset);
+    static int countInSyncSlaves(final long[] ackOffsets, final long masterPutWhere,
+            final int fallbehindMax) {
+        int inSyncNums = 0;
+        for (long ackOffset : ackOffsets) {
+            if (ackOffset >= 0 && (masterPutWhere - ackOffset) < fallbehindMax) {
+                inSyncNums++;
+            }
+        }
+
+        return inSyncNums;
+    }
+
+
+    /**
+     * Slaveȷ˲ݣ¼ȷҪOffset
+     */
+    public void notifyTransferSome() {
+        final long offset = this.computeQuorumOffset();
+        for (long value = this.push2SlaveQuorumOffset.get(); offset > value;) {
+            boolean ok = this.push2SlaveQuorumOffset.compareAndSet(value, offset);
             if (ok) {
-                this.groupTransferService.notifyTransferSome();
+                this.groupTransferService.notifyTransferSome(offset);
                 break;
             }
             else {
-                value = this.push2SlaveMaxOffset.get();
+                value = this.push2SlaveQuorumOffset.get();
             }
         }
     }
 
 
+    private long computeQuorumOffset() {
+        return computeQuorumOffset(this.getSlaveAckOffsets(), this.getAckQuorum());
+    }
+
+
+    /**
+     * SlaveȷOffsetеquorumֵ㷵-1
+     */
+    static long computeQuorumOffset(final long[] ackOffsets, final int quorum) {
+        if (ackOffsets.length < quorum) {
+            return -1;
+        }
+
+        long[] sorted = Arrays.copyOf(ackOffsets, ackOffsets.length);
+        Arrays.sort(sorted);
+        return sorted[sorted.length - quorum];
+    }
+
+
+    private long[] getSlaveAckOffsets() {
+        Object[] conns = this.connectionList.toArray();
+        long[] ackOffsets = new long[conns.length];
+        for (int i = 0; i < conns.length; i++) {
+            ackOffsets[i] = ((HAConnection) conns[i]).getSlaveAckOffset();
+        }
+
+        return ackOffsets;
+    }
+
+
+    private int getAckQuorum() {
+        return Math.max(1, this.defaultMessageStore.getMessageStoreConfig().getHaSyncAckQuorum());
+    }
+
+
+    /**
+     * ÿSlaveȷλáֽȷٶ
+     */
+    public HashMap<String, String> getRuntimeInfo() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        final long masterMaxOffset = this.defaultMessageStore.getMaxPhyOffset();
+        result.put("haConnectionCount", String.valueOf(this.connectionCount.get()));
+        result.put("haAckQuorum", String.valueOf(this.getAckQuorum()));
+        result.put("haQuorumOffset", String.valueOf(this.push2SlaveQuorumOffset.get()));
+        for (HAConnection conn : this.connectionList) {
+            long ackOffset = conn.getSlaveAckOffset();
+            result.put("haSlave" + conn.getClientAddr(), "ackOffset " + ackOffset //
+                    + " fallbehind " + (ackOffset >= 0 ? masterMaxOffset - ackOffset : -1) //
+                    + " ackTps(bytes) " + conn.getAckBytesPerSecond());
+        }
+
+        return result;
+    }
+
+
     public AtomicInteger getConnectionCount() {
         return connectionCount;
     }
@@ -648,27 +757,21 @@ public class HAService {
 
 
     public void destroyConnections() {
-        synchronized (this.connectionList) {
-            for (HAConnection c : this.connectionList) {
-                c.shutdown();
-            }
-
-            this.connectionList.clear();
+        for (HAConnection c : this.connectionList) {
+            c.shutdown();
         }
+
+        this.connectionList.clear();
     }
 
 
     public void addConnection(final HAConnection conn) {
-        synchronized (this.connectionList) {
-            this.connectionList.add(conn);
-        }
+        this.connectionList.add(conn);
     }
 
 
     public void removeConnection(final HAConnection conn) {
-        synchronized (this.connectionList) {
-            this.connectionList.remove(conn);
-        }
+        this.connectionList.remove(conn);
     }
 
 
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+
+
+/**
+ * дļӦĲ¡ļԱߵĶļ<br>
+ * mmapʽʣռöڴ棻ļͷħд룬ûдļʱᱻ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class IndexBloomFilter {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    public static final String FILE_SUFFIX = ".bloom";
+
+    private static final int MAGIC_CODE = 0xAABBCC10;
+    // ħ + ϣ + λ
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int MAGIC_CODE_INDEX = 0;
+    private static final int NUM_HASHES_INDEX = 4;
+    private static final int NUM_BITS_INDEX = 8;
+
+    private final String fileName;
+    private final int numHashes;
+    private final long numBits;
+    private final MappedByteBuffer mappedByteBuffer;
+
+
+    private IndexBloomFilter(final String fileName, final int numHashes, final long numBits,
+            final MappedByteBuffer mappedByteBuffer) {
+        this.fileName = fileName;
+        this.numHashes = numHashes;
+        this.numBits = numBits;
+        this.mappedByteBuffer = mappedByteBuffer;
+    }
+
+
+    /**
+     * һյĹļдɺҪseal
+     */
+    public static IndexBloomFilter create(final String fileName, final int keyNum, final int bitsPerKey)
+            throws IOException {
+        long numBits = Math.max(64L, (long) keyNum * bitsPerKey);
+        numBits = Math.min(numBits, Integer.MAX_VALUE);
+        // long
+        numBits = (numBits + 63) / 64 * 64;
+        // ŹϣΪ bitsPerKey * ln2
+        int numHashes = (int) Math.round(bitsPerKey * Math.log(2));
+        numHashes = Math.max(1, Math.min(numHashes, 16));
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(fileName, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(HEADER_SIZE + numBits / 8);
+            MappedByteBuffer mappedByteBuffer =
+                    randomAccessFile.getChannel().map(MapMode.READ_WRITE, 0, randomAccessFile.length());
+            mappedByteBuffer.putInt(NUM_HASHES_INDEX, numHashes);
+            mappedByteBuffer.putLong(NUM_BITS_INDEX, numBits);
+            return new IndexBloomFilter(fileName, numHashes, numBits, mappedByteBuffer);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+
+    /**
+     * еĹļ
+     *
+     * @return ļڻ߲ʱnullӦļ
+     */
+    public static IndexBloomFilter load(final String fileName) {
+        File file = new File(fileName);
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                MappedByteBuffer mappedByteBuffer =
+                        randomAccessFile.getChannel().map(MapMode.READ_ONLY, 0, randomAccessFile.length());
+                int magicCode = mappedByteBuffer.getInt(MAGIC_CODE_INDEX);
+                int numHashes = mappedByteBuffer.getInt(NUM_HASHES_INDEX);
+                long numBits = mappedByteBuffer.getLong(NUM_BITS_INDEX);
+                if (magicCode != MAGIC_CODE || numHashes <= 0 || numBits <= 0
+                        || HEADER_SIZE + numBits / 8 != file.length()) {
+                    log.warn("index bloom filter file incomplete, ignore it, " + fileName);
+                    MapedFile.clean(mappedByteBuffer);
+                    return null;
+                }
+
+                log.info("load index bloom filter OK, " + fileName);
+                return new IndexBloomFilter(fileName, numHashes, numBits, mappedByteBuffer);
+            }
+            finally {
+                randomAccessFile.close();
+            }
+        }
+        catch (IOException e) {
+            log.error("load index bloom filter exception, " + fileName, e);
+        }
+
+        return null;
+    }
+
+
+    /**
+     * ֻڴһ̵߳
+     */
+    public void put(final int keyHash) {
+        long hash = mix(keyHash);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 0; i < this.numHashes; i++) {
+            long bit = bitIndex(hash1, hash2, i);
+            int pos = HEADER_SIZE + (int) (bit >>> 6) * 8;
+            long word = this.mappedByteBuffer.getLong(pos);
+            this.mappedByteBuffer.putLong(pos, word | (1L << (bit & 63)));
+        }
+    }
+
+
+    /**
+     * @return falseʾKeyһڶӦļ
+     */
+    public boolean mightContain(final int keyHash) {
+        long hash = mix(keyHash);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 0; i < this.numHashes; i++) {
+            long bit = bitIndex(hash1, hash2, i);
+            long word = this.mappedByteBuffer.getLong(HEADER_SIZE + (int) (bit >>> 6) * 8);
+            if ((word & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * ˢ̺дħ־ļ
+     */
+    public void seal() {
+        this.mappedByteBuffer.force();
+        this.mappedByteBuffer.putInt(MAGIC_CODE_INDEX, MAGIC_CODE);
+        this.mappedByteBuffer.force();
+    }
+
+
+    /**
+     * ͷӳڴ沢ɾļ<br>
+     * ѯֻ߳ڳļʱȡҪļcleanup֮
+     */
+    public boolean destroy() {
+        MapedFile.clean(this.mappedByteBuffer);
+        return deleteFile(this.fileName);
+    }
+
+
+    public static boolean deleteFile(final String fileName) {
+        File file = new File(fileName);
+        return !file.exists() || file.delete();
+    }
+
+
+    public String getFileName() {
+        return fileName;
+    }
+
+
+    private long bitIndex(final int hash1, final int hash2, final int i) {
+        int combinedHash = hash1 + i * hash2;
+        if (combinedHash < 0) {
+            combinedHash = ~combinedHash;
+        }
+
+        return combinedHash % this.numBits;
+    }
+
+
+    /**
+     * ֻKey32λϣֵɢ64λϣ
+     */
+    private static long mix(final int keyHash) {
+        long hash = keyHash;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
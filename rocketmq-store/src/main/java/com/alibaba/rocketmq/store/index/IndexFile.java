@@ -18,8 +18,6 @@ package com.alibaba.rocketmq.store.index;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -30,7 +28,10 @@ import com.alibaba.rocketmq.store.MapedFile;
 
 
 /**
- * 洢ϢϢļ
+ * 洢ϢϢļ<br>
+ * ֻIndexShardһ߳д룬ѯ̲߳ȡʹļ<br>
+ * дʱдٵ¹ϣۣȡʱȶϣۣٶ
+ * ֻСĲֵѾд
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-21
@@ -45,9 +46,10 @@ public class IndexFile {
     private final int hashSlotNum;
     private final int indexNum;
     private final MapedFile mapedFile;
-    private final FileChannel fileChannel;
     private final MappedByteBuffer mappedByteBuffer;
     private final IndexHeader indexHeader;
+    // ļдɣ֮ǰΪnull
+    private volatile IndexBloomFilter bloomFilter;
 
 
     public IndexFile(final String fileName, final int hashSlotNum, final int indexNum,
@@ -55,7 +57,6 @@ public class IndexFile {
         int fileTotalSize =
                 IndexHeader.INDEX_HEADER_SIZE + (hashSlotNum * HASH_SLOT_SIZE) + (indexNum * INDEX_SIZE);
         this.mapedFile = new MapedFile(fileName, fileTotalSize);
-        this.fileChannel = this.mapedFile.getFileChannel();
         this.mappedByteBuffer = this.mapedFile.getMappedByteBuffer();
         this.hashSlotNum = hashSlotNum;
         this.indexNum = indexNum;
@@ -82,6 +83,57 @@ public class IndexFile {
 
     public void load() {
         this.indexHeader.load();
+        if (this.isWriteFull()) {
+            this.bloomFilter = IndexBloomFilter.load(this.getBloomFileName());
+        }
+    }
+
+
+    public String getBloomFileName() {
+        return this.mapedFile.getFileName() + IndexBloomFilter.FILE_SUFFIX;
+    }
+
+
+    /**
+     * ļдɨKeyϣֵɲ¡
+     */
+    public void buildBloomFilter(final int bitsPerKey) {
+        if (bitsPerKey <= 0 || this.bloomFilter != null || !this.isWriteFull()) {
+            return;
+        }
+
+        if (this.mapedFile.hold()) {
+            long beginTime = System.currentTimeMillis();
+            IndexBloomFilter filter = null;
+            try {
+                final int indexCount = this.indexHeader.getIndexCount();
+                filter = IndexBloomFilter.create(this.getBloomFileName(), indexCount, bitsPerKey);
+                int absIndexPos = IndexHeader.INDEX_HEADER_SIZE + this.hashSlotNum * HASH_SLOT_SIZE;
+                // һЧ
+                for (int i = 1; i < indexCount; i++) {
+                    filter.put(this.mappedByteBuffer.getInt(absIndexPos + i * INDEX_SIZE));
+                }
+
+                filter.seal();
+                this.bloomFilter = filter;
+                log.info("build index bloom filter OK, " + this.getBloomFileName() + " eclipse time(ms) "
+                        + (System.currentTimeMillis() - beginTime));
+            }
+            catch (Exception e) {
+                log.error("build index bloom filter exception, " + this.getBloomFileName(), e);
+                if (filter != null) {
+                    filter.destroy();
+                }
+            }
+            finally {
+                this.mapedFile.release();
+            }
+        }
+    }
+
+
+    public boolean hasBloomFilter() {
+        return this.bloomFilter != null;
     }
 
 
@@ -105,7 +157,20 @@ public class IndexFile {
 
 
     public boolean destroy(final long intervalForcibly) {
-        return this.mapedFile.destroy(intervalForcibly);
+        boolean result = this.mapedFile.destroy(intervalForcibly);
+        if (result) {
+            // ļѾcleanupвѯ̶߳ȡ
+            final IndexBloomFilter filter = this.bloomFilter;
+            if (filter != null) {
+                this.bloomFilter = null;
+                filter.destroy();
+            }
+            else {
+                IndexBloomFilter.deleteFile(this.getBloomFileName());
+            }
+        }
+
+        return result;
     }
 
 
@@ -118,11 +183,7 @@ public class IndexFile {
             int slotPos = Math.abs(keyHash) % this.hashSlotNum;
             int absSlotPos = IndexHeader.INDEX_HEADER_SIZE + slotPos * HASH_SLOT_SIZE;
 
-            FileLock fileLock = null;
-
             try {
-                // TODO ǷǶд
-                fileLock = this.fileChannel.lock(absSlotPos, HASH_SLOT_SIZE, false);
                 int slotValue = this.mappedByteBuffer.getInt(absSlotPos);
                 if (slotValue <= INVALID_INDEX || slotValue > this.indexHeader.getIndexCount()) {
                     slotValue = INVALID_INDEX;
@@ -139,9 +200,10 @@ public class IndexFile {
                     timeDiff = 0;
                 }
 
+                final int indexCount = this.indexHeader.getIndexCount();
                 int absIndexPos =
                         IndexHeader.INDEX_HEADER_SIZE + this.hashSlotNum * HASH_SLOT_SIZE
-                                + this.indexHeader.getIndexCount() * INDEX_SIZE;
+                                + indexCount * INDEX_SIZE;
 
                 // д
                 this.mappedByteBuffer.putInt(absIndexPos, keyHash);
@@ -149,35 +211,26 @@ public class IndexFile {
                 this.mappedByteBuffer.putInt(absIndexPos + 4 + 8, (int) timeDiff);
                 this.mappedByteBuffer.putInt(absIndexPos + 4 + 8 + 4, slotValue);
 
-                // ¹ϣ
-                this.mappedByteBuffer.putInt(absSlotPos, this.indexHeader.getIndexCount());
-
                 // һд
-                if (this.indexHeader.getIndexCount() <= 1) {
+                if (indexCount <= 1) {
                     this.indexHeader.setBeginPhyOffset(phyOffset);
                     this.indexHeader.setBeginTimestamp(storeTimestamp);
                 }
 
+                // volatileд̲֮߳ܿ
                 this.indexHeader.incHashSlotCount();
                 this.indexHeader.incIndexCount();
                 this.indexHeader.setEndPhyOffset(phyOffset);
                 this.indexHeader.setEndTimestamp(storeTimestamp);
 
+                // ¹ϣ
+                this.mappedByteBuffer.putInt(absSlotPos, indexCount);
+
                 return true;
             }
             catch (Exception e) {
                 log.error("putKey exception ", e);
             }
-            finally {
-                if (fileLock != null) {
-                    try {
-                        fileLock.release();
-                    }
-                    catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
         }
         else {
             log.warn("putKey index count " + this.indexHeader.getIndexCount() + " index max num "
@@ -227,26 +280,24 @@ public class IndexFile {
      * ǰ᣺ʱڵǰѾƥ˵ǰļʼʱ
      */
     public void selectPhyOffset(final List<Long> phyOffsets, final String key, final int maxNum,
-            final long begin, final long end, boolean lock) {
+            final long begin, final long end) {
         if (this.mapedFile.hold()) {
             int keyHash = key.hashCode();
             int slotPos = Math.abs(keyHash) % this.hashSlotNum;
             int absSlotPos = IndexHeader.INDEX_HEADER_SIZE + slotPos * HASH_SLOT_SIZE;
 
-            FileLock fileLock = null;
             try {
-                if (lock) {
-                    fileLock = this.fileChannel.lock(absSlotPos, HASH_SLOT_SIZE, true);
-                }
-
+                // ȶֵٶֵСڼʱӦһѾд
                 int slotValue = this.mappedByteBuffer.getInt(absSlotPos);
-                if (fileLock != null) {
-                    fileLock.release();
-                    fileLock = null;
+                final int indexCount = this.indexHeader.getIndexCount();
+                final IndexBloomFilter filter = this.bloomFilter;
+
+                // ¡жڣٶȡϣ
+                if (filter != null && !filter.mightContain(keyHash)) {
+                    return;
                 }
 
-                if (slotValue <= INVALID_INDEX || slotValue > this.indexHeader.getIndexCount()
-                        || this.indexHeader.getIndexCount() <= 1) {
+                if (slotValue <= INVALID_INDEX || slotValue >= indexCount || indexCount <= 1) {
                     // TODO NOTFOUND
                 }
                 else {
@@ -276,9 +327,9 @@ public class IndexFile {
                             phyOffsets.add(phyOffsetRead);
                         }
 
-                        if (prevIndexRead <= INVALID_INDEX
-                                || prevIndexRead > this.indexHeader.getIndexCount()
-                                || prevIndexRead == nextIndexToRead || timeRead < begin) {
+                        // ָֻд
+                        if (prevIndexRead <= INVALID_INDEX || prevIndexRead >= nextIndexToRead
+                                || timeRead < begin) {
                             break;
                         }
 
@@ -290,15 +341,6 @@ public class IndexFile {
                 log.error("selectPhyOffset exception ", e);
             }
             finally {
-                if (fileLock != null) {
-                    try {
-                        fileLock.release();
-                    }
-                    catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-
                 this.mapedFile.release();
             }
         }
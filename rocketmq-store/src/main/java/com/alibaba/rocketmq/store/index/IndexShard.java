@@ -0,0 +1,507 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.DispatchRequest;
+
+
+/**
+ * ϢһƬӵжļд߳<br>
+ * ֻKeyϣ䵽ƬKey
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class IndexShard extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private LinkedBlockingQueue<Object[]> requestQueue = new LinkedBlockingQueue<Object[]>();
+    private AtomicInteger requestCount = new AtomicInteger(0);
+
+    private final IndexService indexService;
+    private final DefaultMessageStore defaultMessageStore;
+    private final int shardId;
+
+    // 
+    private final int hashSlotNum;
+    private final int indexNum;
+    private final String storePath;
+
+    // ļ
+    private final ArrayList<IndexFile> indexFileList = new ArrayList<IndexFile>();
+    // дindexFileList
+    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    // һˢ̵дļʱ䣬Ϊ0ʾûдļ
+    private volatile long indexMsgTimestamp = 0;
+
+
+    public IndexShard(final IndexService indexService, final DefaultMessageStore store, final int shardId,
+            final String storePath) {
+        this.indexService = indexService;
+        this.defaultMessageStore = store;
+        this.shardId = shardId;
+        this.hashSlotNum = store.getMessageStoreConfig().getMaxHashSlotNum();
+        this.indexNum = store.getMessageStoreConfig().getMaxIndexNum();
+        this.storePath = storePath;
+        // ๹ʱƬŻδֵ
+        this.thread.setName(this.getServiceName());
+    }
+
+
+    public boolean load(final boolean lastExitOK) {
+        File dir = new File(this.storePath);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            // ascending order
+            Arrays.sort(files);
+            for (File file : files) {
+                // ƬĿ¼벼¡ļ
+                if (file.isDirectory() || file.getName().endsWith(IndexBloomFilter.FILE_SUFFIX)) {
+                    continue;
+                }
+
+                try {
+                    IndexFile f = new IndexFile(file.getPath(), this.hashSlotNum, this.indexNum, 0, 0);
+                    f.load();
+
+                    if (!lastExitOK) {
+                        if (f.getEndTimestamp() > this.defaultMessageStore.getStoreCheckpoint()
+                            .getIndexMsgTimestamp()) {
+                            f.destroy(0);
+                            continue;
+                        }
+                    }
+
+                    // ǰѾдļ߹ļûдﲹ
+                    if (f.isWriteFull() && !f.hasBloomFilter()) {
+                        f.buildBloomFilter(this.defaultMessageStore.getMessageStoreConfig()
+                            .getIndexBloomBitsPerKey());
+                    }
+
+                    log.info("load index file OK, " + f.getFileName());
+                    this.indexFileList.add(f);
+                }
+                catch (IOException e) {
+                    log.error("load file " + file + " error", e);
+                    return false;
+                }
+            }
+        }
+
+        this.indexMsgTimestamp = this.loadIndexMsgTimestamp();
+        return true;
+    }
+
+
+    /**
+     * Ƭļʱ䣬ȡһдļʱ<br>
+     * ûдļķƬô洢ļ㣬˻ص0
+     */
+    private long loadIndexMsgTimestamp() {
+        for (int i = this.indexFileList.size() - 1; i >= 0; i--) {
+            IndexFile f = this.indexFileList.get(i);
+            if (f.isWriteFull()) {
+                return f.getEndTimestamp();
+            }
+        }
+
+        return this.defaultMessageStore.getStoreCheckpoint().getIndexMsgTimestamp();
+    }
+
+
+    /**
+     * ȡһļΪջһļдˣ½һļ<br>
+     * ֻһ̵߳ãԲд
+     */
+    public IndexFile getAndCreateLastIndexFile() {
+        IndexFile indexFile = null;
+        IndexFile prevIndexFile = null;
+        long lastUpdateEndPhyOffset = 0;
+        long lastUpdateIndexTimestamp = 0;
+        // ȳʹö
+        {
+            this.readWriteLock.readLock().lock();
+            if (!this.indexFileList.isEmpty()) {
+                IndexFile tmp = this.indexFileList.get(this.indexFileList.size() - 1);
+                if (!tmp.isWriteFull()) {
+                    indexFile = tmp;
+                }
+                else {
+                    lastUpdateEndPhyOffset = tmp.getEndPhyOffset();
+                    lastUpdateIndexTimestamp = tmp.getEndTimestamp();
+                    prevIndexFile = tmp;
+                }
+            }
+
+            this.readWriteLock.readLock().unlock();
+        }
+
+        // ûҵʹдļ
+        if (indexFile == null) {
+            try {
+                String fileName =
+                        this.storePath + File.separator
+                                + UtilALl.timeMillisToHumanString(System.currentTimeMillis());
+                indexFile =
+                        new IndexFile(fileName, this.hashSlotNum, this.indexNum, lastUpdateEndPhyOffset,
+                            lastUpdateIndexTimestamp);
+                this.readWriteLock.writeLock().lock();
+                this.indexFileList.add(indexFile);
+            }
+            catch (Exception e) {
+                log.error("getLastIndexFile exception ", e);
+            }
+            finally {
+                this.readWriteLock.writeLock().unlock();
+            }
+
+            // ÿһļ֮ǰļҪˢ
+            if (indexFile != null) {
+                final IndexFile flushThisFile = prevIndexFile;
+                Thread flushThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        IndexShard.this.flush(flushThisFile);
+                    }
+                }, "FlushIndexFileThread");
+
+                flushThread.setDaemon(true);
+                flushThread.start();
+            }
+        }
+
+        return indexFile;
+    }
+
+
+    /**
+     * ɾļֻܴͷʼɾ
+     */
+    private void deleteExpiredFile(List<IndexFile> files) {
+        if (!files.isEmpty()) {
+            try {
+                this.readWriteLock.writeLock().lock();
+                for (IndexFile file : files) {
+                    if (!this.indexFileList.remove(file)) {
+                        log.error("deleteExpiredFile remove failed.");
+                        break;
+                    }
+                }
+            }
+            catch (Exception e) {
+                log.error("deleteExpiredFile has exception.", e);
+            }
+            finally {
+                this.readWriteLock.writeLock().unlock();
+            }
+        }
+    }
+
+
+    /**
+     * ɾļ
+     */
+    public void deleteExpiredFile(long offset) {
+        Object[] files = null;
+        try {
+            this.readWriteLock.readLock().lock();
+            if (this.indexFileList.isEmpty()) {
+                return;
+            }
+
+            long endPhyOffset = this.indexFileList.get(0).getEndPhyOffset();
+            if (endPhyOffset < offset) {
+                files = this.indexFileList.toArray();
+            }
+        }
+        catch (Exception e) {
+            log.error("destroy exception", e);
+        }
+        finally {
+            this.readWriteLock.readLock().unlock();
+        }
+
+        if (files != null) {
+            List<IndexFile> fileList = new ArrayList<IndexFile>();
+            for (int i = 0; i < (files.length - 1); i++) {
+                IndexFile f = (IndexFile) files[i];
+                if (f.getEndPhyOffset() < offset) {
+                    fileList.add(f);
+                }
+                else {
+                    break;
+                }
+            }
+
+            this.deleteExpiredFile(fileList);
+        }
+    }
+
+
+    public void destroy() {
+        try {
+            this.readWriteLock.readLock().lock();
+            for (IndexFile f : this.indexFileList) {
+                f.destroy(1000 * 3);
+            }
+            this.indexFileList.clear();
+        }
+        catch (Exception e) {
+            log.error("destroy exception", e);
+        }
+        finally {
+            this.readWriteLock.readLock().unlock();
+        }
+    }
+
+
+    public void flush(final IndexFile f) {
+        if (null == f)
+            return;
+
+        f.flush();
+
+        // ֻдļƽ
+        if (f.isWriteFull()) {
+            this.indexMsgTimestamp = Math.max(this.indexMsgTimestamp, f.getEndTimestamp());
+            this.indexService.flushCheckpoint();
+        }
+
+        f.buildBloomFilter(this.defaultMessageStore.getMessageStoreConfig().getIndexBloomBitsPerKey());
+    }
+
+
+    public long getIndexMsgTimestamp() {
+        return indexMsgTimestamp;
+    }
+
+
+    public QueryOffsetResult queryOffset(String topic, String key, int maxNum, long begin, long end) {
+        final String indexKey = IndexService.buildKey(topic, key);
+        List<Long> phyOffsets = new ArrayList<Long>(maxNum);
+        // TODO Ҫظû
+        long indexLastUpdateTimestamp = 0;
+        long indexLastUpdatePhyoffset = 0;
+        maxNum = Math.min(maxNum, this.defaultMessageStore.getMessageStoreConfig().getMaxMsgsNumBatch());
+        try {
+            this.readWriteLock.readLock().lock();
+            if (!this.indexFileList.isEmpty()) {
+                IndexFile lastFile = this.indexFileList.get(this.indexFileList.size() - 1);
+                indexLastUpdateTimestamp = lastFile.getEndTimestamp();
+                indexLastUpdatePhyoffset = lastFile.getEndPhyOffset();
+
+                // ļʱȺУһʼʱ䲻endļʼǰ
+                for (int i = this.findLastFileBefore(end); i >= 0; i--) {
+                    IndexFile f = this.indexFileList.get(i);
+                    // ǰʱ
+                    if (f.getEndTimestamp() < begin && f.getEndTimestamp() > 0) {
+                        break;
+                    }
+
+                    if (f.isTimeMatched(begin, end)) {
+                        f.selectPhyOffset(phyOffsets, indexKey, maxNum, begin, end);
+                    }
+
+                    if (phyOffsets.size() >= maxNum) {
+                        break;
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("queryMsg exception", e);
+        }
+        finally {
+            this.readWriteLock.readLock().unlock();
+        }
+
+        return new QueryOffsetResult(phyOffsets, indexLastUpdateTimestamp, indexLastUpdatePhyoffset);
+    }
+
+
+    /**
+     * ֲһʼʱ䲻timestampļ÷Ҫж
+     *
+     * @return ûзļʱ-1
+     */
+    private int findLastFileBefore(final long timestamp) {
+        int low = 0;
+        int high = this.indexFileList.size() - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.indexFileList.get(mid).getBeginTimestamp() <= timestamp) {
+                result = mid;
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * ׷󣬷ضжѻ
+     */
+    public int putRequest(final Object[] reqs) {
+        this.requestQueue.add(reqs);
+        return this.requestCount.addAndGet(reqs.length);
+    }
+
+
+    public IndexFile retryGetAndCreateIndexFile() {
+        IndexFile indexFile = null;
+
+        // ʧܣؽ3
+        for (int times = 0; null == indexFile && times < 3; times++) {
+            indexFile = this.getAndCreateLastIndexFile();
+            if (null != indexFile)
+                break;
+
+            try {
+                log.error("try to create index file, " + times + " times");
+                Thread.sleep(1000);
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // ԶΣȻ޷ļ
+        if (null == indexFile) {
+            this.defaultMessageStore.getAccessRights().makeIndexFileError();
+            log.error("mark index file can not build flag");
+        }
+
+        return indexFile;
+    }
+
+
+    public void buildIndex(Object[] req) {
+        boolean breakdown = false;
+        IndexFile indexFile = retryGetAndCreateIndexFile();
+        if (indexFile != null) {
+            long endPhyOffset = indexFile.getEndPhyOffset();
+            MSG_WHILE: for (Object o : req) {
+                DispatchRequest msg = (DispatchRequest) o;
+                String topic = msg.getTopic();
+                String keys = msg.getKeys();
+                if (msg.getCommitLogOffset() < endPhyOffset) {
+                    continue;
+                }
+
+                final int tranType = MessageSysFlag.getTransactionValue(msg.getSysFlag());
+                switch (tranType) {
+                case MessageSysFlag.TransactionNotType:
+                case MessageSysFlag.TransactionPreparedType:
+                    break;
+                case MessageSysFlag.TransactionCommitType:
+                case MessageSysFlag.TransactionRollbackType:
+                    continue;
+                }
+
+                if (keys != null && keys.length() > 0) {
+                    String[] keyset = keys.split(Message.KEY_SEPARATOR);
+                    for (String key : keyset) {
+                        // TODO ǷҪTRIM
+                        if (key.length() > 0) {
+                            String indexKey = IndexService.buildKey(topic, key);
+                            // ڱƬ
+                            if (this.indexService.shardOf(indexKey) != this.shardId) {
+                                continue;
+                            }
+
+                            for (boolean ok =
+                                    indexFile.putKey(indexKey, msg.getCommitLogOffset(),
+                                        msg.getStoreTimestamp()); !ok;) {
+                                log.warn("index file full, so create another one, " + indexFile.getFileName());
+                                indexFile = retryGetAndCreateIndexFile();
+                                if (null == indexFile) {
+                                    breakdown = true;
+                                    break MSG_WHILE;
+                                }
+
+                                ok = indexFile.putKey(indexKey, msg.getCommitLogOffset(), msg.getStoreTimestamp());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        // IOϣbuildжϣҪ˹봦
+        else {
+            breakdown = true;
+        }
+
+        if (breakdown) {
+            log.error("build index error, stop building index");
+            // TODO
+        }
+
+        this.requestCount.addAndGet(req.length * (-1));
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                // Object[] req = this.requestQueue.take();
+                Object[] req = this.requestQueue.poll(3000, TimeUnit.MILLISECONDS);
+
+                if (req != null) {
+                    this.buildIndex(req);
+                }
+            }
+            catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return IndexService.class.getSimpleName() + "-" + this.shardId;
+    }
+}
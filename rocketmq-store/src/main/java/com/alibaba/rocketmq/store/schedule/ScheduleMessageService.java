@@ -15,7 +15,13 @@
  */
 package com.alibaba.rocketmq.store.schedule;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
@@ -32,8 +38,6 @@ import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.store.ConsumeQueue;
 import com.alibaba.rocketmq.store.DefaultMessageStore;
 import com.alibaba.rocketmq.store.MessageExtBrokerInner;
-import com.alibaba.rocketmq.store.PutMessageResult;
-import com.alibaba.rocketmq.store.PutMessageStatus;
 import com.alibaba.rocketmq.store.SelectMapedBufferResult;
 
 
@@ -91,39 +95,6 @@ public class ScheduleMessageService extends ConfigManager {
         }
 
 
-        private MessageExtBrokerInner messageTimeup(MessageExt msgExt) {
-            MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
-            msgInner.setBody(msgExt.getBody());
-            msgInner.setFlag(msgExt.getFlag());
-            msgInner.setProperties(msgExt.getProperties());
-
-            TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
-            long tagsCodeValue =
-                    MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
-            msgInner.setTagsCode(tagsCodeValue);
-            msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgExt.getProperties()));
-
-            msgInner.setSysFlag(msgExt.getSysFlag());
-            msgInner.setBornTimestamp(msgExt.getBornTimestamp());
-            msgInner.setBornHost(msgExt.getBornHost());
-            msgInner.setStoreHost(msgExt.getStoreHost());
-            msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
-
-            msgInner.setWaitStoreMsgOK(false);
-            msgInner.clearProperty(Message.PROPERTY_DELAY_TIME_LEVEL);
-
-            // ָTopic
-            msgInner.setTopic(msgInner.getProperty(Message.PROPERTY_REAL_TOPIC));
-
-            // ָQueueId
-            String queueIdStr = msgInner.getProperty(Message.PROPERTY_REAL_QUEUE_ID);
-            int queueId = Integer.parseInt(queueIdStr);
-            msgInner.setQueueId(queueId);
-
-            return msgInner;
-        }
-
-
         public void executeOnTimeup() {
             ConsumeQueue cq =
                     ScheduleMessageService.this.defaultMessageStore.findConsumeQueue(SCHEDULE_TOPIC,
@@ -132,6 +103,13 @@ public class ScheduleMessageService extends ConfigManager {
                 SelectMapedBufferResult bufferCQ = cq.getIndexBuffer(this.offset);
                 if (bufferCQ != null) {
                     try {
+                        final int batchSize =
+                                Math.max(1, ScheduleMessageService.this.defaultMessageStore
+                                    .getMessageStoreConfig().getScheduleDeliverBatchSize());
+                        // ڵϢܳһд룬¼ÿϢڶеλãʧܺ
+                        List<MessageExtBrokerInner> batchMsgs =
+                                new ArrayList<MessageExtBrokerInner>(batchSize);
+                        List<Long> batchOffsets = new ArrayList<Long>(batchSize);
                         long nextOffset = offset;
                         int i = 0;
                         for (; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize) {
@@ -147,46 +125,40 @@ public class ScheduleMessageService extends ConfigManager {
                             long countdown = deliverTimestamp - System.currentTimeMillis();
                             // ʱ䵽ˣͶ
                             if (countdown <= 0) {
-                                MessageExt msgExt =
-                                        ScheduleMessageService.this.defaultMessageStore.lookMessageByOffset(
+                                MessageExtBrokerInner msgInner =
+                                        messageTimeup(ScheduleMessageService.this.defaultMessageStore,
                                             offsetPy, sizePy);
-                                if (msgExt != null) {
-                                    MessageExtBrokerInner msgInner = this.messageTimeup(msgExt);
-                                    PutMessageResult putMessageResult =
-                                            ScheduleMessageService.this.defaultMessageStore
-                                                .putMessage(msgInner);
-                                    // ɹ
-                                    if (putMessageResult != null
-                                            && putMessageResult.getPutMessageStatus() == PutMessageStatus.PUT_OK) {
-                                        continue;
-                                    }
-                                    // ʧ
-                                    else {
-                                        log.error(
-                                            "a message time up, but reput it failed, topic: {} msgId {}",
-                                            msgExt.getTopic(), msgExt.getMsgId());
-                                        ScheduleMessageService.this.timer.schedule(
-                                            new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset),
-                                            DELAY_FOR_A_PERIOD);
-                                        ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
+                                if (msgInner != null) {
+                                    batchMsgs.add(msgInner);
+                                    batchOffsets.add(nextOffset);
+                                }
+
+                                if (batchMsgs.size() >= batchSize) {
+                                    if (!this.deliverBatch(batchMsgs, batchOffsets, nextOffset + 1)) {
                                         return;
                                     }
                                 }
                             }
                             // ʱδʱ
                             else {
+                                if (!this.deliverBatch(batchMsgs, batchOffsets, nextOffset)) {
+                                    return;
+                                }
+
                                 ScheduleMessageService.this.timer.schedule(
                                     new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset),
                                     countdown);
-                                ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
                                 return;
                             }
                         } // end of for
 
                         nextOffset = offset + (i / ConsumeQueue.CQStoreUnitSize);
+                        if (!this.deliverBatch(batchMsgs, batchOffsets, nextOffset)) {
+                            return;
+                        }
+
                         ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(
                             this.delayLevel, nextOffset), DELAY_FOR_A_WHILE);
-                        ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
                         return;
                     }
                     finally {
@@ -199,6 +171,178 @@ public class ScheduleMessageService extends ConfigManager {
             ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel,
                 this.offset), DELAY_FOR_A_WHILE);
         }
+
+
+        /**
+         * д뵽ϢɹһԸ½<br>
+         * ʧʱӵһʧܵϢʼԺ
+         *
+         * @return ȫдɹtrue
+         */
+        private boolean deliverBatch(final List<MessageExtBrokerInner> batchMsgs,
+                final List<Long> batchOffsets, final long nextOffset) {
+            int appended = ScheduleMessageService.this.defaultMessageStore.putMessages(batchMsgs);
+            if (appended < batchMsgs.size()) {
+                MessageExtBrokerInner failedMsg = batchMsgs.get(appended);
+                long failedOffset = batchOffsets.get(appended);
+                log.error("a message time up, but reput it failed, topic: {} offset {}", failedMsg.getTopic(),
+                    failedOffset);
+                ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(
+                    this.delayLevel, failedOffset), DELAY_FOR_A_PERIOD);
+                ScheduleMessageService.this.updateOffset(this.delayLevel, failedOffset);
+                return false;
+            }
+
+            batchMsgs.clear();
+            batchOffsets.clear();
+            ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
+            return true;
+        }
+    }
+
+
+    /**
+     * ȡCommitLogд洢ԭʼϢ쵽ںͶݵϢ
+     *
+     * @return ϢѾɾ߸ʽ󣬷null
+     */
+    static MessageExtBrokerInner messageTimeup(final DefaultMessageStore defaultMessageStore,
+            final long offsetPy, final int sizePy) {
+        return readMessage(defaultMessageStore, offsetPy, sizePy, true);
+    }
+
+
+    /**
+     * ȡCommitLogд洢ԭʼϢʱTopicԣдCommitLog
+     *
+     * @return ϢѾɾ߸ʽ󣬷null
+     */
+    static MessageExtBrokerInner messageRoll(final DefaultMessageStore defaultMessageStore,
+            final long offsetPy, final int sizePy) {
+        return readMessage(defaultMessageStore, offsetPy, sizePy, false);
+    }
+
+
+    private static MessageExtBrokerInner readMessage(final DefaultMessageStore defaultMessageStore,
+            final long offsetPy, final int sizePy, final boolean timeup) {
+        SelectMapedBufferResult result = defaultMessageStore.getCommitLog().getMessage(offsetPy, sizePy);
+        if (null == result) {
+            return null;
+        }
+
+        try {
+            return messageTimeup(result.getByteBuffer(), timeup);
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    static MessageExtBrokerInner messageTimeup(final ByteBuffer byteBuffer) {
+        return messageTimeup(byteBuffer, true);
+    }
+
+
+    /**
+     * ϢָʵTopicQueueIdͶ<br>
+     * Ϣ尴洢ԭʼֽڿѹҲ¼CRCSYSFLAGеѹʶ֮
+     *
+     * @param timeup
+     *            falseʾϢδڣ洢ʱTopicQueueId붨ʱԣtagsCodeΪͶʱ
+     */
+    static MessageExtBrokerInner messageTimeup(final ByteBuffer byteBuffer, final boolean timeup) {
+        try {
+            MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+
+            // 1 TOTALSIZE
+            byteBuffer.getInt();
+            // 2 MAGICCODE
+            byteBuffer.getInt();
+            // 3 BODYCRC
+            msgInner.setBodyCRC(byteBuffer.getInt());
+            // 4 QUEUEID
+            msgInner.setQueueId(byteBuffer.getInt());
+            // 5 FLAG
+            msgInner.setFlag(byteBuffer.getInt());
+            // 6 QUEUEOFFSET
+            byteBuffer.getLong();
+            // 7 PHYSICALOFFSET
+            byteBuffer.getLong();
+            // 8 SYSFLAG
+            msgInner.setSysFlag(byteBuffer.getInt());
+            // 9 BORNTIMESTAMP
+            msgInner.setBornTimestamp(byteBuffer.getLong());
+            // 10 BORNHOST
+            msgInner.setBornHost(readHost(byteBuffer));
+            // 11 STORETIMESTAMP
+            byteBuffer.getLong();
+            // 12 STOREHOST
+            msgInner.setStoreHost(readHost(byteBuffer));
+            // 13 RECONSUMETIMES
+            msgInner.setReconsumeTimes(byteBuffer.getInt());
+            // 14 Prepared Transaction Offset
+            byteBuffer.getLong();
+            // 15 BODY
+            int bodyLen = byteBuffer.getInt();
+            if (bodyLen > 0) {
+                byte[] body = new byte[bodyLen];
+                byteBuffer.get(body);
+                msgInner.setBody(body);
+            }
+            // 16 TOPIC
+            byte topicLen = byteBuffer.get();
+            byte[] topic = new byte[topicLen];
+            byteBuffer.get(topic);
+            msgInner.setTopic(new String(topic));
+            // 17 properties
+            short propertiesLength = byteBuffer.getShort();
+            if (propertiesLength > 0) {
+                byte[] properties = new byte[propertiesLength];
+                byteBuffer.get(properties);
+                msgInner.setProperties(MessageDecoder.string2messageProperties(new String(properties)));
+            }
+
+            msgInner.setWaitStoreMsgOK(false);
+            if (!timeup) {
+                msgInner.setTagsCode(Long.parseLong(msgInner.getProperty(Message.PROPERTY_DELIVER_TIME)));
+                msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner
+                    .getProperties()));
+                return msgInner;
+            }
+
+            msgInner.clearProperty(Message.PROPERTY_DELAY_TIME_LEVEL);
+            msgInner.clearProperty(Message.PROPERTY_DELIVER_TIME);
+
+            // ָTopic
+            msgInner.setTopic(msgInner.getProperty(Message.PROPERTY_REAL_TOPIC));
+
+            // ָQueueId
+            String queueIdStr = msgInner.getProperty(Message.PROPERTY_REAL_QUEUE_ID);
+            int queueId = Integer.parseInt(queueIdStr);
+            msgInner.setQueueId(queueId);
+
+            TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
+            long tagsCodeValue =
+                    MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
+            msgInner.setTagsCode(tagsCodeValue);
+            msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
+
+            return msgInner;
+        }
+        catch (Exception e) {
+            log.error("decode time up message exception", e);
+        }
+
+        return null;
+    }
+
+
+    private static InetSocketAddress readHost(final ByteBuffer byteBuffer) throws UnknownHostException {
+        byte[] host = new byte[4];
+        byteBuffer.get(host, 0, 4);
+        int port = byteBuffer.getInt();
+        return new InetSocketAddress(InetAddress.getByAddress(host), port);
     }
 
 
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * ʱϢʱֽȣлװ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class TimerCheckpointSerializeWrapper extends RemotingSerializable {
+    // ʱϢеӽ
+    private long enqueueOffset = 0;
+    // ʱ֮ǰĲ۶ѾͶ
+    private long dequeueTimeMs = 0;
+    // TimerLogдλ
+    private long timerLogWrotePosition = 0;
+    // Ϣʱͣŵʱ
+    private long rollHorizonMs = 0;
+
+
+    public long getEnqueueOffset() {
+        return enqueueOffset;
+    }
+
+
+    public void setEnqueueOffset(long enqueueOffset) {
+        this.enqueueOffset = enqueueOffset;
+    }
+
+
+    public long getDequeueTimeMs() {
+        return dequeueTimeMs;
+    }
+
+
+    public void setDequeueTimeMs(long dequeueTimeMs) {
+        this.dequeueTimeMs = dequeueTimeMs;
+    }
+
+
+    public long getTimerLogWrotePosition() {
+        return timerLogWrotePosition;
+    }
+
+
+    public void setTimerLogWrotePosition(long timerLogWrotePosition) {
+        this.timerLogWrotePosition = timerLogWrotePosition;
+    }
+
+
+    public long getRollHorizonMs() {
+        return rollHorizonMs;
+    }
+
+
+    public void setRollHorizonMs(long rollHorizonMs) {
+        this.rollHorizonMs = rollHorizonMs;
+    }
+}
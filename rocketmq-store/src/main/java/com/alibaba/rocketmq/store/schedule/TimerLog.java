@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.nio.ByteBuffer;
+
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.MapedFileQueue;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+
+
+/**
+ * ʱֵ洢¼˳׷<br>
+ * ÿ¼ָͬһʱһ¼λãʱֵĲֻͷ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class TimerLog {
+    // һ¼λ + Ϣλ + ϢС + Ͷʱ
+    public static final int UnitSize = 8 + 8 + 4 + 8;
+    // 
+    public static final long InvalidPos = -1;
+
+    private final MapedFileQueue mapedFileQueue;
+    private final ByteBuffer byteBufferUnit = ByteBuffer.allocate(UnitSize);
+
+
+    public TimerLog(final String storePath, final int mapedFileSize) {
+        this.mapedFileQueue = new MapedFileQueue(storePath, mapedFileSize, null);
+    }
+
+
+    public boolean load() {
+        return this.mapedFileQueue.load();
+    }
+
+
+    /**
+     * رպָصдλ֮
+     */
+    public void recover(final long wrotePosition) {
+        this.mapedFileQueue.truncateDirtyFiles(wrotePosition);
+        this.mapedFileQueue.setCommittedWhere(wrotePosition);
+    }
+
+
+    /**
+     * ׷һ¼ֻһ̵߳
+     *
+     * @return ¼λãʧܷInvalidPos
+     */
+    public long append(final long prevPos, final long commitLogOffset, final int size,
+            final long deliverTimestamp) {
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
+        if (null == mapedFile) {
+            return InvalidPos;
+        }
+
+        long pos = mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
+        this.byteBufferUnit.clear();
+        this.byteBufferUnit.putLong(prevPos);
+        this.byteBufferUnit.putLong(commitLogOffset);
+        this.byteBufferUnit.putInt(size);
+        this.byteBufferUnit.putLong(deliverTimestamp);
+        if (mapedFile.appendMessage(this.byteBufferUnit.array())) {
+            return pos;
+        }
+
+        return InvalidPos;
+    }
+
+
+    /**
+     * ȡһ¼÷Ҫͷŷؽ
+     */
+    public SelectMapedBufferResult getUnit(final long pos) {
+        MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(pos);
+        if (mapedFile != null) {
+            return mapedFile.selectMapedBuffer((int) (pos % this.mapedFileQueue.getMapedFileSize()),
+                UnitSize);
+        }
+
+        return null;
+    }
+
+
+    public long getWrotePosition() {
+        return this.mapedFileQueue.getMaxOffset();
+    }
+
+
+    public boolean commit() {
+        return this.mapedFileQueue.commit(0);
+    }
+
+
+    /**
+     * ļеļ¼ѾڣͶݻ·ʱ֣ɾ
+     */
+    public int deleteExpiredFile(final long expiredTime) {
+        return this.mapedFileQueue.deleteExpiredFileByTime(expiredTime, 100, 1000 * 120, false);
+    }
+
+
+    public void destroy() {
+        this.mapedFileQueue.destroy();
+    }
+}
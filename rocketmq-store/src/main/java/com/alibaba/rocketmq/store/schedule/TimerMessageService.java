@@ -0,0 +1,610 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * ʱ䶨ʱϢ<br>
+ * ʱϢдTIMER_TOPICУ̰߳ͶʱϢҵ־ûʱֶӦĲϣ
+ * ߳ʱƽȡϢͶ<br>
+ * ʱֻ¼ϢCommitLogеλãͶʱ䳬ͣ޵Ϣȹ޶ӦĲϣ
+ * ʱдCommitLog֣ԭϢڵCommitLogļɾʧ<br>
+ * 쳣崻ʱTimerLogȴTIMER_TOPICؽͶΪһ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class TimerMessageService extends ConfigManager {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    public static final String TIMER_TOPIC = "TIMER_TOPIC_XXXX";
+    public static final int TIMER_QUEUE_ID = 0;
+    private static final long DELAY_FOR_A_WHILE = 100L;
+    private static final long DELAY_FOR_RETRY = 1000L;
+    private static final int EnqueueOK = 0;
+    private static final int EnqueueLate = 1;
+    private static final int EnqueueRoll = 2;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final MessageStoreConfig messageStoreConfig;
+    private final TimerLog timerLog;
+    private TimerWheel timerWheel;
+    private final ExecutorService deliverExecutor;
+    private final EnqueueService enqueueService = new EnqueueService();
+    private final DequeueService dequeueService = new DequeueService();
+    private volatile boolean stoped = false;
+
+    // ʱTimerLogд
+    private final Object wheelLock = new Object();
+    // ӽȣOffset֮ǰϢѾֻͶ
+    private long enqueueOffset = 0;
+    // ߳һҪȡĲ
+    private long currReadTimeMs = 0;
+    // ʱ֮ǰĲ۶ѾͶ
+    private long dequeueTimeMs = 0;
+    // һγ־ûĽȣлʱʹ
+    private final TimerCheckpointSerializeWrapper checkpoint = new TimerCheckpointSerializeWrapper();
+    // ؽʱʱOffsetͶʱ䶼ֵϢѾͶݹ
+    private long skipBeforeOffset = 0;
+    private long skipBeforeTimeMs = 0;
+    // ϢдCommitLogʱͣŵʱ䣬ʱֿCommitLogʱһ
+    private long rollHorizonMs = 0;
+    // ؽʱʱжϢǷѾͶݻд룬ȡ崻ǰͣ޵Ľϴֵ
+    private long skipRollHorizonMs = 0;
+
+
+    public TimerMessageService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.messageStoreConfig = defaultMessageStore.getMessageStoreConfig();
+        this.timerLog =
+                new TimerLog(this.messageStoreConfig.getStorePathTimerLog(),
+                    this.messageStoreConfig.getMapedFileSizeTimerLog());
+        this.deliverExecutor =
+                Executors.newFixedThreadPool(this.messageStoreConfig.getTimerDeliverThreadPoolNums(),
+                    new ThreadFactory() {
+                        private AtomicInteger threadIndex = new AtomicInteger(0);
+
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread =
+                                    new Thread(r, "TimerDeliverThread_" + this.threadIndex.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+    }
+
+
+    public boolean load(final boolean lastExitOK) {
+        boolean result = super.load();
+        result = result && this.timerLog.load();
+        if (!result) {
+            return false;
+        }
+
+        try {
+            this.timerWheel =
+                    new TimerWheel(this.messageStoreConfig.getTimerWheelPath(),
+                        this.messageStoreConfig.getTimerWheelSlotNum(), this.messageStoreConfig
+                            .getTimerPrecisionMs());
+        }
+        catch (IOException e) {
+            log.error("load timer wheel exception", e);
+            return false;
+        }
+
+        final long precisionMs = this.messageStoreConfig.getTimerPrecisionMs();
+        final long reservedMs = 60L * 60 * 1000 * this.messageStoreConfig.getFileReservedTime();
+        this.rollHorizonMs = Math.max(precisionMs, Math.min(this.timerWheel.getSpanMs(), reservedMs / 2));
+        this.skipRollHorizonMs = Math.max(this.rollHorizonMs, this.checkpoint.getRollHorizonMs());
+
+        this.enqueueOffset = this.checkpoint.getEnqueueOffset();
+        this.dequeueTimeMs = this.checkpoint.getDequeueTimeMs();
+        if (lastExitOK) {
+            this.timerLog.recover(this.checkpoint.getTimerLogWrotePosition());
+        }
+        // 쳣崻ʱTimerLogܲӶͷʼؽ
+        else {
+            log.warn("last shutdown abnormally, rebuild timer wheel from " + TIMER_TOPIC);
+            this.timerLog.destroy();
+            this.timerWheel.reset();
+            this.skipBeforeOffset = this.enqueueOffset;
+            this.skipBeforeTimeMs = this.dequeueTimeMs;
+            this.enqueueOffset = 0;
+        }
+
+        if (this.dequeueTimeMs <= 0) {
+            this.dequeueTimeMs = this.timerWheel.alignTime(System.currentTimeMillis());
+        }
+        this.currReadTimeMs = this.dequeueTimeMs;
+
+        log.info("load timer wheel OK, enqueueOffset " + this.enqueueOffset + " dequeueTimeMs "
+                + this.dequeueTimeMs);
+        return true;
+    }
+
+
+    public void start() {
+        this.enqueueService.start();
+        this.dequeueService.start();
+    }
+
+
+    public void shutdown() {
+        this.stoped = true;
+        this.enqueueService.shutdown();
+        this.dequeueService.shutdown();
+        this.deliverExecutor.shutdown();
+
+        if (this.timerWheel != null) {
+            this.persist();
+            this.timerWheel.shutdown();
+        }
+    }
+
+
+    /**
+     * ɾTimerLogʱļҪshutdown
+     */
+    public void destroy() {
+        this.timerLog.destroy();
+        new File(this.messageStoreConfig.getTimerWheelPath()).delete();
+        new File(this.configFilePath()).delete();
+        new File(this.configFilePath() + ".bak").delete();
+    }
+
+
+    /**
+     * ˢTimerLogʱ֣дļ
+     */
+    @Override
+    public void persist() {
+        synchronized (this.wheelLock) {
+            this.checkpoint.setEnqueueOffset(this.enqueueOffset);
+            this.checkpoint.setDequeueTimeMs(this.dequeueTimeMs);
+            this.checkpoint.setTimerLogWrotePosition(this.timerLog.getWrotePosition());
+            this.checkpoint.setRollHorizonMs(this.rollHorizonMs);
+        }
+
+        this.timerLog.commit();
+        this.timerWheel.flush();
+        super.persist();
+    }
+
+
+    /**
+     * Ϣͣŵĸۣ֮ҪдCommitLog
+     *
+     * @param storeTimestamp
+     *            ϢдCommitLogʱ䣬С0ʾϢѾɾ
+     */
+    private long parkSlotTime(final long storeTimestamp, final long horizonMs) {
+        if (storeTimestamp < 0) {
+            return Long.MIN_VALUE;
+        }
+
+        return this.timerWheel.alignTime(storeTimestamp) + horizonMs
+                - this.messageStoreConfig.getTimerPrecisionMs();
+    }
+
+
+    /**
+     * ϢҵʱϣͶʱ䳬ͣ޵Ϣ޶ӦĲ
+     *
+     * @return ҵʱϷEnqueueOKͶʱڵĲѾȡEnqueueLate÷ҪֱͶݣ
+     *         ͣѹEnqueueRoll÷ҪдCommitLog
+     */
+    private int enqueue(final long offsetPy, final int sizePy, final long deliverTimestamp) {
+        final long storeTimestamp =
+                this.defaultMessageStore.getCommitLog().pickupStoretimestamp(offsetPy, sizePy);
+        synchronized (this.wheelLock) {
+            long slotTime = this.timerWheel.alignTime(deliverTimestamp);
+            long parkSlotTime = this.parkSlotTime(storeTimestamp, this.rollHorizonMs);
+            if (slotTime < this.currReadTimeMs) {
+                return EnqueueLate;
+            }
+
+            if (slotTime > parkSlotTime) {
+                if (parkSlotTime < this.currReadTimeMs) {
+                    return EnqueueRoll;
+                }
+
+                slotTime = parkSlotTime;
+            }
+
+            // ʱͣҲܳʱֿȣȹԶĲ
+            long maxSlotTime =
+                    this.currReadTimeMs + this.timerWheel.getSpanMs()
+                            - this.messageStoreConfig.getTimerPrecisionMs();
+            if (slotTime > maxSlotTime) {
+                slotTime = maxSlotTime;
+            }
+
+            TimerWheel.Slot slot = this.timerWheel.getSlot(slotTime);
+            long pos = this.timerLog.append(slot.getLastPos(), offsetPy, sizePy, deliverTimestamp);
+            if (TimerLog.InvalidPos == pos) {
+                throw new RuntimeException("append timer log failed");
+            }
+
+            this.timerWheel.putSlot(slotTime, pos, slot.getNum() + 1);
+            return EnqueueOK;
+        }
+    }
+
+
+    /**
+     * ͶݣȴȫͶɺ󷵻
+     */
+    private void deliver(final List<long[]> units) {
+        if (units.isEmpty()) {
+            return;
+        }
+
+        final int batchSize = Math.max(1, this.messageStoreConfig.getTimerDeliverBatchSize());
+        final CountDownLatch countDownLatch = new CountDownLatch((units.size() + batchSize - 1) / batchSize);
+        for (int i = 0; i < units.size(); i += batchSize) {
+            final List<long[]> batch = units.subList(i, Math.min(units.size(), i + batchSize));
+            this.deliverExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        TimerMessageService.this.deliverBatch(batch);
+                    }
+                    catch (Throwable e) {
+                        log.error("deliver timer message exception", e);
+                    }
+                    finally {
+                        countDownLatch.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            countDownLatch.await();
+        }
+        catch (InterruptedException e) {
+            log.warn("wait timer message deliver interrupted", e);
+        }
+    }
+
+
+    /**
+     * һϢдCommitLogʧܺӵһʧܵϢʼ
+     */
+    private void deliverBatch(final List<long[]> units) {
+        List<MessageExtBrokerInner> msgs = new ArrayList<MessageExtBrokerInner>(units.size());
+        for (long[] unit : units) {
+            MessageExtBrokerInner msgInner =
+                    ScheduleMessageService.messageTimeup(this.defaultMessageStore, unit[0], (int) unit[1]);
+            // ϢѾɾ
+            if (null == msgInner) {
+                log.warn("timer message not found, offset " + unit[0]);
+                continue;
+            }
+
+            msgs.add(msgInner);
+        }
+
+        this.putMessages(msgs);
+    }
+
+
+    /**
+     * ͣѹδڵϢдCommitLog̴߳TIMER_TOPICж
+     */
+    private void roll(final List<long[]> units) {
+        List<MessageExtBrokerInner> msgs = new ArrayList<MessageExtBrokerInner>(units.size());
+        for (long[] unit : units) {
+            MessageExtBrokerInner msgInner =
+                    ScheduleMessageService.messageRoll(this.defaultMessageStore, unit[0], (int) unit[1]);
+            if (null == msgInner) {
+                log.warn("timer message not found, offset " + unit[0]);
+                continue;
+            }
+
+            msgs.add(msgInner);
+        }
+
+        this.putMessages(msgs);
+    }
+
+
+    /**
+     * дCommitLogʧܺӵһʧܵϢʼ
+     */
+    private void putMessages(List<MessageExtBrokerInner> msgs) {
+        while (!msgs.isEmpty() && !this.stoped) {
+            int appended = this.defaultMessageStore.putMessages(msgs);
+            if (appended == msgs.size()) {
+                return;
+            }
+
+            log.error("timer messages reput failed, topic: {} remain {}", msgs.get(appended).getTopic(),
+                msgs.size() - appended);
+            msgs = new ArrayList<MessageExtBrokerInner>(msgs.subList(appended, msgs.size()));
+            try {
+                Thread.sleep(DELAY_FOR_RETRY);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * TIMER_TOPICжȡʱϢҵʱ
+     */
+    class EnqueueService extends ServiceThread {
+        private void doEnqueue() {
+            ConsumeQueue cq =
+                    TimerMessageService.this.defaultMessageStore.findConsumeQueue(TIMER_TOPIC,
+                        TIMER_QUEUE_ID);
+            long offset = TimerMessageService.this.enqueueOffset;
+            if (offset < cq.getMinOffsetInQuque()) {
+                offset = cq.getMinOffsetInQuque();
+            }
+
+            SelectMapedBufferResult bufferCQ = cq.getIndexBuffer(offset);
+            if (null == bufferCQ) {
+                this.waitForRunning(DELAY_FOR_A_WHILE);
+                return;
+            }
+
+            List<long[]> lateUnits = new ArrayList<long[]>();
+            List<long[]> rollUnits = new ArrayList<long[]>();
+            long nextOffset = offset;
+            try {
+                for (int i = 0; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize, nextOffset++) {
+                    long offsetPy = bufferCQ.getByteBuffer().getLong();
+                    int sizePy = bufferCQ.getByteBuffer().getInt();
+                    // 洢tagsCodeʵͶʱ
+                    long deliverTimestamp = bufferCQ.getByteBuffer().getLong();
+
+                    // ؽʱ֣崻ǰѾͶݻдϢ
+                    if (nextOffset < TimerMessageService.this.skipBeforeOffset
+                            && this.handledBeforeRebuild(offsetPy, sizePy, deliverTimestamp)) {
+                        continue;
+                    }
+
+                    switch (TimerMessageService.this.enqueue(offsetPy, sizePy, deliverTimestamp)) {
+                    case EnqueueLate:
+                        lateUnits.add(new long[] { offsetPy, sizePy });
+                        break;
+                    case EnqueueRoll:
+                        rollUnits.add(new long[] { offsetPy, sizePy });
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            }
+            finally {
+                bufferCQ.release();
+            }
+
+            // ڳӵϢֱͶݣͶɺƽӽ
+            TimerMessageService.this.deliver(lateUnits);
+            TimerMessageService.this.roll(rollUnits);
+            synchronized (TimerMessageService.this.wheelLock) {
+                TimerMessageService.this.enqueueOffset = nextOffset;
+            }
+        }
+
+
+        /**
+         * 崻ǰӽѾԽͶʱͣ޶ӦĲۣϢѾͶݻд
+         */
+        private boolean handledBeforeRebuild(final long offsetPy, final int sizePy,
+                final long deliverTimestamp) {
+            final long storeTimestamp =
+                    TimerMessageService.this.defaultMessageStore.getCommitLog().pickupStoretimestamp(offsetPy,
+                        sizePy);
+            long slotTime = TimerMessageService.this.timerWheel.alignTime(deliverTimestamp);
+            long parkSlotTime =
+                    TimerMessageService.this.parkSlotTime(storeTimestamp,
+                        TimerMessageService.this.skipRollHorizonMs);
+            return Math.min(slotTime, parkSlotTime) < TimerMessageService.this.skipBeforeTimeMs;
+        }
+
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    this.doEnqueue();
+                }
+                catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(DELAY_FOR_RETRY);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return EnqueueService.class.getSimpleName();
+        }
+    }
+
+    /**
+     * ʱƽȡʱ֣ͶݵϢ
+     */
+    class DequeueService extends ServiceThread {
+        private long lastPersistTimestamp = System.currentTimeMillis();
+
+
+        private void doDequeue() {
+            final int precisionMs = TimerMessageService.this.messageStoreConfig.getTimerPrecisionMs();
+            TimerWheel.Slot slot;
+            synchronized (TimerMessageService.this.wheelLock) {
+                // ϢȫںŶȡ֤ǰͶ
+                long countdown =
+                        TimerMessageService.this.currReadTimeMs + precisionMs - System.currentTimeMillis();
+                if (countdown > 0) {
+                    slot = null;
+                }
+                else {
+                    slot =
+                            TimerMessageService.this.timerWheel
+                                .getSlot(TimerMessageService.this.currReadTimeMs);
+                    TimerMessageService.this.currReadTimeMs += precisionMs;
+                }
+            }
+
+            if (null == slot) {
+                this.waitForRunning(DELAY_FOR_A_WHILE);
+                return;
+            }
+
+            List<long[]> dueUnits = new ArrayList<long[]>(slot.getNum());
+            List<long[]> rollUnits = new ArrayList<long[]>();
+            long pos = slot.getLastPos();
+            for (int i = 0; i < slot.getNum() && pos != TimerLog.InvalidPos; i++) {
+                SelectMapedBufferResult bufferUnit = TimerMessageService.this.timerLog.getUnit(pos);
+                if (null == bufferUnit) {
+                    log.error("timer log unit not found, pos " + pos);
+                    break;
+                }
+
+                try {
+                    long prevPos = bufferUnit.getByteBuffer().getLong();
+                    long offsetPy = bufferUnit.getByteBuffer().getLong();
+                    int sizePy = bufferUnit.getByteBuffer().getInt();
+                    long deliverTimestamp = bufferUnit.getByteBuffer().getLong();
+
+                    // ͣϢδ֣ͣдCommitLog
+                    if (deliverTimestamp >= slot.getTimeMs() + precisionMs) {
+                        int result = TimerMessageService.this.enqueue(offsetPy, sizePy, deliverTimestamp);
+                        if (EnqueueRoll == result) {
+                            rollUnits.add(new long[] { offsetPy, sizePy });
+                        }
+                    }
+                    else {
+                        dueUnits.add(new long[] { offsetPy, sizePy });
+                    }
+
+                    pos = prevPos;
+                }
+                finally {
+                    bufferUnit.release();
+                }
+            }
+
+            TimerMessageService.this.deliver(dueUnits);
+            TimerMessageService.this.roll(rollUnits);
+            synchronized (TimerMessageService.this.wheelLock) {
+                TimerMessageService.this.dequeueTimeMs = slot.getTimeMs() + precisionMs;
+            }
+
+            final long persistInterval =
+                    TimerMessageService.this.messageStoreConfig.getFlushDelayOffsetInterval();
+            if (System.currentTimeMillis() - this.lastPersistTimestamp >= persistInterval) {
+                this.lastPersistTimestamp = System.currentTimeMillis();
+                TimerMessageService.this.persist();
+
+                // ļд󾭹һʱֿȣеļ¼Ѿ
+                long lag = System.currentTimeMillis() - TimerMessageService.this.dequeueTimeMs;
+                long spanMs = TimerMessageService.this.timerWheel.getSpanMs();
+                TimerMessageService.this.timerLog.deleteExpiredFile(spanMs + Math.max(0, lag) + precisionMs);
+            }
+        }
+
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    this.doDequeue();
+                }
+                catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(DELAY_FOR_RETRY);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return DequeueService.class.getSimpleName();
+        }
+    }
+
+
+    public String encode() {
+        return this.encode(false);
+    }
+
+
+    public String encode(final boolean prettyFormat) {
+        return this.checkpoint.toJson(prettyFormat);
+    }
+
+
+    @Override
+    public void decode(String jsonString) {
+        if (jsonString != null) {
+            TimerCheckpointSerializeWrapper wrapper =
+                    TimerCheckpointSerializeWrapper.fromJson(jsonString,
+                        TimerCheckpointSerializeWrapper.class);
+            if (wrapper != null) {
+                this.checkpoint.setEnqueueOffset(wrapper.getEnqueueOffset());
+                this.checkpoint.setDequeueTimeMs(wrapper.getDequeueTimeMs());
+                this.checkpoint.setTimerLogWrotePosition(wrapper.getTimerLogWrotePosition());
+                this.checkpoint.setRollHorizonMs(wrapper.getRollHorizonMs());
+            }
+        }
+    }
+
+
+    @Override
+    public String configFilePath() {
+        return this.messageStoreConfig.getTimerCheckpointPath();
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+
+
+/**
+ * ־ûʱ֣ÿ۶Ӧһʱ侫ȣʱȡģѭʹ<br>
+ * м¼ʱ䣬ʱ䲻һ˵һµݣΪղ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-7-21
+ */
+public class TimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // ۶Ӧʱ + ͷTimerLogеλ + Ϣ
+    public static final int SlotSize = 8 + 8 + 4;
+
+    private final int slotNum;
+    private final int precisionMs;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedByteBuffer;
+
+    public static class Slot {
+        private final long timeMs;
+        private final long lastPos;
+        private final int num;
+
+
+        public Slot(long timeMs, long lastPos, int num) {
+            this.timeMs = timeMs;
+            this.lastPos = lastPos;
+            this.num = num;
+        }
+
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+
+        public long getLastPos() {
+            return lastPos;
+        }
+
+
+        public int getNum() {
+            return num;
+        }
+    }
+
+
+    public TimerWheel(final String fileName, final int slotNum, final int precisionMs) throws IOException {
+        this.slotNum = slotNum;
+        this.precisionMs = precisionMs;
+
+        File file = new File(fileName);
+        MapedFile.ensureDirOK(file.getParent());
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = this.fileChannel.map(MapMode.READ_WRITE, 0, (long) slotNum * SlotSize);
+    }
+
+
+    /**
+     * ¶
+     */
+    public long alignTime(final long timeMs) {
+        return timeMs - timeMs % this.precisionMs;
+    }
+
+
+    /**
+     * ʱֱܹɵʱ
+     */
+    public long getSpanMs() {
+        return (long) this.slotNum * this.precisionMs;
+    }
+
+
+    public Slot getSlot(final long timeMs) {
+        final long slotTime = this.alignTime(timeMs);
+        final int pos = this.slotPosition(slotTime);
+        if (this.mappedByteBuffer.getLong(pos) != slotTime) {
+            return new Slot(slotTime, TimerLog.InvalidPos, 0);
+        }
+
+        return new Slot(slotTime, this.mappedByteBuffer.getLong(pos + 8),
+            this.mappedByteBuffer.getInt(pos + 16));
+    }
+
+
+    public void putSlot(final long timeMs, final long lastPos, final int num) {
+        final long slotTime = this.alignTime(timeMs);
+        final int pos = this.slotPosition(slotTime);
+        this.mappedByteBuffer.putLong(pos, slotTime);
+        this.mappedByteBuffer.putLong(pos + 8, lastPos);
+        this.mappedByteBuffer.putInt(pos + 16, num);
+    }
+
+
+    /**
+     * вۣؽʱʱ
+     */
+    public void reset() {
+        for (int i = 0; i < this.slotNum; i++) {
+            this.mappedByteBuffer.putLong(i * SlotSize, 0);
+        }
+
+        log.info("reset timer wheel, slot num " + this.slotNum);
+    }
+
+
+    public void flush() {
+        this.mappedByteBuffer.force();
+    }
+
+
+    public void shutdown() {
+        this.flush();
+
+        try {
+            this.fileChannel.close();
+        }
+        catch (IOException e) {
+            log.error("close timer wheel exception", e);
+        }
+    }
+
+
+    private int slotPosition(final long slotTime) {
+        return (int) ((slotTime / this.precisionMs) % this.slotNum) * SlotSize;
+    }
+}
@@ -0,0 +1,97 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.store.config.FlushDiskType;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class AllocateMapedFileServiceTest {
+    private static final int FileSize = 1024 * 1024;
+    private static final int FlushLeastPages = 16;
+
+    private final File storeDir = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "AllocateMapedFileServiceTest_" + System.nanoTime());
+    private MessageStoreConfig messageStoreConfig;
+    private AllocateMapedFileService allocateMapedFileService;
+    private MapedFile mapedFile;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.storeDir.mkdirs();
+        this.messageStoreConfig = new MessageStoreConfig();
+        this.messageStoreConfig.setWarmMapedFileEnable(true);
+        this.messageStoreConfig.setWarmMapedFileFlushLeastPages(FlushLeastPages);
+        this.allocateMapedFileService = new AllocateMapedFileService(this.messageStoreConfig);
+        this.mapedFile = new MapedFile(new File(this.storeDir, "00000000000000000000").getPath(), FileSize);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.mapedFile != null) {
+            this.mapedFile.destroy(0);
+        }
+        File[] files = this.storeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.storeDir.delete();
+    }
+
+
+    private AllocateMapedFileService.AllocateRequest newRequest() {
+        return this.allocateMapedFileService.new AllocateRequest(this.mapedFile.getFileName(), FileSize);
+    }
+
+
+    private String progress() {
+        return this.allocateMapedFileService.getRuntimeInfo().get("warmMapedFileProgress");
+    }
+
+
+    @Test
+    public void test_warm_every_page() throws Exception {
+        // ÿpageд벻ֵͬԤֻдԭֵ
+        MappedByteBuffer byteBuffer = this.mapedFile.getMappedByteBuffer();
+        for (int position = 0; position < FileSize; position += MapedFile.OS_PAGE_SIZE) {
+            byteBuffer.put(position, (byte) (position / MapedFile.OS_PAGE_SIZE));
+        }
+
+        // ͬˢʱforceҲҪļ
+        this.messageStoreConfig.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+        this.allocateMapedFileService.warmMapedFile(this.newRequest(), this.mapedFile);
+
+        assertEquals(this.mapedFile.getFileName() + " " + FileSize + "/" + FileSize, this.progress());
+        assertEquals("1", this.allocateMapedFileService.getRuntimeInfo().get("warmMapedFileCount"));
+        for (int position = 0; position < FileSize; position += MapedFile.OS_PAGE_SIZE) {
+            assertEquals((byte) (position / MapedFile.OS_PAGE_SIZE), byteBuffer.get(position));
+        }
+    }
+
+
+    @Test
+    public void test_stop_when_waiting() throws Exception {
+        // Ѿ߳ڵȴļһpageԤͽ
+        AllocateMapedFileService.AllocateRequest req = this.newRequest();
+        req.setWaiting(true);
+        this.allocateMapedFileService.warmMapedFile(req, this.mapedFile);
+
+        int warmed = FlushLeastPages * MapedFile.OS_PAGE_SIZE;
+        assertEquals(this.mapedFile.getFileName() + " " + warmed + "/" + FileSize, this.progress());
+        assertEquals("1", this.allocateMapedFileService.getRuntimeInfo().get("warmMapedFileCount"));
+    }
+}
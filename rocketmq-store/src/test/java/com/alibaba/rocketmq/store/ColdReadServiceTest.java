@@ -0,0 +1,258 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ColdReadServiceTest {
+    private static final String Topic = "ColdReadServiceTest";
+    private static final int MessageNums = 50;
+    // СΪ֮
+    private static final int MaxMessageSize = 1024 * 4;
+    private static final int MaxTransferBytesOnMessageInDisk = 1024 * 4;
+
+    private final File storeRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "ColdReadServiceTest_" + System.nanoTime());
+    private DefaultMessageStore messageStore;
+    // ÿϢ{offsetPy, sizePy}
+    private final List<long[]> messages = new ArrayList<long[]>();
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.messageStore != null) {
+            this.messageStore.shutdown();
+            this.messageStore.destroy();
+        }
+        deleteDir(this.storeRoot);
+    }
+
+
+    private void startStore(final int coldReadBufferNums) throws Exception {
+        String root = this.storeRoot.getPath();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(root + File.separator + "commitlog");
+        messageStoreConfig.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        messageStoreConfig.setStorePathIndex(root + File.separator + "index");
+        messageStoreConfig.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        messageStoreConfig.setAbortFile(root + File.separator + "storeAbort");
+        messageStoreConfig.setTranStateTableStorePath(root + File.separator + "transaction"
+                + File.separator + "statetable");
+        messageStoreConfig.setTranRedoLogStorePath(root + File.separator + "transaction" + File.separator
+                + "redolog");
+        messageStoreConfig.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        messageStoreConfig.setStorePathTimerLog(root + File.separator + "timerlog");
+        messageStoreConfig.setTimerWheelPath(root + File.separator + "timerwheel");
+        messageStoreConfig.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        messageStoreConfig.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        messageStoreConfig.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setMaxMessageSize(MaxMessageSize);
+        messageStoreConfig.setMaxTransferBytesOnMessageInDisk(MaxTransferBytesOnMessageInDisk);
+        // дλ⣬Ϣڴ̴
+        messageStoreConfig.setAccessMessageInMemoryMaxRatio(0);
+        messageStoreConfig.setColdReadEnable(true);
+        messageStoreConfig.setColdReadBufferNums(coldReadBufferNums);
+        messageStoreConfig.setHaListenPort(10930);
+
+        this.messageStore = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(this.messageStore.load());
+        this.messageStore.start();
+
+        InetSocketAddress host = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+        for (int i = 0; i < MessageNums; i++) {
+            byte[] body = new byte[1024 + i];
+            for (int k = 0; k < body.length; k++) {
+                body[k] = (byte) (i + k);
+            }
+
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic(Topic);
+            msg.setBody(body);
+            msg.setQueueId(0);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(host);
+            msg.setBornHost(host);
+            PutMessageResult result = this.messageStore.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            this.messages.add(new long[] { result.getAppendMessageResult().getWroteOffset(),
+                                          result.getAppendMessageResult().getWroteBytes() });
+        }
+
+        long deadline = System.currentTimeMillis() + 1000 * 10;
+        while (this.messageStore.getMaxOffsetInQuque(Topic, 0) < MessageNums
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(MessageNums, this.messageStore.getMaxOffsetInQuque(Topic, 0));
+    }
+
+
+    /**
+     * ͨmmapȡϢ
+     */
+    private byte[] readByMmap(final long[] message) {
+        SelectMapedBufferResult result =
+                this.messageStore.getCommitLog().getMessage(message[0], (int) message[1]);
+        assertNotNull(result);
+        try {
+            return read(result.getByteBuffer());
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    private static byte[] read(final ByteBuffer byteBuffer) {
+        byte[] data = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(data);
+        return data;
+    }
+
+
+    private static void release(final List<SelectMapedBufferResult> results) {
+        for (SelectMapedBufferResult result : results) {
+            result.release();
+        }
+    }
+
+
+    @Test
+    public void test_read_messages_and_return_buffer() throws Exception {
+        this.startStore(2);
+        ColdReadService service = new ColdReadService(this.messageStore);
+
+        List<SelectMapedBufferResult> results = service.readMessages(this.messages.subList(0, 5));
+        assertEquals(5, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(this.messages.get(i)[0], results.get(i).getStartOffset());
+            assertArrayEquals(this.readByMmap(this.messages.get(i)), read(results.get(i).getByteBuffer()));
+        }
+        assertEquals("1", service.getRuntimeInfo().get("coldReadBufferIdle"));
+
+        // ͬһϢȫͷźŹ黹
+        release(results.subList(0, 4));
+        assertEquals("1", service.getRuntimeInfo().get("coldReadBufferIdle"));
+        results.get(4).release();
+        assertEquals("2", service.getRuntimeInfo().get("coldReadBufferIdle"));
+        assertEquals("1", service.getRuntimeInfo().get("coldReadTimes"));
+        assertEquals("0", service.getRuntimeInfo().get("coldReadFallbackTimes"));
+    }
+
+
+    @Test
+    public void test_read_stops_when_buffer_full() throws Exception {
+        this.startStore(1);
+        ColdReadService service = new ColdReadService(this.messageStore);
+
+        // ŲµϢ÷ͨmmapȡ
+        int expected = 0;
+        int bufferSize = MaxMessageSize + MaxTransferBytesOnMessageInDisk;
+        for (long[] message : this.messages.subList(0, 10)) {
+            bufferSize -= message[1];
+            if (bufferSize < 0) {
+                break;
+            }
+            expected++;
+        }
+        assertTrue(expected > 0 && expected < 10);
+
+        List<SelectMapedBufferResult> results = service.readMessages(this.messages.subList(0, 10));
+        assertEquals(expected, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertArrayEquals(this.readByMmap(this.messages.get(i)), read(results.get(i).getByteBuffer()));
+        }
+        release(results);
+        assertEquals("1", service.getRuntimeInfo().get("coldReadBufferIdle"));
+    }
+
+
+    @Test
+    public void test_fallback_when_pool_empty() throws Exception {
+        this.startStore(1);
+        ColdReadService service = new ColdReadService(this.messageStore);
+
+        List<SelectMapedBufferResult> first = service.readMessages(this.messages.subList(0, 2));
+        assertEquals(2, first.size());
+        assertEquals("0", service.getRuntimeInfo().get("coldReadBufferIdle"));
+
+        // þȴɵ÷˻mmapȡ
+        assertNull(service.readMessages(this.messages.subList(2, 4)));
+        assertEquals("1", service.getRuntimeInfo().get("coldReadFallbackTimes"));
+        assertEquals("1", service.getRuntimeInfo().get("coldReadTimes"));
+
+        release(first);
+        List<SelectMapedBufferResult> second = service.readMessages(this.messages.subList(2, 4));
+        assertEquals(2, second.size());
+        assertArrayEquals(this.readByMmap(this.messages.get(2)), read(second.get(0).getByteBuffer()));
+        release(second);
+        assertEquals("2", service.getRuntimeInfo().get("coldReadTimes"));
+    }
+
+
+    @Test
+    public void test_get_message_falls_back_to_mmap() throws Exception {
+        this.startStore(1);
+
+        // һȡռΨһĻ
+        GetMessageResult first = this.messageStore.getMessage(Topic, 0, 0, 32, null);
+        assertEquals(GetMessageStatus.FOUND, first.getStatus());
+        assertTrue(first.getMessageCount() > 1);
+        assertEquals("1", this.messageStore.getRuntimeInfo().get("coldReadTimes"));
+
+        // ռʱ˻mmapȡһ
+        GetMessageResult second = this.messageStore.getMessage(Topic, 0, 0, 32, null);
+        assertEquals(GetMessageStatus.FOUND, second.getStatus());
+        assertEquals("1", this.messageStore.getRuntimeInfo().get("coldReadFallbackTimes"));
+        assertEquals(first.getMessageCount(), second.getMessageCount());
+        assertEquals(first.getNextBeginOffset(), second.getNextBeginOffset());
+        for (int i = 0; i < first.getMessageCount(); i++) {
+            assertArrayEquals(read(first.getMessageBufferList().get(i)),
+                read(second.getMessageBufferList().get(i)));
+            assertArrayEquals(this.readByMmap(this.messages.get(i)),
+                read(second.getMessageBufferList().get(i)));
+        }
+
+        first.release();
+        second.release();
+        assertEquals("1", this.messageStore.getRuntimeInfo().get("coldReadBufferIdle"));
+
+        GetMessageResult third = this.messageStore.getMessage(Topic, 0, first.getNextBeginOffset(), 32, null);
+        assertEquals(GetMessageStatus.FOUND, third.getStatus());
+        assertEquals("2", this.messageStore.getRuntimeInfo().get("coldReadTimes"));
+        third.release();
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
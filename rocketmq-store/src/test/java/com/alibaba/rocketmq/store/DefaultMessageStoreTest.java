@@ -1,5 +1,8 @@
 package com.alibaba.rocketmq.store;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.net.InetAddress;
@@ -11,6 +14,8 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 
@@ -171,4 +176,41 @@ public class DefaultMessageStoreTest {
         master.destroy();
         System.out.println("================================================================");
     }
+
+
+    /**
+     * Brokerûעѹ㷨ƫѯϢʱԭѹϢ
+     */
+    @Test
+    public void test_look_message_keeps_compressed_body() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+
+        MessageStore master = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(master.load());
+        master.start();
+
+        // 㷨1ûעᣬѹһʧ
+        byte[] compressedBody = new byte[] { 0x04, 0x22, 0x4d, 0x18, 0x64, 0x40, (byte) 0xa7 };
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setBody(compressedBody);
+        int sysFlag = MessageSysFlag.resetCompressionType(MessageSysFlag.CompressedFlag, 1);
+        msg.setSysFlag(sysFlag);
+        PutMessageResult result = master.putMessage(msg);
+        assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+
+        MessageExt msgExt = master.lookMessageByOffset(result.getAppendMessageResult().getWroteOffset());
+        assertNotNull(msgExt);
+        assertEquals(sysFlag, msgExt.getSysFlag());
+        assertArrayEquals(compressedBody, msgExt.getBody());
+
+        master.shutdown();
+        master.destroy();
+    }
 }
@@ -0,0 +1,190 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.UtilALl;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class FileDeleteThrottleTest {
+    private static final int MB = 1024 * 1024;
+
+    private final File storeDir = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "FileDeleteThrottleTest_" + System.nanoTime());
+
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = this.storeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.storeDir.delete();
+    }
+
+
+    private File createFile(final String name, final long size) throws Exception {
+        this.storeDir.mkdirs();
+        File file = new File(this.storeDir, name);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+        return file;
+    }
+
+
+    @Test
+    public void test_truncate_in_chunks_from_tail() throws Exception {
+        final File file = this.createFile("chunked", MB * 5 / 2);
+        // ضϴС1Mʱ1Mضϣÿ2Mÿ֮䶼еȴ
+        FileDeleteThrottle throttle = new FileDeleteThrottle(1024, MB * 2);
+
+        final Set<Long> sizes = new TreeSet<Long>();
+        final boolean[] stop = { false };
+        Thread sampler = new Thread() {
+            @Override
+            public void run() {
+                while (!stop[0]) {
+                    synchronized (sizes) {
+                        sizes.add(file.length());
+                    }
+                    try {
+                        Thread.sleep(5);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        sampler.start();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            throttle.truncate(randomAccessFile.getChannel());
+            assertEquals(0, randomAccessFile.getChannel().size());
+        }
+        finally {
+            randomAccessFile.close();
+            stop[0] = true;
+            sampler.join();
+        }
+
+        // βÿνض1Mмֻ⼸ִС
+        synchronized (sizes) {
+            assertTrue(sizes.toString(), sizes.contains((long) MB * 3 / 2));
+            assertTrue(sizes.toString(), sizes.contains((long) MB / 2));
+            for (long size : sizes) {
+                assertTrue(sizes.toString(), size == 0 || size % MB == MB / 2);
+            }
+        }
+    }
+
+
+    @Test
+    public void test_rate_pacing() throws Exception {
+        // ʱȴ
+        FileDeleteThrottle unlimited = new FileDeleteThrottle(MB, 0);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(this.createFile("unlimited", MB * 4), "rw");
+        try {
+            assertEquals(0, unlimited.truncate(randomAccessFile.getChannel()));
+        }
+        finally {
+            randomAccessFile.close();
+        }
+
+        // ÿ4Mɾ3MҪԼ750ms
+        FileDeleteThrottle throttle = new FileDeleteThrottle(MB, MB * 4);
+        long beginTime = System.currentTimeMillis();
+        randomAccessFile = new RandomAccessFile(this.createFile("a", MB * 3), "rw");
+        long waitTime;
+        try {
+            waitTime = throttle.truncate(randomAccessFile.getChannel());
+        }
+        finally {
+            randomAccessFile.close();
+        }
+        long eclipseTime = UtilALl.computeEclipseTimeMilliseconds(beginTime);
+        assertTrue("wait " + waitTime, waitTime >= 500 && waitTime <= 800);
+        assertTrue("eclipse " + eclipseTime, eclipseTime >= 740);
+
+        // ɾһļڼۼƣᳬ
+        randomAccessFile = new RandomAccessFile(this.createFile("b", MB * 2), "rw");
+        try {
+            waitTime = throttle.truncate(randomAccessFile.getChannel());
+        }
+        finally {
+            randomAccessFile.close();
+        }
+        eclipseTime = UtilALl.computeEclipseTimeMilliseconds(beginTime);
+        assertTrue("wait " + waitTime, waitTime >= 400);
+        assertTrue("eclipse " + eclipseTime, eclipseTime >= 1240);
+
+        // г1¿ʼ㴰ڣʱ䲻ֿܵ
+        Thread.sleep(1200);
+        randomAccessFile = new RandomAccessFile(this.createFile("c", MB * 2), "rw");
+        try {
+            waitTime = throttle.truncate(randomAccessFile.getChannel());
+        }
+        finally {
+            randomAccessFile.close();
+        }
+        assertTrue("wait " + waitTime, waitTime >= 400 && waitTime <= 600);
+        assertEquals(String.valueOf(0), unlimited.getRuntimeInfo().get("deleteFileThrottleTimeTotal"));
+    }
+
+
+    @Test
+    public void test_delete_batch_max_per_pass() throws Exception {
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(this.storeDir.getPath(), MB, null);
+        for (int i = 0; i < 6; i++) {
+            MapedFile mapedFile = mapedFileQueue.getLastMapedFile();
+            mapedFile.setWrotePostion(MB);
+            mapedFile.setCommittedPosition(MB);
+        }
+        assertEquals(6, mapedFileQueue.getMapedFiles().size());
+
+        FileDeleteThrottle throttle = new FileDeleteThrottle(MB, 0);
+        try {
+            // ÿɾ2ļ
+            assertEquals(2, mapedFileQueue.deleteExpiredFileByTime(0, 0, 1000, true, 2, throttle));
+            assertEquals(4, mapedFileQueue.getMapedFiles().size());
+            assertEquals(MB * 2, mapedFileQueue.getMinOffset());
+            assertFalse(new File(this.storeDir, UtilALl.offset2FileName(0)).exists());
+            assertFalse(new File(this.storeDir, UtilALl.offset2FileName(MB)).exists());
+            assertTrue(new File(this.storeDir, UtilALl.offset2FileName(MB * 2)).exists());
+            assertEquals("2", throttle.getRuntimeInfo().get("deleteFileTimes"));
+            assertEquals(String.valueOf(MB * 2), throttle.getRuntimeInfo().get("deleteFileBytes"));
+
+            assertEquals(2, mapedFileQueue.deleteExpiredFileByTime(0, 0, 1000, true, 2, throttle));
+            // һļд״̬ᱻɾ
+            assertEquals(1, mapedFileQueue.deleteExpiredFileByTime(0, 0, 1000, true, 2, throttle));
+            assertEquals(0, mapedFileQueue.deleteExpiredFileByTime(0, 0, 1000, true, 2, throttle));
+            assertEquals(1, mapedFileQueue.getMapedFiles().size());
+            assertEquals(MB * 5, mapedFileQueue.getMinOffset());
+            assertEquals("5", throttle.getRuntimeInfo().get("deleteFileTimes"));
+        }
+        finally {
+            mapedFileQueue.shutdown(1000);
+            mapedFileQueue.destroy();
+        }
+    }
+}
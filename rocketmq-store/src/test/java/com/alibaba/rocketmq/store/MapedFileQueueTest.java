@@ -5,14 +5,28 @@ package com.alibaba.rocketmq.store;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.alibaba.rocketmq.common.UtilALl;
+
 
 public class MapedFileQueueTest {
 
@@ -203,4 +217,402 @@ public class MapedFileQueueTest {
         System.out.println("MapedFileQueue.getMapedMemorySize() OK");
     }
 
+
+    /**
+     * СΪsizeļȫΪfill
+     */
+    private static File createFile(final String dir, final String name, final int size, final byte fill)
+            throws IOException {
+        MapedFile.ensureDirOK(dir);
+        File file = new File(dir, name);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            byte[] data = new byte[size];
+            Arrays.fill(data, fill);
+            randomAccessFile.write(data);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+        return file;
+    }
+
+
+    private static byte readFirstByte(final MapedFileQueue mapedFileQueue, final long offset) {
+        MapedFile mapedFile = mapedFileQueue.findMapedFileByOffset(offset);
+        SelectMapedBufferResult result =
+                mapedFile.selectMapedBuffer((int) (offset - mapedFile.getFileFromOffset()), 1);
+        try {
+            return result.getByteBuffer().get();
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+
+
+    @Test
+    public void test_load_same_file_in_both_tiers() throws Exception {
+        String primary = "./unit_test_store/e/primary";
+        String tiered = "./unit_test_store/e/tiered";
+        createFile(tiered, UtilALl.offset2FileName(0), 1024, (byte) 'T');
+        // Ǩɵԭļûɾʱ崻Ŀ¼ж1024
+        File tieredCopy = createFile(tiered, UtilALl.offset2FileName(1024), 1024, (byte) 'T');
+        createFile(primary, UtilALl.offset2FileName(1024), 1024, (byte) 'P');
+        createFile(primary, UtilALl.offset2FileName(2048), 1024, (byte) 'P');
+
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(primary, tiered, 1024, null);
+        try {
+            assertTrue(mapedFileQueue.load());
+            assertEquals(3, mapedFileQueue.getMapedFiles().size());
+            assertFalse(tieredCopy.exists());
+
+            // 洢Ŀ¼еļΪ׼֮Ǩ
+            assertTrue(mapedFileQueue.isTieredFile(mapedFileQueue.getMapedFiles().get(0)));
+            assertFalse(mapedFileQueue.isTieredFile(mapedFileQueue.getMapedFiles().get(1)));
+            assertFalse(mapedFileQueue.isTieredFile(mapedFileQueue.getMapedFiles().get(2)));
+            assertEquals('T', readFirstByte(mapedFileQueue, 0));
+            assertEquals('P', readFirstByte(mapedFileQueue, 1024));
+            assertEquals('P', readFirstByte(mapedFileQueue, 2048 + 100));
+            assertEquals(0, mapedFileQueue.getMinOffset());
+            assertEquals(3072, mapedFileQueue.getMaxOffset());
+        }
+        finally {
+            mapedFileQueue.shutdown(1000);
+            mapedFileQueue.destroy();
+            deleteDir(new File("./unit_test_store/e"));
+        }
+    }
+
+
+    @Test
+    public void test_load_leftover_tiering_file() throws Exception {
+        String primary = "./unit_test_store/f/primary";
+        String tiered = "./unit_test_store/f/tiered";
+        createFile(tiered, UtilALl.offset2FileName(0), 1024, (byte) 'T');
+        // Ƶһʱ崻
+        File tmpFile =
+                createFile(tiered, UtilALl.offset2FileName(1024) + MapedFileQueue.TieredTmpFileSuffix, 100,
+                    (byte) 'T');
+        createFile(primary, UtilALl.offset2FileName(1024), 1024, (byte) 'P');
+
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(primary, tiered, 1024, null);
+        try {
+            assertTrue(mapedFileQueue.load());
+            assertFalse(tmpFile.exists());
+            assertEquals(2, mapedFileQueue.getMapedFiles().size());
+            assertEquals('T', readFirstByte(mapedFileQueue, 0));
+            assertEquals('P', readFirstByte(mapedFileQueue, 1024));
+        }
+        finally {
+            mapedFileQueue.shutdown(1000);
+            mapedFileQueue.destroy();
+            deleteDir(new File("./unit_test_store/f"));
+        }
+    }
+
+
+    /**
+     * dirдfileNumsļiļȫΪi
+     */
+    private static MapedFileQueue loadQueue(final String dir, final long fromOffset, final int fileNums)
+            throws IOException {
+        for (int i = 0; i < fileNums; i++) {
+            long offset = fromOffset + i * 1024;
+            createFile(dir, UtilALl.offset2FileName(offset), 1024, (byte) (offset / 1024));
+        }
+
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(dir, 1024, null);
+        assertTrue(mapedFileQueue.load());
+        return mapedFileQueue;
+    }
+
+
+    /**
+     * ͣذOffsetļȡҵļOffsetݱڸļ
+     */
+    static class LookupChecker extends Thread {
+        private final MapedFileQueue mapedFileQueue;
+        private final long maxOffset;
+        private final AtomicReference<String> error;
+        private final AtomicLong lookupTimes = new AtomicLong(0);
+        private volatile boolean stoped = false;
+
+
+        LookupChecker(final MapedFileQueue mapedFileQueue, final long maxOffset,
+                final AtomicReference<String> error) {
+            this.mapedFileQueue = mapedFileQueue;
+            this.maxOffset = maxOffset;
+            this.error = error;
+        }
+
+
+        @Override
+        public void run() {
+            Random random = new Random();
+            while (!this.stoped && null == this.error.get()) {
+                long offset = (long) (random.nextDouble() * this.maxOffset);
+                MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(offset);
+                this.lookupTimes.incrementAndGet();
+                if (null == mapedFile) {
+                    continue;
+                }
+
+                if (mapedFile.getFileFromOffset() != offset - offset % 1024) {
+                    this.error.compareAndSet(null, "offset " + offset + " found " + mapedFile.getFileName());
+                    return;
+                }
+
+                // ļڱɾʱȡʧ
+                SelectMapedBufferResult result = mapedFile.selectMapedBuffer((int) (offset % 1024), 1);
+                if (result != null) {
+                    byte data = result.getByteBuffer().get();
+                    result.release();
+                    if (data != (byte) (offset / 1024)) {
+                        this.error.compareAndSet(null, "offset " + offset + " read " + data);
+                        return;
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * ٲɴ֮ٿʼ޸Ķ
+         */
+        void waitLookups(final long times) throws InterruptedException {
+            long target = this.lookupTimes.get() + times;
+            while (this.lookupTimes.get() < target && null == this.error.get()) {
+                Thread.sleep(1);
+            }
+        }
+
+
+        void shutdown() throws InterruptedException {
+            this.stoped = true;
+            this.join();
+        }
+    }
+
+
+    private static List<LookupChecker> startCheckers(final MapedFileQueue mapedFileQueue,
+            final long maxOffset, final AtomicReference<String> error) {
+        List<LookupChecker> checkers = new ArrayList<LookupChecker>();
+        for (int i = 0; i < 4; i++) {
+            LookupChecker checker = new LookupChecker(mapedFileQueue, maxOffset, error);
+            checker.start();
+            checkers.add(checker);
+        }
+        return checkers;
+    }
+
+
+    private static void stopCheckers(final List<LookupChecker> checkers) throws InterruptedException {
+        for (LookupChecker checker : checkers) {
+            checker.shutdown();
+        }
+    }
+
+
+    @Test
+    public void test_findMapedFileByOffset_returnFirstOnNotFound() throws Exception {
+        MapedFileQueue mapedFileQueue = loadQueue("./unit_test_store/g", 1024 * 4, 4);
+        try {
+            MapedFile first = mapedFileQueue.getFirstMapedFileOnLock();
+            assertEquals(1024 * 4, first.getFileFromOffset());
+            assertEquals(1024 * 6, mapedFileQueue.findMapedFileByOffset(1024 * 6 + 1023).getFileFromOffset());
+
+            // ڵһļ߳һļ
+            assertNull(mapedFileQueue.findMapedFileByOffset(100));
+            assertNull(mapedFileQueue.findMapedFileByOffset(1024 * 8));
+            assertSame(first, mapedFileQueue.findMapedFileByOffset(100, true));
+            assertSame(first, mapedFileQueue.findMapedFileByOffset(1024 * 8, true));
+            assertSame(first, mapedFileQueue.findMapedFileByOffset(1024 * 100, true));
+        }
+        finally {
+            mapedFileQueue.shutdown(1000);
+            mapedFileQueue.destroy();
+            deleteDir(new File("./unit_test_store/g"));
+        }
+
+        // ն
+        MapedFileQueue emptyQueue = new MapedFileQueue("./unit_test_store/g", 1024, null);
+        assertTrue(emptyQueue.load());
+        assertNull(emptyQueue.findMapedFileByOffset(0, true));
+        assertNull(emptyQueue.getLastMapedFile2());
+        assertEquals(0, emptyQueue.howMuchFallBehind());
+    }
+
+
+    @Test
+    public void test_lookup_racing_deleteExpiredFile() throws Exception {
+        MapedFileQueue mapedFileQueue = loadQueue("./unit_test_store/h", 0, 16);
+        AtomicReference<String> error = new AtomicReference<String>();
+        List<LookupChecker> checkers = startCheckers(mapedFileQueue, 1024 * 16, error);
+        try {
+            // ͷɾеļɾʧܣ´
+            while (mapedFileQueue.getMapedFiles().size() > 1 && null == error.get()) {
+                checkers.get(0).waitLookups(100);
+                mapedFileQueue.deleteExpiredFileByTime(0, 0, 1000 * 60, true, 1, null);
+            }
+
+            stopCheckers(checkers);
+            assertNull(error.get());
+            assertEquals(1024 * 15, mapedFileQueue.getMinOffset());
+            assertNull(mapedFileQueue.findMapedFileByOffset(100));
+        }
+        finally {
+            stopCheckers(checkers);
+            mapedFileQueue.shutdown(1000);
+            mapedFileQueue.destroy();
+            deleteDir(new File("./unit_test_store/h"));
+        }
+    }
+
+
+    @Test
+    public void test_lookup_racing_truncateDirtyFiles() throws Exception {
+        MapedFileQueue mapedFileQueue = loadQueue("./unit_test_store/i", 0, 16);
+        AtomicReference<String> error = new AtomicReference<String>();
+        List<LookupChecker> checkers = startCheckers(mapedFileQueue, 1024 * 16, error);
+        try {
+            for (int files = 15; files >= 8 && null == error.get(); files--) {
+                checkers.get(0).waitLookups(100);
+                mapedFileQueue.truncateDirtyFiles(1024 * files - 100);
+            }
+
+            stopCheckers(checkers);
+            assertNull(error.get());
+            assertEquals(8, mapedFileQueue.getMapedFiles().size());
+            assertEquals(1024 * 8 - 100, mapedFileQueue.getMaxOffset());
+            assertSame(mapedFileQueue.getMapedFiles().get(7), mapedFileQueue.getLastMapedFile2());
+            assertNull(mapedFileQueue.findMapedFileByOffset(1024 * 8));
+        }
+        finally {
+            stopCheckers(checkers);
+            mapedFileQueue.shutdown(1000);
+            mapedFileQueue.destroy();
+            deleteDir(new File("./unit_test_store/i"));
+        }
+    }
+
+
+    @Test
+    public void test_lookup_racing_replace_and_remove() throws Exception {
+        String dir = "./unit_test_store/j";
+        MapedFileQueue mapedFileQueue = loadQueue(dir + "/primary", 0, 16);
+        AtomicReference<String> error = new AtomicReference<String>();
+        List<LookupChecker> checkers = startCheckers(mapedFileQueue, 1024 * 16, error);
+        List<MapedFile> replaced = new ArrayList<MapedFile>();
+        try {
+            // ͬĸ滻ǰ8ļ
+            for (int i = 0; i < 8 && null == error.get(); i++) {
+                checkers.get(0).waitLookups(100);
+                MapedFile oldMapedFile = mapedFileQueue.getMapedFiles().get(i);
+                createFile(dir + "/tiered", UtilALl.offset2FileName(i * 1024), 1024, (byte) i);
+                MapedFile newMapedFile =
+                        new MapedFile(dir + "/tiered/" + UtilALl.offset2FileName(i * 1024), 1024);
+                newMapedFile.setWrotePostion(1024);
+                newMapedFile.setCommittedPosition(1024);
+                assertTrue(mapedFileQueue.replaceMapedFile(oldMapedFile, newMapedFile));
+                assertSame(newMapedFile, mapedFileQueue.findMapedFileByOffset(i * 1024 + 10));
+                replaced.add(oldMapedFile);
+            }
+
+            // Ѿ滻ļٴ滻
+            MapedFile ninth = mapedFileQueue.getMapedFiles().get(8);
+            assertFalse(mapedFileQueue.replaceMapedFile(replaced.get(0), ninth));
+
+            // ͷƳֻƳһļ
+            for (int i = 0; i < 4 && null == error.get(); i++) {
+                checkers.get(0).waitLookups(100);
+                MapedFile first = mapedFileQueue.getFirstMapedFileOnLock();
+                assertFalse(mapedFileQueue.removeFirstMapedFile(mapedFileQueue.getMapedFiles().get(1)));
+                assertTrue(mapedFileQueue.removeFirstMapedFile(first));
+                replaced.add(first);
+            }
+
+            stopCheckers(checkers);
+            assertNull(error.get());
+            assertEquals(1024 * 4, mapedFileQueue.getMinOffset());
+            assertEquals(12, mapedFileQueue.getMapedFiles().size());
+            assertNull(mapedFileQueue.findMapedFileByOffset(100));
+        }
+        finally {
+            stopCheckers(checkers);
+            for (MapedFile mapedFile : replaced) {
+                mapedFile.destroy(1000);
+            }
+            mapedFileQueue.shutdown(1000);
+            mapedFileQueue.destroy();
+            deleteDir(new File(dir));
+        }
+    }
+
+
+    @Test
+    public void test_load_from_multiple_store_paths() throws Exception {
+        String[] storePaths = { "./unit_test_store/k/a", "./unit_test_store/k/b" };
+        // ļֲĿ¼
+        for (int i = 0; i < 4; i++) {
+            createFile(storePaths[i % 2], UtilALl.offset2FileName(i * 1024), 1024, (byte) i);
+        }
+
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(storePaths, null, 1024, null);
+        try {
+            assertTrue(mapedFileQueue.load());
+            List<MapedFile> mapedFiles = mapedFileQueue.getMapedFiles();
+            assertEquals(4, mapedFiles.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i * 1024, mapedFiles.get(i).getFileFromOffset());
+                File parent = new File(mapedFiles.get(i).getFileName()).getParentFile();
+                assertEquals(new File(storePaths[i % 2]), parent);
+                assertEquals((byte) i, readFirstByte(mapedFileQueue, i * 1024 + 10));
+            }
+            assertEquals(1024 * 4, mapedFileQueue.getMaxOffset());
+
+            // ļѡĿ¼
+            MapedFile mapedFile = mapedFileQueue.getLastMapedFile();
+            assertEquals(1024 * 4, mapedFile.getFileFromOffset());
+            assertEquals(new File(storePaths[0]), new File(mapedFile.getFileName()).getParentFile());
+        }
+        finally {
+            mapedFileQueue.shutdown(1000);
+            mapedFileQueue.destroy();
+            deleteDir(new File("./unit_test_store/k"));
+        }
+    }
+
+
+    @Test
+    public void test_load_duplicate_file_in_store_paths() throws Exception {
+        String[] storePaths = { "./unit_test_store/l/a", "./unit_test_store/l/b" };
+        createFile(storePaths[0], UtilALl.offset2FileName(0), 1024, (byte) 0);
+        createFile(storePaths[1], UtilALl.offset2FileName(1024), 1024, (byte) 1);
+        createFile(storePaths[0], UtilALl.offset2FileName(1024), 1024, (byte) 1);
+
+        // ޷жĸļΪ׼ʧܣļ
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(storePaths, null, 1024, null);
+        try {
+            assertFalse(mapedFileQueue.load());
+            assertTrue(mapedFileQueue.getMapedFiles().isEmpty());
+            assertTrue(new File(storePaths[0], UtilALl.offset2FileName(1024)).exists());
+            assertTrue(new File(storePaths[1], UtilALl.offset2FileName(1024)).exists());
+        }
+        finally {
+            mapedFileQueue.destroy();
+            deleteDir(new File("./unit_test_store/l"));
+        }
+    }
 }
@@ -0,0 +1,184 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class PageCacheResidencyServiceTest {
+    // ̽С
+    private static final int RegionSize = 1024 * 64;
+
+    private final File storeRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "PageCacheResidencyServiceTest_" + System.nanoTime());
+    private MessageStoreConfig messageStoreConfig;
+    private DefaultMessageStore messageStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        String root = this.storeRoot.getPath();
+        this.messageStoreConfig = new MessageStoreConfig();
+        this.messageStoreConfig.setStorePathCommitLog(root + File.separator + "commitlog");
+        this.messageStoreConfig.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        this.messageStoreConfig.setStorePathIndex(root + File.separator + "index");
+        this.messageStoreConfig.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        this.messageStoreConfig.setAbortFile(root + File.separator + "storeAbort");
+        this.messageStoreConfig.setTranStateTableStorePath(root + File.separator + "transaction"
+                + File.separator + "statetable");
+        this.messageStoreConfig.setTranRedoLogStorePath(root + File.separator + "transaction"
+                + File.separator + "redolog");
+        this.messageStoreConfig.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        this.messageStoreConfig.setStorePathTimerLog(root + File.separator + "timerlog");
+        this.messageStoreConfig.setTimerWheelPath(root + File.separator + "timerwheel");
+        this.messageStoreConfig.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        this.messageStoreConfig.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        this.messageStoreConfig.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        this.messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        this.messageStoreConfig.setMessageIndexEnable(false);
+        this.messageStoreConfig.setMaxTransferBytesOnMessageInMemory(RegionSize);
+        this.messageStoreConfig.setPageCacheResidencyTtl(1000 * 60);
+        // ÿԤ4
+        this.messageStoreConfig.setPageCacheReadAheadBytes(RegionSize * 4);
+        this.messageStoreConfig.setHaListenPort(10929);
+
+        this.messageStore = new DefaultMessageStore(this.messageStoreConfig);
+        assertTrue(this.messageStore.load());
+        this.messageStore.start();
+
+        // д10ϵ
+        InetSocketAddress host = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+        for (int i = 0; i < 400; i++) {
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic("PageCacheResidencyServiceTest");
+            msg.setBody(new byte[1024 * 2]);
+            msg.setQueueId(i % 4);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(host);
+            msg.setBornHost(host);
+            assertEquals(PutMessageStatus.PUT_OK, this.messageStore.putMessage(msg).getPutMessageStatus());
+        }
+        assertTrue(this.messageStore.getMaxPhyOffset() > RegionSize * 10);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.messageStore.shutdown();
+        this.messageStore.destroy();
+        deleteDir(this.storeRoot);
+    }
+
+
+    @Test
+    public void test_probe_result_cached_within_ttl() throws Exception {
+        PageCacheResidencyService service = new PageCacheResidencyService(this.messageStore);
+
+        // дpage cache
+        assertTrue(service.isResident(0));
+        assertEquals("1", service.getRuntimeInfo().get("pageCacheProbeTimes"));
+
+        // ͬһЧڲ̽
+        assertTrue(service.isResident(RegionSize - 1));
+        assertEquals("1", service.getRuntimeInfo().get("pageCacheProbeTimes"));
+
+        assertTrue(service.isResident(RegionSize));
+        assertEquals("2", service.getRuntimeInfo().get("pageCacheProbeTimes"));
+
+        // ں̽
+        this.messageStoreConfig.setPageCacheResidencyTtl(100);
+        Thread.sleep(150);
+        assertTrue(service.isResident(0));
+        assertEquals("3", service.getRuntimeInfo().get("pageCacheProbeTimes"));
+        assertEquals("0", service.getRuntimeInfo().get("pageCacheColdReadTimes"));
+    }
+
+
+    @Test
+    public void test_cold_read_triggers_read_ahead() throws Exception {
+        final List<Long> probedRegions = new ArrayList<Long>();
+        // 12ڴ洦ʵ̽
+        PageCacheResidencyService service = new PageCacheResidencyService(this.messageStore) {
+            @Override
+            boolean probe(final long regionOffset, final int regionSize) {
+                long region = regionOffset / regionSize;
+                synchronized (probedRegions) {
+                    probedRegions.add(region);
+                }
+                return region != 1 && region != 2 && super.probe(regionOffset, regionSize);
+            }
+        };
+
+        assertFalse(service.isResident(RegionSize));
+        assertEquals("1", service.getRuntimeInfo().get("pageCacheColdReadTimes"));
+
+        // Чڲظ̽⣬ҲظԤ
+        assertFalse(service.isResident(RegionSize + 100));
+        assertEquals("1", service.getRuntimeInfo().get("pageCacheColdReadTimes"));
+
+        // 2ѾڵȴԤֻ׷5
+        assertFalse(service.isResident(RegionSize * 2));
+        assertEquals("2", service.getRuntimeInfo().get("pageCacheColdReadTimes"));
+
+        service.start();
+        try {
+            // Ԥ15ÿֻһ
+            String expected = String.valueOf(RegionSize * 5);
+            long deadline = System.currentTimeMillis() + 1000 * 10;
+            while (!expected.equals(service.getRuntimeInfo().get("pageCacheReadAheadBytes"))
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Thread.sleep(100);
+            assertEquals(expected, service.getRuntimeInfo().get("pageCacheReadAheadBytes"));
+        }
+        finally {
+            service.shutdown();
+        }
+
+        // ԤֱӰڴ洦̽
+        synchronized (probedRegions) {
+            assertEquals(2, probedRegions.size());
+        }
+        for (int region = 1; region <= 5; region++) {
+            assertTrue(service.isResident((long) RegionSize * region));
+        }
+        synchronized (probedRegions) {
+            assertEquals(2, probedRegions.size());
+        }
+
+        // ԤΧ֮ȻҪ̽
+        assertTrue(service.isResident(RegionSize * 6));
+        synchronized (probedRegions) {
+            assertEquals(3, probedRegions.size());
+        }
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
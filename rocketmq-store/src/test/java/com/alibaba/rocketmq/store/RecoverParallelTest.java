@@ -0,0 +1,349 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * лָ봮лָĽȫһ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class RecoverParallelTest {
+    private static final String Topic = "RecoverParallelTest";
+    // и
+    private static final int QueueTotal = 4;
+    // ÿCommitLogļС
+    private static final int MapedFileSize = 1024 * 64;
+    // нʱݶδС󲿷ݶεһϢԽ߽
+    private static final int ChunkSize = 1024 * 4;
+    // ϢϢеʼλ
+    private static final int BodyPosition = 88;
+    // ַ
+    private static SocketAddress BornHost;
+    // 洢ַ
+    private static SocketAddress StoreHost;
+
+    private final File storeRoot = new File(System.getProperty("user.home") + File.separator + "store");
+    private final File backupRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "RecoverParallelTest_" + System.nanoTime());
+
+    // дϢд˳
+    private final List<PutMessageResult> putResults = new ArrayList<PutMessageResult>();
+    private final List<MessageExtBrokerInner> putMsgs = new ArrayList<MessageExtBrokerInner>();
+
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        StoreHost = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+        BornHost = new InetSocketAddress(InetAddress.getByName("10.232.102.184"), 0);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        deleteDir(this.storeRoot);
+        deleteDir(this.backupRoot);
+    }
+
+
+    private static MessageStoreConfig buildConfig(final boolean parallel) {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(MapedFileSize);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(100 * ConsumeQueue.CQStoreUnitSize);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setCheckCRCOnRecover(true);
+        messageStoreConfig.setHaListenPort(10915);
+        if (parallel) {
+            messageStoreConfig.setRecoverThreadNums(4);
+            messageStoreConfig.setRecoverParseChunkSize(ChunkSize);
+        }
+        // ̡߳ļһݶΣͬڴлָ
+        else {
+            messageStoreConfig.setRecoverThreadNums(1);
+            messageStoreConfig.setRecoverParseChunkSize(Integer.MAX_VALUE);
+        }
+
+        return messageStoreConfig;
+    }
+
+
+    private MessageExtBrokerInner buildMessage(final Random random, final int bodySize) {
+        byte[] body = new byte[bodySize];
+        random.nextBytes(body);
+
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(Topic);
+        msg.setTags("TAG1");
+        msg.setKeys("Hello");
+        msg.setBody(body);
+        msg.setQueueId(random.nextInt(QueueTotal));
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(StoreHost);
+        msg.setBornHost(BornHost);
+        return msg;
+    }
+
+
+    /**
+     * дϢرգϢСмӱݶθϢݷֲڶļ
+     */
+    private void writeMessages(final int totalMsgs) throws Exception {
+        deleteDir(this.storeRoot);
+        DefaultMessageStore messageStore = new DefaultMessageStore(buildConfig(true));
+        assertTrue(messageStore.load());
+        messageStore.start();
+
+        Random random = new Random(20131021);
+        for (int i = 0; i < totalMsgs; i++) {
+            int bodySize = (i % 50 == 49) ? ChunkSize + 1024 : 50 + random.nextInt(1500);
+            MessageExtBrokerInner msg = this.buildMessage(random, bodySize);
+            PutMessageResult result = messageStore.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            this.putMsgs.add(msg);
+            this.putResults.add(result);
+        }
+
+        messageStore.shutdown();
+
+        String[] files = new File(buildConfig(true).getStorePathCommitLog()).list();
+        assertTrue(files.length >= 3);
+    }
+
+
+    /**
+     * ģ쳣˳abortļcheckpointӵһļʼָ
+     */
+    private void simulateCrash() throws Exception {
+        MessageStoreConfig messageStoreConfig = buildConfig(true);
+        StoreCheckpoint storeCheckpoint = new StoreCheckpoint(messageStoreConfig.getStoreCheckpoint());
+        storeCheckpoint.setPhysicMsgTimestamp(0);
+        storeCheckpoint.setLogicsMsgTimestamp(0);
+        storeCheckpoint.setIndexMsgTimestamp(0);
+        storeCheckpoint.shutdown();
+
+        assertTrue(new File(messageStoreConfig.getAbortFile()).createNewFile());
+    }
+
+
+    /**
+     * дindexϢfromʼlengthֽ
+     */
+    private void corruptMessage(final int index, final int from, final int length) throws IOException {
+        long wroteOffset = this.putResults.get(index).getAppendMessageResult().getWroteOffset();
+        long fileFromOffset = wroteOffset - wroteOffset % MapedFileSize;
+        File file =
+                new File(buildConfig(true).getStorePathCommitLog(), UtilALl.offset2FileName(fileFromOffset));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(wroteOffset - fileFromOffset + from);
+            randomAccessFile.write(new byte[length]);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+
+    /**
+     * ָȫϢСOffset
+     */
+    private List<String> recover(final boolean parallel, final long[] maxPhyOffset) throws Exception {
+        DefaultMessageStore messageStore = new DefaultMessageStore(buildConfig(parallel));
+        List<String> result = new ArrayList<String>();
+        try {
+            assertTrue(messageStore.load());
+            messageStore.start();
+            maxPhyOffset[0] = messageStore.getMaxPhyOffset();
+
+            Map<Long, byte[]> bodyTable = new HashMap<Long, byte[]>();
+            for (int i = 0; i < this.putMsgs.size(); i++) {
+                bodyTable.put(this.putResults.get(i).getAppendMessageResult().getWroteOffset(),
+                    this.putMsgs.get(i).getBody());
+            }
+
+            for (int queueId = 0; queueId < QueueTotal; queueId++) {
+                long offset = 0;
+                for (;;) {
+                    GetMessageResult getResult = messageStore.getMessage(Topic, queueId, offset, 32, null);
+                    if (getResult.getStatus() != GetMessageStatus.FOUND) {
+                        break;
+                    }
+
+                    for (ByteBuffer byteBuffer : getResult.getMessageBufferList()) {
+                        MessageExt msg = MessageDecoder.decode(byteBuffer);
+                        assertEquals(offset, msg.getQueueOffset());
+                        assertArrayEquals(bodyTable.get(msg.getCommitLogOffset()), msg.getBody());
+                        result.add(queueId + "/" + offset + "/" + msg.getCommitLogOffset());
+                        offset++;
+                    }
+                    getResult.release();
+                }
+
+                assertEquals(offset, messageStore.getMaxOffsetInQuque(Topic, queueId));
+            }
+        }
+        finally {
+            messageStore.shutdown();
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Ⱥò봮зʽָͬһݣ߽һ
+     */
+    private List<String> recoverAndCompare(final long expectedMaxPhyOffset) throws Exception {
+        copyDir(this.storeRoot, this.backupRoot);
+
+        long[] parallelMaxPhyOffset = new long[1];
+        List<String> parallelResult = this.recover(true, parallelMaxPhyOffset);
+
+        deleteDir(this.storeRoot);
+        copyDir(this.backupRoot, this.storeRoot);
+
+        long[] serialMaxPhyOffset = new long[1];
+        List<String> serialResult = this.recover(false, serialMaxPhyOffset);
+
+        assertEquals(expectedMaxPhyOffset, serialMaxPhyOffset[0]);
+        assertEquals(serialMaxPhyOffset[0], parallelMaxPhyOffset[0]);
+        assertEquals(serialResult, parallelResult);
+        return parallelResult;
+    }
+
+
+    /**
+     * ָϢֻǰcount
+     */
+    private List<String> expected(final int count) {
+        List<String> result = new ArrayList<String>();
+        for (int queueId = 0; queueId < QueueTotal; queueId++) {
+            for (int i = 0; i < count; i++) {
+                if (this.putMsgs.get(i).getQueueId() == queueId) {
+                    AppendMessageResult appendResult = this.putResults.get(i).getAppendMessageResult();
+                    result.add(queueId + "/" + appendResult.getLogicsOffset() + "/"
+                            + appendResult.getWroteOffset());
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    private long endOffset(final int index) {
+        AppendMessageResult appendResult = this.putResults.get(index).getAppendMessageResult();
+        return appendResult.getWroteOffset() + appendResult.getWroteBytes();
+    }
+
+
+    @Test
+    public void test_recover_normally() throws Exception {
+        this.writeMessages(300);
+        List<String> result = this.recoverAndCompare(this.endOffset(299));
+        assertEquals(this.expected(300), result);
+    }
+
+
+    @Test
+    public void test_recover_abnormally() throws Exception {
+        this.writeMessages(300);
+        this.simulateCrash();
+        List<String> result = this.recoverAndCompare(this.endOffset(299));
+        assertEquals(this.expected(300), result);
+    }
+
+
+    @Test
+    public void test_recover_abnormally_torn_tail() throws Exception {
+        this.writeMessages(300);
+        // һϢֻдǰһ
+        int size = this.putResults.get(299).getAppendMessageResult().getWroteBytes();
+        this.corruptMessage(299, size / 2, size - size / 2);
+        this.simulateCrash();
+
+        List<String> result = this.recoverAndCompare(this.endOffset(298));
+        assertEquals(this.expected(299), result);
+    }
+
+
+    @Test
+    public void test_recover_abnormally_corrupt_middle() throws Exception {
+        this.writeMessages(300);
+        // һλڵڶļмϢдϢ壬CRCУʧܣȫ
+        int index = 0;
+        while (this.putResults.get(index).getAppendMessageResult().getWroteOffset() < MapedFileSize
+                + ChunkSize * 3) {
+            index++;
+        }
+        this.corruptMessage(index, BodyPosition + 2, 16);
+        this.simulateCrash();
+
+        List<String> result = this.recoverAndCompare(this.endOffset(index - 1));
+        assertEquals(this.expected(index), result);
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+
+
+    private static void copyDir(final File from, final File to) throws IOException {
+        if (from.isDirectory()) {
+            to.mkdirs();
+            for (File file : from.listFiles()) {
+                copyDir(file, new File(to, file.getName()));
+            }
+            return;
+        }
+
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        try {
+            byte[] buffer = new byte[1024 * 64];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+            }
+        }
+        finally {
+            in.close();
+            out.close();
+        }
+    }
+}
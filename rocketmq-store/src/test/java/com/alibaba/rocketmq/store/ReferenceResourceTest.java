@@ -0,0 +1,137 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ReferenceResourceTest {
+    /**
+     * ¼cleanupĵôһδü
+     */
+    static class CountingResource extends ReferenceResource {
+        private final AtomicInteger cleanupTimes = new AtomicInteger(0);
+        private volatile long lastRef = Long.MAX_VALUE;
+
+
+        @Override
+        public boolean cleanup(final long currentRef) {
+            this.cleanupTimes.incrementAndGet();
+            this.lastRef = currentRef;
+            return true;
+        }
+    }
+
+
+    @Test
+    public void test_hold_after_shutdown() {
+        CountingResource resource = new CountingResource();
+        assertTrue(resource.hold());
+        assertEquals(2, resource.getRefCount());
+
+        resource.shutdown(1000 * 60);
+        assertFalse(resource.isAvailable());
+        // ѾshutdownʹҲhold
+        assertFalse(resource.hold());
+        assertEquals(1, resource.getRefCount());
+        assertEquals(0, resource.cleanupTimes.get());
+
+        resource.release();
+        assertEquals(0, resource.getRefCount());
+        assertEquals(1, resource.cleanupTimes.get());
+        assertEquals(0, resource.lastRef);
+        assertTrue(resource.isCleanupOver());
+        assertFalse(resource.hold());
+    }
+
+
+    @Test
+    public void test_forced_shutdown_negative_count() {
+        CountingResource resource = new CountingResource();
+        assertTrue(resource.hold());
+        assertTrue(resource.hold());
+
+        resource.shutdown(1000 * 60);
+        assertEquals(2, resource.getRefCount());
+
+        // δǿʱ䣬ٴshutdown
+        resource.shutdown(1000 * 60);
+        assertEquals(2, resource.getRefCount());
+        assertEquals(0, resource.cleanupTimes.get());
+
+        // ǿshutdownüΪ
+        resource.shutdown(0);
+        assertEquals(-1000 - 2 - 1, resource.getRefCount());
+        assertEquals(1, resource.cleanupTimes.get());
+        assertEquals(-1000 - 2 - 1, resource.lastRef);
+        assertTrue(resource.isCleanupOver());
+        assertFalse(resource.isAvailable());
+        assertFalse(resource.hold());
+
+        // ֮ǰhold߳ͷţΪؿ
+        resource.release();
+        resource.release();
+        assertEquals(-1000 - 2 - 3, resource.getRefCount());
+        assertTrue(resource.getRefCount() < 0);
+        assertFalse(resource.hold());
+        assertTrue(resource.isCleanupOver());
+    }
+
+
+    @Test
+    public void test_cleanup_once_under_concurrent_release() throws Exception {
+        final int threadNums = 64;
+        for (int round = 0; round < 100; round++) {
+            final CountingResource resource = new CountingResource();
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final AtomicInteger holdTimes = new AtomicInteger(0);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < threadNums; i++) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+
+                        // һֱȡֱԴshutdown
+                        while (resource.hold()) {
+                            holdTimes.incrementAndGet();
+                            resource.release();
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+
+            startLatch.countDown();
+            while (holdTimes.get() < threadNums) {
+                Thread.yield();
+            }
+            resource.shutdown(1000 * 60);
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(0, resource.getRefCount());
+            assertEquals(1, resource.cleanupTimes.get());
+            assertEquals(0, resource.lastRef);
+            assertTrue(resource.isCleanupOver());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.store.config.BrokerRole;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * SlaveнзƬдConsumeQueueÿڵ˳Masterд˳һ
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ReputParallelTest {
+    private static final String[] Topics = { "ReputParallelTest_A", "ReputParallelTest_B",
+                                            "ReputParallelTest_C" };
+    private static final int QueueTotal = 8;
+    private static final int MessageNums = 1500;
+
+    private final File storeRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "ReputParallelTest_" + System.nanoTime());
+    private DefaultMessageStore master;
+    private DefaultMessageStore slave;
+
+    // ÿڰд˳еCommitLogλϢС
+    private final Map<String, List<long[]>> putResults = new HashMap<String, List<long[]>>();
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.slave != null) {
+            this.slave.shutdown();
+        }
+        if (this.master != null) {
+            this.master.shutdown();
+        }
+        deleteDir(this.storeRoot);
+    }
+
+
+    private MessageStoreConfig buildConfig(final String name, final BrokerRole brokerRole,
+            final int haListenPort) {
+        String root = this.storeRoot.getPath() + File.separator + name;
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(root + File.separator + "commitlog");
+        messageStoreConfig.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        messageStoreConfig.setStorePathIndex(root + File.separator + "index");
+        messageStoreConfig.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        messageStoreConfig.setAbortFile(root + File.separator + "storeAbort");
+        messageStoreConfig.setTranStateTableStorePath(root + File.separator + "transaction"
+                + File.separator + "statetable");
+        messageStoreConfig.setTranRedoLogStorePath(root + File.separator + "transaction" + File.separator
+                + "redolog");
+        messageStoreConfig.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        messageStoreConfig.setStorePathTimerLog(root + File.separator + "timerlog");
+        messageStoreConfig.setTimerWheelPath(root + File.separator + "timerwheel");
+        messageStoreConfig.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        messageStoreConfig.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        messageStoreConfig.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(100 * ConsumeQueue.CQStoreUnitSize);
+        messageStoreConfig.setMessageIndexEnable(false);
+        // зƬдConsumeQueue
+        messageStoreConfig.setDispatchConsumeQueueThreadNums(4);
+        // ݶνС󲿷ݶεһϢԽ߽
+        messageStoreConfig.setSlaveReputParseThreadNums(4);
+        messageStoreConfig.setSlaveReputParseChunkSize(1024 * 4);
+        messageStoreConfig.setBrokerRole(brokerRole);
+        messageStoreConfig.setHaListenPort(haListenPort);
+        return messageStoreConfig;
+    }
+
+
+    @Test
+    public void test_dispatch_order_per_queue() throws Exception {
+        this.master = new DefaultMessageStore(this.buildConfig("master", BrokerRole.ASYNC_MASTER, 10927));
+        assertTrue(this.master.load());
+        this.master.start();
+
+        // µSlaveMasterһļʼƣڵһļдϢ
+        this.putMessages(0, 10);
+        this.slave = new DefaultMessageStore(this.buildConfig("slave", BrokerRole.SLAVE, 10928));
+        assertTrue(this.slave.load());
+        this.slave.updateHaMasterAddress("127.0.0.1:10927");
+        this.slave.start();
+        long deadline = System.currentTimeMillis() + 1000 * 30;
+        while (this.slave.getMaxPhyOffset() < this.master.getMaxPhyOffset()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, this.slave.getCommitLog().getMinOffset());
+
+        this.putMessages(10, MessageNums);
+        assertTrue(this.master.getCommitLog().getMapedFileQueue().getMapedFiles().size() > 3);
+
+        this.waitDispatchOver(this.master);
+        this.waitDispatchOver(this.slave);
+        assertEquals(this.master.getMaxPhyOffset(), this.slave.getMaxPhyOffset());
+
+        this.checkConsumeQueue(this.master);
+        this.checkConsumeQueue(this.slave);
+    }
+
+
+    private void putMessages(final int from, final int to) throws Exception {
+        InetSocketAddress host = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+        for (int i = from; i < to; i++) {
+            // ϢСͬݶα߽ڲͬλ
+            byte[] body = new byte[50 + i % 200];
+            for (int k = 0; k < body.length; k++) {
+                body[k] = (byte) (i + k);
+            }
+
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic(Topics[i % Topics.length]);
+            msg.setBody(body);
+            msg.setQueueId(i / Topics.length % QueueTotal);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(host);
+            msg.setBornHost(host);
+            PutMessageResult result = this.master.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+
+            String queueKey = msg.getTopic() + "-" + msg.getQueueId();
+            List<long[]> queueResults = this.putResults.get(queueKey);
+            if (null == queueResults) {
+                queueResults = new ArrayList<long[]>();
+                this.putResults.put(queueKey, queueResults);
+            }
+            queueResults.add(new long[] { result.getAppendMessageResult().getWroteOffset(),
+                                         result.getAppendMessageResult().getWroteBytes() });
+        }
+    }
+
+
+    /**
+     * ȴÿжַ
+     */
+    private void waitDispatchOver(final DefaultMessageStore store) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000 * 30;
+        for (String topic : Topics) {
+            for (int queueId = 0; queueId < QueueTotal; queueId++) {
+                int expected = this.putResults.get(topic + "-" + queueId).size();
+                while (store.getMaxOffsetInQuque(topic, queueId) < expected
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+                assertEquals(expected, store.getMaxOffsetInQuque(topic, queueId));
+            }
+        }
+    }
+
+
+    private void checkConsumeQueue(final DefaultMessageStore store) {
+        for (String topic : Topics) {
+            for (int queueId = 0; queueId < QueueTotal; queueId++) {
+                List<long[]> expected = this.putResults.get(topic + "-" + queueId);
+                ConsumeQueue consumeQueue = store.findConsumeQueue(topic, queueId);
+                for (int i = 0; i < expected.size();) {
+                    SelectMapedBufferResult result = consumeQueue.getIndexBuffer(i);
+                    assertNotNull(result);
+                    try {
+                        ByteBuffer byteBuffer = result.getByteBuffer();
+                        for (; byteBuffer.remaining() >= ConsumeQueue.CQStoreUnitSize
+                                && i < expected.size(); i++) {
+                            assertEquals(topic + "-" + queueId + " " + i, expected.get(i)[0],
+                                byteBuffer.getLong());
+                            assertEquals(expected.get(i)[1], byteBuffer.getInt());
+                            byteBuffer.getLong();
+                        }
+                    }
+                    finally {
+                        result.release();
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,215 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class TieredStoreServiceTest {
+    private static final int MapedFileSize = 1024 * 64;
+
+    private final File storeRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "TieredStoreServiceTest_" + System.nanoTime());
+    private DefaultMessageStore messageStore;
+    private MapedFileQueue mapedFileQueue;
+    // ֱǨƣ̨񲻻
+    private TieredStoreService tieredStoreService;
+    private final List<PutMessageResult> putResults = new ArrayList<PutMessageResult>();
+    private final List<byte[]> putBodies = new ArrayList<byte[]>();
+
+
+    @Before
+    public void setUp() throws Exception {
+        String root = this.storeRoot.getPath();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(root + File.separator + "commitlog");
+        messageStoreConfig.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        messageStoreConfig.setStorePathIndex(root + File.separator + "index");
+        messageStoreConfig.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        messageStoreConfig.setAbortFile(root + File.separator + "storeAbort");
+        messageStoreConfig.setTranStateTableStorePath(root + File.separator + "transaction"
+                + File.separator + "statetable");
+        messageStoreConfig.setTranRedoLogStorePath(root + File.separator + "transaction" + File.separator
+                + "redolog");
+        messageStoreConfig.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        messageStoreConfig.setStorePathTimerLog(root + File.separator + "timerlog");
+        messageStoreConfig.setTimerWheelPath(root + File.separator + "timerwheel");
+        messageStoreConfig.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        messageStoreConfig.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        messageStoreConfig.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        messageStoreConfig.setMapedFileSizeCommitLog(MapedFileSize);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setTieredStoreEnable(true);
+        messageStoreConfig.setTieredStoreHotFileNums(1);
+        messageStoreConfig.setTieredStoreMoveInterval(1000 * 3600);
+        messageStoreConfig.setHaListenPort(10923);
+
+        this.messageStore = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(this.messageStore.load());
+        this.messageStore.start();
+        this.mapedFileQueue = this.messageStore.getCommitLog().getMapedFileQueue();
+        this.tieredStoreService = new TieredStoreService(this.messageStore);
+
+        InetSocketAddress host = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+        for (int i = 0; i < 200; i++) {
+            byte[] body = new byte[1024];
+            for (int k = 0; k < body.length; k++) {
+                body[k] = (byte) (i + k);
+            }
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic("TieredStoreServiceTest");
+            msg.setBody(body);
+            msg.setQueueId(i % 4);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(host);
+            msg.setBornHost(host);
+            PutMessageResult result = this.messageStore.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            this.putResults.add(result);
+            this.putBodies.add(body);
+        }
+        assertTrue(this.mapedFileQueue.getMapedFiles().size() >= 3);
+
+        // ȴǰļˢ
+        long deadline = System.currentTimeMillis() + 1000 * 10;
+        while (this.mapedFileQueue.getCommittedWhere() < MapedFileSize * 2
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(this.mapedFileQueue.getCommittedWhere() >= MapedFileSize * 2);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.messageStore.shutdown();
+        this.messageStore.destroy();
+        deleteDir(this.storeRoot);
+    }
+
+
+    private String[] listTieredFiles() {
+        String[] files = new File(this.mapedFileQueue.getStorePathTiered()).list();
+        return files != null ? files : new String[0];
+    }
+
+
+    private static byte[] read(final SelectMapedBufferResult result) {
+        byte[] data = new byte[result.getSize()];
+        result.getByteBuffer().get(data);
+        return data;
+    }
+
+
+    @Test
+    public void test_read_through_replaced_file() throws Exception {
+        MapedFile first = this.mapedFileQueue.getMapedFiles().get(0);
+        File primaryFile = new File(first.getFileName());
+        long lastModified = primaryFile.lastModified();
+
+        // ǨǰʼĶǨƺȻԭļ
+        SelectMapedBufferResult held = this.messageStore.getCommitLogData(0);
+        assertNotNull(held);
+        assertSame(first, held.getMapedFile());
+
+        assertTrue(this.tieredStoreService.moveOneFile());
+        MapedFile tiered = this.mapedFileQueue.getMapedFiles().get(0);
+        assertTrue(this.mapedFileQueue.isTieredFile(tiered));
+        assertSame(tiered, this.mapedFileQueue.findMapedFileByOffset(100));
+        assertEquals(first.getWrotePostion(), tiered.getWrotePostion());
+        assertEquals(lastModified, new File(tiered.getFileName()).lastModified());
+
+        SelectMapedBufferResult current = this.messageStore.getCommitLogData(0);
+        try {
+            assertSame(tiered, current.getMapedFile());
+            assertArrayEquals(read(held), read(current));
+        }
+        finally {
+            current.release();
+        }
+
+        // ԭļԱã´ɾ
+        assertTrue(primaryFile.exists());
+        held.release();
+        assertTrue(this.tieredStoreService.moveOneFile());
+        assertFalse(primaryFile.exists());
+        assertEquals(2, this.listTieredFiles().length);
+
+        // һļ洢Ŀ¼
+        while (this.tieredStoreService.moveOneFile())
+            ;
+        List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        assertFalse(this.mapedFileQueue.isTieredFile(mapedFiles.get(mapedFiles.size() - 1)));
+
+        for (int i = 0; i < this.putResults.size(); i++) {
+            MessageExt msg =
+                    this.messageStore.lookMessageByOffset(this.putResults.get(i).getAppendMessageResult()
+                        .getWroteOffset());
+            assertArrayEquals(this.putBodies.get(i), msg.getBody());
+        }
+    }
+
+
+    @Test
+    public void test_replace_failed_after_source_destroyed() throws Exception {
+        MapedFile candidate = this.mapedFileQueue.findTieringCandidate(1);
+        assertSame(this.mapedFileQueue.getMapedFiles().get(0), candidate);
+
+        // ɾļʱжļڴϣѾ
+        SelectMapedBufferResult held = this.messageStore.getCommitLogData(0);
+        assertFalse(candidate.destroy(1000 * 120));
+        assertTrue(new File(candidate.getFileName()).exists());
+
+        // Ƴɹ滻ʧܣƳļ
+        assertFalse(this.tieredStoreService.moveFile(this.mapedFileQueue, candidate));
+        assertEquals(0, this.listTieredFiles().length);
+        assertSame(candidate, this.mapedFileQueue.getMapedFiles().get(0));
+        held.release();
+        assertTrue(candidate.isCleanupOver());
+    }
+
+
+    @Test
+    public void test_copy_failed_after_source_deleted() throws Exception {
+        MapedFile candidate = this.mapedFileQueue.findTieringCandidate(1);
+        assertTrue(candidate.destroy(1000));
+        assertFalse(new File(candidate.getFileName()).exists());
+
+        // ļѾɾʧܣʱļ
+        assertFalse(this.tieredStoreService.moveFile(this.mapedFileQueue, candidate));
+        assertEquals(0, this.listTieredFiles().length);
+        assertSame(candidate, this.mapedFileQueue.getMapedFiles().get(0));
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,360 @@
+package com.alibaba.rocketmq.store.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.FileDeleteThrottle;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ArchiveStoreTest {
+    // ÿĴС
+    private static final int BlockSize = 1024;
+    // ÿ鵵εԭʼݴСһ鲻
+    private static final int RawSize = BlockSize * 10 - 240;
+
+    private static final File StoreRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "ArchiveStoreTest_" + System.nanoTime());
+    // 鵵洢ֻʹе
+    private static DefaultMessageStore MessageStore;
+
+    private String archivePath;
+
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        String root = StoreRoot.getPath();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(root + File.separator + "commitlog");
+        messageStoreConfig.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        messageStoreConfig.setStorePathIndex(root + File.separator + "index");
+        messageStoreConfig.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        messageStoreConfig.setAbortFile(root + File.separator + "storeAbort");
+        messageStoreConfig.setTranStateTableStorePath(root + File.separator + "transaction"
+                + File.separator + "statetable");
+        messageStoreConfig.setTranRedoLogStorePath(root + File.separator + "transaction" + File.separator
+                + "redolog");
+        messageStoreConfig.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        messageStoreConfig.setStorePathTimerLog(root + File.separator + "timerlog");
+        messageStoreConfig.setTimerWheelPath(root + File.separator + "timerwheel");
+        messageStoreConfig.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        messageStoreConfig.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setCommitLogArchiveBlockCacheSize(BlockSize * 4);
+        messageStoreConfig.setHaListenPort(10918);
+
+        MessageStore = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(MessageStore.load());
+        MessageStore.start();
+    }
+
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        MessageStore.shutdown();
+        MessageStore.destroy();
+        deleteDir(StoreRoot);
+    }
+
+
+    @Before
+    public void setUp() throws Exception {
+        // ÿʹõĹ鵵Ŀ¼
+        this.archivePath = StoreRoot.getPath() + File.separator + "commitlog_archive_" + System.nanoTime();
+        new File(this.archivePath).mkdirs();
+        MessageStore.getMessageStoreConfig().setStorePathCommitLogArchive(this.archivePath);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        deleteDir(new File(this.archivePath));
+    }
+
+
+    private static byte[] buildData(final long seed) {
+        byte[] data = new byte[RawSize];
+        Random random = new Random(seed);
+        // һݣһظݣ֤ѹСͬ
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i / BlockSize) % 2 == 0 ? (byte) random.nextInt() : (byte) i;
+        }
+        return data;
+    }
+
+
+    private File writeSegment(final long fileFromOffset, final byte[] data) throws Exception {
+        return ArchiveSegment.write(this.archivePath, fileFromOffset, ByteBuffer.wrap(data), BlockSize,
+            CompressionCodecs.ZLIB, 5);
+    }
+
+
+    private static byte[] read(final SelectMapedBufferResult result) {
+        byte[] data = new byte[result.getSize()];
+        result.getByteBuffer().get(data);
+        return data;
+    }
+
+
+    private static byte[] copy(final byte[] data, final int from, final int size) {
+        byte[] result = new byte[size];
+        System.arraycopy(data, from, result, 0, size);
+        return result;
+    }
+
+
+    @Test
+    public void test_segment_write_read_round_trip() throws Exception {
+        byte[] data = buildData(1);
+        File file = this.writeSegment(1024 * 64, data);
+        assertEquals(String.format("%020d", 1024 * 64) + ArchiveSegment.SegmentFileSuffix, file.getName());
+        assertFalse(new File(file.getPath() + ArchiveSegment.TmpFileSuffix).exists());
+
+        ArchiveSegment segment = new ArchiveSegment(file);
+        assertEquals(1024 * 64, segment.getFileFromOffset());
+        assertEquals(RawSize, segment.getRawSize());
+        assertEquals(BlockSize, segment.getBlockSize());
+        assertEquals(10, segment.getBlockCount());
+        assertTrue(segment.contains(1024 * 64));
+        assertTrue(segment.contains(1024 * 64 + RawSize - 1));
+        assertFalse(segment.contains(1024 * 64 - 1));
+        assertFalse(segment.contains(1024 * 64 + RawSize));
+
+        ByteBuffer result = ByteBuffer.allocate(RawSize);
+        for (int i = 0; i < segment.getBlockCount(); i++) {
+            byte[] block = segment.readBlock(i);
+            assertEquals(i < segment.getBlockCount() - 1 ? BlockSize : RawSize - BlockSize * 9, block.length);
+            result.put(block);
+        }
+        assertArrayEquals(data, result.array());
+
+        assertTrue(segment.destroy(0));
+        assertFalse(file.exists());
+    }
+
+
+    @Test
+    public void test_get_message_spanning_blocks() throws Exception {
+        byte[] data = buildData(2);
+        this.writeSegment(1024 * 64, data);
+        ArchiveStore archiveStore = new ArchiveStore(MessageStore);
+        assertTrue(archiveStore.load());
+        assertEquals(1, archiveStore.getSegmentNums());
+
+        // 
+        SelectMapedBufferResult result = archiveStore.getMessage(1024 * 64 + 100, 200);
+        assertArrayEquals(copy(data, 100, 200), read(result));
+
+        // 
+        result = archiveStore.getMessage(1024 * 64 + BlockSize - 50, 100);
+        assertEquals(1024 * 64 + BlockSize - 50, result.getStartOffset());
+        assertArrayEquals(copy(data, BlockSize - 50, 100), read(result));
+
+        // 飬
+        result = archiveStore.getMessage(1024 * 64 + 10, BlockSize * 6);
+        assertArrayEquals(copy(data, 10, BlockSize * 6), read(result));
+
+        // һֱһĿĩβ
+        result = archiveStore.getMessage(1024 * 64 + RawSize - BlockSize - 10, BlockSize + 10);
+        assertArrayEquals(copy(data, RawSize - BlockSize - 10, BlockSize + 10), read(result));
+
+        // Խ鵵ĩβڹ鵵
+        assertNull(archiveStore.getMessage(1024 * 64 + RawSize - 10, 20));
+        assertNull(archiveStore.getMessage(1024 * 64 - 10, 5));
+        assertNull(archiveStore.getMessage(1024 * 64 + RawSize, 5));
+    }
+
+
+    @Test
+    public void test_get_data_to_block_end() throws Exception {
+        byte[] data = buildData(4);
+        this.writeSegment(1024 * 64, data);
+        ArchiveStore archiveStore = new ArchiveStore(MessageStore);
+        assertTrue(archiveStore.load());
+
+        // ÿζڿĩβصĴСƽԶ鵵
+        SelectMapedBufferResult result = archiveStore.getData(1024 * 64 + 100);
+        assertEquals(1024 * 64 + 100, result.getStartOffset());
+        assertEquals(BlockSize - 100, result.getSize());
+        assertArrayEquals(copy(data, 100, BlockSize - 100), read(result));
+
+        ByteBuffer all = ByteBuffer.allocate(RawSize);
+        long offset = 1024 * 64;
+        while ((result = archiveStore.getData(offset)) != null) {
+            assertTrue(result.getSize() > 0 && result.getSize() <= BlockSize);
+            all.put(read(result));
+            offset += result.getSize();
+        }
+        assertEquals(1024 * 64 + RawSize, offset);
+        assertArrayEquals(data, all.array());
+
+        assertNull(archiveStore.getData(1024 * 64 - 1));
+    }
+
+
+    @Test
+    public void test_load_with_leftover_tmp_file() throws Exception {
+        byte[] data = buildData(3);
+        this.writeSegment(0, data);
+
+        // 鵵ڶʱ崻ֻдһ
+        File tmpFile =
+                new File(this.archivePath, String.format("%020d", RawSize) + ArchiveSegment.SegmentFileSuffix
+                        + ArchiveSegment.TmpFileSuffix);
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            out.write(data, 0, 100);
+        }
+        finally {
+            out.close();
+        }
+
+        ArchiveStore archiveStore = new ArchiveStore(MessageStore);
+        assertTrue(archiveStore.load());
+        assertFalse(tmpFile.exists());
+        assertEquals(1, archiveStore.getSegmentNums());
+        assertEquals(0, archiveStore.getMinOffset());
+        assertTrue(archiveStore.contains(RawSize - 1));
+        assertFalse(archiveStore.contains(RawSize));
+        assertArrayEquals(copy(data, 0, 100), read(archiveStore.getMessage(0, 100)));
+    }
+
+
+    @Test
+    public void test_delete_expired_segments_from_head() throws Exception {
+        File[] files = new File[4];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = this.writeSegment((long) RawSize * i, buildData(i));
+        }
+
+        ArchiveStore archiveStore = new ArchiveStore(MessageStore);
+        assertTrue(archiveStore.load());
+        assertEquals(4, archiveStore.getSegmentNums());
+
+        long expiredTime = 1000L * 3600;
+        long now = System.currentTimeMillis();
+        // һδڣڵĶҲɾ
+        assertTrue(files[0].setLastModified(now));
+        for (int i = 1; i < files.length; i++) {
+            assertTrue(files[i].setLastModified(now - expiredTime * 2));
+        }
+        assertEquals(0, archiveStore.deleteExpiredSegments(expiredTime, 0, false, 10));
+        assertEquals(4, archiveStore.getSegmentNums());
+
+        // һɾdeleteFilesBatchMax
+        assertTrue(files[0].setLastModified(now - expiredTime * 2));
+        assertEquals(2, archiveStore.deleteExpiredSegments(expiredTime, 0, false, 2));
+        assertFalse(files[0].exists());
+        assertFalse(files[1].exists());
+        assertTrue(files[2].exists());
+        assertEquals(2, archiveStore.getSegmentNums());
+        assertEquals((long) RawSize * 2, archiveStore.getMinOffset());
+        assertNull(archiveStore.getMessage(0, 10));
+
+        // ʱʱ
+        assertTrue(files[2].setLastModified(now));
+        assertEquals(2, archiveStore.deleteExpiredSegments(expiredTime, 0, true, 10));
+        assertEquals(0, archiveStore.getSegmentNums());
+        assertEquals(-1, archiveStore.getMinOffset());
+        assertFalse(files[3].exists());
+    }
+
+
+    @Test
+    public void test_delete_expired_segments_throttled() throws Exception {
+        File[] files = new File[3];
+        long storedSize = 0;
+        for (int i = 0; i < files.length; i++) {
+            files[i] = this.writeSegment((long) RawSize * i, buildData(i));
+            storedSize += files[i].length();
+        }
+
+        ArchiveStore archiveStore = new ArchiveStore(MessageStore);
+        assertTrue(archiveStore.load());
+
+        // 鵵CommitLogļɾ
+        FileDeleteThrottle throttle = new FileDeleteThrottle(1024 * 1024, 1024 * 1024 * 100);
+        assertEquals(2, archiveStore.deleteExpiredSegments(0, 0, true, 2, throttle));
+        assertFalse(files[0].exists());
+        assertFalse(files[1].exists());
+        assertTrue(files[2].exists());
+        assertEquals("2", throttle.getRuntimeInfo().get("deleteFileTimes"));
+        assertEquals(String.valueOf(storedSize - files[2].length()),
+            throttle.getRuntimeInfo().get("deleteFileBytes"));
+
+        assertEquals(1, archiveStore.deleteExpiredSegments(0, 0, true, 2, throttle));
+        assertEquals(0, archiveStore.getSegmentNums());
+        assertEquals("3", throttle.getRuntimeInfo().get("deleteFileTimes"));
+    }
+
+
+    @Test
+    public void test_block_cache_evict_lru() {
+        ArchiveBlockCache cache = new ArchiveBlockCache(100);
+        cache.put(0, new byte[40]);
+        cache.put(1, new byte[40]);
+        assertEquals(80, cache.getCachedBytes());
+
+        // 0֮1δʵ
+        assertEquals(40, cache.get(0).length);
+        cache.put(2, new byte[40]);
+        assertEquals(80, cache.getCachedBytes());
+        assertEquals(2, cache.getBlockNums());
+        assertNull(cache.get(1));
+        assertEquals(40, cache.get(0).length);
+
+        // ʱѭֱ̭ŵ
+        cache.put(3, new byte[90]);
+        assertEquals(90, cache.getCachedBytes());
+        assertEquals(1, cache.getBlockNums());
+        assertNull(cache.get(0));
+        assertNull(cache.get(2));
+
+        // 滻ͬһ飬ظ
+        cache.put(3, new byte[60]);
+        assertEquals(60, cache.getCachedBytes());
+        assertEquals(1, cache.getBlockNums());
+
+        // Ȼ滹Ŀ鲻
+        cache.put(4, new byte[101]);
+        assertNull(cache.get(4));
+        assertEquals(60, cache.getCachedBytes());
+        assertEquals(2, cache.getHitTimes());
+        assertEquals(4, cache.getMissTimes());
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,282 @@
+package com.alibaba.rocketmq.store.ha;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.compress.CompressionCodecs;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.BrokerRole;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class HAConnectionTest {
+    private final File storeRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "HAConnectionTest_" + System.nanoTime());
+    private DefaultMessageStore master;
+    private DefaultMessageStore slave;
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.slave != null) {
+            this.slave.shutdown();
+        }
+        if (this.master != null) {
+            this.master.shutdown();
+        }
+        deleteDir(this.storeRoot);
+    }
+
+
+    @Test
+    public void test_body_size_field_round_trip() {
+        assertEquals(7, HAConnection.MaxCompressionType);
+        int[] sizes = { 1, 1024 * 32, HAConnection.BodySizeMask };
+        for (int type = 0; type <= HAConnection.MaxCompressionType; type++) {
+            for (int size : sizes) {
+                int field = HAConnection.buildBodySizeField(type, size);
+                assertTrue(HAConnection.isCompressed(field));
+                assertEquals(type, HAConnection.getCompressionType(field));
+                assertEquals(size, HAConnection.getBodySize(field));
+            }
+        }
+
+        // δѹݿ飬Сֶξǳ
+        for (int size : sizes) {
+            assertFalse(HAConnection.isCompressed(size));
+            assertEquals(size, HAConnection.getBodySize(size));
+        }
+    }
+
+
+    @Test
+    public void test_next_transfer_window() {
+        int min = 1024 * 32;
+        int max = 1024 * 256;
+
+        // лѹʱ𲽼ӱmax
+        int window = min;
+        window = HAConnection.nextTransferWindow(window, true, true, min, max);
+        assertEquals(min * 2, window);
+        window = HAConnection.nextTransferWindow(window, true, true, min, max);
+        window = HAConnection.nextTransferWindow(window, true, true, min, max);
+        assertEquals(max, window);
+        window = HAConnection.nextTransferWindow(window, true, true, min, max);
+        assertEquals(max, window);
+
+        // д굫ûлѹڲ
+        assertEquals(max, HAConnection.nextTransferWindow(window, true, false, min, max));
+
+        // Socketдʱ룬min
+        window = HAConnection.nextTransferWindow(window, false, true, min, max);
+        assertEquals(max / 2, window);
+        window = HAConnection.nextTransferWindow(window, false, false, min, max);
+        window = HAConnection.nextTransferWindow(window, false, false, min, max);
+        assertEquals(min, window);
+        window = HAConnection.nextTransferWindow(window, false, true, min, max);
+        assertEquals(min, window);
+    }
+
+
+    @Test
+    public void test_replicate_compressed() throws Exception {
+        this.replicate(CompressionCodecs.ZLIB, 10919);
+    }
+
+
+    @Test
+    public void test_replicate_compression_type_out_of_range() throws Exception {
+        // 3λѹ㷨ѹ䣬SlaveȻ
+        this.replicate(HAConnection.MaxCompressionType + 1, 10921);
+    }
+
+
+    /**
+     * SlaveֹͣڼMasterҪݹ鵵Ӻӹ鵵ݼ
+     */
+    @Test
+    public void test_replicate_from_archive() throws Exception {
+        MessageStoreConfig masterConfig = this.buildConfig("master", BrokerRole.ASYNC_MASTER, 10931);
+        masterConfig.setCommitLogArchiveEnable(true);
+        masterConfig.setCommitLogArchiveKeepFileNums(1);
+        masterConfig.setCommitLogArchiveInterval(100);
+        masterConfig.setCommitLogArchiveBlockSize(1024 * 16);
+        masterConfig.setCommitLogArchiveCompressionType(CompressionCodecs.ZLIB);
+        this.master = new DefaultMessageStore(masterConfig);
+        assertTrue(this.master.load());
+        this.master.start();
+
+        this.putMessages(0, 10);
+        MessageStoreConfig slaveConfig = this.buildConfig("slave", BrokerRole.SLAVE, 10932);
+        this.slave = new DefaultMessageStore(slaveConfig);
+        assertTrue(this.slave.load());
+        this.slave.updateHaMasterAddress("127.0.0.1:10931");
+        this.slave.start();
+        this.waitSlaveCatchUp();
+        long slaveOffset = this.slave.getMaxPhyOffset();
+        this.slave.shutdown();
+        this.slave = null;
+
+        this.putMessages(10, 600);
+        long deadline = System.currentTimeMillis() + 1000 * 30;
+        while (!this.master.getCommitLog().getArchiveStore().contains(slaveOffset)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(this.master.getCommitLog().getArchiveStore().contains(slaveOffset));
+        assertNull(this.master.getCommitLog().getMapedFileQueue().findMapedFileByOffset(slaveOffset));
+
+        this.slave = new DefaultMessageStore(slaveConfig);
+        assertTrue(this.slave.load());
+        this.slave.updateHaMasterAddress("127.0.0.1:10931");
+        this.slave.start();
+        this.waitSlaveCatchUp();
+        this.checkCommitLog(this.master.getMaxPhyOffset());
+    }
+
+
+    private MessageStoreConfig buildConfig(final String name, final BrokerRole brokerRole,
+            final int haListenPort) {
+        String root = this.storeRoot.getPath() + File.separator + name;
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(root + File.separator + "commitlog");
+        messageStoreConfig.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        messageStoreConfig.setStorePathIndex(root + File.separator + "index");
+        messageStoreConfig.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        messageStoreConfig.setAbortFile(root + File.separator + "storeAbort");
+        messageStoreConfig.setTranStateTableStorePath(root + File.separator + "transaction"
+                + File.separator + "statetable");
+        messageStoreConfig.setTranRedoLogStorePath(root + File.separator + "transaction" + File.separator
+                + "redolog");
+        messageStoreConfig.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        messageStoreConfig.setStorePathTimerLog(root + File.separator + "timerlog");
+        messageStoreConfig.setTimerWheelPath(root + File.separator + "timerwheel");
+        messageStoreConfig.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        messageStoreConfig.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        messageStoreConfig.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 256);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setBrokerRole(brokerRole);
+        messageStoreConfig.setHaListenPort(haListenPort);
+        return messageStoreConfig;
+    }
+
+
+    /**
+     * MasterдѹϢSlave׷ϺߵCommitLogȫһ
+     */
+    private void replicate(final int compressionType, final int haListenPort) throws Exception {
+        MessageStoreConfig masterConfig = this.buildConfig("master", BrokerRole.ASYNC_MASTER, haListenPort);
+        // 䴰ڽСݷֳɶݿ鴫䣬ڻѹ
+        masterConfig.setHaTransferBatchSize(1024 * 4);
+        masterConfig.setHaTransferBatchSizeMax(1024 * 64);
+        masterConfig.setHaTransferCompressionType(compressionType);
+        this.master = new DefaultMessageStore(masterConfig);
+        assertTrue(this.master.load());
+        this.master.start();
+
+        // µSlaveMasterһļʼƣڵһļдϢ
+        this.putMessages(0, 10);
+        this.slave = new DefaultMessageStore(this.buildConfig("slave", BrokerRole.SLAVE, haListenPort + 1));
+        assertTrue(this.slave.load());
+        this.slave.start();
+        this.slave.updateHaMasterAddress("127.0.0.1:" + haListenPort);
+        this.waitSlaveCatchUp();
+        assertEquals(0, this.slave.getCommitLog().getMinOffset());
+
+        this.putMessages(10, 600);
+        long masterMaxOffset = this.master.getMaxPhyOffset();
+        assertTrue(masterMaxOffset > masterConfig.getMapedFileSizeCommitLog() * 2);
+        this.waitSlaveCatchUp();
+        this.checkCommitLog(masterMaxOffset);
+    }
+
+
+    /**
+     * ߵCommitLogȫһ
+     */
+    private void checkCommitLog(final long masterMaxOffset) {
+        long offset = 0;
+        while (offset < masterMaxOffset) {
+            SelectMapedBufferResult masterData = this.master.getCommitLogData(offset);
+            SelectMapedBufferResult slaveData = this.slave.getCommitLogData(offset);
+            assertNotNull(masterData);
+            assertNotNull(slaveData);
+            try {
+                int size = Math.min(masterData.getSize(), slaveData.getSize());
+                assertTrue(size > 0);
+                byte[] expected = new byte[size];
+                byte[] actual = new byte[size];
+                masterData.getByteBuffer().get(expected);
+                slaveData.getByteBuffer().get(actual);
+                assertArrayEquals(expected, actual);
+                offset += size;
+            }
+            finally {
+                masterData.release();
+                slaveData.release();
+            }
+        }
+    }
+
+
+    private void putMessages(final int from, final int to) throws Exception {
+        InetSocketAddress host = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            body.append((char) ('A' + i % 8));
+        }
+        for (int i = from; i < to; i++) {
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic("HAConnectionTest");
+            msg.setBody((i + body.toString()).getBytes());
+            msg.setQueueId(i % 4);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(host);
+            msg.setBornHost(host);
+            PutMessageResult result = this.master.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+        }
+    }
+
+
+    private void waitSlaveCatchUp() throws InterruptedException {
+        long masterMaxOffset = this.master.getMaxPhyOffset();
+        long deadline = System.currentTimeMillis() + 1000 * 30;
+        while (this.slave.getMaxPhyOffset() < masterMaxOffset && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(masterMaxOffset, this.slave.getMaxPhyOffset());
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
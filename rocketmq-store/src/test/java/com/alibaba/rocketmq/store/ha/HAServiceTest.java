@@ -0,0 +1,293 @@
+package com.alibaba.rocketmq.store.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.store.CommitLog.GroupCommitRequest;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.config.BrokerRole;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class HAServiceTest {
+    private DefaultMessageStore messageStore;
+    // ص˳ʾɹʾʧ
+    private final List<Long> completed = new ArrayList<Long>();
+    private final File slaveRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "HAServiceTest_" + System.nanoTime());
+    private final List<DefaultMessageStore> slaves = new ArrayList<DefaultMessageStore>();
+
+
+    @Before
+    public void setUp() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setBrokerRole(BrokerRole.SYNC_MASTER);
+        messageStoreConfig.setSyncFlushTimeout(300);
+        messageStoreConfig.setHaListenPort(10916);
+
+        this.messageStore = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(this.messageStore.load());
+        this.messageStore.start();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        for (DefaultMessageStore slave : this.slaves) {
+            slave.shutdown();
+        }
+        this.messageStore.shutdown();
+        this.messageStore.destroy();
+        deleteDir(this.slaveRoot);
+    }
+
+
+    private GroupCommitRequest buildRequest(final long nextOffset) {
+        return this.messageStore.getCommitLog().new GroupCommitRequest(nextOffset) {
+            @Override
+            protected void onComplete(final boolean transferOK) {
+                synchronized (HAServiceTest.this.completed) {
+                    HAServiceTest.this.completed.add(transferOK ? nextOffset : -nextOffset);
+                }
+            }
+        };
+    }
+
+
+    @Test
+    public void test_transfer_timeout() throws Exception {
+        this.messageStore.getHaService().putRequest(this.buildRequest(1000));
+
+        // ûSlaveȷϣʱ֮ǰص
+        Thread.sleep(100);
+        synchronized (this.completed) {
+            assertTrue(this.completed.isEmpty());
+        }
+
+        long deadline = System.currentTimeMillis() + 3000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (this.completed) {
+                if (!this.completed.isEmpty()) {
+                    break;
+                }
+            }
+            Thread.sleep(20);
+        }
+
+        synchronized (this.completed) {
+            assertEquals(1, this.completed.size());
+            assertEquals(Long.valueOf(-1000), this.completed.get(0));
+        }
+    }
+
+
+    @Test
+    public void test_notify_transfer_some_in_offset_order() throws Exception {
+        // δķ񲻻ᴦʱֻ֤ȷ˳
+        HAService.GroupTransferService service =
+                this.messageStore.getHaService().new GroupTransferService();
+
+        // ʱѾȷϹص
+        service.putRequest(this.buildRequest(0));
+        assertEquals(1, this.completed.size());
+
+        service.putRequest(this.buildRequest(300));
+        service.putRequest(this.buildRequest(100));
+        service.putRequest(this.buildRequest(200));
+        service.putRequest(this.buildRequest(100));
+
+        service.notifyTransferSome(150);
+        assertEquals(3, this.completed.size());
+        assertEquals(Long.valueOf(100), this.completed.get(1));
+        assertEquals(Long.valueOf(100), this.completed.get(2));
+
+        // ȷλû˲Ӱѻѵ
+        service.notifyTransferSome(50);
+        assertEquals(3, this.completed.size());
+
+        service.notifyTransferSome(300);
+        assertEquals(5, this.completed.size());
+        assertEquals(Long.valueOf(200), this.completed.get(3));
+        assertEquals(Long.valueOf(300), this.completed.get(4));
+    }
+
+
+    @Test
+    public void test_blocking_put_without_slave() throws Exception {
+        // ддͬһ̣ûSlaveʱ
+        PutMessageResult result = this.messageStore.putMessage(buildMessage());
+        assertEquals(PutMessageStatus.SLAVE_NOT_AVAILABLE, result.getPutMessageStatus());
+        assertTrue(result.getAppendMessageResult().isOk());
+    }
+
+
+    @Test
+    public void test_compute_quorum_offset() {
+        // 
+        assertEquals(-1, HAService.computeQuorumOffset(new long[0], 1));
+        assertEquals(-1, HAService.computeQuorumOffset(new long[] { 100, 200 }, 3));
+
+        // quorumȷλã˳޹
+        long[] ackOffsets = { 300, -1, 500, 100, 400 };
+        assertEquals(500, HAService.computeQuorumOffset(ackOffsets, 1));
+        assertEquals(400, HAService.computeQuorumOffset(ackOffsets, 2));
+        assertEquals(300, HAService.computeQuorumOffset(ackOffsets, 3));
+        assertEquals(100, HAService.computeQuorumOffset(ackOffsets, 4));
+        // ûȷϵSlaveͽ
+        assertEquals(-1, HAService.computeQuorumOffset(ackOffsets, 5));
+        // ޸Ĵ
+        assertEquals(300, ackOffsets[0]);
+        assertEquals(-1, ackOffsets[1]);
+
+        // ȷλͬSlave
+        assertEquals(200, HAService.computeQuorumOffset(new long[] { 200, 200, 100 }, 2));
+    }
+
+
+    @Test
+    public void test_count_in_sync_slaves() {
+        long[] ackOffsets = { 1000, -1, 900, 100, 1000 };
+        // δȷ󳬹fallbehindMaxSlave
+        assertEquals(3, HAService.countInSyncSlaves(ackOffsets, 1000, 200));
+        assertEquals(2, HAService.countInSyncSlaves(ackOffsets, 1000, 100));
+        assertEquals(4, HAService.countInSyncSlaves(ackOffsets, 1000, 1000));
+        assertEquals(0, HAService.countInSyncSlaves(ackOffsets, 5000, 1000));
+        assertEquals(0, HAService.countInSyncSlaves(new long[0], 1000, 1000));
+    }
+
+
+    @Test
+    public void test_quorum_with_two_slaves() throws Exception {
+        MessageStoreConfig masterConfig = this.messageStore.getMessageStoreConfig();
+        masterConfig.setSyncFlushTimeout(1000 * 3);
+        masterConfig.setHaSyncAckQuorum(2);
+        HAService haService = this.messageStore.getHaService();
+
+        // һSlaveϺȻȷ
+        this.startSlave(0, 10925);
+        this.waitConnectionCount(1);
+        assertFalse(haService.isSlaveOK(this.messageStore.getMaxPhyOffset()));
+        assertEquals(PutMessageStatus.SLAVE_NOT_AVAILABLE, this.messageStore.putMessage(buildMessage())
+            .getPutMessageStatus());
+
+        this.startSlave(1, 10926);
+        this.waitConnectionCount(2);
+        long deadline = System.currentTimeMillis() + 1000 * 10;
+        while (!haService.isSlaveOK(this.messageStore.getMaxPhyOffset())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        // SlaveȷϺ󷵻
+        for (int i = 0; i < 10; i++) {
+            PutMessageResult result = this.messageStore.putMessage(buildMessage());
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            for (DefaultMessageStore slave : this.slaves) {
+                assertTrue(slave.getMaxPhyOffset() >= this.messageStore.getMaxPhyOffset());
+            }
+        }
+        assertEquals(String.valueOf(this.messageStore.getMaxPhyOffset()), haService.getRuntimeInfo().get(
+            "haQuorumOffset"));
+
+        // ȷSlaveֱӷSlave
+        masterConfig.setHaSyncAckQuorum(3);
+        assertEquals(PutMessageStatus.SLAVE_NOT_AVAILABLE, this.messageStore.putMessage(buildMessage())
+            .getPutMessageStatus());
+
+        // һSlaveϿʣµSlaveȷ1
+        this.slaves.remove(1).shutdown();
+        this.waitConnectionCount(1);
+        masterConfig.setHaSyncAckQuorum(2);
+        assertEquals(PutMessageStatus.SLAVE_NOT_AVAILABLE, this.messageStore.putMessage(buildMessage())
+            .getPutMessageStatus());
+        masterConfig.setHaSyncAckQuorum(1);
+        assertEquals(PutMessageStatus.PUT_OK, this.messageStore.putMessage(buildMessage())
+            .getPutMessageStatus());
+    }
+
+
+    private void startSlave(final int index, final int haListenPort) throws Exception {
+        String root = this.slaveRoot.getPath() + File.separator + index;
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(root + File.separator + "commitlog");
+        messageStoreConfig.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        messageStoreConfig.setStorePathIndex(root + File.separator + "index");
+        messageStoreConfig.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        messageStoreConfig.setAbortFile(root + File.separator + "storeAbort");
+        messageStoreConfig.setTranStateTableStorePath(root + File.separator + "transaction"
+                + File.separator + "statetable");
+        messageStoreConfig.setTranRedoLogStorePath(root + File.separator + "transaction" + File.separator
+                + "redolog");
+        messageStoreConfig.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        messageStoreConfig.setStorePathTimerLog(root + File.separator + "timerlog");
+        messageStoreConfig.setTimerWheelPath(root + File.separator + "timerwheel");
+        messageStoreConfig.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        messageStoreConfig.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        messageStoreConfig.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setBrokerRole(BrokerRole.SLAVE);
+        messageStoreConfig.setHaListenPort(haListenPort);
+
+        DefaultMessageStore slave = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(slave.load());
+        // ǰMasterַ
+        slave.updateHaMasterAddress("127.0.0.1:"
+                + this.messageStore.getMessageStoreConfig().getHaListenPort());
+        slave.start();
+        this.slaves.add(slave);
+    }
+
+
+    private void waitConnectionCount(final int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000 * 10;
+        while (this.messageStore.getHaService().getConnectionCount().get() != count
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, this.messageStore.getHaService().getConnectionCount().get());
+    }
+
+
+    private static MessageExtBrokerInner buildMessage() throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic("HAServiceTest");
+        msg.setBody("Once, there was a chance for me!".getBytes());
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        msg.setBornHost(new InetSocketAddress(InetAddress.getByName("10.232.102.184"), 0));
+        return msg;
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
@@ -3,24 +3,48 @@
  */
 package com.alibaba.rocketmq.store.index;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.After;
 import org.junit.Test;
 
 
 public class IndexFileTest {
     private final int hashSlotNum = 100;
     private final int indexNum = 400;
+    private final File storeDir = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "IndexFileTest_" + System.nanoTime());
+
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = this.storeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.storeDir.delete();
+    }
+
+
+    private String fileName(final String name) {
+        return new File(this.storeDir, name).getPath();
+    }
 
 
     @Test
     public void test_put_index() {
         try {
-            IndexFile indexFile = new IndexFile("100", hashSlotNum, indexNum, 0, 0);
+            IndexFile indexFile = new IndexFile(this.fileName("100"), hashSlotNum, indexNum, 0, 0);
 
             // д
             for (long i = 0; i < (indexNum - 1); i++) {
@@ -45,7 +69,7 @@ public class IndexFileTest {
     @Test
     public void test_put_get_index() {
         try {
-            IndexFile indexFile = new IndexFile("200", hashSlotNum, indexNum, 0, 0);
+            IndexFile indexFile = new IndexFile(this.fileName("200"), hashSlotNum, indexNum, 0, 0);
 
             // д
             for (long i = 0; i < (indexNum - 1); i++) {
@@ -59,7 +83,7 @@ public class IndexFileTest {
 
             // 
             final List<Long> phyOffsets = new ArrayList<Long>();
-            indexFile.selectPhyOffset(phyOffsets, "60", 10, 0, Long.MAX_VALUE, true);
+            indexFile.selectPhyOffset(phyOffsets, "60", 10, 0, Long.MAX_VALUE);
             for (Long offset : phyOffsets) {
                 System.out.println(offset);
             }
@@ -74,4 +98,104 @@ public class IndexFileTest {
             assertTrue(false);
         }
     }
+
+
+    /**
+     * ߳д룬߳ͬʱѯѾдKeyÿζܲ鵽ȷλ
+     */
+    @Test
+    public void test_put_get_index_concurrently() throws Exception {
+        final int keyNum = 20000;
+        final IndexFile indexFile =
+                new IndexFile(this.fileName("300"), keyNum / 4, keyNum + 1, 0, System.currentTimeMillis());
+        // ѾдɵKey
+        final AtomicInteger written = new AtomicInteger(0);
+        final AtomicInteger missed = new AtomicInteger(0);
+        final AtomicInteger queried = new AtomicInteger(0);
+
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random();
+                    while (written.get() < keyNum) {
+                        int count = written.get();
+                        if (count == 0) {
+                            continue;
+                        }
+
+                        int i = random.nextInt(count);
+                        List<Long> phyOffsets = new ArrayList<Long>();
+                        indexFile.selectPhyOffset(phyOffsets, "TopicTest#key_" + i, 32, 0, Long.MAX_VALUE);
+                        if (!phyOffsets.contains(Long.valueOf(i))) {
+                            missed.incrementAndGet();
+                        }
+                        queried.incrementAndGet();
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        long storeTimestamp = System.currentTimeMillis();
+        for (int i = 0; i < keyNum; i++) {
+            assertTrue(indexFile.putKey("TopicTest#key_" + i, i, storeTimestamp));
+            written.incrementAndGet();
+        }
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(0, missed.get());
+        assertTrue(queried.get() > 0);
+        assertTrue(indexFile.isWriteFull());
+
+        // дɺȫKeyܲ鵽
+        for (int i = 0; i < keyNum; i++) {
+            List<Long> phyOffsets = new ArrayList<Long>();
+            indexFile.selectPhyOffset(phyOffsets, "TopicTest#key_" + i, 32, 0, Long.MAX_VALUE);
+            assertTrue(phyOffsets.contains(Long.valueOf(i)));
+        }
+
+        indexFile.destroy(0);
+    }
+
+
+    @Test
+    public void test_bloom_filter() throws Exception {
+        IndexFile indexFile = new IndexFile(this.fileName("400"), hashSlotNum, indexNum, 0, 0);
+        for (long i = 0; i < (indexNum - 1); i++) {
+            assertTrue(indexFile.putKey(Long.toString(i), i, System.currentTimeMillis()));
+        }
+
+        indexFile.buildBloomFilter(8);
+        assertTrue(indexFile.hasBloomFilter());
+
+        // дKeyһܲ鵽
+        List<Long> phyOffsets = new ArrayList<Long>();
+        indexFile.selectPhyOffset(phyOffsets, "60", 10, 0, Long.MAX_VALUE);
+        assertFalse(phyOffsets.isEmpty());
+
+        // ¼غȻЧ
+        IndexBloomFilter filter = IndexBloomFilter.load(indexFile.getBloomFileName());
+        assertTrue(filter != null);
+        final int probeNum = 10000;
+        int falsePositive = 0;
+        for (int i = 0; i < probeNum; i++) {
+            assertTrue(filter.mightContain(Long.toString(i % (indexNum - 1)).hashCode()));
+            if (filter.mightContain(("missing_" + i).hashCode())) {
+                falsePositive++;
+            }
+        }
+
+        // ÿKey 8λ6ϣԼ2.2%
+        assertTrue("false positive " + falsePositive + "/" + probeNum, falsePositive < probeNum * 5 / 100);
+        filter.destroy();
+
+        indexFile.destroy(0);
+        assertFalse(new File(indexFile.getBloomFileName()).exists());
+    }
 }
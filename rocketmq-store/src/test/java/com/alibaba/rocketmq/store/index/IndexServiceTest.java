@@ -0,0 +1,333 @@
+package com.alibaba.rocketmq.store.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.QueryMessageResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class IndexServiceTest {
+    private static final String Topic = "IndexServiceTest";
+    private static final int ShardNums = 4;
+    private static final int MessageNums = 200;
+    private static final int SharedKeyNums = 30;
+
+    private final File storeRoot = new File(System.getProperty("java.io.tmpdir") + File.separator
+            + "IndexServiceTest_" + System.nanoTime());
+    private MessageStoreConfig messageStoreConfig;
+    private DefaultMessageStore messageStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        String root = this.storeRoot.getPath();
+        this.messageStoreConfig = new MessageStoreConfig();
+        this.messageStoreConfig.setStorePathCommitLog(root + File.separator + "commitlog");
+        this.messageStoreConfig.setStorePathConsumeQueue(root + File.separator + "consumequeue");
+        this.messageStoreConfig.setStorePathIndex(root + File.separator + "index");
+        this.messageStoreConfig.setStoreCheckpoint(root + File.separator + "storeCheckpoint");
+        this.messageStoreConfig.setAbortFile(root + File.separator + "storeAbort");
+        this.messageStoreConfig.setTranStateTableStorePath(root + File.separator + "transaction"
+                + File.separator + "statetable");
+        this.messageStoreConfig.setTranRedoLogStorePath(root + File.separator + "transaction"
+                + File.separator + "redolog");
+        this.messageStoreConfig.setDelayOffsetStorePath(root + File.separator + "config" + File.separator
+                + "delayOffset.json");
+        this.messageStoreConfig.setStorePathTimerLog(root + File.separator + "timerlog");
+        this.messageStoreConfig.setTimerWheelPath(root + File.separator + "timerwheel");
+        this.messageStoreConfig.setTimerCheckpointPath(root + File.separator + "config" + File.separator
+                + "timerCheckpoint.json");
+        this.messageStoreConfig.setStorePathCommitLogTiered(root + File.separator + "commitlog_tiered");
+        this.messageStoreConfig.setStorePathCommitLogArchive(root + File.separator + "commitlog_archive");
+        this.messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        // ļСÿƬдлļ
+        this.messageStoreConfig.setMaxHashSlotNum(16);
+        this.messageStoreConfig.setMaxIndexNum(32);
+        this.messageStoreConfig.setIndexShardNums(ShardNums);
+        this.messageStoreConfig.setHaListenPort(10924);
+
+        this.messageStore = this.startStore();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.messageStore != null) {
+            this.messageStore.shutdown();
+            this.messageStore.destroy();
+        }
+        deleteDir(this.storeRoot);
+    }
+
+
+    private DefaultMessageStore startStore() throws Exception {
+        DefaultMessageStore store = new DefaultMessageStore(this.messageStoreConfig);
+        assertTrue(store.load());
+        store.start();
+        return store;
+    }
+
+
+    @Test
+    public void test_shard_of() {
+        IndexService indexService = new IndexService(this.messageStore);
+        int[] keyNums = new int[ShardNums];
+        for (int i = 0; i < 10000; i++) {
+            String indexKey = IndexService.buildKey(Topic, "Key_" + i);
+            int shard = indexService.shardOf(indexKey);
+            assertTrue(shard >= 0 && shard < ShardNums);
+            // ͬһKeyͬһƬ
+            assertEquals(shard, indexService.shardOf(IndexService.buildKey(Topic, "Key_" + i)));
+            keyNums[shard]++;
+        }
+
+        // KeyȷֲڸƬ
+        for (int keyNum : keyNums) {
+            assertTrue(String.valueOf(keyNum), keyNum > 10000 / ShardNums * 8 / 10
+                    && keyNum < 10000 / ShardNums * 12 / 10);
+        }
+
+        // ֻһƬʱϣ
+        this.messageStoreConfig.setIndexShardNums(1);
+        indexService = new IndexService(this.messageStore);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, indexService.shardOf(IndexService.buildKey(Topic, "Key_" + i)));
+        }
+        this.messageStoreConfig.setIndexShardNums(ShardNums);
+    }
+
+
+    @Test
+    public void test_query_across_shards() throws Exception {
+        long[] offsets = this.putMessages();
+        this.waitIndexBuilt();
+
+        // ÿƬԼļ
+        for (int i = 0; i < ShardNums; i++) {
+            String[] files =
+                    new File(this.messageStoreConfig.getStorePathIndex() + File.separator + i).list();
+            assertTrue(files != null && files.length > 1);
+        }
+
+        this.checkQuery(offsets);
+
+        // ӸƬĿ¼
+        this.messageStore.shutdown();
+        this.messageStore = this.startStore();
+        this.checkQuery(offsets);
+    }
+
+
+    @Test
+    public void test_checkpoint_after_restart() throws Exception {
+        long[] offsets = this.putMessages();
+        this.waitIndexBuilt();
+
+        // ÿƬдļдļ첽ˢ̺ƽ
+        IndexService indexService = this.messageStore.getIndexService();
+        long deadline = System.currentTimeMillis() + 1000 * 10;
+        long[] shardTimestamps = new long[ShardNums];
+        for (int i = 0; i < ShardNums; i++) {
+            while (indexService.getIndexMsgTimestamp(i) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            shardTimestamps[i] = indexService.getIndexMsgTimestamp(i);
+            assertTrue(shardTimestamps[i] > 0);
+        }
+        long checkpoint = this.messageStore.getStoreCheckpoint().getIndexMsgTimestamp();
+        assertTrue(checkpoint > 0);
+
+        // Ƭдļָʱ䣬㲻˻ص0
+        this.messageStore.shutdown();
+        this.messageStore = this.startStore();
+        indexService = this.messageStore.getIndexService();
+        for (int i = 0; i < ShardNums; i++) {
+            assertEquals(shardTimestamps[i], indexService.getIndexMsgTimestamp(i));
+        }
+        assertEquals(checkpoint, this.messageStore.getStoreCheckpoint().getIndexMsgTimestamp());
+
+        // 쳣֮ǰдļCommitLogؽ
+        this.messageStore.shutdown();
+        assertTrue(new File(this.messageStoreConfig.getAbortFile()).createNewFile());
+        this.messageStore = this.startStore();
+        int indexFileNums = 0;
+        for (int i = 0; i < ShardNums; i++) {
+            String[] files =
+                    new File(this.messageStoreConfig.getStorePathIndex() + File.separator + i).list();
+            indexFileNums += files != null ? files.length : 0;
+        }
+        assertTrue(indexFileNums > 0);
+        // ɾ˼֮ļķƬ˻صдļؽʱܱС
+        // ᳬ֮ǰֵҲ˻ص0
+        long checkpointAfterAbort = this.messageStore.getStoreCheckpoint().getIndexMsgTimestamp();
+        assertTrue(checkpointAfterAbort > 0 && checkpointAfterAbort <= checkpoint);
+
+        this.waitIndexBuilt();
+        this.checkQuery(offsets);
+    }
+
+
+    @Test
+    public void test_bloom_filter_after_upgrade() throws Exception {
+        long[] offsets = this.putMessages();
+        this.waitIndexBuilt();
+
+        // ÿƬһļļд첽ɹ
+        long deadline = System.currentTimeMillis() + 1000 * 10;
+        while (this.listBloomFiles().size() < this.listIndexFiles().size() - ShardNums
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        this.messageStore.shutdown();
+        List<File> bloomFiles = this.listBloomFiles();
+        assertTrue(bloomFiles.size() > 0);
+
+        // ģǰдļûйʱ
+        for (File file : bloomFiles) {
+            assertTrue(file.delete());
+        }
+        this.messageStore = this.startStore();
+        assertTrue(this.listBloomFiles().size() >= bloomFiles.size());
+        for (File file : bloomFiles) {
+            assertTrue(file.getPath(), file.exists());
+        }
+
+        this.checkQuery(offsets);
+    }
+
+
+    private List<File> listIndexFiles() {
+        List<File> result = new ArrayList<File>();
+        for (int i = 0; i < ShardNums; i++) {
+            File[] files =
+                    new File(this.messageStoreConfig.getStorePathIndex() + File.separator + i).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.getName().endsWith(IndexBloomFilter.FILE_SUFFIX)) {
+                        result.add(file);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    private List<File> listBloomFiles() {
+        List<File> result = new ArrayList<File>();
+        for (File file : this.listIndexFiles()) {
+            File bloomFile = new File(file.getPath() + IndexBloomFilter.FILE_SUFFIX);
+            if (bloomFile.exists()) {
+                result.add(bloomFile);
+            }
+        }
+
+        return result;
+    }
+
+
+    private long[] putMessages() throws Exception {
+        InetSocketAddress host = new InetSocketAddress(InetAddress.getLocalHost(), 8123);
+        long[] offsets = new long[MessageNums];
+        for (int i = 0; i < MessageNums; i++) {
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic(Topic);
+            msg.setBody(("Body_" + i).getBytes());
+            // һϢĶKeyֲڲͬķƬ
+            msg.setKeys(i < SharedKeyNums ? "Key_" + i + " Shared" : "Key_" + i);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            msg.setQueueId(i % 4);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(host);
+            msg.setBornHost(host);
+            PutMessageResult result = this.messageStore.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            offsets[i] = result.getAppendMessageResult().getWroteOffset();
+        }
+
+        return offsets;
+    }
+
+
+    /**
+     * ƬȴÿƬ
+     */
+    private void waitIndexBuilt() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000 * 10;
+        for (int i = 0; i < MessageNums; i++) {
+            while (this.query("Key_" + i).isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        }
+    }
+
+
+    private void checkQuery(final long[] offsets) {
+        for (int i = 0; i < MessageNums; i++) {
+            Set<Long> result = this.query("Key_" + i);
+            assertEquals("Key_" + i, 1, result.size());
+            assertTrue(result.contains(offsets[i]));
+        }
+
+        Set<Long> shared = this.query("Shared");
+        assertEquals(SharedKeyNums, shared.size());
+        for (int i = 0; i < SharedKeyNums; i++) {
+            assertTrue(shared.contains(offsets[i]));
+        }
+
+        assertTrue(this.query("Key_" + MessageNums).isEmpty());
+    }
+
+
+    private Set<Long> query(final String key) {
+        Set<Long> offsets = new HashSet<Long>();
+        QueryMessageResult result = this.messageStore.queryMessage(Topic, key, 32, 0, Long.MAX_VALUE);
+        try {
+            for (ByteBuffer byteBuffer : result.getMessageBufferList()) {
+                MessageExt msg = MessageDecoder.decode(byteBuffer);
+                assertTrue(msg.getKeys().contains(key));
+                offsets.add(msg.getCommitLogOffset());
+            }
+        }
+        finally {
+            result.release();
+        }
+
+        return offsets;
+    }
+
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+}
@@ -3,22 +3,36 @@
  */
 package com.alibaba.rocketmq.store.schedule;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.store.DefaultMessageStore;
 import com.alibaba.rocketmq.store.GetMessageResult;
+import com.alibaba.rocketmq.store.GetMessageStatus;
 import com.alibaba.rocketmq.store.MessageExtBrokerInner;
 import com.alibaba.rocketmq.store.MessageStore;
 import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 
 
@@ -126,4 +140,196 @@ public class ScheduleMessageTest {
         master.destroy();
         System.out.println("================================================================");
     }
+
+
+    private static DefaultMessageStore startStore() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 16);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setMaxMessageSize(1024 * 4);
+        messageStoreConfig.setHaListenPort(10917);
+        // destroyɾʱȣͶλ
+        new File(messageStoreConfig.getDelayOffsetStorePath()).delete();
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(master.load());
+        master.start();
+        return master;
+    }
+
+
+    private static MessageExtBrokerInner buildMessage(final String topic, final int queueId,
+            final byte[] body) {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(topic);
+        msg.setTags("TAG1");
+        msg.setKeys("KEY1");
+        msg.putProperty("UserKey", "UserValue");
+        msg.setBody(body);
+        msg.setQueueId(queueId);
+        msg.setFlag(7);
+        msg.setReconsumeTimes(2);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(StoreHost);
+        msg.setBornHost(BornHost);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        return msg;
+    }
+
+
+    private static MessageExt readOne(final DefaultMessageStore master, final String topic,
+            final int queueId) {
+        GetMessageResult result = master.getMessage(topic, queueId, 0, 32, null);
+        if (null == result || result.getStatus() != GetMessageStatus.FOUND) {
+            return null;
+        }
+
+        try {
+            assertEquals(1, result.getMessageCount());
+            return MessageDecoder.decode(result.getMessageBufferList().get(0));
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    /**
+     * ߼첽ȴOffsetﵽֵ
+     */
+    private static long waitMaxOffset(final DefaultMessageStore master, final String topic,
+            final int queueId, final long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (System.currentTimeMillis() < deadline
+                && master.getMaxOffsetInQuque(topic, queueId) < expected) {
+            Thread.sleep(50);
+        }
+
+        return master.getMaxOffsetInQuque(topic, queueId);
+    }
+
+
+    @Test
+    public void test_message_timeup_round_trip() throws Exception {
+        DefaultMessageStore master = startStore();
+        try {
+            MessageExtBrokerInner msg = buildMessage("TOPIC_ROUND_TRIP", 3, StoreMessage.getBytes());
+            msg.setDelayTimeLevel(18);
+            PutMessageResult putResult = master.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, putResult.getPutMessageStatus());
+
+            SelectMapedBufferResult stored =
+                    master.getCommitLog().getMessage(putResult.getAppendMessageResult().getWroteOffset(),
+                        putResult.getAppendMessageResult().getWroteBytes());
+            MessageExt decoded;
+            MessageExtBrokerInner timeup;
+            try {
+                decoded = MessageDecoder.decode(stored.getByteBuffer().duplicate());
+                timeup = ScheduleMessageService.messageTimeup(stored.getByteBuffer().duplicate());
+            }
+            finally {
+                stored.release();
+            }
+
+            // 洢ʱ·ɵ˶ʱTopicںָʵTopicֶһ
+            assertEquals(ScheduleMessageService.SCHEDULE_TOPIC, decoded.getTopic());
+            assertEquals("TOPIC_ROUND_TRIP", timeup.getTopic());
+            assertEquals(3, timeup.getQueueId());
+            assertArrayEquals(decoded.getBody(), timeup.getBody());
+            assertEquals(decoded.getBodyCRC(), timeup.getBodyCRC());
+            assertEquals(decoded.getFlag(), timeup.getFlag());
+            assertEquals(decoded.getSysFlag(), timeup.getSysFlag());
+            assertEquals(decoded.getBornTimestamp(), timeup.getBornTimestamp());
+            assertEquals(decoded.getBornHost(), timeup.getBornHost());
+            assertEquals(decoded.getStoreHost(), timeup.getStoreHost());
+            assertEquals(decoded.getReconsumeTimes(), timeup.getReconsumeTimes());
+
+            Map<String, String> expected = new HashMap<String, String>(decoded.getProperties());
+            expected.remove(Message.PROPERTY_DELAY_TIME_LEVEL);
+            // Ͷʱȴˢ
+            expected.put(Message.PROPERTY_WAIT_STORE_MSG_OK, "false");
+            assertEquals(expected, timeup.getProperties());
+            assertEquals(MessageDecoder.messageProperties2String(expected), timeup.getPropertiesString());
+            assertEquals("TAG1".hashCode(), timeup.getTagsCode());
+
+            // д߿ϢԭʼϢһ
+            List<MessageExtBrokerInner> msgs = new ArrayList<MessageExtBrokerInner>();
+            msgs.add(timeup);
+            assertEquals(1, master.putMessages(msgs));
+            assertEquals(1, waitMaxOffset(master, "TOPIC_ROUND_TRIP", 3, 1));
+
+            MessageExt delivered = readOne(master, "TOPIC_ROUND_TRIP", 3);
+            assertEquals("TOPIC_ROUND_TRIP", delivered.getTopic());
+            assertArrayEquals(StoreMessage.getBytes(), delivered.getBody());
+            assertEquals("TAG1", delivered.getTags());
+            assertEquals("KEY1", delivered.getKeys());
+            assertEquals("UserValue", delivered.getProperty("UserKey"));
+            assertNull(delivered.getProperty(Message.PROPERTY_DELAY_TIME_LEVEL));
+        }
+        finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+
+    @Test
+    public void test_put_messages_partial_failure() throws Exception {
+        DefaultMessageStore master = startStore();
+        try {
+            List<MessageExtBrokerInner> msgs = new ArrayList<MessageExtBrokerInner>();
+            msgs.add(buildMessage("TOPIC_PARTIAL", 0, StoreMessage.getBytes()));
+            msgs.add(buildMessage("TOPIC_PARTIAL", 0, StoreMessage.getBytes()));
+            // maxMessageSizeдʧܣϢд
+            msgs.add(buildMessage("TOPIC_PARTIAL", 0, new byte[1024 * 8]));
+            msgs.add(buildMessage("TOPIC_PARTIAL", 0, StoreMessage.getBytes()));
+
+            assertEquals(2, master.putMessages(msgs));
+            assertEquals(2, waitMaxOffset(master, "TOPIC_PARTIAL", 0, 2));
+
+            // ʧܵϢ֮ԣOffset
+            assertEquals(1, master.putMessages(msgs.subList(3, 4)));
+            assertEquals(3, waitMaxOffset(master, "TOPIC_PARTIAL", 0, 3));
+        }
+        finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+
+    @Test
+    public void test_deliver_retry_after_put_failed() throws Exception {
+        DefaultMessageStore master = startStore();
+        try {
+            MessageExtBrokerInner msg = buildMessage("TOPIC_RETRY", 1, StoreMessage.getBytes());
+            msg.setDelayTimeLevel(1);
+            assertEquals(PutMessageStatus.PUT_OK, master.putMessage(msg).getPutMessageStatus());
+            // дʱ߼Ҳ޷д룬ȵȶʱй
+            assertEquals(1, waitMaxOffset(master, ScheduleMessageService.SCHEDULE_TOPIC,
+                ScheduleMessageService.delayLevel2QueueId(1), 1));
+
+            // ʱ洢дͶʧܣͣʧܵϢ
+            master.getRunningFlags().getAndMakeNotWriteable();
+            Thread.sleep(3000);
+            assertNull(readOne(master, "TOPIC_RETRY", 1));
+
+            // ָдԺͶݣֻͶһ
+            master.getRunningFlags().getAndMakeWriteable();
+            long deadline = System.currentTimeMillis() + 1000 * 20;
+            while (System.currentTimeMillis() < deadline && null == readOne(master, "TOPIC_RETRY", 1)) {
+                Thread.sleep(200);
+            }
+
+            MessageExt delivered = readOne(master, "TOPIC_RETRY", 1);
+            assertArrayEquals(StoreMessage.getBytes(), delivered.getBody());
+            Thread.sleep(1000);
+            assertEquals(1, master.getMaxOffsetInQuque("TOPIC_RETRY", 1));
+        }
+        finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
 }
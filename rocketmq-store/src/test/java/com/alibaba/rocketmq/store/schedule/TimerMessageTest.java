@@ -0,0 +1,167 @@
+/**
+ * $Id: TimerMessageTest.java 1831 2013-05-16 01:39:51Z shijia.wxr $
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+public class TimerMessageTest {
+    @Test
+    public void test_timer_message() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 16);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(1000 * 10);
+        messageStoreConfig.setTimerWheelEnable(true);
+        // ʱֻ10룬ԶϢҪ
+        messageStoreConfig.setTimerPrecisionMs(100);
+        messageStoreConfig.setTimerWheelSlotNum(100);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(master.load());
+        master.start();
+
+        final int totalMsgs = 100;
+        final long beginTime = System.currentTimeMillis();
+        for (int i = 0; i < totalMsgs; i++) {
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic("TimerTopic");
+            msg.setTags("TAG1");
+            msg.setBody("Once, there was a chance for me!".getBytes());
+            msg.setQueueId(i % 4);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+            msg.setBornHost(new InetSocketAddress(InetAddress.getLocalHost(), 0));
+            // һϢʱֿ
+            msg.setDeliverTimestamp(beginTime + (i % 2 == 0 ? 2000 : 12000));
+            PutMessageResult result = master.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+        }
+
+        // ǰϢɼ
+        Thread.sleep(1000);
+        assertEquals(0, countMessages(master));
+
+        Thread.sleep(1000 * 3);
+        assertEquals(totalMsgs / 2, countMessages(master));
+
+        Thread.sleep(1000 * 10);
+        assertEquals(totalMsgs, countMessages(master));
+
+        master.shutdown();
+        master.destroy();
+    }
+
+
+    /**
+     * ͶʱͬʱʱֿCommitLogʱ䣬ϢͣڼԭļɾȻܹʱͶ
+     */
+    @Test
+    public void test_timer_message_beyond_retention() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 16);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(1000 * 10);
+        messageStoreConfig.setHaListenPort(10913);
+        messageStoreConfig.setTimerWheelEnable(true);
+        // ʱֻ2
+        messageStoreConfig.setTimerPrecisionMs(100);
+        messageStoreConfig.setTimerWheelSlotNum(20);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(master.load());
+        master.start();
+
+        // CommitLog0λöȡʱҲļ᷵صһļʱϢд0λ
+        master.putMessage(buildMessage("FillerTopic", new byte[64]));
+        final long beginTime = System.currentTimeMillis();
+        MessageExtBrokerInner msg = buildMessage("TimerTopic", new byte[64]);
+        msg.setDeliverTimestamp(beginTime + 10000);
+        PutMessageResult result = master.putMessage(msg);
+        assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+        final long firstOffset = result.getAppendMessageResult().getWroteOffset();
+
+        // ģⱣ4CommitLogдļɾļ
+        while (System.currentTimeMillis() - beginTime < 9500) {
+            for (int i = 0; i < 4; i++) {
+                master.putMessage(buildMessage("FillerTopic", new byte[1024 * 2]));
+            }
+            master.getCommitLog().deleteExpiredFile(4000, 0, 0, false);
+            Thread.sleep(200);
+        }
+
+        // ԭϢڵļѾɾ
+        assertTrue(master.getCommitLog().getMinOffset() > firstOffset);
+        assertEquals(0, master.getMaxOffsetInQuque("TimerTopic", 0));
+
+        Thread.sleep(1500);
+        assertEquals(1, master.getMaxOffsetInQuque("TimerTopic", 0));
+
+        master.shutdown();
+        master.destroy();
+    }
+
+
+    @Test
+    public void test_illegal_deliver_time() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 16);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(1000 * 10);
+        messageStoreConfig.setHaListenPort(10914);
+        messageStoreConfig.setTimerWheelEnable(true);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig);
+        assertTrue(master.load());
+        master.start();
+
+        MessageExtBrokerInner msg = buildMessage("TimerTopic", new byte[64]);
+        msg.putProperty(Message.PROPERTY_DELIVER_TIME, "tomorrow");
+        PutMessageResult result = master.putMessage(msg);
+        assertEquals(PutMessageStatus.MESSAGE_ILLEGAL, result.getPutMessageStatus());
+
+        master.shutdown();
+        master.destroy();
+    }
+
+
+    private static MessageExtBrokerInner buildMessage(final String topic, final byte[] body)
+            throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(topic);
+        msg.setTags("TAG1");
+        msg.setBody(body);
+        msg.setQueueId(0);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        msg.setBornHost(new InetSocketAddress(InetAddress.getLocalHost(), 0));
+        return msg;
+    }
+
+
+    private static long countMessages(final DefaultMessageStore store) {
+        long total = 0;
+        for (int queueId = 0; queueId < 4; queueId++) {
+            total += store.getMaxOffsetInQuque("TimerTopic", queueId);
+        }
+
+        return total;
+    }
+}